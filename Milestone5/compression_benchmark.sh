@@ -0,0 +1,34 @@
+#!/bin/bash
+# Bytes saved vs cpu spent by response compression, on a route point listing & fleet listings
+#
+#   Milestone5/compression_benchmark.sh [http://host:8080/v1] [requests]
+#
+# Creates one ride with 2000 route points and 200 rides, then fetches both listings `requests` times per
+# encoding. Size is what curl downloaded, time the mean total time seen by curl; the deflate cpu per MiB alone
+# is measured by `gradle dataFormatBenchmark`. Run it against a server alone, with ratelimit.enabled=false or
+# the listings get 429s, and compare compression.level settings by restarting.
+
+BASE=${1:-http://localhost:8080/v1}
+REQUESTS=${2:-50}
+
+RIDE=$(curl -s -X POST "$BASE/rides" -d '{"rideType":"ECONOMY","status":"REQUESTED","startLat":37.77,"startLong":-122.41,"endLat":37.33,"endLong":-121.89,"requestTime":1500000000000}' \
+    | sed -n 's/.*"id" *: *"\([^"]*\)".*/\1/p')
+for n in $(seq 0 1999); do
+    curl -s -o /dev/null -X POST "$BASE/rides/$RIDE/routePoints" \
+        -d "{\"lat\":37.$((7700 - n / 2)),\"lng\":-122.$((4100 - n / 2)),\"timestamp\":$((1500000000000 + n * 1000))}"
+done
+for i in $(seq 1 200); do
+    curl -s -o /dev/null -X POST "$BASE/rides" -d "{\"rideType\":\"ECONOMY\",\"status\":\"REQUESTED\",\"startLat\":37.$((7000 + i)),\"startLong\":-122.$((4000 + i)),\"endLat\":37.3,\"endLong\":-121.9,\"requestTime\":$((1500000000000 + i * 60000))}"
+done
+
+printf "%-40s %-9s %10s %10s %8s\n" listing encoding bytes saved meanMs
+for url in "rides/$RIDE/routePoints" "rides"; do
+    plain=$(curl -s -o /dev/null -w '%{size_download}' "$BASE/$url")
+    for encoding in identity gzip; do
+        for i in $(seq 1 "$REQUESTS"); do
+            curl -s -o /dev/null -w '%{size_download} %{time_total}\n' -H "Accept-Encoding: $encoding" "$BASE/$url"
+        done | awk -v url="${url:0:40}" -v encoding="$encoding" -v plain="$plain" '
+            { size = $1; total += $2 }
+            END { printf "%-40s %-9s %10d %9.1f%% %8.2f\n", url, encoding, size, 100 - size * 100 / plain, total * 1000 / NR }'
+    done
+done
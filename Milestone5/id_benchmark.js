@@ -0,0 +1,71 @@
+// Insert throughput & index size of random (v4) vs time ordered (v7) ids, route point shaped documents
+//
+//   mongo uberapp_bench --eval 'var total = 100000000' Milestone5/id_benchmark.js
+//
+// total defaults to 1,000,000. Run it on the database server, alone, and use a total bigger than the
+// WiredTiger cache to see the effect: random ids keep the whole _id index hot, ordered ids only its last pages.
+
+var total = typeof total === 'undefined' ? 1000000 : total;
+var batchSize = 1000;
+var rideId = UUID();
+
+function hex(value, digits) {
+    var s = value.toString(16);
+    while (s.length < digits) {
+        s = '0' + s;
+    }
+    return s;
+}
+
+function randomHex(digits) {
+    var s = '';
+    for (var i = 0; i < digits; i++) {
+        s += Math.floor(Math.random() * 16).toString(16);
+    }
+    return s;
+}
+
+// same layout as TimeOrderedIds: 48 bits ms, version 7, 12 bits sequence, variant, random
+var lastMillis = 0;
+var sequence = 0;
+function timeOrderedId() {
+    var now = Date.now();
+    if (now <= lastMillis) {
+        sequence++;
+        if (sequence > 0xfff) {
+            lastMillis++;
+            sequence = 0;
+        }
+    } else {
+        lastMillis = now;
+        sequence = 0;
+    }
+    var variant = (8 + Math.floor(Math.random() * 4)).toString(16);
+    return UUID(hex(lastMillis, 12) + '7' + hex(sequence, 3) + variant + randomHex(15));
+}
+
+function randomId() {
+    var variant = (8 + Math.floor(Math.random() * 4)).toString(16);
+    return UUID(randomHex(12) + '4' + randomHex(3) + variant + randomHex(15));
+}
+
+function run(name, nextId) {
+    db[name].drop();
+    db[name].createIndex({rideId: 1, timestamp: 1});
+    var start = Date.now();
+    for (var done = 0; done < total; done += batchSize) {
+        var batch = [];
+        for (var i = 0; i < batchSize && done + i < total; i++) {
+            batch.push({_id: nextId(), lat: 22.11, lng: 11.11, timestamp: Date.now(), rideId: rideId});
+        }
+        db[name].insertMany(batch, {ordered: false});
+    }
+    var seconds = (Date.now() - start) / 1000;
+    var stats = db[name].stats();
+    print(name + ': ' + total + ' inserts in ' + seconds + ' s, ' + Math.round(total / seconds) + ' inserts/s, ' +
+        '_id index ' + Math.round(stats.indexSizes._id_ / 1048576) + ' MB, all indexes ' +
+        Math.round(stats.totalIndexSize / 1048576) + ' MB');
+}
+
+run('routepoint_random', randomId);
+run('routepoint_ordered', timeOrderedId);
@@ -0,0 +1,142 @@
+/**
+ * DataFormatBenchmark: encode/decode throughput & payload size of json vs the binary formats
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.util;
+
+import com.team4.uberapp.ride.Ride;
+import com.team4.uberapp.ride.RoutePoint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A tool of its own source set, not a test: run it alone on a quiet machine with
+ *
+ *   gradle dataFormatBenchmark [-Pseconds=3] [-PwarmUpSeconds=3]
+ *
+ * Each format & operation is first run for warmUpSeconds without being measured, so that the JIT compiled
+ * it, then measured for seconds. The payloads are the two biggest responses of the api, the route of a ride
+ * (2000 points) and a ride list (200 rides), encoded through the same databinding as the routes & decoded the way a client would, to maps;
+ * the gzip column is the size after the response compression at its default level. The next table is the
+ * ingestion side, one POST /rides/:id/routePoints body decoded to a RoutePoint. The last one is the cost of the
+ * response compression of the json payloads per compression.level: the bytes saved and the deflate cpu per MiB.
+ */
+public class DataFormatBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        long millis = (args.length > 0 ? Long.parseLong(args[0]) : 3) * 1000;
+        long warmUpMillis = (args.length > 1 ? Long.parseLong(args[1]) : 3) * 1000;
+        System.out.printf("warm-up %d ms, then measured %d ms, per format & operation%n%n", warmUpMillis, millis);
+        UUID rideId = TimeOrderedIds.next();
+        List<RoutePoint> route = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            RoutePoint point = new RoutePoint(37.7749f + i * 0.0001f, -122.4194f + i * 0.0001f,
+                    1500000000000L + i * 1000L, rideId);
+            point.setId(TimeOrderedIds.next());
+            route.add(point);
+        }
+        List<Ride> rides = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Ride ride = new Ride("ECONOMY", 37.7 + i * 0.001, -122.4 - i * 0.001, 37.3, -121.9,
+                    1500000000000L + i * 60000L, 1500000300000L + i * 60000L, 1500001500000L + i * 60000L,
+                    "CLOSED", 1200 + i, UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+            ride.setId(TimeOrderedIds.next());
+            rides.add(ride);
+        }
+
+        System.out.printf("%-8s %-8s %9s %9s %13s %13s%n", "payload", "format", "bytes", "gzip", "encode/s", "decode/s");
+        run("route", route, warmUpMillis, millis);
+        run("rides", rides, warmUpMillis, millis);
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("lat", 37.7749);
+        body.put("lng", -122.4194);
+        body.put("timestamp", 1500000000000L);
+        System.out.printf("%n%-8s %-8s %9s %13s%n", "payload", "format", "bytes", "decode/s");
+        for (DataFormat format : DataFormat.values()) {
+            byte[] encoded = format.write(body);
+            warmUp(() -> format.read(encoded, RoutePoint.class), warmUpMillis);
+            System.out.printf("%-8s %-8s %9d %13.1f%n", "point", format.name().toLowerCase(), encoded.length,
+                    measure(() -> format.read(encoded, RoutePoint.class), millis));
+        }
+
+        System.out.printf("%n%-8s %-8s %9s %9s %13s%n", "payload", "level", "bytes", "saved", "us/MiB");
+        deflate("route", DataFormat.JSON.write(route), warmUpMillis, millis);
+        deflate("rides", DataFormat.JSON.write(rides), warmUpMillis, millis);
+    }
+
+    private static void deflate(String payload, byte[] json, long warmUpMillis, long millis) throws IOException {
+        for (int level : new int[]{Deflater.BEST_SPEED, 6, Deflater.BEST_COMPRESSION}) {
+            Deflater deflater = new Deflater(level, true);
+            byte[] buffer = new byte[65536];
+            int[] size = new int[1];
+            Operation operation = () -> {
+                deflater.reset();
+                deflater.setInput(json);
+                deflater.finish();
+                size[0] = 0;
+                while (!deflater.finished()) {
+                    size[0] += deflater.deflate(buffer);
+                }
+            };
+            warmUp(operation, warmUpMillis);
+            double deflates = measure(operation, millis);
+            deflater.end();
+            System.out.printf("%-8s %-8d %9d %8.1f%% %13.0f%n", payload, level, size[0],
+                    100 - size[0] * 100.0 / json.length, 1e6 / deflates / (json.length / 1048576.0));
+        }
+    }
+
+    private static void run(String payload, Object data, long warmUpMillis, long millis) throws IOException {
+        for (DataFormat format : DataFormat.values()) {
+            byte[] encoded = format.write(data);
+            warmUp(() -> format.write(data), warmUpMillis);
+            warmUp(() -> format.read(encoded, Object.class), warmUpMillis);
+            double encodes = measure(() -> format.write(data), millis);
+            double decodes = measure(() -> format.read(encoded, Object.class), millis);
+            System.out.printf("%-8s %-8s %9d %9d %13.1f %13.1f%n", payload, format.name().toLowerCase(),
+                    encoded.length, gzipped(encoded), encodes, decodes);
+        }
+    }
+
+    // the same loop as measure, its result thrown away
+    private static void warmUp(Operation operation, long millis) throws IOException {
+        measure(operation, millis);
+    }
+
+    // operations per second
+    private static double measure(Operation operation, long millis) throws IOException {
+        long operations = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1000000;
+        long now;
+        do {
+            operation.run();
+            operations++;
+            now = System.nanoTime();
+        } while (now < end);
+        return operations * 1e9 / (now - start);
+    }
+
+    private static int gzipped(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(data);
+        }
+        return bytes.size();
+    }
+
+    private interface Operation {
+        void run() throws IOException;
+    }
+}
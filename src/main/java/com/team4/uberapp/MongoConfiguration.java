@@ -6,28 +6,161 @@
  */
 package com.team4.uberapp;
 
+import com.mongodb.MongoClient;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.team4.uberapp.persistence.ConnectionPoolMetrics;
+import com.team4.uberapp.persistence.Versions;
+import org.bson.Document;
 import org.mongolink.*;
 import org.mongolink.domain.mapper.ContextBuilder;
+import org.mongolink.domain.mapper.MapperContext;
+import org.mongolink.domain.session.MongoSessionManagerImpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class MongoConfiguration {
 
     public static void stop() {
         Singleton.INSTANCE.mongoSessionManager.close();
+        Singleton.INSTANCE.mongoClient.close();
     }
 
     public static MongoSession createSession() {
         return Singleton.INSTANCE.mongoSessionManager.createSession();
     }
 
+    // database of the shared client, for the streaming reads MongoLink criteria can not do
+    public static MongoDatabase database() {
+        return Singleton.INSTANCE.mongoClient.getDatabase(new Properties().getDatabaseName());
+    }
+
+    // client session of the shared client, for the multi-document transactions MongoLink sessions can not do
+    public static ClientSession startSession() {
+        return Singleton.INSTANCE.mongoClient.startSession();
+    }
+
+    // mapping of the entities, to read & write documents exactly as the sessions do in the bulk writes they can not do
+    public static MapperContext mapperContext() {
+        return ((MongoSessionManagerImpl) Singleton.INSTANCE.mongoSessionManager).getMapperContext();
+    }
+
+    public static ConnectionPoolMetrics poolMetrics() {
+        return Singleton.INSTANCE.poolMetrics;
+    }
+
+    /**
+     * Open connections up front by pinging the database from several threads at once,
+     * so the pool is already filled when the first requests arrive
+     * @param count number of concurrent pings, usually db.pool.minSize
+     * @throws Exception if the database can not be reached
+     */
+    public static void openConnections(int count) throws Exception {
+        final MongoDatabase database = Singleton.INSTANCE.mongoClient.getDatabase(new Properties().getDatabaseName());
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, count));
+        try {
+            List<Future<Document>> pings = new ArrayList<>();
+            for (int i = 0; i < Math.max(1, count); i++) {
+                pings.add(executor.submit(() -> {
+                    start.await();
+                    return database.runCommand(new Document("ping", 1));
+                }));
+            }
+            start.countDown();
+            for (Future<Document> ping : pings) {
+                ping.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // secondary indexes by collection, created by ensureIndexes & checked by the list filters
+    private static final Map<String, List<IndexModel>> INDEXES = new LinkedHashMap<>();
+
+    static {
+        index("ride", "passengerId_requestTime", "passengerId", "requestTime", "_id");
+        index("ride", "driverId_requestTime", "driverId", "requestTime", "_id");
+        index("ride", "requestTime_id", "requestTime", "_id");
+        index("ride", "status_requestTime", "status", "requestTime", "_id");
+        index("rideevent", "node_sequence", "node", "sequence", "_id");
+        index("routepoint", "rideId_timestamp", "rideId", "timestamp");
+        index("routepoint", "storedAt_id", "storedAt", "_id");
+        index("car", "carType_id", "carType", "_id");
+        index("car", "driverId", "driverId");
+        index("driver", "emailAddress", "emailAddress");
+        index("passenger", "emailAddress", "emailAddress");
+        for (String collection : new String[]{"car", "driver", "passenger", "ride"}) {
+            index(collection, Versions.ID_VERSION_INDEX, "_id", "version");
+        }
+    }
+
+    private static void index(String collection, String name, String... keys) {
+        Document index = new Document();
+        for (String key : keys) {
+            index.append(key, 1);
+        }
+        INDEXES.computeIfAbsent(collection, c -> new ArrayList<>()).add(new IndexModel(index, new IndexOptions().name(name)));
+    }
+
+    /**
+     * Keys of the indexes of a collection
+     * @param collection collection name, the lowercase entity class name
+     * @return List<Document> - the _id index, then the secondary indexes, as field & 1
+     */
+    public static List<Document> indexKeys(String collection) {
+        List<Document> keys = new ArrayList<>();
+        keys.add(new Document("_id", 1));
+        for (IndexModel index : INDEXES.getOrDefault(collection, Collections.emptyList())) {
+            keys.add((Document) index.getKeys());
+        }
+        return keys;
+    }
+
+    /**
+     * Create the secondary indexes the queries rely on, a no-op when they already exist
+     * ride history: owner equality, then requestTime & _id so a page is one backward range scan
+     * ride event outbox: node equality, then sequence & _id so the relay reads the oldest events of its node
+     * export: rides by requestTime & _id, route points by rideId & timestamp
+     * eta grid build: route points by storedAt & _id, the incremental reads
+     * conditional GET: _id & version, the version of an entity is read from the index alone
+     * list filters: rides by status then requestTime, cars by carType or driverId
+     * sign up & login: drivers & passengers by emailAddress
+     */
+    public static void ensureIndexes() {
+        MongoDatabase database = database();
+        for (Map.Entry<String, List<IndexModel>> indexes : INDEXES.entrySet()) {
+            database.getCollection(indexes.getKey()).createIndexes(indexes.getValue());
+        }
+    }
+
     private enum Singleton {
 
         INSTANCE;
 
         private Singleton() {
+            Properties properties = new Properties();
             ContextBuilder builder = new ContextBuilder("com.team4.uberapp.persistence.mapping");
-            mongoSessionManager = MongoSessionManager.create(builder, new Properties().addSettings(Settings.defaultInstance()));
+            poolMetrics = new ConnectionPoolMetrics();
+            mongoClient = properties.createMongoClient(poolMetrics);
+            mongoSessionManager = MongoSessionManager.create(builder, properties.addSettings(Settings.defaultInstance(), mongoClient));
+            // single client for the whole process, release its connections when the JVM exits
+            Runtime.getRuntime().addShutdownHook(new Thread(MongoConfiguration::stop, "mongo-shutdown"));
         }
 
+        private final ConnectionPoolMetrics poolMetrics;
+        private final MongoClient mongoClient;
         private final MongoSessionManager mongoSessionManager;
     }
 }
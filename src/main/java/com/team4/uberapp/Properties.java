@@ -7,19 +7,30 @@
 package com.team4.uberapp;
 
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoClientURI;
+import com.mongodb.MongoCompressor;
+import com.mongodb.event.ConnectionPoolListener;
+import org.bson.UuidRepresentation;
 import org.mongolink.Settings;
 
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class Properties {
 
-    public Settings addSettings(Settings settings) {
-        MongoClient mongoClient;
+    /**
+     * Create the MongoClient of the application, pool size, timeouts & compression come from conf.properties
+     * @param poolListener listener receiving connection pool events
+     * @return MongoClient - a new client, the caller is responsible for closing it
+     */
+    public MongoClient createMongoClient(ConnectionPoolListener poolListener) {
         StringBuilder mongoClientURIBuilder = new StringBuilder();
         mongoClientURIBuilder.append("mongodb://");
-        //MongoClientURI mongoClientURI;
         if (!getDBUser().isEmpty() && !getDBPassword().isEmpty()) {
             mongoClientURIBuilder.append(getDBUser() +":" +getDBPassword() + "@");
         }
@@ -31,20 +42,72 @@ public class Properties {
         } else {
             mongoClientURIBuilder.append("localhost:27017");
         }
-        System.out.println(mongoClientURIBuilder.toString());
-        mongoClient = new MongoClient(new MongoClientURI((mongoClientURIBuilder.toString())));
-        //settings.wi
-        if (!getDBName().isEmpty()) {
-            return settings.withDatabase(mongoClient.getDatabase(getDBName()));
-        } else {
-            return settings.withDatabase(mongoClient.getDatabase("uberapp"));
+
+        // the wait queue bound is deprecated in driver 3.12, still applied by its pool
+        @SuppressWarnings("deprecation")
+        MongoClientOptions.Builder options = MongoClientOptions.builder()
+                .applicationName("uberapp")
+                .minConnectionsPerHost(getDBPoolMinSize())
+                .connectionsPerHost(getIntProperty("db.pool.maxSize", 100))
+                .threadsAllowedToBlockForConnectionMultiplier(getIntProperty("db.pool.waitQueueMultiple", 5))
+                .maxWaitTime(getIntProperty("db.pool.maxWaitTime", 2000))
+                .maxConnectionIdleTime(getIntProperty("db.pool.maxIdleTime", 60000))
+                .connectTimeout(getIntProperty("db.connectTimeout", 5000))
+                .socketTimeout(getIntProperty("db.socketTimeout", 10000))
+                .serverSelectionTimeout(getIntProperty("db.serverSelectionTimeout", 5000))
+                .compressorList(getDBCompressors())
+                .uuidRepresentation(getDBUuidRepresentation())
+                .addConnectionPoolListener(poolListener);
+        return new MongoClient(new MongoClientURI(mongoClientURIBuilder.toString(), options));
+    }
+
+    public Settings addSettings(Settings settings, MongoClient mongoClient) {
+        return settings.withDatabase(mongoClient.getDatabase(getDatabaseName()));
+    }
+
+    /**
+     * Database of the sessions & of the direct reads and writes
+     * @return String - db.name, uberapp if not configured
+     */
+    public String getDatabaseName() {
+        String name = getDBName();
+        return name == null || name.trim().isEmpty() ? "uberapp" : name.trim();
+    }
+
+    /**
+     * Binary layout of the UUID fields. STANDARD (subtype 4) keeps the byte order, so time ordered ids sort by
+     * creation time in the indexes. JAVA_LEGACY (subtype 3, the driver default) reverses the bytes of each half;
+     * a database written with it is moved to STANDARD by UuidMigration, the warm-up fails until it is.
+     * @return UuidRepresentation - STANDARD if not configured
+     */
+    public UuidRepresentation getDBUuidRepresentation() {
+        String representation = getProperty("db.uuidRepresentation");
+        if (representation == null || representation.trim().isEmpty()) {
+            return UuidRepresentation.STANDARD;
         }
+        return UuidRepresentation.valueOf(representation.trim().toUpperCase());
+    }
 
-        /*
-        return settings.withHost(getDBHost()).withPort(getDBPort()).
-                withDbName(getDBName()).
-                withAuthentication(getDBUser(), getDBPassword());
-        */
+    /**
+     * Wire compressors, by order of preference. snappy & zstd need their codec library on the classpath
+     * @return List<MongoCompressor> - empty if compression is disabled
+     */
+    public List<MongoCompressor> getDBCompressors() {
+        List<MongoCompressor> compressors = new ArrayList<>();
+        String names = getProperty("db.compressors");
+        if (names == null) {
+            return compressors;
+        }
+        for (String name : names.split(",")) {
+            if (name.trim().equalsIgnoreCase("zlib")) {
+                compressors.add(MongoCompressor.createZlibCompressor());
+            } else if (name.trim().equalsIgnoreCase("snappy")) {
+                compressors.add(MongoCompressor.createSnappyCompressor());
+            } else if (name.trim().equalsIgnoreCase("zstd")) {
+                compressors.add(MongoCompressor.createZstdCompressor());
+            }
+        }
+        return compressors;
     }
 
     public String getDBHost() {
@@ -67,10 +130,275 @@ public class Properties {
         return getProperty("db.password");
     }
 
+    public int getDBPoolMinSize() {
+        return getIntProperty("db.pool.minSize", 10);
+    }
+
+    public int getServerPort() {
+        return getIntProperty("server.port", 8080);
+    }
+
+    public String getServerThreadMode() {
+        String threadMode = getProperty("server.threadMode");
+        return threadMode == null || threadMode.trim().isEmpty() ? "platform" : threadMode.trim();
+    }
+
+    public int getServerMinThreads() {
+        return getIntProperty("server.minThreads", 8);
+    }
+
+    public int getServerMaxThreads() {
+        return getIntProperty("server.maxThreads", 200);
+    }
+
+    public int getServerIdleTimeout() {
+        return getIntProperty("server.idleTimeout", 30000);
+    }
+
+    public int getServerAcceptQueueSize() {
+        return getIntProperty("server.acceptQueueSize", 128);
+    }
+
+    public int getServerMaxQueuedJobs() {
+        return getIntProperty("server.maxQueuedJobs", 512);
+    }
+
+    public int getServerMaxActiveRequests() {
+        return getIntProperty("server.maxActiveRequests", 150);
+    }
+
+    public int getWarmupIterations() {
+        return getIntProperty("warmup.iterations", 1000);
+    }
+
+    public int getWarmupPasswordRounds() {
+        return getIntProperty("warmup.passwordRounds", 1);
+    }
+
+    public double getSurgeCellDegrees() {
+        return getDoubleProperty("surge.cellDegrees", 0.01);
+    }
+
+    public int getSurgeWindowSeconds() {
+        return getIntProperty("surge.windowSeconds", 300);
+    }
+
+    public double getSurgeMaxMultiplier() {
+        return getDoubleProperty("surge.maxMultiplier", 3.0);
+    }
+
+    public double getSurgeSensitivity() {
+        return getDoubleProperty("surge.sensitivity", 0.5);
+    }
+
+    public int getSurgeMinRequests() {
+        return getIntProperty("surge.minRequests", 5);
+    }
+
+    public double getEtaCellDegrees() {
+        return getDoubleProperty("eta.cellDegrees", 0.01);
+    }
+
+    public int getEtaRebuildSeconds() {
+        return getIntProperty("eta.rebuildSeconds", 60);
+    }
+
+    public int getEtaBatchSize() {
+        return getIntProperty("eta.batchSize", 5000);
+    }
+
+    public double getEtaDefaultSpeedKmh() {
+        return getDoubleProperty("eta.defaultSpeedKmh", 30);
+    }
+
+    public double getEtaDetourFactor() {
+        return getDoubleProperty("eta.detourFactor", 1.3);
+    }
+
+    // route points stored this long before the newest one read are read again, in case they became visible late
+    public int getEtaLookbackSeconds() {
+        return getIntProperty("eta.lookbackSeconds", 10);
+    }
+
+    public String getEventLogDir() {
+        String dir = getProperty("eventlog.dir");
+        return dir == null || dir.trim().isEmpty() ? "data/eventlog" : dir.trim();
+    }
+
+    public int getEventLogSegmentBytes() {
+        return getIntProperty("eventlog.segmentBytes", 64 * 1024 * 1024);
+    }
+
+    public int getEventLogRelayMillis() {
+        return getIntProperty("eventlog.relayMillis", 200);
+    }
+
+    // segments kept by the event log, the oldest are deleted, 0 keeps them all
+    public int getEventLogRetainedSegments() {
+        return getIntProperty("eventlog.retainedSegments", 16);
+    }
+
+    // several nodes change the same rides: the reads of active rides check their stored version, off by default
+    public boolean isActiveRidesCheckReads() {
+        String enabled = getProperty("activerides.checkReads");
+        return enabled != null && Boolean.parseBoolean(enabled.trim());
+    }
+
+    // with activerides.checkReads, an active ride registered or checked this long ago is served without that check
+    public long getActiveRidesTrustMillis() {
+        return getIntProperty("activerides.trustMillis", 250);
+    }
+
+    // a node that did not renew its lease this long is gone, another node relays its outbox
+    public int getEventLogLeaseSeconds() {
+        return getIntProperty("eventlog.leaseSeconds", 60);
+    }
+
+    /**
+     * Name of this instance in the outbox, each instance relays the events of its own requests
+     * @return String - eventlog.node, null if not configured: the id stored with the event log is used
+     */
+    public String getEventLogNode() {
+        String node = getProperty("eventlog.node");
+        return node == null || node.trim().isEmpty() ? null : node.trim();
+    }
+
+    // the archiver moves rides out of Mongo, run it on one node only, all nodes read the archive
+    public boolean isArchiveEnabled() {
+        String enabled = getProperty("archive.enabled");
+        return enabled != null && Boolean.parseBoolean(enabled.trim());
+    }
+
+    public String getArchiveDir() {
+        String dir = getProperty("archive.dir");
+        return dir == null || dir.trim().isEmpty() ? "data/archive" : dir.trim();
+    }
+
+    public int getArchiveClosedDays() {
+        return getIntProperty("archive.closedDays", 30);
+    }
+
+    public int getArchiveIntervalMinutes() {
+        return getIntProperty("archive.intervalMinutes", 60);
+    }
+
+    public int getArchiveBatchSize() {
+        return getIntProperty("archive.batchSize", 10000);
+    }
+
+    public int getArchiveBlockBytes() {
+        return getIntProperty("archive.blockBytes", 65536);
+    }
+
+    public int getExportBatchSize() {
+        return getIntProperty("export.batchSize", 5000);
+    }
+
+    public int getExportChunkSize() {
+        return getIntProperty("export.chunkSize", 500);
+    }
+
+    public int getExportMaxConcurrent() {
+        return getIntProperty("export.maxConcurrent", 2);
+    }
+
+    public int getExportCheckpointRides() {
+        return getIntProperty("export.checkpointRides", 50000);
+    }
+
+    public boolean isRateLimitEnabled() {
+        String enabled = getProperty("ratelimit.enabled");
+        return enabled == null || enabled.trim().isEmpty() || Boolean.parseBoolean(enabled.trim());
+    }
+
+    // perSecond/burst of the requests not matching a route rule
+    public String getRateLimitDefault() {
+        String limit = getProperty("ratelimit.default");
+        return limit == null || limit.trim().isEmpty() ? "100/200" : limit.trim();
+    }
+
+    // "METHOD /path=perSecond/burst" rules separated by commas
+    public String getRateLimitRoutes() {
+        String routes = getProperty("ratelimit.routes");
+        return routes == null ? "" : routes.trim();
+    }
+
+    // addresses of the load balancers whose X-Forwarded-For is believed, separated by commas
+    public Set<String> getRateLimitTrustedProxies() {
+        Set<String> proxies = new HashSet<>();
+        String addresses = getProperty("ratelimit.trustedProxies");
+        if (addresses != null) {
+            for (String address : addresses.split(",")) {
+                if (!address.trim().isEmpty()) {
+                    proxies.add(address.trim());
+                }
+            }
+        }
+        return proxies;
+    }
+
+    public int getRateLimitEvictSeconds() {
+        return getIntProperty("ratelimit.evictSeconds", 60);
+    }
+
+    public int getRateLimitMaxBuckets() {
+        return getIntProperty("ratelimit.maxBuckets", 100000);
+    }
+
+    public int getStatsFlushMillis() {
+        return getIntProperty("stats.flushMillis", 100);
+    }
+
+    public boolean isCompressionEnabled() {
+        String enabled = getProperty("compression.enabled");
+        return enabled == null || enabled.trim().isEmpty() || Boolean.parseBoolean(enabled.trim());
+    }
+
+    // bodies of less than this size are sent uncompressed
+    public int getCompressionMinBytes() {
+        return getIntProperty("compression.minBytes", 1024);
+    }
+
+    public int getCompressionLevel() {
+        return getIntProperty("compression.level", 6);
+    }
+
+    // how long a total of rides, which have no collection version, is reused
+    public long getCountsMaxAgeMillis() {
+        return getIntProperty("counts.maxAgeMillis", 1000);
+    }
+
+    // operations of one POST /{resource}/batch
+    public int getBatchMaxOperations() {
+        return getIntProperty("batch.maxOperations", 1000);
+    }
+
+    // threads hashing the passwords of the accounts created by batches, half the cores by default
+    public int getBatchHashThreads() {
+        int threads = getIntProperty("batch.hashThreads", 0);
+        return threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
     private String getProperty(String nom) {
         return Config.INSTANCE.properties.getProperty(nom);
     }
 
+    private int getIntProperty(String nom, int defaultValue) {
+        String value = getProperty(nom);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Integer.valueOf(value.trim());
+    }
+
+    private double getDoubleProperty(String nom, double defaultValue) {
+        String value = getProperty(nom);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Double.valueOf(value.trim());
+    }
+
     private static enum Config {
         INSTANCE;
 
@@ -6,11 +6,34 @@
  */
 package com.team4.uberapp;
 
+import com.team4.uberapp.archive.RideArchive;
 import com.team4.uberapp.car.CarController;
 import com.team4.uberapp.driver.DriverController;
+import com.team4.uberapp.eta.EtaController;
+import com.team4.uberapp.eta.EtaEngine;
+import com.team4.uberapp.eventlog.EventLogController;
+import com.team4.uberapp.eventlog.OutboxRelay;
+import com.team4.uberapp.export.ExportCommand;
+import com.team4.uberapp.export.ExportController;
+import com.team4.uberapp.metrics.MetricsController;
 import com.team4.uberapp.passenger.PassengerController;
+import com.team4.uberapp.persistence.UuidMigration;
 import com.team4.uberapp.ride.RideController;
+import com.team4.uberapp.server.BoundedJettyServerFactory;
+import com.team4.uberapp.server.RateLimiter;
+import com.team4.uberapp.server.VirtualThreadPool;
+import com.team4.uberapp.server.WarmUp;
+import com.team4.uberapp.stats.RideStats;
+import com.team4.uberapp.stats.StatsController;
+import com.team4.uberapp.surge.SurgeController;
+import com.team4.uberapp.surge.SurgeEngine;
 import com.team4.uberapp.userSession.UserSessionController;
+import com.team4.uberapp.util.DataFormat;
+import com.team4.uberapp.util.JsonResponses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 
 import static com.team4.uberapp.util.UberAppUtil.validTokenUser;
 import static spark.Spark.*;
@@ -19,10 +42,55 @@ import static spark.Spark.*;
  * Created by lzhai & hectorguo on 2016/11/2.
  */
 public class UberAppMain {
+    private static final Logger logger = LoggerFactory.getLogger(UberAppMain.class);
+
     public static void main(String[] args)  {
         String versionURI = "/v1";
 
-        port(8080); /* service listening on port 8080 */
+        Properties properties = new Properties();
+
+        /* command line mode: java ... UberAppMain export --out=file ..., no server */
+        if (args != null && args.length > 0 && args[0].equals("export")) {
+            System.exit(ExportCommand.run(args));
+        }
+        /* java ... UberAppMain migrate-uuids: JAVA_LEGACY ids to STANDARD, with the servers stopped */
+        if (args != null && args.length > 0 && args[0].equals("migrate-uuids")) {
+            System.exit(UuidMigration.run(args));
+        }
+
+        /* warm up before the port is bound, the first requests should not pay for initialization */
+        if (!WarmUp.run(properties)) {
+            /* start anyway, /ready keeps answering 503 until a retry succeeds */
+            WarmUp.retry(properties, 5000);
+        }
+
+        /* in memory engines fed by the ride routes */
+        SurgeEngine.start(properties);
+        EtaEngine.start(properties);
+        OutboxRelay.start(properties);
+        RideArchive.start(properties);
+        RideStats.start(properties);
+
+        /* bounded worker pool, requests beyond the configured limits get 503 instead of waiting */
+        /* bodies of compression.minBytes or more are gzip compressed when the client accepts it */
+        EmbeddedJettyFactory jettyFactory = new EmbeddedJettyFactory(
+                new BoundedJettyServerFactory(properties.getServerMaxQueuedJobs(),
+                        properties.getServerAcceptQueueSize(),
+                        properties.getServerMaxActiveRequests(),
+                        properties.isCompressionEnabled() ? BoundedJettyServerFactory.gzipHandler(
+                                properties.getCompressionMinBytes(), properties.getCompressionLevel()) : null));
+        /* server.threadMode=virtual runs each request on its own virtual thread (Java 21+) */
+        if (properties.getServerThreadMode().equalsIgnoreCase("virtual")) {
+            VirtualThreadPool virtualThreadPool = VirtualThreadPool.create();
+            if (virtualThreadPool != null) {
+                jettyFactory.withThreadPool(virtualThreadPool);
+            } else {
+                logger.warn("Virtual threads need Java 21 or later, using the platform thread pool");
+            }
+        }
+        EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, jettyFactory);
+        port(properties.getServerPort()); /* service listening on port 8080 by default */
+        threadPool(properties.getServerMaxThreads(), properties.getServerMinThreads(), properties.getServerIdleTimeout());
 
         /* http:a.b.c.d:8080/v1/ */
         get(versionURI +"/", (req, res) -> "Hello UberAPP!");
@@ -33,6 +101,7 @@ public class UberAppMain {
         post(versionURI + "/cars", CarController.create);   // post  /cars
         delete(versionURI +"/cars/:id", CarController.delById); // delete car by id: v1/cars/:id
         patch(versionURI +"/cars/:id", CarController.update); // patch car by id : v1/cars/:id
+        post(versionURI + "/cars/batch", CarController.batch);
 
         // Drivers
         get(versionURI +"/drivers", DriverController.getAll);
@@ -40,11 +109,14 @@ public class UberAppMain {
         post(versionURI + "/drivers", DriverController.create);
         delete(versionURI +"/drivers/:id", DriverController.delById);
         patch(versionURI +"/drivers/:id", DriverController.update);
+        post(versionURI + "/drivers/batch", DriverController.batch);
 
 
         // Ride sub-resouce car
         get(versionURI +"/drivers/:driverId/cars", CarController.getByDriverId);
         post(versionURI + "/drivers/:driverId/cars", CarController.createByDriverId);
+        get(versionURI + "/drivers/:id/rides", RideController.getByDriverId);
+        get(versionURI + "/drivers/:id/currentRide", RideController.getCurrentOfDriver);
 
         //Passengers
         get(versionURI +"/passengers", PassengerController.getAll);
@@ -52,6 +124,9 @@ public class UberAppMain {
         post(versionURI+"/passengers", PassengerController.create);
         delete(versionURI+"/passengers/:id",PassengerController.delById);
         patch(versionURI +"/passengers/:id", PassengerController.update);
+        post(versionURI + "/passengers/batch", PassengerController.batch);
+        get(versionURI + "/passengers/:id/rides", RideController.getByPassengerId);
+        get(versionURI + "/passengers/:id/currentRide", RideController.getCurrentOfPassenger);
 
         // Rides
         get(versionURI +"/rides", RideController.getAll);
@@ -59,11 +134,13 @@ public class UberAppMain {
         post(versionURI + "/rides", RideController.create);
         delete(versionURI +"/rides/:id", RideController.delById);
         patch(versionURI +"/rides/:id", RideController.update);
+        post(versionURI + "/rides/batch", RideController.batch);
 
 
         // Rides' route points
         get(versionURI + "/rides/:id/routePoints", RideController.getRoutePoints);
         post(versionURI + "/rides/:id/routePoints", RideController.addRoutePoints);
+        get(versionURI + "/rides/:id/events", RideController.getEvents);
 
         // User session
         get(versionURI +"/sessions", UserSessionController.getAll);        // get all cars: v1/cars
@@ -71,13 +148,69 @@ public class UberAppMain {
         //get(versionURI +"/sessions/:id", UserSessionController.getById); // get car by id : v1/cars/:id
         //delete(versionURI +"/sessions/:id", UserSessionController.delById); // delete car by id: v1/cars/:id
 
+        // Surge pricing
+        get(versionURI + "/surge", SurgeController.getSurge);
+
+        // ETA
+        get(versionURI + "/eta", EtaController.getEta);
+
+        // Bulk export
+        get(versionURI + "/export/rides", ExportController.getRides);
+
+        // Ride statistics
+        get(versionURI + "/stats/rides", StatsController.getRides);
+        post(versionURI + "/stats/rides/rebuild", StatsController.rebuild);
+
+        // Ride event log
+        get(versionURI + "/eventlog", EventLogController.getEvents);
+
+        // Metrics
+        get(versionURI + "/metrics/surge", MetricsController.getSurge);
+        get(versionURI + "/metrics/eta", MetricsController.getEta);
+        get(versionURI + "/metrics/rideEvents", MetricsController.getRideEvents);
+        get(versionURI + "/metrics/eventLog", MetricsController.getEventLog);
+        get(versionURI + "/metrics/archive", MetricsController.getArchive);
+        get(versionURI + "/metrics/stats", MetricsController.getStats);
+        get(versionURI + "/metrics/rateLimit", MetricsController.getRateLimit);
+        get(versionURI + "/metrics/coalescing", MetricsController.getCoalescing);
+        get(versionURI + "/metrics/counts", MetricsController.getCounts);
+        get(versionURI + "/metrics/mongoPool", MetricsController.getMongoPool);
+        get(versionURI + "/ready", MetricsController.getReady);
+
+        /* per client rate limits, a flooding client is refused before any other work */
+        RateLimiter.start(properties);
+        before(RateLimiter.filter);
+
+        /* a rebuild reads the whole ride collection, only a signed in user may start one */
+        before(versionURI + "/stats/rides/rebuild", (request, response) -> {
+            String token = request.queryParams("token");
+            token = token == null ? request.headers("x-access-token") : token;
+            if (token == null) {
+                halt(401, "User unauthorized");
+            } else if (validTokenUser(token) == null) {
+                halt(401, "Invalid token");
+            }
+        });
+
+        /* Spark matches no route when Accept refuses json, 406 if it refuses the binary formats as well */
+        notFound((req, res) -> {
+            if (DataFormat.accepted(req.headers("Accept")) == null) {
+                res.status(406);
+                res.type("application/json");
+                return JsonResponses.NOT_ACCEPTABLE;
+            }
+            return "<html><body><h2>404 Not found</h2></body></html>";
+        });
+
         //add access control
         if (args == null) {
             before((request, response) -> {
                 String method = request.requestMethod();
                 if (method.equals("POST")) {
                     if (request.pathInfo().equals(versionURI + "/rides") ||
+                            request.pathInfo().equals(versionURI + "/rides/batch") ||
                             request.pathInfo().equals(versionURI + "/cars") ||
+                            request.pathInfo().equals(versionURI + "/cars/batch") ||
                             request.pathInfo().equals(versionURI + "/drivers/") ||
                             request.pathInfo().equals(versionURI + "/passengers/")) {
                         String token = request.queryParams("token");
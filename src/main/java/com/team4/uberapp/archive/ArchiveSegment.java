@@ -0,0 +1,413 @@
+/**
+ * ArchiveSegment: immutable file of archived rides & their route points
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Layout: magic & version, blocks, index, trailer.
+ * A block is a deflate-compressed run of entries (ride id, ride json, route points json), entries are
+ * sorted by ride id and a block is closed once its uncompressed size reaches blockBytes.
+ * The index keeps the first ride id, position & size of each block, a Bloom filter of the ride ids of the
+ * segment and the range of their request times, the trailer the last ride id and the position of the index. Only the index is kept in
+ * memory: one entry per block and 10 bits per ride. A ride the filter rules out is not archived here without
+ * any read; for the others (the archived rides and about 1% of the others) the file is opened for one
+ * positional read of the block the id falls in, which is inflated. No file stays open between lookups.
+ *
+ * A segment is written to a .tmp file, forced to disk then renamed, it is never modified afterwards.
+ */
+public class ArchiveSegment {
+    private static final int MAGIC = 0x52415243;
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 8;
+    private static final int TRAILER_BYTES = 28;
+    // about 1% false positives
+    private static final int BLOOM_BITS_PER_RIDE = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private final Path file;
+    private final UUID[] firstIds;
+    private final long[] positions;
+    private final int[] sizes;
+    private final UUID lastId;
+    private final int rideCount;
+    private final long[] bloom;
+    private final long minRequestTime;
+    private final long maxRequestTime;
+
+    /**
+     * One archived ride
+     */
+    public static class Entry {
+        private final UUID rideId;
+        private final Number requestTime;
+        private final byte[] ride;
+        private final byte[] routePoints;
+
+        public Entry(UUID rideId, Number requestTime, byte[] ride, byte[] routePoints) {
+            this.rideId = rideId;
+            this.requestTime = requestTime;
+            this.ride = ride;
+            this.routePoints = routePoints;
+        }
+
+        public UUID getRideId() {
+            return rideId;
+        }
+
+        // only known when written, the entries read from a block have it in their ride json
+        public Number getRequestTime() {
+            return requestTime;
+        }
+
+        // utf-8 json of the ride
+        public byte[] getRide() {
+            return ride;
+        }
+
+        // utf-8 json array of the route points
+        public byte[] getRoutePoints() {
+            return routePoints;
+        }
+    }
+
+    /**
+     * Write a segment
+     * @param file final name of the segment
+     * @param entries rides sorted by id
+     * @param blockBytes uncompressed size of a block
+     * @throws IOException if the file can not be written
+     */
+    public static void write(Path file, List<Entry> entries, int blockBytes) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        int blocks = 0;
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        try (OutputStream stream = Files.newOutputStream(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 65536));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long position = HEADER_BYTES;
+            ByteArrayOutputStream block = new ByteArrayOutputStream(blockBytes * 2);
+            DataOutputStream blockOut = new DataOutputStream(block);
+            Deflater deflater = new Deflater();
+            try {
+                for (int i = 0; i < entries.size(); i++) {
+                    Entry entry = entries.get(i);
+                    if (block.size() == 0) {
+                        indexOut.writeLong(entry.rideId.getMostSignificantBits());
+                        indexOut.writeLong(entry.rideId.getLeastSignificantBits());
+                        indexOut.writeLong(position);
+                    }
+                    blockOut.writeLong(entry.rideId.getMostSignificantBits());
+                    blockOut.writeLong(entry.rideId.getLeastSignificantBits());
+                    blockOut.writeInt(entry.ride.length);
+                    blockOut.write(entry.ride);
+                    blockOut.writeInt(entry.routePoints.length);
+                    blockOut.write(entry.routePoints);
+                    if (block.size() >= blockBytes || i == entries.size() - 1) {
+                        byte[] compressed = deflate(deflater, block.toByteArray());
+                        out.write(compressed);
+                        indexOut.writeInt(compressed.length);
+                        position += compressed.length;
+                        blocks++;
+                        block.reset();
+                    }
+                }
+            } finally {
+                deflater.end();
+            }
+            out.writeInt(blocks);
+            out.write(index.toByteArray());
+            long[] bloom = new long[Math.max(1, (int) (((long) entries.size() * BLOOM_BITS_PER_RIDE + 63) / 64))];
+            for (Entry entry : entries) {
+                add(bloom, entry.rideId);
+            }
+            out.writeInt(entries.size());
+            out.writeInt(bloom.length);
+            for (long word : bloom) {
+                out.writeLong(word);
+            }
+            long minRequestTime = Long.MAX_VALUE;
+            long maxRequestTime = Long.MIN_VALUE;
+            for (Entry entry : entries) {
+                if (entry.requestTime != null) {
+                    minRequestTime = Math.min(minRequestTime, (long) Math.floor(entry.requestTime.doubleValue()));
+                    maxRequestTime = Math.max(maxRequestTime, (long) Math.ceil(entry.requestTime.doubleValue()));
+                }
+            }
+            out.writeLong(minRequestTime);
+            out.writeLong(maxRequestTime);
+            UUID last = entries.get(entries.size() - 1).rideId;
+            out.writeLong(last.getMostSignificantBits());
+            out.writeLong(last.getLeastSignificantBits());
+            out.writeLong(position);
+            out.writeInt(MAGIC);
+            out.flush();
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Open a segment & load its index
+     * @param file segment file
+     * @return ArchiveSegment - the file is closed again
+     * @throws IOException if the file is not a complete segment
+     */
+    public static ArchiveSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + 4 + TRAILER_BYTES) {
+                throw new IOException("Archive segment " + file + " is truncated");
+            }
+            ByteBuffer trailer = read(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+            UUID lastId = new UUID(trailer.getLong(), trailer.getLong());
+            long indexPosition = trailer.getLong();
+            ByteBuffer header = read(channel, 0, HEADER_BYTES);
+            if (trailer.getInt() != MAGIC || header.getInt() != MAGIC || indexPosition < HEADER_BYTES
+                    || indexPosition > size - TRAILER_BYTES - 4) {
+                throw new IOException("Archive segment " + file + " is not valid");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Archive segment " + file + " has unknown version " + version);
+            }
+            ByteBuffer index = read(channel, indexPosition, (int) (size - TRAILER_BYTES - indexPosition));
+            int blocks = index.getInt();
+            UUID[] firstIds = new UUID[blocks];
+            long[] positions = new long[blocks];
+            int[] sizes = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                firstIds[i] = new UUID(index.getLong(), index.getLong());
+                positions[i] = index.getLong();
+                sizes[i] = index.getInt();
+            }
+            int rides = index.getInt();
+            long[] bloom = new long[index.getInt()];
+            for (int i = 0; i < bloom.length; i++) {
+                bloom[i] = index.getLong();
+            }
+            long minRequestTime = index.getLong();
+            long maxRequestTime = index.getLong();
+            return new ArchiveSegment(file, firstIds, positions, sizes, lastId, rides, bloom, minRequestTime, maxRequestTime);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Archive segment " + file + " is not valid", e);
+        }
+    }
+
+    private ArchiveSegment(Path file, UUID[] firstIds, long[] positions, int[] sizes, UUID lastId, int rideCount,
+                           long[] bloom, long minRequestTime, long maxRequestTime) {
+        this.file = file;
+        this.firstIds = firstIds;
+        this.positions = positions;
+        this.sizes = sizes;
+        this.lastId = lastId;
+        this.rideCount = rideCount;
+        this.bloom = bloom;
+        this.minRequestTime = minRequestTime;
+        this.maxRequestTime = maxRequestTime;
+    }
+
+    /**
+     * Whether a ride may be in this segment, from the index in memory
+     * @param rideId ride id
+     * @return boolean - false if find() returns null for sure, true for the rides of the segment & ~1% of the others
+     */
+    public boolean mightContain(UUID rideId) {
+        if (firstIds.length == 0 || rideId.compareTo(firstIds[0]) < 0 || rideId.compareTo(lastId) > 0) {
+            return false;
+        }
+        long hash = hash(rideId);
+        long step = (hash >>> 32) | 1;
+        long bits = bloom.length * 64L;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Math.floorMod(hash + i * step, bits);
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a ride is in this segment: the filter in memory, then its block when the filter does not rule it out
+     * @param rideId ride id
+     * @return boolean - true if find() returns the ride
+     * @throws IOException if the block can not be read
+     */
+    public boolean contains(UUID rideId) throws IOException {
+        return find(rideId) != null;
+    }
+
+    /**
+     * Archived ride of an id
+     * @param rideId ride id
+     * @return Entry - null if the ride is not in this segment
+     * @throws IOException if the block can not be read
+     */
+    public Entry find(UUID rideId) throws IOException {
+        if (!mightContain(rideId)) {
+            return null;
+        }
+        // last block starting at or before the id
+        int low = 0;
+        int high = firstIds.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (firstIds[middle].compareTo(rideId) <= 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        for (Entry entry : readBlock(low)) {
+            if (entry.rideId.equals(rideId)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Entries of a block
+     * @param block block number, from 0 to getBlockCount() - 1
+     * @return List<Entry> - in ride id order
+     * @throws IOException if the block can not be read
+     */
+    public List<Entry> readBlock(int block) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return entries(read(channel, positions[block], sizes[block]));
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int getBlockCount() {
+        return firstIds.length;
+    }
+
+    public int getRideCount() {
+        return rideCount;
+    }
+
+    /**
+     * Whether rides requested in a time range may be in this segment
+     * @param from from, unix time in ms
+     * @param to until, excluded
+     * @return boolean - false if no ride of the segment was requested in [from, to)
+     */
+    public boolean overlaps(long from, long to) {
+        return minRequestTime < to && maxRequestTime >= from;
+    }
+
+    // earliest request time of the rides, Long.MAX_VALUE if none has one
+    public long getMinRequestTime() {
+        return minRequestTime;
+    }
+
+    private static void add(long[] bloom, UUID rideId) {
+        long hash = hash(rideId);
+        long step = (hash >>> 32) | 1;
+        long bits = bloom.length * 64L;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Math.floorMod(hash + i * step, bits);
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    // both halves mixed: the ids of a segment share their time prefix
+    private static long hash(UUID rideId) {
+        long hash = rideId.getMostSignificantBits() * 0x9E3779B97F4A7C15L ^ rideId.getLeastSignificantBits();
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static List<Entry> entries(ByteBuffer compressed) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(inflate(compressed.array())));
+        List<Entry> entries = new ArrayList<>();
+        while (in.available() > 0) {
+            UUID id = new UUID(in.readLong(), in.readLong());
+            byte[] ride = new byte[in.readInt()];
+            in.readFully(ride);
+            byte[] routePoints = new byte[in.readInt()];
+            in.readFully(routePoints);
+            entries.add(new Entry(id, null, ride, routePoints));
+        }
+        return entries;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive segment");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(chunk);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Archive block is truncated");
+                }
+                out.write(chunk, 0, inflated);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Archive block is corrupted", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
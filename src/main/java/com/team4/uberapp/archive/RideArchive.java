@@ -0,0 +1,328 @@
+/**
+ * RideArchive: closed rides moved out of Mongo into local segment files
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.archive;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.domain.Repositories;
+import com.team4.uberapp.persistence.MongoRepositories;
+import com.team4.uberapp.ride.Ride;
+import com.team4.uberapp.ride.RoutePoint;
+import com.team4.uberapp.util.UberAppUtil;
+import org.mongolink.MongoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Rides CLOSED for more than archive.closedDays are archived with their route points by a background job,
+ * archive.batchSize rides per segment. A batch is written to a new segment, which is forced to disk and
+ * published to the readers, then the route points and the rides are deleted from Mongo. A ride found again
+ * after a crash in between is already in the archive, it is only deleted.
+ *
+ * Readers ask Mongo first and the archive when Mongo does not have the ride, so a ride is always found
+ * in one of them. Each segment keeps a Bloom filter of its ride ids in memory: a ride that is not archived is
+ * ruled out without reading a file (but for ~1% of the segments), the lookup of an archived ride reads & inflates
+ * one block.
+ */
+public class RideArchive {
+    private static final Logger logger = LoggerFactory.getLogger(RideArchive.class);
+
+    private static final String SUFFIX = ".arc";
+    private static final long DAY_MILLIS = 24 * 3600 * 1000L;
+    // rides per $in of the route point queries
+    private static final int QUERY_CHUNK = 1000;
+    // archived json holds the computed properties of the entities too ("valid")
+    private static final ObjectReader rideReader = UberAppUtil.jsonMapper().readerFor(Ride.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private static final ObjectReader routePointsReader = UberAppUtil.jsonMapper().readerFor(new TypeReference<List<RoutePoint>>() { })
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    // newest segment first
+    private static final CopyOnWriteArrayList<ArchiveSegment> segments = new CopyOnWriteArrayList<>();
+    // held by a batch from the read of its rides to their deletion from Mongo
+    private static final Object batchLock = new Object();
+
+    private static Path directory = Paths.get("data/archive");
+    private static int closedDays = 30;
+    private static int batchSize = 10000;
+    private static int blockBytes = 65536;
+    private static long nextSegment = 0;
+
+    private static boolean opened = false;
+    private static boolean started = false;
+    private static ScheduledExecutorService archiver;
+    private static volatile long ridesArchived = 0;
+    private static volatile long lastRunMillis = -1;
+
+    /**
+     * Open the segments & schedule the archiver when archive.enabled, only the first call does it
+     * @param properties application configuration
+     */
+    public static synchronized void start(Properties properties) {
+        if (started || !open(properties)) {
+            return;
+        }
+        started = true;
+        if (!properties.isArchiveEnabled()) {
+            return;
+        }
+        archiver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ride-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMinutes = properties.getArchiveIntervalMinutes();
+        archiver.scheduleWithFixedDelay(RideArchive::archiveAll, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Open the segments for reading only, e.g. for a command line export; only the first call does it
+     * @param properties application configuration
+     * @return boolean - false if the archive can not be opened
+     */
+    public static synchronized boolean open(Properties properties) {
+        if (opened) {
+            return true;
+        }
+        directory = Paths.get(properties.getArchiveDir());
+        closedDays = properties.getArchiveClosedDays();
+        batchSize = properties.getArchiveBatchSize();
+        blockBytes = properties.getArchiveBlockBytes();
+        try {
+            load();
+        } catch (IOException e) {
+            // archived rides are not found until a restart, nothing is archived meanwhile
+            logger.error("Ride archive {} can not be opened", directory, e);
+            return false;
+        }
+        opened = true;
+        return true;
+    }
+
+    /**
+     * The segments, to read them in another order than forEachRide
+     * @return List<ArchiveSegment> - newest segment first, a snapshot
+     */
+    public static List<ArchiveSegment> segments() {
+        return new ArrayList<>(segments);
+    }
+
+    /**
+     * Archived ride
+     * @param rideId ride id
+     * @return Ride - null if the ride is not archived
+     * @throws IOException if the segment can not be read
+     */
+    public static Ride ride(UUID rideId) throws IOException {
+        ArchiveSegment.Entry entry = find(rideId);
+        return entry == null ? null : rideReader.readValue(entry.getRide());
+    }
+
+    /**
+     * Route points of an archived ride
+     * @param rideId ride id
+     * @return List<RoutePoint> - in timestamp order, null if the ride is not archived
+     * @throws IOException if the segment can not be read
+     */
+    public static List<RoutePoint> routePoints(UUID rideId) throws IOException {
+        ArchiveSegment.Entry entry = find(rideId);
+        return entry == null ? null : routePointsReader.readValue(entry.getRoutePoints());
+    }
+
+    /**
+     * Whether a ride is archived, a block is read only from the segments whose filter does not rule it out
+     * @param rideId ride id
+     * @return boolean - true if ride() & routePoints() find it
+     * @throws IOException if a segment can not be read
+     */
+    public static boolean isArchived(UUID rideId) throws IOException {
+        for (ArchiveSegment segment : segments) {
+            if (segment.contains(rideId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read every archived ride, segment by segment & block by block
+     * @param consumer called for each ride
+     * @throws IOException if a segment can not be read
+     */
+    public static void forEachRide(Consumer<Ride> consumer) throws IOException {
+        for (ArchiveSegment segment : segments) {
+            for (int block = 0; block < segment.getBlockCount(); block++) {
+                for (ArchiveSegment.Entry entry : segment.readBlock(block)) {
+                    consumer.accept(rideReader.readValue(entry.getRide()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Run a task while no batch is archived by this node: each ride is either in Mongo or in the segments
+     * @param task task reading both
+     * @return T - result of the task
+     */
+    public static <T> T withoutArchiving(Supplier<T> task) {
+        synchronized (batchLock) {
+            return task.get();
+        }
+    }
+
+    public static int getSegmentCount() {
+        return segments.size();
+    }
+
+    public static long getRidesArchived() {
+        return ridesArchived;
+    }
+
+    public static long getLastRunMillis() {
+        return lastRunMillis;
+    }
+
+    static void archiveAll() {
+        long start = System.currentTimeMillis();
+        try {
+            long cutoff = start - closedDays * DAY_MILLIS;
+            while (archiveBatch(cutoff) == batchSize) {
+                // more to archive, keep going
+            }
+        } catch (Exception e) {
+            logger.error("Ride archiving failed, retrying at the next run", e);
+        }
+        lastRunMillis = System.currentTimeMillis() - start;
+    }
+
+    private static int archiveBatch(long cutoff) throws IOException {
+        synchronized (batchLock) {
+            return archiveBatchLocked(cutoff);
+        }
+    }
+
+    private static int archiveBatchLocked(long cutoff) throws IOException {
+        List<Ride> rides;
+        Map<UUID, List<RoutePoint>> routePoints = new HashMap<>();
+        final MongoSession session = MongoConfiguration.createSession();
+        session.start();
+        Repositories.initialise(new MongoRepositories(session));
+        try {
+            rides = Repositories.rides().findClosedBefore(cutoff, batchSize);
+            List<UUID> ids = ids(rides);
+            for (int from = 0; from < ids.size(); from += QUERY_CHUNK) {
+                List<UUID> chunk = ids.subList(from, Math.min(from + QUERY_CHUNK, ids.size()));
+                for (RoutePoint routePoint : Repositories.routePoints().findByRides(chunk)) {
+                    routePoints.computeIfAbsent(routePoint.getRideId(), id -> new ArrayList<>()).add(routePoint);
+                }
+            }
+        } finally {
+            session.stop();
+        }
+        if (rides.isEmpty()) {
+            return 0;
+        }
+
+        List<ArchiveSegment.Entry> entries = new ArrayList<>();
+        for (Ride ride : rides) {
+            if (!isArchived(ride.getId())) {
+                List<RoutePoint> points = routePoints.getOrDefault(ride.getId(), new ArrayList<>());
+                entries.add(new ArchiveSegment.Entry(ride.getId(), ride.getRequestTime(),
+                        UberAppUtil.dataToCompactJson(ride).getBytes(StandardCharsets.UTF_8),
+                        UberAppUtil.dataToCompactJson(points).getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        if (!entries.isEmpty()) {
+            entries.sort(Comparator.comparing(ArchiveSegment.Entry::getRideId));
+            Path file = directory.resolve(String.format("%020d", nextSegment++) + SUFFIX);
+            ArchiveSegment.write(file, entries, blockBytes);
+            segments.add(0, ArchiveSegment.open(file));
+        }
+
+        // archived & forced to disk, the rides can leave Mongo, their route points first
+        final MongoSession delete = MongoConfiguration.createSession();
+        delete.start();
+        Repositories.initialise(new MongoRepositories(delete));
+        try {
+            List<UUID> ids = ids(rides);
+            for (int from = 0; from < ids.size(); from += QUERY_CHUNK) {
+                List<UUID> chunk = ids.subList(from, Math.min(from + QUERY_CHUNK, ids.size()));
+                Repositories.routePoints().deleteByRides(chunk);
+                Repositories.rides().deleteAll(chunk);
+            }
+        } finally {
+            delete.stop();
+        }
+        ridesArchived += entries.size();
+        logger.info("Archived {} rides closed before {} in {} segments", entries.size(), cutoff, segments.size());
+        return rides.size();
+    }
+
+    private static ArchiveSegment.Entry find(UUID rideId) throws IOException {
+        for (ArchiveSegment segment : segments) {
+            ArchiveSegment.Entry entry = segment.find(rideId);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static List<UUID> ids(List<Ride> rides) {
+        List<UUID> ids = new ArrayList<>(rides.size());
+        for (Ride ride : rides) {
+            ids.add(ride.getId());
+        }
+        return ids;
+    }
+
+    private static void load() throws IOException {
+        Files.createDirectories(directory);
+        // a segment interrupted before its rename was never published, its rides are still in Mongo
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX + ".tmp")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        List<Path> names = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                names.add(file);
+            }
+        }
+        names.sort(Comparator.reverseOrder());
+        List<ArchiveSegment> opened = new ArrayList<>();
+        for (Path file : names) {
+            opened.add(ArchiveSegment.open(file));
+            String name = file.getFileName().toString();
+            nextSegment = Math.max(nextSegment, Long.parseLong(name.substring(0, name.length() - SUFFIX.length())) + 1);
+        }
+        segments.addAll(opened);
+    }
+}
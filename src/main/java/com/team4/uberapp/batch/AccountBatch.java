@@ -0,0 +1,92 @@
+/**
+ * AccountBatch: batch of driver or passenger creates, updates & deletes
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.batch;
+
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.domain.Account;
+import com.team4.uberapp.domain.Validable;
+import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.TimeOrderedIds;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.team4.uberapp.util.UberAppUtil.hashPassword;
+
+/**
+ * The email addresses of the new accounts are checked with one query per collection, and their passwords, the
+ * cost of a create, hashed in parallel by batch.hashThreads threads shared by all the batches: concurrent
+ * batches queue for them instead of taking every core, or the common pool of the parallel streams.
+ */
+public abstract class AccountBatch<T extends Validable & Account> extends Batch<T> {
+    private static final ExecutorService hashing = Executors.newFixedThreadPool(
+            new Properties().getBatchHashThreads(), runnable -> {
+                Thread thread = new Thread(runnable, "batch-password-hash");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final int conflictCode;
+    private final String conflictMessage;
+
+    /**
+     * @param type entity class
+     * @param collection collection of the entities
+     * @param conflictCode error code of a taken email address, the one of the single route
+     * @param conflictMessage error message of a taken email address, followed by the address
+     */
+    protected AccountBatch(Class<T> type, String collection, int conflictCode, String conflictMessage) {
+        super(type, collection);
+        this.conflictCode = conflictCode;
+        this.conflictMessage = conflictMessage;
+    }
+
+    @Override
+    protected Map<Integer, ErrorReport> conflicts(Map<Integer, T> creates) {
+        Map<Integer, String> addresses = new HashMap<>();
+        for (Map.Entry<Integer, T> create : creates.entrySet()) {
+            addresses.put(create.getKey(), create.getValue().getEmailAddress());
+        }
+        Map<Integer, ErrorReport> conflicts = new HashMap<>();
+        for (Integer i : EmailAddresses.taken(addresses)) {
+            conflicts.put(i, new ErrorReport(conflictCode, conflictMessage + addresses.get(i)));
+        }
+        return conflicts;
+    }
+
+    @Override
+    protected void prepare(List<T> accounts) {
+        for (T account : accounts) {
+            account.setId(TimeOrderedIds.next());
+        }
+        List<Future<String>> hashes = new ArrayList<>();
+        for (T account : accounts) {
+            String password = account.getPassword();
+            hashes.add(hashing.submit(() -> hashPassword(password)));
+        }
+        try {
+            for (int i = 0; i < accounts.size(); i++) {
+                accounts.get(i).setPassword(hashes.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing the passwords", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Password hash failed", e.getCause());
+        } finally {
+            for (Future<String> hash : hashes) {
+                hash.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/**
+ * Batch: creates, updates & deletes of one resource, validated together & written with one bulk write
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.batch;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.domain.Validable;
+import com.team4.uberapp.eventlog.Outbox;
+import com.team4.uberapp.persistence.Uuids;
+import com.team4.uberapp.persistence.Versions;
+import com.team4.uberapp.ride.RideEvent;
+import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.UberAppUtil;
+import com.team4.uberapp.validation.Violation;
+import org.bson.Document;
+import org.mongolink.domain.mapper.ClassMapper;
+import spark.Request;
+import spark.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Every item is first checked on its own, as its single route would, then together: the entities updated or
+ * deleted are read with one query, the unique fields of the creates looked up at once. The items left are
+ * written with one unordered bulk write, of the documents MongoLink would have written, and each item gets the
+ * status its single route would have answered. An update replaces the document it read, only if its version
+ * did not change meanwhile, else it is a conflict to retry. The outbox events of the items are inserted pending
+ * before the bulk write, then committed for the items it wrote and deleted for the others, as Outbox does on a
+ * standalone server, even on a replica set: a transaction would abort every item on the error of one. The relay
+ * publishes no pending event; those left by a crash or a lost reply are resolved by it from the item's change.
+ */
+public abstract class Batch<T extends Validable> {
+    private static final Properties properties = new Properties();
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final Class<T> type;
+    private final String collection;
+
+    protected Batch(Class<T> type, String collection) {
+        this.type = type;
+        this.collection = collection;
+    }
+
+    /**
+     * New entities, valid & free of conflicts: their ids & the fields set on creation
+     * @param entities in the order of the batch
+     */
+    protected abstract void prepare(List<T> entities);
+
+    /**
+     * The entity with the fields of an update set, as PATCH does
+     * @param entity as stored
+     * @param update data of the update
+     * @return T - a copy, with its next version
+     * @throws CloneNotSupportedException never, the entities are Cloneable
+     */
+    protected abstract T merge(T entity, T update) throws CloneNotSupportedException;
+
+    /**
+     * Errors of valid creates that depend on the database or on the other items, e.g. unique fields
+     * @param creates by item index
+     * @return Map<Integer, ErrorReport> - error by item index, these items are conflicts
+     */
+    protected Map<Integer, ErrorReport> conflicts(Map<Integer, T> creates) {
+        return Collections.emptyMap();
+    }
+
+    // follow-up of each written item, as after the single routes
+    protected void created(T entity) {
+    }
+
+    protected void updated(T previous, T entity) {
+    }
+
+    protected void deleted(T entity) {
+    }
+
+    /**
+     * Outbox events of an item, inserted pending before the bulk write, committed once the item is written
+     * @param previous as stored, null for a create
+     * @param entity as written, null for a delete
+     * @return List<RideEvent> - none by default
+     */
+    protected List<RideEvent> events(T previous, T entity) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * POST /{resource}/batch
+     * @param req body: list of operations, at most batch.maxOperations
+     * @param res 200 once the body is a list of operations, whatever the status of each
+     * @return byte[] - List<BatchResult> in the order of the operations
+     */
+    public Object handle(Request req, Response res) {
+        res.type("application/json");
+        List<BatchOperation> operations;
+        try {
+            operations = UberAppUtil.jsonMapper().readValue(req.body(), new TypeReference<List<BatchOperation>>() {});
+        } catch (IOException e) {
+            res.status(400);
+            return ErrorReport.toBytes(8301, "The body should be a list of operations, " + e.getMessage());
+        }
+        int max = properties.getBatchMaxOperations();
+        if (operations == null || operations.isEmpty() || operations.size() > max) {
+            res.status(400);
+            return ErrorReport.toBytes(8301, "A batch should have between 1 and " + max + " operations");
+        }
+        res.status(200);
+        return UberAppUtil.dataToJsonBytes(run(operations));
+    }
+
+    /**
+     * Check & write the operations
+     * @param operations items of the batch
+     * @return List<BatchResult> - one per operation, in order
+     */
+    public List<BatchResult> run(List<BatchOperation> operations) {
+        BatchResult[] results = new BatchResult[operations.size()];
+        Map<Integer, T> creates = new LinkedHashMap<>();
+        Map<Integer, T> updates = new HashMap<>();
+        Map<Integer, UUID> targets = new LinkedHashMap<>();
+
+        // each item on its own
+        for (int i = 0; i < operations.size(); i++) {
+            BatchOperation operation = operations.get(i);
+            String op = operation.getOp();
+            if (BatchOperation.CREATE.equals(op)) {
+                T entity = data(i, operation, results);
+                if (entity == null) {
+                    continue;
+                }
+                List<Violation> violations = entity.violations();
+                if (!violations.isEmpty()) {
+                    results[i] = BatchResult.failed(i, 400, null, ErrorReport.of(violations));
+                    continue;
+                }
+                creates.put(i, entity);
+            } else if (BatchOperation.UPDATE.equals(op) || BatchOperation.DELETE.equals(op)) {
+                UUID id;
+                try {
+                    id = UUID.fromString(String.valueOf(operation.getId()));
+                } catch (IllegalArgumentException e) {
+                    results[i] = BatchResult.failed(i, 400, null, new ErrorReport(8302, "Invalid id " + operation.getId()));
+                    continue;
+                }
+                if (targets.containsValue(id)) {
+                    results[i] = BatchResult.failed(i, 400, id, new ErrorReport(8302, "More than one operation on " + id));
+                    continue;
+                }
+                if (BatchOperation.UPDATE.equals(op)) {
+                    T update = data(i, operation, results);
+                    if (update == null) {
+                        continue;
+                    }
+                    updates.put(i, update);
+                }
+                targets.put(i, id);
+            } else {
+                results[i] = BatchResult.failed(i, 400, null,
+                        new ErrorReport(8302, "op should be one of create, update, delete"));
+            }
+        }
+
+        // then together: one read of the stored documents, one look up of the unique fields
+        ClassMapper<T> mapper = MongoConfiguration.mapperContext().mapperFor(type);
+        Map<UUID, Document> stored = new HashMap<>();
+        if (!targets.isEmpty()) {
+            for (Document document : collection().find(Filters.in("_id", targets.values()))) {
+                stored.put(Uuids.of(document.get("_id")), document);
+            }
+        }
+        if (!creates.isEmpty()) {
+            for (Map.Entry<Integer, ErrorReport> conflict : conflicts(creates).entrySet()) {
+                results[conflict.getKey()] = BatchResult.failed(conflict.getKey(), 409, null, conflict.getValue());
+                creates.remove(conflict.getKey());
+            }
+            prepare(new ArrayList<>(creates.values()));
+        }
+
+        List<WriteModel<Document>> models = new ArrayList<>();
+        List<Integer> items = new ArrayList<>();
+        List<UUID> ids = new ArrayList<>();
+        Map<Integer, T> previous = new HashMap<>();
+        Map<Integer, T> written = new HashMap<>();
+        Map<Integer, Object> versions = new HashMap<>();
+        Map<Integer, List<Document>> events = new HashMap<>();
+        for (Map.Entry<Integer, T> create : creates.entrySet()) {
+            Document document = mapper.toDBObject(create.getValue());
+            models.add(new InsertOneModel<>(document));
+            items.add(create.getKey());
+            ids.add(Uuids.of(document.get("_id")));
+            written.put(create.getKey(), create.getValue());
+            raise(events, create.getKey(), null, create.getValue());
+        }
+        for (Map.Entry<Integer, UUID> target : targets.entrySet()) {
+            int i = target.getKey();
+            UUID id = target.getValue();
+            Document document = stored.get(id);
+            if (document == null) {
+                results[i] = BatchResult.failed(i, 404, id, new ErrorReport(8303, collection + " " + id + " not found"));
+                continue;
+            }
+            T entity = mapper.toInstance(document);
+            if (updates.containsKey(i)) {
+                T merged;
+                try {
+                    merged = merge(entity, updates.get(i));
+                } catch (CloneNotSupportedException e) {
+                    throw new IllegalStateException(e);
+                }
+                List<Violation> violations = merged.violations();
+                if (!violations.isEmpty()) {
+                    results[i] = BatchResult.failed(i, 400, id, ErrorReport.of(violations));
+                    continue;
+                }
+                Document replacement = mapper.toDBObject(merged);
+                // null matches the documents written before versions
+                models.add(new ReplaceOneModel<>(Filters.and(Filters.eq("_id", id),
+                        Filters.eq("version", document.get("version"))), replacement));
+                written.put(i, merged);
+                versions.put(i, replacement.get("version"));
+                raise(events, i, entity, merged);
+            } else {
+                models.add(new DeleteOneModel<>(Filters.eq("_id", id)));
+                raise(events, i, entity, null);
+            }
+            previous.put(i, entity);
+            items.add(i);
+            ids.add(id);
+        }
+
+        // a write that failed may still have been applied in part: the version changes unless nothing was written
+        boolean changed = !models.isEmpty();
+        try {
+            if (!models.isEmpty()) {
+                // the events go in first, pending: no item is written without its events, none is relayed
+                // before its item is written
+                List<Document> raised = new ArrayList<>();
+                for (int m = 0; m < models.size(); m++) {
+                    if (events.containsKey(items.get(m))) {
+                        raised.addAll(Outbox.pending(events.get(items.get(m)), collection, models.get(m)));
+                    }
+                }
+                Outbox.insert(raised);
+                try {
+                    write(models, items, ids, versions, results);
+                } catch (RuntimeException e) {
+                    // a failure of the bulk write itself: told now which items were written, rather than
+                    // holding the relay for a lease
+                    try {
+                        Outbox.resolve(raised);
+                    } catch (RuntimeException unresolved) {
+                        // still pending, left to the relay
+                        e.addSuppressed(unresolved);
+                    }
+                    throw e;
+                }
+                changed = false;
+                List<Document> committed = new ArrayList<>();
+                List<Document> discarded = new ArrayList<>();
+                for (int i : items) {
+                    if (results[i].isDone()) {
+                        changed = true;
+                    }
+                    if (events.containsKey(i)) {
+                        (results[i].isDone() ? committed : discarded).addAll(events.get(i));
+                    }
+                }
+                Outbox.commit(committed);
+                Outbox.discard(discarded);
+            }
+
+            // follow-up of the written items, in the order of the batch
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null || !results[i].isDone()) {
+                    continue;
+                }
+                if (!previous.containsKey(i)) {
+                    created(written.get(i));
+                } else if (written.containsKey(i)) {
+                    updated(previous.get(i), written.get(i));
+                } else {
+                    deleted(previous.get(i));
+                }
+            }
+        } finally {
+            if (changed && Versions.versioned(collection)) {
+                Versions.touch(collection);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    // the outbox documents of the events of an item, if it has some
+    private void raise(Map<Integer, List<Document>> events, int i, T previous, T entity) {
+        List<RideEvent> raised = events(previous, entity);
+        if (!raised.isEmpty()) {
+            events.put(i, Outbox.documents(raised));
+        }
+    }
+
+    // the bulk write & the status of its items
+    private void write(List<WriteModel<Document>> models, List<Integer> items, List<UUID> ids,
+                       Map<Integer, Object> versions, BatchResult[] results) {
+        BulkWriteResult result;
+        Map<Integer, BulkWriteError> errors = new HashMap<>();
+        try {
+            result = collection().bulkWrite(models, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            result = e.getWriteResult();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                errors.put(error.getIndex(), error);
+            }
+        }
+
+        // a replace matching nothing is no error: when some did not match, the stored versions tell which
+        List<UUID> replaced = new ArrayList<>();
+        for (int m = 0; m < models.size(); m++) {
+            if (models.get(m) instanceof ReplaceOneModel && !errors.containsKey(m)) {
+                replaced.add(ids.get(m));
+            }
+        }
+        Map<Object, Object> current = null;
+        if (result.getMatchedCount() < replaced.size()) {
+            current = new HashMap<>();
+            for (Document document : collection().find(Filters.in("_id", replaced))
+                    .projection(Projections.include("version"))) {
+                current.put(document.get("_id"), document.get("version"));
+            }
+        }
+
+        for (int m = 0; m < models.size(); m++) {
+            int i = items.get(m);
+            UUID id = ids.get(m);
+            WriteModel<Document> model = models.get(m);
+            BulkWriteError error = errors.get(m);
+            if (error != null) {
+                boolean duplicate = error.getCode() == DUPLICATE_KEY;
+                results[i] = BatchResult.failed(i, duplicate ? 409 : 500, id,
+                        new ErrorReport(duplicate ? 8304 : 8305, error.getMessage()));
+            } else if (model instanceof InsertOneModel) {
+                results[i] = BatchResult.done(i, 201, id);
+            } else if (current != null && model instanceof ReplaceOneModel
+                    && !sameVersion(current.get(id), versions.get(i))) {
+                results[i] = BatchResult.failed(i, 409, id,
+                        new ErrorReport(8304, collection + " " + id + " changed since it was read, retry the update"));
+            } else {
+                results[i] = BatchResult.done(i, 200, id);
+            }
+        }
+    }
+
+    private static boolean sameVersion(Object stored, Object expected) {
+        return stored instanceof Number && expected instanceof Number
+                && ((Number) stored).longValue() == ((Number) expected).longValue();
+    }
+
+    // the entity of a create or update, null when the data is not one
+    private T data(int i, BatchOperation operation, BatchResult[] results) {
+        if (operation.getData() == null || !operation.getData().isObject()) {
+            results[i] = BatchResult.failed(i, 400, null, new ErrorReport(8302, "data should be an object"));
+            return null;
+        }
+        try {
+            return UberAppUtil.jsonMapper().treeToValue(operation.getData(), type);
+        } catch (JsonProcessingException e) {
+            results[i] = BatchResult.failed(i, 400, null, new ErrorReport(8302, e.getOriginalMessage()));
+            return null;
+        }
+    }
+
+    private MongoCollection<Document> collection() {
+        return MongoConfiguration.database().getCollection(collection);
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * BatchOperation: one item of a POST /{resource}/batch body
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.batch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * {"op": "create", "data": {...}}, {"op": "update", "id": "...", "data": {...}} or {"op": "delete", "id": "..."},
+ * data being the body of the POST or PATCH of the resource.
+ */
+public class BatchOperation {
+    public static final String CREATE = "create";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+
+    private String op;
+    private String id;
+    private JsonNode data;
+
+    public String getOp() {
+        return op;
+    }
+
+    public void setOp(String op) {
+        this.op = op;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public JsonNode getData() {
+        return data;
+    }
+
+    public void setData(JsonNode data) {
+        this.data = data;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * BatchResult: status of one operation of a batch
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.batch;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.team4.uberapp.util.ErrorReport;
+
+import java.util.UUID;
+
+/**
+ * The status is the one the single POST, PATCH or DELETE would have answered, the error its body; a conflict with
+ * the stored data or with another item of the batch is a 409.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchResult {
+    private final int index;
+    private final int status;
+    private final UUID id;
+    private final ErrorReport error;
+
+    private BatchResult(int index, int status, UUID id, ErrorReport error) {
+        this.index = index;
+        this.status = status;
+        this.id = id;
+        this.error = error;
+    }
+
+    public static BatchResult done(int index, int status, UUID id) {
+        return new BatchResult(index, status, id, null);
+    }
+
+    public static BatchResult failed(int index, int status, UUID id, ErrorReport error) {
+        return new BatchResult(index, status, id, error);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public ErrorReport getError() {
+        return error;
+    }
+
+    @JsonIgnore
+    public boolean isDone() {
+        return error == null;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * EmailAddresses: uniqueness of the email addresses of new drivers & passengers
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.batch;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.team4.uberapp.MongoConfiguration;
+import org.bson.Document;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An address belongs to one driver or passenger. The addresses of a batch are looked up at once, one query per
+ * collection on its emailAddress index, instead of two queries per account.
+ */
+public class EmailAddresses {
+
+    /**
+     * Items of a batch whose address is already taken, by a driver, a passenger or an earlier item
+     * @param addresses email address of each new account, by item index
+     * @return Set<Integer> - indexes of the items that can not be created
+     */
+    public static Set<Integer> taken(Map<Integer, String> addresses) {
+        Set<Object> used = new HashSet<>();
+        for (String collection : new String[]{"driver", "passenger"}) {
+            for (Document account : MongoConfiguration.database().getCollection(collection)
+                    .find(Filters.in("emailAddress", new HashSet<>(addresses.values())))
+                    .projection(Projections.include("emailAddress"))) {
+                used.add(account.get("emailAddress"));
+            }
+        }
+        Set<Integer> taken = new LinkedHashSet<>();
+        for (Map.Entry<Integer, String> address : addresses.entrySet()) {
+            if (!used.add(address.getValue())) {
+                taken.add(address.getKey());
+            }
+        }
+        return taken;
+    }
+}
@@ -6,26 +6,36 @@
  */
 package com.team4.uberapp.car;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.team4.uberapp.domain.Validable;
-import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.TimeOrderedIds;
+import com.team4.uberapp.validation.*;
 
-import java.util.Arrays;
-import java.util.List;
 import java.util.UUID;
 
 
 //@Data
 @JsonIgnoreProperties({"valid"})
+@ErrorCode(2001)
 public class Car implements Validable, Cloneable {
     private UUID id;
+    // incremented by every update, sent as the ETag
+    private Long version;
     //private DateTime creationDate = new DateTime();
+    @Length(min = 1, max = 50, message = "make at most 50 Characters")
     private String make;
+    @Length(min = 1, max = 50, message = "Model at most 50 Characters")
     private String model;
+    @Length(min = 1, max = 10, message = "License Plate at most 10 Characters")
     private String license;
+    @Length(min = 1, max = 10, message = "carType at most 10 Characters")
     private String carType;
+    @Range(min = 1, message = "maxPassengers should greater than 0")
     private int maxPassengers;
+    @Length(min = 1, max = 10, message = "color at most 10 Characters")
     private String color;
+    @OneOf(value = {"ECONOMY", "PREMIUM", "EXECUTIVE"}, message = "not validRideTypes")
     private String validRideTypes;  // String Array Values are ECONOMY, PREMIUM, EXECUTIVE
     private UUID driverId;
 
@@ -46,7 +56,7 @@ public class Car implements Validable, Cloneable {
      * @param validRideTypes the valid ride types
      */
     public Car(String make, String model, String license, String carType, int maxPassengers, String color, String validRideTypes) {
-        this.id = UUID.randomUUID();
+        this.id = TimeOrderedIds.next();
         this.make   = make;
         this.model  =  model;
         this.license    = license;
@@ -130,33 +140,19 @@ public class Car implements Validable, Cloneable {
     }
 
     public boolean isValid() throws Exception {
-        //Could set up any additional validation rule
-        if (this.make == null || this.make.isEmpty() || this.make.length() > 50) {
-            throw new Exception(ErrorReport.toJson(2001, "make at most 50 Characters"));
-        }
-        if (this.license == null || this.license.isEmpty() || this.license.length() > 10) {
-            throw new Exception(ErrorReport.toJson(2001, "License Plate at most 10 Characters"));
-        }
-        if (this.model == null || this.model.isEmpty() || this.model.length() > 50) {
-            throw new Exception(ErrorReport.toJson(2001, "Model at most 50 Characters"));
-        }
-        if (this.carType == null || this.carType.isEmpty() || this.carType.length() > 10) {
-            throw new Exception(ErrorReport.toJson(2001, "carType at most 10 Characters"));
-        }
-        if (this.maxPassengers <=0 ) {
-            throw new Exception(ErrorReport.toJson(2001, "maxPassengers should greater than 0"));
-        }
-        if (this.color == null || this.color.isEmpty() ||  this.color.length() > 10) {
-            throw new Exception(ErrorReport.toJson(2001, "color at most 10 Characters"));
-        }
-        {
-            final List<String> rideTypes = Arrays.asList("ECONOMY", "PREMIUM", "EXECUTIVE");
-            if (!rideTypes.contains(this.validRideTypes)) {
-                throw new Exception(ErrorReport.toJson(2001, "not validRideTypes"));
-            }
-
-        }
-        return true;
+        return Validator.check(this);
+    }
+
+    @JsonIgnore
+    public long getVersion() {
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * The entity is being updated
+     */
+    public void nextVersion() {
+        version = getVersion() + 1;
     }
 
     public Object clone() throws CloneNotSupportedException {
@@ -0,0 +1,43 @@
+/**
+ * CarBatch: batch of car creates, updates & deletes
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.car;
+
+import com.team4.uberapp.batch.Batch;
+import com.team4.uberapp.util.TimeOrderedIds;
+
+import java.util.List;
+
+public class CarBatch extends Batch<Car> {
+
+    public CarBatch() {
+        super(Car.class, "car");
+    }
+
+    @Override
+    protected void prepare(List<Car> cars) {
+        for (Car car : cars) {
+            car.setId(TimeOrderedIds.next());
+        }
+    }
+
+    @Override
+    protected Car merge(Car car, Car update) throws CloneNotSupportedException {
+        Car merged = CarController.merge(car, update);
+        merged.nextVersion();
+        return merged;
+    }
+
+    @Override
+    protected void updated(Car previous, Car car) {
+        CarController.reads.forget(car.getId());
+    }
+
+    @Override
+    protected void deleted(Car car) {
+        CarController.reads.forget(car.getId());
+    }
+}
@@ -8,13 +8,20 @@
 package com.team4.uberapp.car;
 
 import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.team4.uberapp.MongoConfiguration;
 import com.team4.uberapp.domain.Repositories;
 import com.team4.uberapp.driver.Driver;
+import com.team4.uberapp.persistence.ListQuery;
 import com.team4.uberapp.persistence.MongoRepositories;
+import com.team4.uberapp.persistence.Versions;
+import com.team4.uberapp.util.DataFormat;
+import com.team4.uberapp.util.ETags;
 import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.JsonResponses;
+import com.team4.uberapp.util.SingleFlight;
+import com.team4.uberapp.util.TimeOrderedIds;
 import com.team4.uberapp.util.UberAppUtil;
+import com.team4.uberapp.validation.Violation;
 import org.mongolink.MongoSession;
 import org.mongolink.domain.criteria.Criteria;
 import org.mongolink.domain.criteria.Order;
@@ -33,74 +40,131 @@ import java.util.stream.Collectors;
  * @version 0.2
  */
 public class CarController extends UberAppUtil {
+    // concurrent GET /cars/:id of the same id share one read
+    static final SingleFlight<UUID> reads = new SingleFlight<>("cars");
+
     /**
      * Implementation  for route:
      *      //GET  /cars  -- get all cars
      *      //GET  /cars for querying parameters count, offsetId, sort & sortOrder
      *      Used in combination with sort, it specifies the order in which to return the elements. asc is for asending
      *      or desc for descending. Default value is asc except for a time-based sort field in which case the default values is desc
+     *      fields, comma separated fields to return
+     *      withTotal=true, X-Total-Count header with the number of matching cars & X-Next-Offset with the offsetId
+     *      of the next page
+     *      filters on any field: field=value, field[in]=a,b, field[gt|gte|lt|lte]=value, answered only when an
+     *      index serves them, else 400; a sort no index serves is answered with a Warning header
+     *      Accept: application/cbor, application/x-jackson-smile or application/x-msgpack for a binary list
      *
      * @return List<Car> a list of cars
      */
     public static Route getAll = (req, res) -> {
+        DataFormat format = acceptedFormat(req, res);
+        // read before the list, the list is at least as recent as its ETag
+        long version = Versions.collection("car");
+        String etag = format.etag(ETags.collection(version));
+        if (ETags.notModified(req, res, etag)) {
+            return "";
+        }
         //initialize db connection
         MongoSession session = MongoConfiguration.createSession();
         session.start();
         Repositories.initialise(new MongoRepositories(session));
-        List<Car> cars;
+        List<?> cars;
 
         if (req.queryParams().isEmpty()) {
             cars = Repositories.cars().all();
         } else {
-            Criteria criteria = session.createCriteria(Car.class); // create criteria object
-            final List<String> queryFields = Arrays.asList("count", "offsetId", "sort", "sortOrder");
+            ListQuery query = new ListQuery();
+            final List<String> queryFields = Arrays.asList("count", "offsetId", "sort", "sortOrder", "fields", "withTotal");
             Set<String> queryParams = req.queryParams();
             //StringBuilder str = new StringBuilder();
             String querySort = null;
             String querySortOrder = null;
+            boolean withTotal = false;
             //str.append("Request Parameters are <br/>");
             for(String param : queryParams){
                 //str.append(param).append(" ").append(req.queryParams(param)).append("<br />"); // build debug message
-                if (!queryFields.contains(param)) {
+                if (!queryFields.contains(param) && !ListQuery.isFilter(param, Car.class)) {
                     session.stop();
                     res.status(200);
                     res.type("applicaiton/json");
-                    return dataToJson("Wrong query params :" + param);
+                    return JsonResponses.wrongQueryParams(param);
                 }
                 if (param.compareTo("count") == 0)  {
-                    criteria.limit(Integer.parseInt(req.queryParams(param)));
+                    query.limit(Integer.parseInt(req.queryParams(param)));
                 } else if (param.compareTo("offsetId") == 0) {
-                    criteria.skip(Integer.parseInt(req.queryParams(param)));
+                    query.skip(Integer.parseInt(req.queryParams(param)));
                 } else if (param.equalsIgnoreCase("sort") == true){
                     querySort = new String(req.queryParams(param));
                 } else if (param.equalsIgnoreCase("sortOrder") == true) {
                     querySortOrder = new String(req.queryParams(param));
+                } else if (param.equals("withTotal")) {
+                    withTotal = Boolean.parseBoolean(req.queryParams(param));
+                } else if (param.equals("fields")) {
+                    try {
+                        query.fields(ListQuery.parseFields(req.queryParams(param), Car.class));
+                    } catch (IllegalArgumentException e) {
+                        session.stop();
+                        res.status(400);
+                        res.type("application/json");
+                        return ErrorReport.toBytes(4002, e.getMessage());
+                    }
+                } else {
+                    try {
+                        query.where(param, req.queryParams(param), Car.class);
+                    } catch (IllegalArgumentException e) {
+                        session.stop();
+                        res.status(400);
+                        res.type("application/json");
+                        return ErrorReport.toBytes(4002, e.getMessage());
+                    }
                 }
             }
             // setup sort and sortOrder
             if (querySort != null && querySortOrder != null) {
                 if (querySortOrder.equalsIgnoreCase("asc") == true) {
-                    criteria.sort(querySort, Order.ASCENDING);
+                    query.sort(querySort, Order.ASCENDING);
                 } else {
-                    criteria.sort(querySort, Order.DESCENDING);
+                    query.sort(querySort, Order.DESCENDING);
                 }
             } else if (((querySort != null) && (querySortOrder == null)) ||
                     ((querySort == null) && (querySortOrder != null)) ){
                 session.stop();
                 res.status(200);
                 res.type("applicaiton/json");
-                return dataToJson("sort & sortOrder params must be in pair.");
+                return JsonResponses.SORT_PARAMS_NOT_IN_PAIR;
+            }
+            // filters only run on an index, whole lists sorted without one are still answered but flagged
+            String unindexed = query.unindexed(MongoConfiguration.indexKeys("car"));
+            if (unindexed != null && query.isFiltered()) {
+                session.stop();
+                res.status(400);
+                res.type("application/json");
+                return ErrorReport.toBytes(4002, unindexed);
+            } else if (unindexed != null) {
+                res.header("Warning", "299 - \"" + unindexed + "\"");
+            }
+            // only the fields asked for are read when there are some
+            cars = query.isProjected() ? Repositories.cars().project(query) : Repositories.cars().list(query);
+            if (withTotal) {
+                long total = Repositories.cars().count(query, version);
+                res.header("X-Total-Count", String.valueOf(total));
+                // offsetId of the next page, until the pages reach the total
+                if (query.getLimit() > 0 && query.getSkip() + cars.size() < total) {
+                    res.header("X-Next-Offset", String.valueOf(query.getSkip() + cars.size()));
+                }
             }
-            cars = criteria.list();
         }
 
         // close database connection
         session.stop();
 
+        res.header("ETag", etag);
         res.status(200);
-        res.type("application/json");
+        res.type(format.getContentType());
 
-        return dataToJson(cars);
+        return dataToFormat(cars, format);
 
     };
 
@@ -111,35 +175,46 @@ public class CarController extends UberAppUtil {
      * @return Car  info for one car
      */
     public static Route getById = (req, res) -> {
-        //initialize db connection
-        MongoSession session = MongoConfiguration.createSession();
-        session.start();
-        Repositories.initialise(new MongoRepositories(session));
-
         try {
             // get car by id, generate UUID from string id first
             UUID uid = UUID.fromString(req.params(":id"));
-            Car car = Repositories.cars().get(uid);
-
-            // close database connection
-            session.stop();
+            // the client's copy is current: answered from the version alone
+            if (req.headers("If-None-Match") != null && ETags.notModified(req, res, ETags.entity(Versions.entity("car", uid)))) {
+                return "";
+            }
+            SingleFlight.Response response = reads.load(uid, CarController::read);
 
             res.type("application/json");
-            if (car == null) {
-                res.status(404); // 404 Not found
-                return dataToJson("Car: " + req.params(":id") + " not found");
-            } else {
-                res.status(200);
-                return dataToJson(car);
+            res.status(response.getStatus());
+            if (response.getEtag() != null) {
+                res.header("ETag", response.getEtag());
             }
+            return response.getBody();
         } catch (Exception e){
-            session.stop();
             res.status(400);
             res.type("application/json");
             return ErrorReport.toJson(2001, e.getMessage());
         }
     };
 
+    // one Mongo read & one serialization for the concurrent requests of a car
+    private static SingleFlight.Response read(UUID uid) {
+        //initialize db connection
+        MongoSession session = MongoConfiguration.createSession();
+        session.start();
+        Repositories.initialise(new MongoRepositories(session));
+        try {
+            Car car = Repositories.cars().get(uid);
+            if (car == null) {
+                return new SingleFlight.Response(404, dataToJsonBytes("Car: " + uid + " not found"));
+            }
+            return new SingleFlight.Response(200, dataToJsonBytes(car), ETags.entity(car.getVersion()));
+        } finally {
+            // close database connection
+            session.stop();
+        }
+    }
+
     /**
      * The constant create.
      * POST /cars  Create car
@@ -161,23 +236,24 @@ public class CarController extends UberAppUtil {
         Repositories.initialise(new MongoRepositories(session));
 
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            Car car = mapper.readValue(req.body(), Car.class);
-            car.setId(UUID.randomUUID());
+            Car car = jsonToData(req.body(), Car.class);
+            car.setId(TimeOrderedIds.next());
 
             res.type("application/json");
 
-            try {
-                car.isValid();
-            } catch (Exception e){
+            List<Violation> violations = car.violations();
+            if (!violations.isEmpty()) {
+                session.stop();
                 res.status(400);
-                return e.getMessage();
+                res.type("application/json");
+                return ErrorReport.toBytes(violations);
             }
 
             Repositories.cars().add(car);
 
             // close database connection
             session.stop();
+            Versions.touch("car");
 
             //prepare return result
             res.status(201);
@@ -213,6 +289,8 @@ public class CarController extends UberAppUtil {
             Repositories.cars().delete(car);
             // close database connection
             session.stop();
+            reads.forget(uid);
+            Versions.touch("car");
             res.status(200);
             return dataToJson("Car: " + req.params(":id") +" deleted");
         }
@@ -238,54 +316,17 @@ public class CarController extends UberAppUtil {
             session.stop();
             return dataToJson("Car: " + req.params(":id") +" not found");
         } else {
-            // clone a car for validation purpose
-            Car validationCar = (Car) car.clone();
             try {
-                ObjectMapper mapper = new ObjectMapper();
-                Car updateCar = mapper.readValue(req.body(), Car.class);
-
-                // make
-                if (updateCar.getMake() != null) {
-                    if (!updateCar.getMake().isEmpty()) {
-                        validationCar.setMake(updateCar.getMake());
-                    }
-                }
-                // model
-                if (updateCar.getModel() != null) {
-                    if (!updateCar.getModel().isEmpty()) {
-                        validationCar.setModel(updateCar.getModel());
-                    }
-                }
-                // license
-                if (updateCar.getCarType() != null) {
-                    if (!updateCar.getCarType().isEmpty()) {
-                        validationCar.setCarType(updateCar.getCarType());
-                    }
-                }
-                // color
-                if (updateCar.getColor() != null) {
-                    if (!updateCar.getColor().isEmpty()) {
-                        validationCar.setColor(updateCar.getColor());
-                    }
-                }
-                // validRideTypes
-                if (updateCar.getValidRideTypes() != null) {
-                    if (!updateCar.getValidRideTypes().isEmpty()) {
-                        validationCar.setValidRideTypes(updateCar.getValidRideTypes());
-                    }
-                }
-                // maxPassenger
-                if (updateCar.getMaxPassengers() != 0) {
-                    validationCar.setMaxPassengers(updateCar.getMaxPassengers());
-                }
+                Car updateCar = jsonToData(req.body(), Car.class);
+                Car validationCar = merge(car, updateCar);
 
                 //validation
-                try {
-                    validationCar.isValid();
-                } catch (Exception e) {
+                List<Violation> violations = validationCar.violations();
+                if (!violations.isEmpty()) {
                     session.stop();
+                    res.status(400);
                     res.type("application/json");
-                    return  e.getMessage();
+                    return ErrorReport.toBytes(violations);
                 }
 
                 //update value
@@ -296,8 +337,17 @@ public class CarController extends UberAppUtil {
                 car.setMaxPassengers(validationCar.getMaxPassengers());
                 car.setColor(validationCar.getColor());
                 car.setValidRideTypes(validationCar.getValidRideTypes());
+                long read = car.getVersion();
+                car.nextVersion();
+                // written only at the version read, not by the session
+                session.clear();
                 session.stop();
                 res.type("application/json");
+                if (!Versions.replace("car", car, uid, read)) {
+                    return notUpdated(res, "Car", 2009, uid, Versions.entity("car", uid) == null);
+                }
+                reads.forget(car.getId());
+                Versions.touch("car");
                 return dataToJson("Car: " + req.params(":id") +" updated") ;
             } catch (JsonParseException e) {
                 session.stop();
@@ -308,6 +358,58 @@ public class CarController extends UberAppUtil {
         }
     };
 
+    // the fields of the update that are set, over a copy of the car, to validate before it changes
+    static Car merge(Car car, Car updateCar) throws CloneNotSupportedException {
+        Car validationCar = (Car) car.clone();
+        // make
+        if (updateCar.getMake() != null) {
+            if (!updateCar.getMake().isEmpty()) {
+                validationCar.setMake(updateCar.getMake());
+            }
+        }
+        // model
+        if (updateCar.getModel() != null) {
+            if (!updateCar.getModel().isEmpty()) {
+                validationCar.setModel(updateCar.getModel());
+            }
+        }
+        // license
+        if (updateCar.getCarType() != null) {
+            if (!updateCar.getCarType().isEmpty()) {
+                validationCar.setCarType(updateCar.getCarType());
+            }
+        }
+        // color
+        if (updateCar.getColor() != null) {
+            if (!updateCar.getColor().isEmpty()) {
+                validationCar.setColor(updateCar.getColor());
+            }
+        }
+        // validRideTypes
+        if (updateCar.getValidRideTypes() != null) {
+            if (!updateCar.getValidRideTypes().isEmpty()) {
+                validationCar.setValidRideTypes(updateCar.getValidRideTypes());
+            }
+        }
+        // maxPassenger
+        if (updateCar.getMaxPassengers() != 0) {
+            validationCar.setMaxPassengers(updateCar.getMaxPassengers());
+        }
+        return validationCar;
+    }
+
+    /**
+     * POST /cars/batch  Create, update & delete cars with one bulk write
+     * [
+     *  {"op":"create", "data":{"make":"Audi", "model":"A4", "license":"7ABC123", "carType":"Sedan", "maxPassengers":4,
+     *                          "color":"white", "validRideTypes":"ECONOMY"}},
+     *  {"op":"update", "id":"b462bcae-2add-4b59-8c18-107a30c1e87e", "data":{"color":"black"}},
+     *  {"op":"delete", "id":"6c1a2f0e-93c4-4d55-b8f5-2b1f0c0d4e11"}
+     * ]
+     * @return List of the status of each operation, in order
+     */
+    public static Route batch = (req, res) -> new CarBatch().handle(req, res);
+
     /**
      * POST /drivers/:driverId/cars  Create car
      * {
@@ -336,21 +438,22 @@ public class CarController extends UberAppUtil {
         }
 
         try{
-            ObjectMapper mapper = new ObjectMapper();
-            Car car = mapper.readValue(req.body(), Car.class);
+            Car car = jsonToData(req.body(), Car.class);
 
-            try {
-                car.isValid();
-            } catch (Exception e){
+            List<Violation> violations = car.violations();
+            if (!violations.isEmpty()) {
+                session.stop();
                 res.status(400);
-                return e.getMessage();
+                res.type("application/json");
+                return ErrorReport.toBytes(violations);
             }
 
-            car.setId(UUID.randomUUID());
+            car.setId(TimeOrderedIds.next());
             car.setDriverId(driverId);
             Repositories.cars().add(car);
 
             session.stop();
+            Versions.touch("car");
             res.status(201);
             res.type("application/json");
             return dataToJson(car);
@@ -0,0 +1,18 @@
+package com.team4.uberapp.domain;
+
+import java.util.UUID;
+
+/**
+ * A driver or a passenger: signs up with an email address no other account has, & a password stored hashed
+ */
+public interface Account {
+    UUID getId();
+
+    void setId(UUID id);
+
+    String getEmailAddress();
+
+    String getPassword();
+
+    void setPassword(String password);
+}
@@ -10,41 +10,47 @@ package com.team4.uberapp.domain;
 
 public abstract class Repositories {
 
+    // one instance per request thread, so concurrent requests never share a MongoSession
     public static void initialise(Repositories instance) {
-        Repositories.instance = instance;
+        Repositories.instance.set(instance);
     }
 
     public static CarRepository cars() {
-        return instance.carsRepository();
+        return instance.get().carsRepository();
     }
 
     public static DriverRepository drivers() {
-        return instance.driversRepository();
+        return instance.get().driversRepository();
     }
 
     public static PassengerRepository passengers() {
-        return instance.passengersRepository();
+        return instance.get().passengersRepository();
     }
 
     public static RideRepository rides() {
-        return instance.ridesRepository();
+        return instance.get().ridesRepository();
     }
 
     public static UserSessionRepository userSessions() {
-        return instance.userSessionsRepository();
+        return instance.get().userSessionsRepository();
     }
 
     public static RoutePointRepository routePoints() {
-        return instance.routePointsRepository();
+        return instance.get().routePointsRepository();
 
     }
 
+    public static RideEventRepository rideEvents() {
+        return instance.get().rideEventsRepository();
+    }
+
     protected abstract CarRepository carsRepository();
     protected abstract DriverRepository driversRepository();
     protected abstract PassengerRepository passengersRepository();
     protected abstract RideRepository ridesRepository();
     protected abstract UserSessionRepository userSessionsRepository();
     protected abstract RoutePointRepository routePointsRepository();
+    protected abstract RideEventRepository rideEventsRepository();
 
-    private static Repositories instance;
+    private static final ThreadLocal<Repositories> instance = new ThreadLocal<>();
 }
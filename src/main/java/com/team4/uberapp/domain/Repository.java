@@ -23,6 +23,9 @@ package com.team4.uberapp.domain;
 
 
 import java.util.List;
+import java.util.Map;
+
+import com.team4.uberapp.persistence.ListQuery;
 import org.mongolink.domain.criteria.Restriction;
 
 public interface Repository<T> {
@@ -36,4 +39,26 @@ public interface Repository<T> {
     List<T> all();
 
     List<T> find(Restriction query);
+
+    /**
+     * Entities of a list query
+     * @param query restrictions, order & page
+     * @return List<T> - whole entities, the fields of the query are ignored
+     */
+    List<T> list(ListQuery query);
+
+    /**
+     * Fields of the documents of a list query, read with a projection, no entity is loaded
+     * @param query restrictions, order, page & fields
+     * @return List<Map<String, Object>> - one map per document, the fields in the order of the query
+     */
+    List<Map<String, Object>> project(ListQuery query);
+
+    /**
+     * Number of entities matching the restrictions of a list query, whatever its page
+     * @param query restrictions
+     * @param version version of the collection, read before the count
+     * @return long - estimated for the whole collection, else cached until the version changes
+     */
+    long count(ListQuery query, long version);
 }
@@ -0,0 +1,42 @@
+/**
+ * Ride event outbox repository for mongolink
+ */
+
+package com.team4.uberapp.domain;
+
+import com.team4.uberapp.ride.RideEvent;
+
+import java.util.List;
+import java.util.UUID;
+
+public interface RideEventRepository extends Repository<RideEvent> {
+
+    /**
+     * Oldest events of the outbox waiting for a node
+     * @param node node relaying the events
+     * @param count batch size
+     * @return List<RideEvent> - at most count committed events, in sequence order, none past a pending one
+     */
+    List<RideEvent> findPending(String node, int count);
+
+    /**
+     * Remove events written to the event log, with one query
+     * @param ids ids of the events
+     * @return long - number of events removed
+     */
+    long deleteRelayed(List<UUID> ids);
+
+    /**
+     * Nodes with events waiting in the outbox
+     * @return List<String> - distinct nodes
+     */
+    List<String> nodes();
+
+    /**
+     * Move the waiting events of a node to another one
+     * @param from node gone
+     * @param to node relaying them from now on
+     * @return long - number of events moved
+     */
+    long claim(String from, String to);
+}
@@ -22,6 +22,60 @@
 package com.team4.uberapp.domain;
 
 import com.team4.uberapp.ride.Ride;
+import com.team4.uberapp.ride.RideCursor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 public interface RideRepository extends Repository<Ride> {
+
+    /**
+     * Rides of one passenger or driver, newest first, one range scan of the (owner, requestTime) index
+     * @param ownerField passengerId or driverId
+     * @param ownerId id of the passenger or driver
+     * @param status only rides with this status, null for all
+     * @param after cursor of the previous page, null for the first page
+     * @param count page size
+     * @return List<Ride> - at most count rides
+     */
+    List<Ride> findHistory(String ownerField, UUID ownerId, String status, RideCursor after, int count);
+
+    /**
+     * Same as findHistory, reduced to some fields with a projection
+     * @param ownerField passengerId or driverId
+     * @param ownerId id of the passenger or driver
+     * @param status only rides with this status, null for all
+     * @param after cursor of the previous page, null for the first page
+     * @param count page size
+     * @param fields field names, as in the json of a ride
+     * @return List<Map<String, Object>> - at most count rides, the fields in the given order
+     */
+    List<Map<String, Object>> projectHistory(String ownerField, UUID ownerId, String status, RideCursor after, int count,
+                                             List<String> fields);
+
+    /**
+     * Number of rides in the history of a passenger or driver, all pages
+     * @param ownerField passengerId or driverId
+     * @param ownerId id of the passenger or driver
+     * @param status only rides with this status, null for all
+     * @param version generation of the count, see Counts.generation
+     * @return long - cached until the generation changes
+     */
+    long countHistory(String ownerField, UUID ownerId, String status, long version);
+
+    /**
+     * Oldest CLOSED rides dropped off before a time, rides without dropOffTime by their requestTime
+     * @param time unix time in ms
+     * @param count batch size
+     * @return List<Ride> - at most count rides, in _id order
+     */
+    List<Ride> findClosedBefore(long time, int count);
+
+    /**
+     * Delete rides in one request
+     * @param ids ride ids
+     * @return long - number of rides deleted
+     */
+    long deleteAll(List<UUID> ids);
 }
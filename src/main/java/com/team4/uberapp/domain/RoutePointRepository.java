@@ -6,5 +6,32 @@ package com.team4.uberapp.domain;
 
 import com.team4.uberapp.ride.RoutePoint;
 
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
 public interface RoutePointRepository extends Repository<RoutePoint> {
+
+    /**
+     * Route points in the order the database stored them, with their storedAt date
+     * @param from stored at or after this date, null for all the points
+     * @param after last point of the previous page, null for the first page
+     * @param count page size
+     * @return List<RoutePoint> - at most count route points, in (storedAt, _id) order
+     */
+    List<RoutePoint> findStoredSince(Date from, RoutePoint after, int count);
+
+    /**
+     * Route points of several rides
+     * @param rideIds ride ids
+     * @return List<RoutePoint> - route points of all the rides, in rideId & timestamp order
+     */
+    List<RoutePoint> findByRides(List<UUID> rideIds);
+
+    /**
+     * Delete the route points of several rides in one request
+     * @param rideIds ride ids
+     * @return long - number of route points deleted
+     */
+    long deleteByRides(List<UUID> rideIds);
 }
@@ -1,8 +1,21 @@
 package com.team4.uberapp.domain;
 
+import com.team4.uberapp.validation.Validator;
+import com.team4.uberapp.validation.Violation;
+
+import java.util.List;
+
 /**
  * Created by HectorGuo on 11/9/16.
  */
 public interface Validable {
     boolean isValid() throws Exception;
+
+    /**
+     * Check the declared constraints of the entity, without exceptions
+     * @return List<Violation> - all violations, empty if the entity is valid
+     */
+    default List<Violation> violations() {
+        return Validator.forClass(getClass()).validate(this);
+    }
 }
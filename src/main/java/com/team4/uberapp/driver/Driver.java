@@ -9,27 +9,42 @@ package com.team4.uberapp.driver;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.team4.uberapp.domain.Account;
 import com.team4.uberapp.domain.Validable;
-import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.TimeOrderedIds;
+import com.team4.uberapp.validation.*;
 
 import java.util.UUID;
-import java.util.regex.Pattern;
 
 //@Data
 //@JsonIgnoreProperties( { "password" })
-public class Driver implements Validable, Cloneable {
+@ErrorCode(1001)
+public class Driver implements Validable, Account, Cloneable {
     private UUID id;
+    // incremented by every update, sent as the ETag
+    private Long version;
+    @Length(min = 1, max = 50, message = "The firstName length should not greater than 50 Characters")
     private String firstName; // maximum 50 characters
+    @Length(min = 1, max = 50, message = "The lastName length should not greater than 50 Characters")
     private String lastName; // maximum 50 characters
+    @Matches(value = "^(.+)@(.+)$", message = "Invalid emailAddress")
     private String emailAddress; // will add valid format later
     private String password; // min 8, max 20 //
+    @Length(min = 1, max = 100, message = "The addressLine1 length should not greater than 100 Characters")
     private String addressLine1; // max 100
+    @Length(max = 100, message = "The addressLine2 length should not greater than 100 Characters")
     private String addressLine2; // max 100
+    @Length(min = 1, max = 50, message = "The city length should not greater than 50 Characters")
     private String city; // max 50
+    @Length(min = 2, max = 2, message = "The state length must be 2")
     private String state; // 2, min 2
+    @Length(min = 5, max = 5, message = "The zip length must be 5")
     private String zip; //5, min 5
+    @Matches(value = "\\d{3}[-\\.\\s]\\d{3}[-\\.\\s]\\d{4}", message = "Invalid phone #")
     private String phoneNumber; // xxx-xxx-xxxx; will add valid format later
+    @Length(min = 1, max = 16, message = "The drivingLicense length should not greater than 16 Characters")
     private String drivingLicense; // max 16
+    @Length(min = 2, max = 2, message = "The licensedState length must be 2")
     private String licensedState; // 2
 
     @SuppressWarnings("UnusedDeclaration")
@@ -160,7 +175,7 @@ public class Driver implements Validable, Cloneable {
      */
     public Driver(String firstName, String lastName, String emailAddress, String password, String addressLine1, String addressLine2, String city, String state,
                   String zip, String phoneNumber, String drivingLicense, String licensedState) {
-        this.id = UUID.randomUUID();
+        this.id = TimeOrderedIds.next();
         this.firstName = firstName;
         this.lastName = lastName;
         this.emailAddress = emailAddress;
@@ -176,67 +191,20 @@ public class Driver implements Validable, Cloneable {
 
     }
 
-    public boolean isValid() throws Exception{
-        //valid firstName length
-        if (this.firstName == null || this.firstName.isEmpty() || this.firstName.length() >50){
-            throw new Exception(ErrorReport.toJson(1001, "The firstName length should not greater than 50 Characters"));
-        }
-        //valid lastName length
-        if (this.lastName == null || this.lastName.isEmpty() || this.lastName.length() > 50) {
-            throw new Exception(ErrorReport.toJson(1001, "The lastName length should not greater than 50 Characters"));
-        }
-        //valid addressLine1 length
-        if (this.addressLine1 == null || this.addressLine1.isEmpty() || this.addressLine1.length() >100){
-            throw new Exception(ErrorReport.toJson(1001, "The firstName length should not greater than 100 Characters"));
-        }
-        //valid addressLine2 length, addressLine2 is optional, could be empty
-        if (this.addressLine2 == null || this.addressLine2.length() > 100) {
-            throw new Exception(ErrorReport.toJson(1001, "The lastName length should not greater than 100 Characters"));
-        }
-        //valid passowrd
-        //if (this.password == null || this.password.isEmpty() || this.password.length()<8 || this.password.length()>20) {
-        //    throw new Exception(ErrorReport.toJson1001, ("The password length should >8 & <20"));
-        //}
-        //city
-        if (this.city == null || this.city.isEmpty() ||  this.city.length() > 50) {
-            throw new Exception(ErrorReport.toJson(1001, "The city length should not greater than 50 Characters"));
-        }
-        //state
-        if (this.state == null || this.state.isEmpty() ||  this.state.length() != 2) {
-            throw new Exception(ErrorReport.toJson(1001, "The state length must be 2"));
-        }
-        //zip
-        if (this.zip == null || this.zip.isEmpty() || this.zip.length()!=5) {
-            throw new Exception(ErrorReport.toJson(1001, "The zip length must be 5"));
-        }
-        //emailAddress
-
-        {
-            Pattern pattern = Pattern.compile("^(.+)@(.+)$");
-            if (pattern.matcher(this.emailAddress).matches() == false) {
-                throw new Exception("Invalid emailAddress");
-            }
-        }
-
-        //phone#
-        {
-            Pattern pattern = Pattern.compile("\\d{3}[-\\.\\s]\\d{3}[-\\.\\s]\\d{4}");
-            if (pattern.matcher(this.phoneNumber).matches() == false) {
-                throw new Exception(ErrorReport.toJson(1001, "Invalid phone #"));
-            }
-        }
-
-        //drivingLicense
-        if (this.drivingLicense == null || this.drivingLicense.isEmpty() || this.drivingLicense.length()> 16) {
-            throw new Exception(ErrorReport.toJson(1001, "The drivingLicense length greater than 16"));
-        }
-
-        //licensedState
-        if (this.licensedState == null || this.licensedState.isEmpty() || this.licensedState.length()!=2 ) {
-            throw new Exception(ErrorReport.toJson(1001, "The licensedState length must be 2"));
-        }
-
-        return true;
+    public boolean isValid() throws Exception {
+        return Validator.check(this);
+    }
+
+    @JsonIgnore
+    public long getVersion() {
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * The entity is being updated
+     */
+    public void nextVersion() {
+        version = getVersion() + 1;
     }
 
     public Object clone() throws CloneNotSupportedException {
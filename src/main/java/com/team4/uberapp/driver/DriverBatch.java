@@ -0,0 +1,33 @@
+/**
+ * DriverBatch: batch of driver creates, updates & deletes
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.driver;
+
+import com.team4.uberapp.batch.AccountBatch;
+
+public class DriverBatch extends AccountBatch<Driver> {
+
+    public DriverBatch() {
+        super(Driver.class, "driver", 1001, "Driver has conflict email address： ");
+    }
+
+    @Override
+    protected Driver merge(Driver driver, Driver update) throws CloneNotSupportedException {
+        Driver merged = DriverController.merge(driver, update);
+        merged.nextVersion();
+        return merged;
+    }
+
+    @Override
+    protected void updated(Driver previous, Driver driver) {
+        DriverController.reads.forget(driver.getId());
+    }
+
+    @Override
+    protected void deleted(Driver driver) {
+        DriverController.reads.forget(driver.getId());
+    }
+}
@@ -8,13 +8,20 @@
 package com.team4.uberapp.driver;
 
 import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.team4.uberapp.MongoConfiguration;
 import com.team4.uberapp.domain.Repositories;
 import com.team4.uberapp.passenger.Passenger;
+import com.team4.uberapp.persistence.ListQuery;
 import com.team4.uberapp.persistence.MongoRepositories;
+import com.team4.uberapp.persistence.Versions;
+import com.team4.uberapp.util.DataFormat;
+import com.team4.uberapp.util.ETags;
 import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.JsonResponses;
+import com.team4.uberapp.util.SingleFlight;
+import com.team4.uberapp.util.TimeOrderedIds;
 import com.team4.uberapp.util.UberAppUtil;
+import com.team4.uberapp.validation.Violation;
 import org.mongolink.MongoSession;
 import org.mongolink.domain.criteria.Criteria;
 import org.mongolink.domain.criteria.Order;
@@ -33,66 +40,123 @@ import java.util.UUID;
  * @version 0.2
  */
 public class DriverController extends UberAppUtil {
+    // concurrent GET /drivers/:id of the same id share one read
+    static final SingleFlight<UUID> reads = new SingleFlight<>("drivers");
+
     /**
      * Implementation for route:
      *      //GET  /drivers  -- get all drivers
      *      //GET  /drivers for querying parameters count, offsetId, sort & sortOrder
      *      Used in combination with sort, it specifies the order in which to return the elements. asc is for asending
      *      or desc for descending. Default value is asc except for a time-based sort field in which case the default values is desc
+     *      fields, comma separated fields to return
+     *      withTotal=true, X-Total-Count header with the number of matching drivers & X-Next-Offset with the offsetId
+     *      of the next page
+     *      filters on any field: field=value, field[in]=a,b, field[gt|gte|lt|lte]=value, answered only when an
+     *      index serves them, else 400; a sort no index serves is answered with a Warning header
+     *      Accept: application/cbor, application/x-jackson-smile or application/x-msgpack for a binary list
      *
      * @return List<Driver> a list of drivers
      */
     public static Route getAll = (req, res) -> {
+        DataFormat format = acceptedFormat(req, res);
+        // read before the list, the list is at least as recent as its ETag
+        long version = Versions.collection("driver");
+        String etag = format.etag(ETags.collection(version));
+        if (ETags.notModified(req, res, etag)) {
+            return "";
+        }
         final MongoSession session = MongoConfiguration.createSession();
         session.start();
         Repositories.initialise(new MongoRepositories(session));
-        List<Driver> drivers;
+        List<?> drivers;
 
         if (req.queryParams().isEmpty()) {
             drivers = Repositories.drivers().all();
         } else {
-            Criteria criteria = session.createCriteria(Driver.class); // create criteria object
-            final List<String> queryFields = Arrays.asList("count", "offsetId", "sort", "sortOrder");
+            ListQuery query = new ListQuery();
+            final List<String> queryFields = Arrays.asList("count", "offsetId", "sort", "sortOrder", "fields", "withTotal");
             Set<String> queryParams = req.queryParams();
             String querySort = null;
             String querySortOrder = null;
+            boolean withTotal = false;
             for(String param : queryParams){
-                if (!queryFields.contains(param)) {
+                if (!queryFields.contains(param) && !ListQuery.isFilter(param, Driver.class)) {
                     session.stop();
                     res.status(200);
                     res.type("applicaiton/json");
-                    return dataToJson("Wrong query params :" + param);
+                    return JsonResponses.wrongQueryParams(param);
                 }
                 if (param.compareTo("count") == 0)  {
-                    criteria.limit(Integer.parseInt(req.queryParams(param)));
+                    query.limit(Integer.parseInt(req.queryParams(param)));
                 } else if (param.compareTo("offsetId") == 0) {
-                    criteria.skip(Integer.parseInt(req.queryParams(param)));
+                    query.skip(Integer.parseInt(req.queryParams(param)));
                 } else if (param.equalsIgnoreCase("sort") == true){
                     querySort = new String(req.queryParams(param));
                 } else if (param.equalsIgnoreCase("sortOrder") == true) {
                     querySortOrder = new String(req.queryParams(param));
+                } else if (param.equals("withTotal")) {
+                    withTotal = Boolean.parseBoolean(req.queryParams(param));
+                } else if (param.equals("fields")) {
+                    try {
+                        query.fields(ListQuery.parseFields(req.queryParams(param), Driver.class));
+                    } catch (IllegalArgumentException e) {
+                        session.stop();
+                        res.status(400);
+                        res.type("application/json");
+                        return ErrorReport.toBytes(4002, e.getMessage());
+                    }
+                } else {
+                    try {
+                        query.where(param, req.queryParams(param), Driver.class);
+                    } catch (IllegalArgumentException e) {
+                        session.stop();
+                        res.status(400);
+                        res.type("application/json");
+                        return ErrorReport.toBytes(4002, e.getMessage());
+                    }
                 }
             }
             // setup sort and sortOrder
             if (querySort != null && querySortOrder != null) {
                 if (querySortOrder.equalsIgnoreCase("asc") == true) {
-                    criteria.sort(querySort, Order.ASCENDING);
+                    query.sort(querySort, Order.ASCENDING);
                 } else {
-                    criteria.sort(querySort, Order.DESCENDING);
+                    query.sort(querySort, Order.DESCENDING);
                 }
             } else if (((querySort != null) && (querySortOrder == null)) ||
                     ((querySort == null) && (querySortOrder != null)) ){
                 session.stop();
                 res.status(200);
                 res.type("applicaiton/json");
-                return dataToJson("sort & sortOrder params must be in pair.");
+                return JsonResponses.SORT_PARAMS_NOT_IN_PAIR;
+            }
+            // filters only run on an index, whole lists sorted without one are still answered but flagged
+            String unindexed = query.unindexed(MongoConfiguration.indexKeys("driver"));
+            if (unindexed != null && query.isFiltered()) {
+                session.stop();
+                res.status(400);
+                res.type("application/json");
+                return ErrorReport.toBytes(4002, unindexed);
+            } else if (unindexed != null) {
+                res.header("Warning", "299 - \"" + unindexed + "\"");
+            }
+            // only the fields asked for are read when there are some
+            drivers = query.isProjected() ? Repositories.drivers().project(query) : Repositories.drivers().list(query);
+            if (withTotal) {
+                long total = Repositories.drivers().count(query, version);
+                res.header("X-Total-Count", String.valueOf(total));
+                // offsetId of the next page, until the pages reach the total
+                if (query.getLimit() > 0 && query.getSkip() + drivers.size() < total) {
+                    res.header("X-Next-Offset", String.valueOf(query.getSkip() + drivers.size()));
+                }
             }
-            drivers = criteria.list();
         }
         session.stop();
+        res.header("ETag", etag);
         res.status(200);
-        res.type("application/json");
-        return dataToJson(drivers);
+        res.type(format.getContentType());
+        return dataToFormat(drivers, format);
     };
 
     /**
@@ -101,33 +165,44 @@ public class DriverController extends UberAppUtil {
      * @return Driver  info for one driver
      */
     public static Route getById = (req, res) -> {
-        final MongoSession session = MongoConfiguration.createSession();
-
-        session.start();
-        Repositories.initialise(new MongoRepositories(session));
-
         try {
             UUID uid = UUID.fromString(req.params(":id"));
-            Driver driver = Repositories.drivers().get(uid);
+            // the client's copy is current: answered from the version alone
+            if (req.headers("If-None-Match") != null && ETags.notModified(req, res, ETags.entity(Versions.entity("driver", uid)))) {
+                return "";
+            }
+            SingleFlight.Response response = reads.load(uid, DriverController::read);
 
-            session.stop();
-            res.status(200);
             res.type("application/json");
-            if (driver == null) {
-                res.status(404); // 404 Not found
-                return dataToJson("Driver: " + req.params(":id") + " not found");
-            } else {
-                res.status(200);
-                return dataToJson(driver);
+            res.status(response.getStatus());
+            if (response.getEtag() != null) {
+                res.header("ETag", response.getEtag());
             }
+            return response.getBody();
         } catch (Exception e){
-            session.stop();
             res.status(400);
             res.type("application/json");
             return ErrorReport.toJson(1001, e.getMessage());
         }
     };
 
+    // one Mongo read & one serialization for the concurrent requests of a driver
+    private static SingleFlight.Response read(UUID uid) {
+        final MongoSession session = MongoConfiguration.createSession();
+
+        session.start();
+        Repositories.initialise(new MongoRepositories(session));
+        try {
+            Driver driver = Repositories.drivers().get(uid);
+            if (driver == null) {
+                return new SingleFlight.Response(404, dataToJsonBytes("Driver: " + uid + " not found"));
+            }
+            return new SingleFlight.Response(200, dataToJsonBytes(driver), ETags.entity(driver.getVersion()));
+        } finally {
+            session.stop();
+        }
+    }
+
     /**
      * The constant create.
      * POST /drivers  Create driver
@@ -153,16 +228,15 @@ public class DriverController extends UberAppUtil {
         Repositories.initialise(new MongoRepositories(session));
 
         try{
-            ObjectMapper mapper = new ObjectMapper();
-            Driver driver = mapper.readValue(req.body(), Driver.class);
+            Driver driver = jsonToData(req.body(), Driver.class);
             String email = driver.getEmailAddress();
 
-            try {
-                driver.isValid();
-            } catch (Exception e){
+            List<Violation> violations = driver.violations();
+            if (!violations.isEmpty()) {
+                session.stop();
                 res.status(400);
                 res.type("application/json");
-                return e.getMessage();
+                return ErrorReport.toBytes(violations);
             }
 
             Criteria criteria = session.createCriteria(Passenger.class); // create criteria object
@@ -174,12 +248,13 @@ public class DriverController extends UberAppUtil {
                 criteria = session.createCriteria(Driver.class);
                 criteria.add(Restrictions.equals("emailAddress", email));
                 if (criteria.list() == null || criteria.list().isEmpty()) {
-                    driver.setId(UUID.randomUUID()); //generate UUID for driver
+                    driver.setId(TimeOrderedIds.next()); //generate UUID for driver
                     driver.setPassword(hashPassword(driver.getPassword()));
                     //session.clear();
                     Repositories.drivers().add(driver);
 
                     session.stop();
+                    Versions.touch("driver");
                     res.status(201);
                     res.type("application/json");
                     return dataToJson(driver);
@@ -210,93 +285,23 @@ public class DriverController extends UberAppUtil {
 
         UUID uid = UUID.fromString(req.params(":id"));
         Driver driver = Repositories.drivers().get(uid);
-        Driver validationDriver = (Driver) driver.clone();
+        if (driver == null) {
+            session.stop();
+            res.status(404);
+            res.type("application/json");
+            return dataToJson("Driver: " + req.params(":id") +" not found");
+        }
 
         try{
-            ObjectMapper mapper = new ObjectMapper();
-            Driver updatedDriver = mapper.readValue(req.body(), Driver.class);
-
-            // firstName
-            if (updatedDriver.getFirstName() != null) {
-                if (!updatedDriver.getFirstName().isEmpty()) {
-                    validationDriver.setFirstName(updatedDriver.getFirstName());
-                }
-            }
-            // lastName
-            if (updatedDriver.getLastName() != null) {
-                if (!updatedDriver.getLastName().isEmpty()) {
-                    validationDriver.setLastName(updatedDriver.getLastName());
-                }
-            }
-            // emailAddress
-            if (updatedDriver.getEmailAddress() != null) {
-                if (!updatedDriver.getEmailAddress().isEmpty()) {
-                    validationDriver.setEmailAddress(updatedDriver.getEmailAddress());
-                }
-            }
-            // password
-            if (updatedDriver.getPassword() != null) {
-                if (!updatedDriver.getPassword().isEmpty()) {
-                    validationDriver.setPassword(hashPassword(updatedDriver.getPassword()));
-                }
-            }
-
-            // addressLine1
-            if (updatedDriver.getAddressLine1() != null) {
-                if (!updatedDriver.getAddressLine1().isEmpty()) {
-                    validationDriver.setAddressLine1(updatedDriver.getAddressLine1());
-                }
-            }
-            // addressLine2
-            if (updatedDriver.getAddressLine2() != null) {
-                if (!updatedDriver.getAddressLine2().isEmpty()) {
-                    validationDriver.setAddressLine2(updatedDriver.getAddressLine2());
-                }
-            }
-            // city
-            if (updatedDriver.getCity() != null) {
-                if (!updatedDriver.getCity().isEmpty()) {
-                    validationDriver.setCity(updatedDriver.getCity());
-                }
-            }
-            // state
-            if (updatedDriver.getState() != null) {
-                if (!updatedDriver.getState().isEmpty()) {
-                    validationDriver.setState(updatedDriver.getState());
-                }
-            }
-            // zip
-            if (updatedDriver.getZip() != null) {
-                if (!updatedDriver.getZip().isEmpty()) {
-                    validationDriver.setZip(updatedDriver.getZip());
-                }
-            }
-            // phoneNumber
-            if (updatedDriver.getPhoneNumber() != null) {
-                if (!updatedDriver.getPhoneNumber().isEmpty()) {
-                    validationDriver.setPhoneNumber(updatedDriver.getPhoneNumber());
-                }
-            }
-            // drivingLicense
-            if (updatedDriver.getDrivingLicense() != null) {
-                if (!updatedDriver.getDrivingLicense().isEmpty()) {
-                    validationDriver.setDrivingLicense(updatedDriver.getDrivingLicense());
-                }
-            }
-            // licensedState
-            if (updatedDriver.getLicensedState() != null) {
-                if (!updatedDriver.getLicensedState().isEmpty()) {
-                    validationDriver.setLicensedState(updatedDriver.getLicensedState());
-                }
-            }
+            Driver updatedDriver = jsonToData(req.body(), Driver.class);
+            Driver validationDriver = merge(driver, updatedDriver);
 
-
-            try{
-                validationDriver.isValid();
-            }catch (Exception e){
+            List<Violation> violations = validationDriver.violations();
+            if (!violations.isEmpty()) {
                 session.stop();
                 res.status(400);
-                return e.getMessage();
+                res.type("application/json");
+                return ErrorReport.toBytes(violations);
             }
 
             //update value
@@ -312,8 +317,17 @@ public class DriverController extends UberAppUtil {
             driver.setPhoneNumber(validationDriver.getPhoneNumber());
             driver.setDrivingLicense(validationDriver.getDrivingLicense());
             driver.setLicensedState(validationDriver.getLicensedState());
+            long read = driver.getVersion();
+            driver.nextVersion();
+            // written only at the version read, not by the session
+            session.clear();
             session.stop();
             res.type("application/json");
+            if (!Versions.replace("driver", driver, uid, read)) {
+                return notUpdated(res, "Driver", 1009, uid, Versions.entity("driver", uid) == null);
+            }
+            reads.forget(driver.getId());
+            Versions.touch("driver");
             return dataToJson("Driver:" + req.params(":id") +" updated!");
         }catch (JsonParseException e){
             session.stop();
@@ -323,6 +337,97 @@ public class DriverController extends UberAppUtil {
         }
     };
 
+    // the fields of the update that are set, over a copy of the driver, to validate before it changes
+    static Driver merge(Driver driver, Driver updatedDriver) throws CloneNotSupportedException {
+        Driver validationDriver = (Driver) driver.clone();
+        // firstName
+        if (updatedDriver.getFirstName() != null) {
+            if (!updatedDriver.getFirstName().isEmpty()) {
+                validationDriver.setFirstName(updatedDriver.getFirstName());
+            }
+        }
+        // lastName
+        if (updatedDriver.getLastName() != null) {
+            if (!updatedDriver.getLastName().isEmpty()) {
+                validationDriver.setLastName(updatedDriver.getLastName());
+            }
+        }
+        // emailAddress
+        if (updatedDriver.getEmailAddress() != null) {
+            if (!updatedDriver.getEmailAddress().isEmpty()) {
+                validationDriver.setEmailAddress(updatedDriver.getEmailAddress());
+            }
+        }
+        // password
+        if (updatedDriver.getPassword() != null) {
+            if (!updatedDriver.getPassword().isEmpty()) {
+                validationDriver.setPassword(hashPassword(updatedDriver.getPassword()));
+            }
+        }
+
+        // addressLine1
+        if (updatedDriver.getAddressLine1() != null) {
+            if (!updatedDriver.getAddressLine1().isEmpty()) {
+                validationDriver.setAddressLine1(updatedDriver.getAddressLine1());
+            }
+        }
+        // addressLine2
+        if (updatedDriver.getAddressLine2() != null) {
+            if (!updatedDriver.getAddressLine2().isEmpty()) {
+                validationDriver.setAddressLine2(updatedDriver.getAddressLine2());
+            }
+        }
+        // city
+        if (updatedDriver.getCity() != null) {
+            if (!updatedDriver.getCity().isEmpty()) {
+                validationDriver.setCity(updatedDriver.getCity());
+            }
+        }
+        // state
+        if (updatedDriver.getState() != null) {
+            if (!updatedDriver.getState().isEmpty()) {
+                validationDriver.setState(updatedDriver.getState());
+            }
+        }
+        // zip
+        if (updatedDriver.getZip() != null) {
+            if (!updatedDriver.getZip().isEmpty()) {
+                validationDriver.setZip(updatedDriver.getZip());
+            }
+        }
+        // phoneNumber
+        if (updatedDriver.getPhoneNumber() != null) {
+            if (!updatedDriver.getPhoneNumber().isEmpty()) {
+                validationDriver.setPhoneNumber(updatedDriver.getPhoneNumber());
+            }
+        }
+        // drivingLicense
+        if (updatedDriver.getDrivingLicense() != null) {
+            if (!updatedDriver.getDrivingLicense().isEmpty()) {
+                validationDriver.setDrivingLicense(updatedDriver.getDrivingLicense());
+            }
+        }
+        // licensedState
+        if (updatedDriver.getLicensedState() != null) {
+            if (!updatedDriver.getLicensedState().isEmpty()) {
+                validationDriver.setLicensedState(updatedDriver.getLicensedState());
+            }
+        }
+        return validationDriver;
+    }
+
+    /**
+     * POST /drivers/batch  Create, update & delete drivers with one bulk write
+     * [
+     *  {"op":"create", "data":{"firstName":"Hector", "lastName":"Guo", "emailAddress":"hectorguo@live.com",
+     *                          "password":"password", ...}},
+     *  {"op":"update", "id":"9e584258-554c-4275-abba-6f02c3ab7476", "data":{"phoneNumber":"666-777-9999"}},
+     *  {"op":"delete", "id":"6c1a2f0e-93c4-4d55-b8f5-2b1f0c0d4e11"}
+     * ]
+     * @return List of the status of each operation, in order
+     */
+    public static Route batch = (req, res) -> new DriverBatch().handle(req, res);
+
     /**
      * DELETE /cars/:id  Delete car by id
      */
@@ -337,8 +442,10 @@ public class DriverController extends UberAppUtil {
         Repositories.drivers().delete(driver);
 
         session.stop();
+        reads.forget(uid);
+        Versions.touch("driver");
         res.status(200);
         res.type("application/json");
-        return dataToJson("Driver Deleted");
+        return JsonResponses.DRIVER_DELETED;
     };
 }
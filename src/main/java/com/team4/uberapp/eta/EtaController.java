@@ -0,0 +1,47 @@
+/**
+ * ETA Controller, travel time between two positions
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.eta;
+
+import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.UberAppUtil;
+import spark.Route;
+
+/**
+ * EtaController: eta routes, answered from memory
+ */
+public class EtaController extends UberAppUtil {
+    /**
+     * GET /eta?fromLat=&fromLng=&toLat=&toLng=  Driving time estimate, leaving now
+     *      driver position to pickup for a pickup ETA, pickup to drop-off for a trip ETA
+     * {
+     *  "distanceMeters": 5320,
+     *  "etaSeconds": 712,
+     *  "observedShare": 0.83
+     * }
+     * @return EtaEngine.Estimate  distance, time & part of the way covered by observed speeds
+     */
+    public static Route getEta = (req, res) -> {
+        res.type("application/json");
+        double[] positions = new double[4];
+        String[] names = {"fromLat", "fromLng", "toLat", "toLng"};
+        try {
+            for (int i = 0; i < names.length; i++) {
+                positions[i] = Double.parseDouble(req.queryParams(names[i]));
+            }
+        } catch (NullPointerException | NumberFormatException e) {
+            res.status(400);
+            return ErrorReport.toBytes(7001, "fromLat, fromLng, toLat & toLng are required numbers");
+        }
+        if (Math.abs(positions[0]) > 90 || Math.abs(positions[2]) > 90 ||
+                Math.abs(positions[1]) > 180 || Math.abs(positions[3]) > 180) {
+            res.status(400);
+            return ErrorReport.toBytes(7001, "positions are out of range");
+        }
+        res.status(200);
+        return dataToJson(EtaEngine.estimate(positions[0], positions[1], positions[2], positions[3]));
+    };
+}
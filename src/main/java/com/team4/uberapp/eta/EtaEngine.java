@@ -0,0 +1,395 @@
+/**
+ * EtaEngine: travel time estimates from the speeds observed in stored route points
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.eta;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.domain.Repositories;
+import com.team4.uberapp.persistence.MongoRepositories;
+import com.team4.uberapp.ride.RoutePoint;
+import com.team4.uberapp.util.GeoCells;
+import org.bson.Document;
+import org.mongolink.MongoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two consecutive route points of a ride make a segment, its speed is a sample of the (cell, hour of week)
+ * of its middle. The grid keeps per cell 168 average speeds plus the all hours average, published as
+ * immutable float arrays so queries read them without lock.
+ *
+ * The grid is built by a background job, each run only reads the route points stored since the previous run,
+ * in the order the database stored them (see RoutePointCursor), and updates the cells they touch. The sums of
+ * the touched cells & the cursor are saved to the etagrid collection after each run, the first run after a
+ * restart loads them & reads on from there. A crash between the two writes counts the points of that run twice
+ * at the next start, a ride going on across a restart loses the segment of the restart.
+ */
+public class EtaEngine {
+    private static final Logger logger = LoggerFactory.getLogger(EtaEngine.class);
+
+    private static final int HOURS_PER_WEEK = 168;
+    private static final int ALL_HOURS = HOURS_PER_WEEK;
+    private static final long HOUR_MILLIS = 3600000L;
+    // 1970-01-01 was a thursday, hour 0 of the week is monday 00:00 UTC
+    private static final long EPOCH_HOUR_OF_WEEK = 72;
+    private static final long MAX_SEGMENT_MILLIS = 10 * 60 * 1000L;
+    private static final double MAX_SPEED = 60.0;
+    private static final double MIN_SPEED = 1.0;
+    private static final long RIDE_IDLE_MILLIS = HOUR_MILLIS;
+    private static final String CHECKPOINT = "etagrid";
+    private static final String CITYWIDE = "citywide";
+    private static final String CURSOR = "cursor";
+
+    // published grid: cell -> average speed in m/s per hour of week, then all hours, NaN when unknown
+    private static final ConcurrentHashMap<Long, float[]> grid = new ConcurrentHashMap<>();
+    private static volatile float[] citywide = unknown();
+
+    // owned by the build job
+    private static final Map<Long, Accumulator> accumulators = new HashMap<>();
+    private static final Accumulator citywideAccumulator = new Accumulator();
+    private static final Map<UUID, RoutePoint> lastPointOfRide = new HashMap<>();
+    // cells changed since the last saved checkpoint
+    private static final Set<Long> unsaved = new HashSet<>();
+    private static RoutePointCursor cursor;
+
+    private static double cellDegrees = 0.01;
+    private static int batchSize = 5000;
+    private static double defaultSpeed = 30 / 3.6;
+    private static double detourFactor = 1.3;
+    private static long lookbackMillis = 10000;
+
+    private static ScheduledExecutorService builder;
+    private static volatile long routePointsRead = 0;
+    private static volatile long lastBuildMillis = -1;
+
+    /**
+     * Read the eta.* settings & schedule the grid build, only the first call does it
+     * @param properties application configuration
+     */
+    public static synchronized void start(Properties properties) {
+        if (builder != null) {
+            return;
+        }
+        cellDegrees = properties.getEtaCellDegrees();
+        batchSize = properties.getEtaBatchSize();
+        defaultSpeed = properties.getEtaDefaultSpeedKmh() / 3.6;
+        detourFactor = properties.getEtaDetourFactor();
+        lookbackMillis = properties.getEtaLookbackSeconds() * 1000L;
+        builder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "eta-grid-build");
+            thread.setDaemon(true);
+            return thread;
+        });
+        builder.scheduleWithFixedDelay(EtaEngine::build, 0, properties.getEtaRebuildSeconds(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Estimate the driving time between two positions, leaving now
+     * @return Estimate - road distance & travel time
+     */
+    public static Estimate estimate(double fromLat, double fromLng, double toLat, double toLng) {
+        int hour = hourOfWeek(System.currentTimeMillis());
+        double straight = GeoCells.distanceMeters(fromLat, fromLng, toLat, toLng);
+        // walk the straight line cell by cell, each piece at the speed of its cell
+        int pieces = Math.max(1, (int) Math.ceil(Math.max(Math.abs(toLat - fromLat), Math.abs(toLng - fromLng)) / (cellDegrees / 2)));
+        double pieceMeters = straight * detourFactor / pieces;
+        double seconds = 0;
+        int observed = 0;
+        float[] citywideSpeeds = citywide;
+        for (int i = 0; i < pieces; i++) {
+            double f = (i + 0.5) / pieces;
+            float[] speeds = grid.get(GeoCells.key(fromLat + (toLat - fromLat) * f, fromLng + (toLng - fromLng) * f, cellDegrees));
+            double speed = Double.NaN;
+            if (speeds != null) {
+                speed = !Float.isNaN(speeds[hour]) ? speeds[hour] : speeds[ALL_HOURS];
+                observed++;
+            }
+            if (Double.isNaN(speed)) {
+                speed = !Float.isNaN(citywideSpeeds[hour]) ? citywideSpeeds[hour] : defaultSpeed;
+            }
+            seconds += pieceMeters / Math.max(speed, MIN_SPEED);
+        }
+        return new Estimate(Math.round(straight * detourFactor), Math.round(seconds), (double) observed / pieces);
+    }
+
+    public static int getCellCount() {
+        return grid.size();
+    }
+
+    public static long getRoutePointsRead() {
+        return routePointsRead;
+    }
+
+    public static long getLastBuildMillis() {
+        return lastBuildMillis;
+    }
+
+    // one incremental run: read the new route points batch by batch, then publish & save the touched cells
+    static synchronized void build() {
+        long start = System.currentTimeMillis();
+        try {
+            if (cursor == null) {
+                restore();
+            }
+            Map<Long, Accumulator> touched = new HashMap<>();
+            long newest = 0;
+            long read = 0;
+            Date from = cursor.from();
+            RoutePoint after = null;
+            List<RoutePoint> batch;
+            do {
+                final MongoSession session = MongoConfiguration.createSession();
+                session.start();
+                try {
+                    Repositories.initialise(new MongoRepositories(session));
+                    batch = Repositories.routePoints().findStoredSince(from, after, batchSize);
+                } finally {
+                    session.stop();
+                }
+
+                for (RoutePoint point : batch) {
+                    if (cursor.accept(point)) {
+                        newest = Math.max(newest, add(point, touched));
+                        read++;
+                    }
+                    after = point;
+                }
+            } while (batch.size() == batchSize);
+            cursor.prune();
+            routePointsRead += read;
+
+            publish(touched);
+            // a failed save is retried by the next run
+            if (read > 0 || !unsaved.isEmpty()) {
+                save();
+            }
+            // rides without a point for an hour are over, forget their last point
+            for (Iterator<RoutePoint> it = lastPointOfRide.values().iterator(); it.hasNext(); ) {
+                if (it.next().getTimestamp().longValue() < newest - RIDE_IDLE_MILLIS) {
+                    it.remove();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("ETA grid build failed, retried at the next run", e);
+        }
+        lastBuildMillis = System.currentTimeMillis() - start;
+    }
+
+    // the segments of points in storage order, added & published as a build does, without the cursor
+    static synchronized void addAll(List<RoutePoint> points) {
+        Map<Long, Accumulator> touched = new HashMap<>();
+        for (RoutePoint point : points) {
+            add(point, touched);
+        }
+        publish(touched);
+    }
+
+    // forget the grid & the cursor, as a restart does: the next build loads the checkpoint
+    static synchronized void reset() {
+        grid.clear();
+        citywide = unknown();
+        accumulators.clear();
+        citywideAccumulator.clear();
+        lastPointOfRide.clear();
+        unsaved.clear();
+        cursor = null;
+    }
+
+    // queries read the new averages of the touched cells from now on
+    private static void publish(Map<Long, Accumulator> touched) {
+        for (Map.Entry<Long, Accumulator> cell : touched.entrySet()) {
+            grid.put(cell.getKey(), cell.getValue().averages());
+        }
+        if (!touched.isEmpty()) {
+            citywide = citywideAccumulator.averages();
+        }
+    }
+
+    // adds the segment ending at point, returns its timestamp
+    private static long add(RoutePoint point, Map<Long, Accumulator> touched) {
+        if (point.getRideId() == null || point.getLat() == null || point.getLng() == null || point.getTimestamp() == null) {
+            return 0;
+        }
+        long timestamp = point.getTimestamp().longValue();
+        RoutePoint previous = lastPointOfRide.get(point.getRideId());
+        if (previous != null && timestamp <= previous.getTimestamp().longValue()) {
+            // late point, the segment is unknown
+            return timestamp;
+        }
+        lastPointOfRide.put(point.getRideId(), point);
+        if (previous == null || timestamp - previous.getTimestamp().longValue() > MAX_SEGMENT_MILLIS) {
+            return timestamp;
+        }
+        double fromLat = previous.getLat().doubleValue();
+        double fromLng = previous.getLng().doubleValue();
+        double toLat = point.getLat().doubleValue();
+        double toLng = point.getLng().doubleValue();
+        double speed = GeoCells.distanceMeters(fromLat, fromLng, toLat, toLng) * 1000.0
+                / (timestamp - previous.getTimestamp().longValue());
+        if (speed > MAX_SPEED) {
+            // gps jump
+            return timestamp;
+        }
+        int hour = hourOfWeek(timestamp);
+        long cell = GeoCells.key((fromLat + toLat) / 2, (fromLng + toLng) / 2, cellDegrees);
+        Accumulator accumulator = accumulators.computeIfAbsent(cell, key -> new Accumulator());
+        accumulator.add(hour, speed);
+        citywideAccumulator.add(hour, speed);
+        touched.put(cell, accumulator);
+        unsaved.add(cell);
+        return timestamp;
+    }
+
+    // the sums & the cursor of the previous runs, nothing is read twice after a restart
+    private static void restore() {
+        RoutePointCursor restored = new RoutePointCursor(lookbackMillis);
+        for (Document document : MongoConfiguration.database().getCollection(CHECKPOINT).find()) {
+            Object id = document.get("_id");
+            if (CURSOR.equals(id)) {
+                Map<UUID, Long> seen = new HashMap<>();
+                for (Object entry : document.get("seen", List.class)) {
+                    Document point = (Document) entry;
+                    seen.put(UUID.fromString(point.getString("id")), point.getLong("storedAt"));
+                }
+                restored = new RoutePointCursor(lookbackMillis, document.getLong("watermark"), seen);
+            } else if (CITYWIDE.equals(id)) {
+                citywideAccumulator.load(document);
+            } else if (id instanceof Long) {
+                Accumulator accumulator = new Accumulator();
+                accumulator.load(document);
+                accumulators.put((Long) id, accumulator);
+                grid.put((Long) id, accumulator.averages());
+            }
+        }
+        citywide = citywideAccumulator.averages();
+        cursor = restored;
+        logger.info("ETA grid restored, {} cells", grid.size());
+    }
+
+    // cells first, then the cursor: a crash in between reads the points of the run again
+    private static void save() {
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        ReplaceOptions upsert = new ReplaceOptions().upsert(true);
+        for (Long cell : unsaved) {
+            writes.add(new ReplaceOneModel<>(Filters.eq("_id", cell), accumulators.get(cell).toDocument(cell), upsert));
+        }
+        writes.add(new ReplaceOneModel<>(Filters.eq("_id", CITYWIDE), citywideAccumulator.toDocument(CITYWIDE), upsert));
+        List<Document> seen = new ArrayList<>();
+        for (Map.Entry<UUID, Long> entry : cursor.getSeen().entrySet()) {
+            seen.add(new Document("id", entry.getKey().toString()).append("storedAt", entry.getValue()));
+        }
+        writes.add(new ReplaceOneModel<>(Filters.eq("_id", CURSOR), new Document("_id", CURSOR)
+                .append("watermark", cursor.getWatermark()).append("seen", seen), upsert));
+        MongoCollection<Document> checkpoint = MongoConfiguration.database().getCollection(CHECKPOINT);
+        checkpoint.bulkWrite(writes);
+        unsaved.clear();
+    }
+
+    static int hourOfWeek(long millis) {
+        return (int) ((millis / HOUR_MILLIS + EPOCH_HOUR_OF_WEEK) % HOURS_PER_WEEK);
+    }
+
+    private static float[] unknown() {
+        float[] speeds = new float[HOURS_PER_WEEK + 1];
+        Arrays.fill(speeds, Float.NaN);
+        return speeds;
+    }
+
+    private static class Accumulator {
+        private final double[] sums = new double[HOURS_PER_WEEK + 1];
+        private final int[] counts = new int[HOURS_PER_WEEK + 1];
+
+        private void add(int hour, double speed) {
+            sums[hour] += speed;
+            counts[hour]++;
+            sums[ALL_HOURS] += speed;
+            counts[ALL_HOURS]++;
+        }
+
+        private void clear() {
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+        }
+
+        private Document toDocument(Object id) {
+            List<Double> sumList = new ArrayList<>(sums.length);
+            List<Integer> countList = new ArrayList<>(counts.length);
+            for (int i = 0; i < sums.length; i++) {
+                sumList.add(sums[i]);
+                countList.add(counts[i]);
+            }
+            return new Document("_id", id).append("sums", sumList).append("counts", countList);
+        }
+
+        private void load(Document document) {
+            List<?> sumList = document.get("sums", List.class);
+            List<?> countList = document.get("counts", List.class);
+            for (int i = 0; i < sums.length && i < sumList.size(); i++) {
+                sums[i] = ((Number) sumList.get(i)).doubleValue();
+                counts[i] = ((Number) countList.get(i)).intValue();
+            }
+        }
+
+        private float[] averages() {
+            float[] speeds = unknown();
+            for (int i = 0; i < speeds.length; i++) {
+                if (counts[i] > 0) {
+                    speeds[i] = (float) (sums[i] / counts[i]);
+                }
+            }
+            return speeds;
+        }
+    }
+
+    /**
+     * Estimate: result of an ETA query
+     */
+    public static class Estimate {
+        private final long distanceMeters;
+        private final long etaSeconds;
+        private final double observedShare;
+
+        public Estimate(long distanceMeters, long etaSeconds, double observedShare) {
+            this.distanceMeters = distanceMeters;
+            this.etaSeconds = etaSeconds;
+            this.observedShare = observedShare;
+        }
+
+        public long getDistanceMeters() {
+            return distanceMeters;
+        }
+
+        public long getEtaSeconds() {
+            return etaSeconds;
+        }
+
+        // part of the way covered by observed speeds, the rest uses the citywide or default speed
+        public double getObservedShare() {
+            return observedShare;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * RoutePointCursor: position of the incremental reads of the route points
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.eta;
+
+import com.team4.uberapp.ride.RoutePoint;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Route points are read in storedAt order, the date the database set when it stored them. A point may become
+ * visible after points stored later, its write was still in flight during the previous read: each read starts
+ * lookbackMillis before the newest storedAt read, and the points read again are recognised by id & skipped.
+ * The ids of the lookback window are kept, older ones are forgotten. A point visible more than lookbackMillis
+ * after it was stored is never read.
+ *
+ * Points stored before storedAt existed have none, they are only read by the first full scan.
+ */
+class RoutePointCursor {
+    private final long lookbackMillis;
+    // newest storedAt read, -1 before the first point
+    private long watermark;
+    // storedAt of the ids read in the lookback window
+    private final Map<UUID, Long> seen;
+
+    RoutePointCursor(long lookbackMillis) {
+        this(lookbackMillis, -1, new HashMap<>());
+    }
+
+    RoutePointCursor(long lookbackMillis, long watermark, Map<UUID, Long> seen) {
+        this.lookbackMillis = lookbackMillis;
+        this.watermark = watermark;
+        this.seen = new HashMap<>(seen);
+    }
+
+    /**
+     * Lower bound of the next read
+     * @return Date - null before the first point, everything is read
+     */
+    Date from() {
+        return watermark < 0 ? null : new Date(watermark - lookbackMillis);
+    }
+
+    /**
+     * A point was read
+     * @param point point with its storedAt
+     * @return boolean - true the first time the point is read
+     */
+    boolean accept(RoutePoint point) {
+        Date storedAt = point.getStoredAt();
+        if (storedAt == null) {
+            return true;
+        }
+        if (seen.putIfAbsent(point.getId(), storedAt.getTime()) != null) {
+            return false;
+        }
+        watermark = Math.max(watermark, storedAt.getTime());
+        return true;
+    }
+
+    /**
+     * Forget the ids out of the lookback window, once a read is over
+     */
+    void prune() {
+        long oldest = watermark - lookbackMillis;
+        seen.values().removeIf(storedAt -> storedAt < oldest);
+    }
+
+    long getWatermark() {
+        return watermark;
+    }
+
+    Map<UUID, Long> getSeen() {
+        return Collections.unmodifiableMap(seen);
+    }
+}
@@ -0,0 +1,448 @@
+/**
+ * EventLog: local append-only event log, in memory-mapped segment files
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.eventlog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * The log is a directory of segments named after the offset of their first record (00000000000000000000.log).
+ * A segment is a file of eventlog.segmentBytes mapped in memory, records are appended until it is full,
+ * then a new segment is started. Records are never changed; offsets are record numbers.
+ *
+ * Record: length of the payload (4 bytes), crc32 of id & payload (4), outbox event id (16), payload.
+ * The length is written last, a length of 0 marks the end of the segment. At start-up the last segment is
+ * scanned and a record torn by a crash is cut off.
+ *
+ * One writer (the outbox relay) appends under the log lock, readers never lock: they read up to the
+ * volatile write position of a segment. Each segment keeps the position of every INDEX_INTERVAL-th record,
+ * so a reader starting at an offset walks at most INDEX_INTERVAL records.
+ *
+ * Only the last retainedSegments segments are kept: when a new segment makes one too many, the oldest is
+ * dropped & its file deleted. Readers hold the segment they are reading, it is unmapped once the last one
+ * let it go. The ids of the last RECENT_IDS records are remembered, from the newest segments at start-up,
+ * so the ids a relay writes again after a crash are skipped even across a segment rollover.
+ */
+public class EventLog {
+    private static final Logger logger = LoggerFactory.getLogger(EventLog.class);
+
+    static final int HEADER_BYTES = 24;
+    private static final int INDEX_INTERVAL = 64;
+    private static final int RECENT_IDS = 10000;
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int retainedSegments;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private Segment active;
+    private volatile long nextOffset;
+    // ids appended lately, a batch relayed twice after a failure is only written once
+    private final Map<UUID, Boolean> recentIds = new LinkedHashMap<UUID, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Boolean> eldest) {
+            return size() > RECENT_IDS;
+        }
+    };
+
+    /**
+     * Open the log of a directory, created if needed
+     * @param directory segment files directory
+     * @param segmentBytes size of a segment file
+     * @param retainedSegments number of segments kept, the oldest are deleted, 0 keeps them all
+     * @return EventLog - ready to append after the last valid record
+     * @throws IOException if the directory or a segment can not be opened
+     */
+    public static EventLog open(Path directory, int segmentBytes, int retainedSegments) throws IOException {
+        EventLog log = new EventLog(directory, segmentBytes, retainedSegments);
+        log.load();
+        return log;
+    }
+
+    private EventLog(Path directory, int segmentBytes, int retainedSegments) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.retainedSegments = retainedSegments;
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long baseOffset = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                segments.put(baseOffset, new Segment(baseOffset, file, map(file, Files.size(file))));
+            }
+        }
+        if (segments.isEmpty()) {
+            active = createSegment(0);
+        } else {
+            active = segments.lastEntry().getValue();
+            active.scan(true);
+            loadRecentIds();
+        }
+        nextOffset = active.baseOffset + active.count;
+    }
+
+    // ids of the last records, from as many of the newest segments as needed
+    private void loadRecentIds() {
+        Deque<List<UUID>> newest = new ArrayDeque<>();
+        int count = 0;
+        for (Segment segment : segments.descendingMap().values()) {
+            if (count >= RECENT_IDS) {
+                break;
+            }
+            List<UUID> ids = segment.ids();
+            newest.addFirst(ids);
+            count += ids.size();
+        }
+        for (List<UUID> ids : newest) {
+            for (UUID id : ids) {
+                recentIds.put(id, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * Append one record
+     * @param id outbox event id
+     * @param payload utf-8 json of the event
+     * @return long - offset of the record, -1 if this id was appended lately
+     * @throws IOException if a new segment can not be created
+     */
+    public synchronized long append(UUID id, byte[] payload) throws IOException {
+        if (recentIds.containsKey(id)) {
+            return -1;
+        }
+        int size = HEADER_BYTES + payload.length;
+        if (size > segmentBytes) {
+            throw new IllegalArgumentException("Event of " + payload.length + " bytes is larger than a segment");
+        }
+        if (active.position + size > active.buffer.capacity()) {
+            active.buffer.force();
+            active = createSegment(nextOffset);
+            dropOldSegments();
+        }
+        int position = active.position;
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.putLong(position + 8, id.getMostSignificantBits());
+        buffer.putLong(position + 16, id.getLeastSignificantBits());
+        buffer.position(position + HEADER_BYTES);
+        buffer.put(payload);
+        crc.update(ids(id));
+        crc.update(payload);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putInt(position, payload.length);
+
+        long offset = nextOffset;
+        active.appended(position, size);
+        nextOffset = offset + 1;
+        recentIds.put(id, Boolean.TRUE);
+        return offset;
+    }
+
+    /**
+     * Write the appended records to disk
+     */
+    public synchronized void flush() {
+        active.buffer.force();
+    }
+
+    /**
+     * Release the segments, the log can not be used any more
+     */
+    public synchronized void close() {
+        active.buffer.force();
+        for (Segment segment : segments.values()) {
+            segment.retire();
+        }
+        segments.clear();
+    }
+
+    /**
+     * Read records from an offset
+     * @param offset offset of the first record, records before the oldest segment are skipped
+     * @param max maximum number of records
+     * @return List<LogRecord> - records in offset order, empty at the end of the log
+     */
+    public List<LogRecord> read(long offset, int max) {
+        List<LogRecord> records = new ArrayList<>();
+        if (offset >= nextOffset || segments.isEmpty()) {
+            return records;
+        }
+        Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+        if (entry == null) {
+            entry = segments.firstEntry();
+            offset = entry.getKey();
+        }
+        while (entry != null && records.size() < max) {
+            // a segment dropped meanwhile has nothing to read
+            records.addAll(entry.getValue().records(offset, max - records.size()));
+            entry = segments.higherEntry(entry.getKey());
+            if (entry != null) {
+                offset = entry.getKey();
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Reader positioned at an offset
+     * @param offset offset of the first record to read, getNextOffset() to only read new records
+     * @return EventLogReader - reader for one consumer thread
+     */
+    public EventLogReader reader(long offset) {
+        return new EventLogReader(this, offset);
+    }
+
+    // offset the next record will get
+    public long getNextOffset() {
+        return nextOffset;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    // offset of the oldest record still kept
+    public long getFirstOffset() {
+        Map.Entry<Long, Segment> first = segments.firstEntry();
+        return first == null ? nextOffset : first.getKey();
+    }
+
+    private Segment createSegment(long baseOffset) throws IOException {
+        Path file = directory.resolve(String.format("%020d", baseOffset) + SUFFIX);
+        Segment segment = new Segment(baseOffset, file, map(file, segmentBytes));
+        segment.scanned = true;
+        segments.put(baseOffset, segment);
+        return segment;
+    }
+
+    // retention: the oldest segments over retainedSegments are deleted
+    private void dropOldSegments() {
+        while (retainedSegments > 0 && segments.size() > retainedSegments) {
+            Segment oldest = segments.pollFirstEntry().getValue();
+            oldest.retire();
+            try {
+                // a mapped file can be deleted, its pages stay until it is unmapped
+                Files.deleteIfExists(oldest.file);
+            } catch (IOException e) {
+                logger.warn("Event log segment {} can not be deleted", oldest.file, e);
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static byte[] ids(UUID id) {
+        return ByteBuffer.allocate(16).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).array();
+    }
+
+    // free the mapping now rather than at a garbage collection, the buffer must not be read any more
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            try {
+                // Java 8
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object bufferCleaner = cleaner.invoke(buffer);
+                bufferCleaner.getClass().getMethod("clean").invoke(bufferCleaner);
+            } catch (ReflectiveOperationException | RuntimeException e8) {
+                logger.debug("Event log segment left to the garbage collector: {}", e8.toString());
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Event log segment left to the garbage collector: {}", e.toString());
+        }
+    }
+
+    private static class Segment {
+        private final long baseOffset;
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        // end of the records & number of records, written by the appender after the record bytes
+        private volatile int position;
+        private volatile int count;
+        // position of records 0, INDEX_INTERVAL, 2 * INDEX_INTERVAL...
+        private volatile int[] index = new int[16];
+        private volatile boolean scanned;
+        // readers of the segment, -1 once it is unmapped
+        private final AtomicInteger users = new AtomicInteger();
+        private volatile boolean retired;
+
+        private Segment(long baseOffset, Path file, MappedByteBuffer buffer) {
+            this.baseOffset = baseOffset;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        private boolean acquire() {
+            while (true) {
+                int current = users.get();
+                if (current < 0 || retired) {
+                    return false;
+                }
+                if (users.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void release() {
+            if (users.decrementAndGet() == 0 && retired && users.compareAndSet(0, -1)) {
+                unmap(buffer);
+            }
+        }
+
+        // no new reader, unmapped when the last one is done
+        private void retire() {
+            retired = true;
+            if (users.compareAndSet(0, -1)) {
+                unmap(buffer);
+            }
+        }
+
+        private void appended(int recordPosition, int size) {
+            if (count % INDEX_INTERVAL == 0) {
+                int slot = count / INDEX_INTERVAL;
+                int[] positions = index;
+                if (slot == positions.length) {
+                    positions = Arrays.copyOf(positions, slot * 2);
+                }
+                positions[slot] = recordPosition;
+                index = positions;
+            }
+            position = recordPosition + size;
+            count = count + 1;
+        }
+
+        // walk the records once to find the end & build the index, the tail of the last segment is repaired
+        private synchronized void scan(boolean repair) {
+            if (scanned) {
+                return;
+            }
+            int next = 0;
+            while (next + HEADER_BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(next);
+                if (length <= 0 || next + HEADER_BYTES + length > buffer.capacity() || !valid(next, length)) {
+                    break;
+                }
+                appended(next, HEADER_BYTES + length);
+                next = position;
+            }
+            if (repair && next + 4 <= buffer.capacity() && buffer.getInt(next) != 0) {
+                // torn record of a crash, the next append overwrites it
+                buffer.putInt(next, 0);
+                buffer.force();
+            }
+            scanned = true;
+        }
+
+        private boolean valid(int recordPosition, int length) {
+            ByteBuffer record = buffer.duplicate();
+            record.position(recordPosition + 8);
+            record.limit(recordPosition + HEADER_BYTES + length);
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            return (int) crc.getValue() == buffer.getInt(recordPosition + 4);
+        }
+
+        private List<UUID> ids() {
+            List<UUID> ids = new ArrayList<>();
+            if (!acquire()) {
+                return ids;
+            }
+            try {
+                if (!scanned) {
+                    scan(false);
+                }
+                int recordPosition = 0;
+                for (int number = 0; number < count; number++) {
+                    ids.add(new UUID(buffer.getLong(recordPosition + 8), buffer.getLong(recordPosition + 16)));
+                    recordPosition += HEADER_BYTES + buffer.getInt(recordPosition);
+                }
+                return ids;
+            } finally {
+                release();
+            }
+        }
+
+        private List<LogRecord> records(long offset, int max) {
+            if (!acquire()) {
+                return new ArrayList<>();
+            }
+            try {
+                return read(offset, max);
+            } finally {
+                release();
+            }
+        }
+
+        private List<LogRecord> read(long offset, int max) {
+            if (!scanned) {
+                scan(false);
+            }
+            int end = position;
+            int available = count;
+            int[] positions = index;
+            int first = (int) (offset - baseOffset);
+            List<LogRecord> records = new ArrayList<>();
+            if (first >= available) {
+                return records;
+            }
+            int slot = first / INDEX_INTERVAL;
+            int recordPosition = positions[slot];
+            for (int number = slot * INDEX_INTERVAL; number < available && recordPosition < end && records.size() < max; number++) {
+                int length = buffer.getInt(recordPosition);
+                if (number >= first) {
+                    UUID id = new UUID(buffer.getLong(recordPosition + 8), buffer.getLong(recordPosition + 16));
+                    byte[] payload = new byte[length];
+                    ByteBuffer record = buffer.duplicate();
+                    record.position(recordPosition + HEADER_BYTES);
+                    record.get(payload);
+                    records.add(new LogRecord(baseOffset + number, id, payload));
+                }
+                recordPosition += HEADER_BYTES + length;
+            }
+            return records;
+        }
+    }
+}
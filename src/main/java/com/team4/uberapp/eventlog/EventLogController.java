@@ -0,0 +1,76 @@
+/**
+ * Event log Controller, reads the ride event log of this instance
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.eventlog;
+
+import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.JsonResponses;
+import com.team4.uberapp.util.UberAppUtil;
+import spark.Route;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * EventLogController: event log routes, answered from the mapped segments without querying Mongo
+ */
+public class EventLogController extends UberAppUtil {
+    private static final int DEFAULT_COUNT = 100;
+    private static final int MAX_COUNT = 1000;
+
+    /**
+     * GET /eventlog?offset=&count=  Records of the event log from an offset, count default 100, max 1000
+     *      X-Next-Offset: offset to ask next, a consumer keeps it to resume
+     * [
+     *  {
+     *   "offset": 0,
+     *   "event": {"id": "...", "type": "RIDE_CREATED", "rideId": "...", "timestamp": 1480131627374, "data": {...}}
+     *  }
+     * ]
+     * @return byte[]  the records, empty list at the end of the log
+     */
+    public static Route getEvents = (req, res) -> {
+        res.type("application/json");
+        EventLog log = OutboxRelay.getLog();
+        if (log == null) {
+            res.status(503);
+            return JsonResponses.EVENT_LOG_UNAVAILABLE;
+        }
+        long offset;
+        int count;
+        try {
+            offset = req.queryParams("offset") == null ? 0 : Long.parseLong(req.queryParams("offset"));
+            count = req.queryParams("count") == null ? DEFAULT_COUNT : Integer.parseInt(req.queryParams("count"));
+        } catch (NumberFormatException e) {
+            res.status(400);
+            return ErrorReport.toBytes(8001, "offset & count should be numbers");
+        }
+        if (offset < 0 || count < 1 || count > MAX_COUNT) {
+            res.status(400);
+            return ErrorReport.toBytes(8001, "offset should be positive, count between 1 and " + MAX_COUNT);
+        }
+
+        List<LogRecord> records = log.read(offset, count);
+        // payloads are json already, they are copied as is
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write('[');
+        for (LogRecord record : records) {
+            if (body.size() > 1) {
+                body.write(',');
+            }
+            byte[] prefix = ("{\"offset\":" + record.getOffset() + ",\"event\":").getBytes(StandardCharsets.UTF_8);
+            body.write(prefix, 0, prefix.length);
+            body.write(record.getPayload(), 0, record.getPayload().length);
+            body.write('}');
+        }
+        body.write(']');
+        long next = records.isEmpty() ? offset : records.get(records.size() - 1).getOffset() + 1;
+        res.header("X-Next-Offset", Long.toString(next));
+        res.status(200);
+        return body.toByteArray();
+    };
+}
@@ -0,0 +1,41 @@
+/**
+ * EventLogReader: tails the event log from an offset
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.eventlog;
+
+import java.util.List;
+
+/**
+ * A reader is owned by one consumer thread, it only remembers its offset.
+ * Consumers store the offset of their last processed record and resume from the next one.
+ */
+public class EventLogReader {
+    private final EventLog log;
+    private long offset;
+
+    EventLogReader(EventLog log, long offset) {
+        this.log = log;
+        this.offset = offset;
+    }
+
+    /**
+     * Next records, without waiting
+     * @param max maximum number of records
+     * @return List<LogRecord> - empty when the reader is at the end of the log
+     */
+    public List<LogRecord> poll(int max) {
+        List<LogRecord> records = log.read(offset, max);
+        if (!records.isEmpty()) {
+            offset = records.get(records.size() - 1).getOffset() + 1;
+        }
+        return records;
+    }
+
+    // offset of the next record to read
+    public long getOffset() {
+        return offset;
+    }
+}
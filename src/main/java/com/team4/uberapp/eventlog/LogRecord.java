@@ -0,0 +1,36 @@
+/**
+ * LogRecord: one event read from the event log
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.eventlog;
+
+import java.util.UUID;
+
+public class LogRecord {
+    private final long offset;
+    private final UUID id;
+    private final byte[] payload;
+
+    public LogRecord(long offset, UUID id, byte[] payload) {
+        this.offset = offset;
+        this.id = id;
+        this.payload = payload;
+    }
+
+    // position of the record in the log, the first record is 0
+    public long getOffset() {
+        return offset;
+    }
+
+    // id of the outbox event
+    public UUID getId() {
+        return id;
+    }
+
+    // utf-8 json of the event
+    public byte[] getPayload() {
+        return payload;
+    }
+}
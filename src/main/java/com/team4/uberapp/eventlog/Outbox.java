@@ -0,0 +1,281 @@
+/**
+ * Outbox: writes a change with the ride events it causes
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.eventlog;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.ride.RideEvent;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.mongolink.domain.mapper.ClassMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MongoLink sessions can not take part in a transaction: the changes that raise ride events are written here
+ * with the driver, from the documents MongoLink would have written, the session is only used to read.
+ *
+ * On a replica set or a sharded cluster the change & its events are written in one transaction. A standalone
+ * server has no transactions: the events are inserted first with committed false, then the change is written,
+ * then the events are set committed, or deleted if the change matched nothing or was refused. The relay stops
+ * at the first event not committed, so it never publishes the events of a change that was not made.
+ *
+ * Each pending event keeps how to tell whether its change was made: a filter of the collection, matching when
+ * the change is in place (inserted _id, replaced _id & version) or, for a delete, matching nothing. The events of
+ * a write that failed, e.g. on a lost reply, are resolved with it right away; those left pending by a crash are
+ * resolved by the relay once they are older than the lease.
+ */
+public class Outbox {
+    private static final Logger logger = LoggerFactory.getLogger(Outbox.class);
+
+    private static final String EVENTS = "rideevent";
+    private static final String COMMITTED = "committed";
+    private static final String CHANGE = "change";
+
+    private static volatile Boolean transactions;
+
+    /**
+     * Write a change & its events
+     * @param collection collection of the change
+     * @param change one insert, replace, update or delete
+     * @param events events of the change
+     * @return boolean - false if the change matched nothing, its events are not kept
+     */
+    public static boolean write(String collection, WriteModel<Document> change, RideEvent... events) {
+        MongoDatabase database = MongoConfiguration.database();
+        List<Document> documents = documents(Arrays.asList(events));
+        if (!transactions()) {
+            return writeInOrder(database.getCollection(collection), change, documents);
+        }
+        try (ClientSession session = MongoConfiguration.startSession()) {
+            // an empty transaction is committed when the change matched nothing
+            return session.withTransaction(() -> {
+                boolean applied = applied(database.getCollection(collection).bulkWrite(session, Arrays.asList(change)));
+                if (applied && !documents.isEmpty()) {
+                    database.getCollection(EVENTS).insertMany(session, documents);
+                }
+                return applied;
+            });
+        }
+    }
+
+    /**
+     * Insert the events of changes written afterwards by the caller, e.g. with one bulk write of many changes
+     * @param events documents of the events, see documents & pending
+     */
+    public static void insert(List<Document> events) {
+        if (!events.isEmpty()) {
+            MongoConfiguration.database().getCollection(EVENTS).insertMany(events);
+        }
+    }
+
+    /**
+     * Mark events not yet written by the change, see insert, commit & discard
+     * @param events documents of the events of one change
+     * @param collection collection of the change
+     * @param change the change
+     * @return List<Document> - the same documents
+     */
+    public static List<Document> pending(List<Document> events, String collection, WriteModel<Document> change) {
+        Document check = check(collection, change);
+        for (Document event : events) {
+            event.put(COMMITTED, false);
+            if (check != null) {
+                event.put(CHANGE, check);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Release to the relay the pending events of changes that were made
+     * @param events documents of the events, as inserted
+     */
+    public static void commit(List<Document> events) {
+        if (!events.isEmpty()) {
+            MongoConfiguration.database().getCollection(EVENTS).updateMany(Filters.in("_id", ids(events)),
+                    Updates.combine(Updates.set(COMMITTED, true), Updates.unset(CHANGE)));
+        }
+    }
+
+    /**
+     * Delete again the events inserted for changes that were not made
+     * @param events documents of the events, as inserted
+     */
+    public static void discard(List<Document> events) {
+        if (!events.isEmpty()) {
+            MongoConfiguration.database().getCollection(EVENTS).deleteMany(Filters.in("_id", ids(events)));
+        }
+    }
+
+    /**
+     * Documents of events, as MongoLink maps them
+     * @param events ride events
+     * @return List<Document> - in the same order
+     */
+    public static List<Document> documents(List<RideEvent> events) {
+        ClassMapper<RideEvent> mapper = MongoConfiguration.mapperContext().mapperFor(RideEvent.class);
+        List<Document> documents = new ArrayList<>(events.size());
+        for (RideEvent event : events) {
+            documents.add(mapper.toDBObject(event));
+        }
+        return documents;
+    }
+
+    /**
+     * Document of an entity, as MongoLink maps it
+     * @param entity mapped entity
+     * @return Document - with its _id
+     */
+    @SuppressWarnings("unchecked")
+    public static Document document(Object entity) {
+        ClassMapper<Object> mapper = (ClassMapper<Object>) MongoConfiguration.mapperContext().mapperFor(entity.getClass());
+        return mapper.toDBObject(entity);
+    }
+
+    /**
+     * Whether the server runs multi-document transactions: a replica set member or a mongos, asked once
+     * @return boolean - false on a standalone server
+     */
+    public static boolean transactions() {
+        if (transactions == null) {
+            Document hello = MongoConfiguration.database().runCommand(new Document("isMaster", 1));
+            transactions = hello.containsKey("setName") || "isdbgrid".equals(hello.get("msg"));
+        }
+        return transactions;
+    }
+
+    /**
+     * Commit or delete the events of a node left pending longer than a change takes, as their change was made or not
+     * @param node node of the events
+     * @param before pending since before this time, epoch millis
+     * @return long - number of events resolved
+     */
+    public static long resolve(String node, long before) {
+        return resolve(MongoConfiguration.database().getCollection(EVENTS).find(Filters.and(Filters.eq("node", node),
+                Filters.eq(COMMITTED, false), Filters.lt("timestamp", before))));
+    }
+
+    /**
+     * Commit or delete pending events as their change was made or not, e.g. after the write of the change failed
+     * @param events documents of the events, as inserted or read back
+     * @return long - number of events resolved
+     */
+    public static long resolve(Iterable<Document> events) {
+        MongoDatabase database = MongoConfiguration.database();
+        List<Document> made = new ArrayList<>();
+        List<Document> notMade = new ArrayList<>();
+        for (Document event : events) {
+            Document check = event.get(CHANGE, Document.class);
+            if (check == null) {
+                // a change the outbox can not check, its events are not published
+                logger.warn("Outbox event {} of an unknown change is dropped", event.get("_id"));
+                notMade.add(event);
+                continue;
+            }
+            boolean found = database.getCollection(check.getString("collection"))
+                    .find(check.get("filter", Bson.class)).limit(1).first() != null;
+            (found == check.getBoolean("present") ? made : notMade).add(event);
+        }
+        commit(made);
+        discard(notMade);
+        return made.size() + notMade.size();
+    }
+
+    // the write without a transaction, used on a standalone server
+    static boolean writeInOrder(MongoCollection<Document> target, WriteModel<Document> change, List<Document> events) {
+        if (events.isEmpty()) {
+            return applied(target.bulkWrite(Arrays.asList(change)));
+        }
+        insert(pending(events, target.getNamespace().getCollectionName(), change));
+        boolean applied;
+        try {
+            applied = applied(target.bulkWrite(Arrays.asList(change)));
+        } catch (MongoBulkWriteException e) {
+            // refused by the server, e.g. a duplicate key: not made
+            discard(events);
+            throw e;
+        } catch (RuntimeException e) {
+            // e.g. a lost reply, the change may have been made: told now rather than holding the relay for a lease
+            try {
+                resolve(events);
+            } catch (RuntimeException unresolved) {
+                // still pending, left to the relay
+                e.addSuppressed(unresolved);
+            }
+            throw e;
+        }
+        if (applied) {
+            commit(events);
+        } else {
+            discard(events);
+        }
+        return applied;
+    }
+
+    // filter of the collection matching (present) or not matching the written change, null if it can not be told
+    @SuppressWarnings("unchecked")
+    private static Document check(String collection, WriteModel<Document> change) {
+        Bson filter;
+        boolean present = true;
+        if (change instanceof InsertOneModel) {
+            filter = new Document("_id", ((InsertOneModel<Document>) change).getDocument().get("_id"));
+        } else if (change instanceof ReplaceOneModel) {
+            Document replacement = ((ReplaceOneModel<Document>) change).getReplacement();
+            if (!replacement.containsKey("version")) {
+                return null;
+            }
+            filter = new Document("_id", replacement.get("_id")).append("version", replacement.get("version"));
+        } else if (change instanceof UpdateOneModel && ((UpdateOneModel<Document>) change).getOptions().isUpsert()) {
+            // upsert of a new document, e.g. a route point
+            filter = rendered(collection, ((UpdateOneModel<Document>) change).getFilter());
+        } else if (change instanceof DeleteOneModel) {
+            // gone whatever its version was
+            BsonDocument rendered = rendered(collection, ((DeleteOneModel<Document>) change).getFilter());
+            filter = rendered.containsKey("_id") ? new BsonDocument("_id", rendered.get("_id")) : rendered;
+            present = false;
+        } else {
+            return null;
+        }
+        return new Document("collection", collection).append("filter", filter).append("present", present);
+    }
+
+    // the filter as stored, ids encoded the way the collection encodes them
+    private static BsonDocument rendered(String collection, Bson filter) {
+        CodecRegistry codecs = MongoConfiguration.database().getCollection(collection).getCodecRegistry();
+        return filter.toBsonDocument(Document.class, codecs);
+    }
+
+    private static List<Object> ids(List<Document> events) {
+        List<Object> ids = new ArrayList<>();
+        for (Document event : events) {
+            ids.add(event.get("_id"));
+        }
+        return ids;
+    }
+
+    private static boolean applied(BulkWriteResult result) {
+        return result.getInsertedCount() + result.getMatchedCount() + result.getDeletedCount() + result.getUpserts().size() > 0;
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * OutboxRelay: moves the ride events of the Mongo outbox to the local event log
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.eventlog;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.domain.Repositories;
+import com.team4.uberapp.persistence.MongoRepositories;
+import com.team4.uberapp.ride.RideEvent;
+import com.team4.uberapp.util.UberAppUtil;
+import org.bson.Document;
+import org.mongolink.MongoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ride routes write a RideEvent with the ride or route point through Outbox. The relay reads the outbox
+ * of this node in sequence order (the time ordered high half of the id), appends the events to the log, forces the log to disk and
+ * only then deletes them. After a crash between the force and the delete the events are read again, the log
+ * skips the ids it already holds. The relay waits at an event still pending (its change not committed yet) and
+ * resolves the events pending longer than the lease.
+ *
+ * The node is the identity of the log: eventlog.node, else an id stored in the log directory on the first start,
+ * stable as long as the log is. Each node renews a lease in the eventlognode collection; the events of a node
+ * without a live lease, e.g. a container gone with its disk, are claimed by a live node and relayed to its log.
+ * A node paused longer than its lease may see events it had already relayed claimed & relayed again elsewhere.
+ */
+public class OutboxRelay {
+    private static final Logger logger = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private static final int BATCH_SIZE = 1000;
+    private static final String NODES = "eventlognode";
+    private static final String NODE_FILE = "node";
+
+    private static String node = UUID.randomUUID().toString();
+    private static long leaseMillis = 60000;
+    private static long leaseRenewed = 0;
+    private static volatile EventLog log;
+    private static ScheduledExecutorService relay;
+    private static volatile long eventsRelayed = 0;
+
+    /**
+     * Open the log & schedule the relay, only the first call does it
+     * @param properties application configuration
+     */
+    public static synchronized void start(Properties properties) {
+        if (relay != null) {
+            return;
+        }
+        Path directory = Paths.get(properties.getEventLogDir());
+        leaseMillis = properties.getEventLogLeaseSeconds() * 1000L;
+        try {
+            node = node(properties, directory);
+            log = EventLog.open(directory, properties.getEventLogSegmentBytes(), properties.getEventLogRetainedSegments());
+        } catch (IOException e) {
+            // no lease is taken: the events stay in the outbox for another node to claim, or for a restart
+            logger.error("Event log {} can not be opened, ride events are kept in the outbox", properties.getEventLogDir(), e);
+            return;
+        }
+        // the lease is taken before this node writes any event, no other node claims them
+        try {
+            leaseRenewed = System.currentTimeMillis();
+            renewLease(leaseRenewed);
+        } catch (RuntimeException e) {
+            leaseRenewed = 0;
+            logger.warn("Event log lease of {} not renewed, retrying", node, e);
+        }
+        relay = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbox-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long relayMillis = properties.getEventLogRelayMillis();
+        relay.scheduleWithFixedDelay(OutboxRelay::relayAll, 0, relayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // eventlog.node, else the id stored with the log, created on the first start
+    static String node(Properties properties, Path directory) throws IOException {
+        String configured = properties.getEventLogNode();
+        if (configured != null) {
+            return configured;
+        }
+        Path file = directory.resolve(NODE_FILE);
+        if (Files.exists(file)) {
+            String stored = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+            if (!stored.isEmpty()) {
+                return stored;
+            }
+        }
+        String created = UUID.randomUUID().toString();
+        Files.createDirectories(directory);
+        Files.write(file, created.getBytes(StandardCharsets.UTF_8));
+        return created;
+    }
+
+    // null until start succeeded
+    public static EventLog getLog() {
+        return log;
+    }
+
+    // node of the outbox events saved by this instance
+    public static String getNode() {
+        return node;
+    }
+
+    public static long getEventsRelayed() {
+        return eventsRelayed;
+    }
+
+    static void relayAll() {
+        try {
+            long now = System.currentTimeMillis();
+            if (now - leaseRenewed >= leaseMillis / 3) {
+                renewLease(now);
+                leaseRenewed = now;
+            }
+            // no change takes a lease: the events still pending are of a crash or a lost reply
+            long resolved = Outbox.resolve(node, now - leaseMillis);
+            if (resolved > 0) {
+                logger.info("Resolved {} outbox events left pending", resolved);
+            }
+            while (relayBatch() == BATCH_SIZE) {
+                // more waiting, keep going
+            }
+        } catch (Exception e) {
+            logger.error("Outbox relay failed, retrying", e);
+        }
+    }
+
+    // renew the lease of this node, then claim the events of the nodes without a live lease
+    private static void renewLease(long now) {
+        MongoCollection<Document> nodes = MongoConfiguration.database().getCollection(NODES);
+        nodes.updateOne(Filters.eq("_id", node), Updates.set("leaseUntil", new Date(now + leaseMillis)),
+                new UpdateOptions().upsert(true));
+        Set<Object> live = new HashSet<>();
+        for (Document lease : nodes.find(Filters.gte("leaseUntil", new Date(now)))) {
+            live.add(lease.get("_id"));
+        }
+
+        final MongoSession session = MongoConfiguration.createSession();
+        session.start();
+        try {
+            Repositories.initialise(new MongoRepositories(session));
+            List<String> waiting = Repositories.rideEvents().nodes();
+            for (String other : waiting) {
+                if (other != null && !live.contains(other)) {
+                    long claimed = Repositories.rideEvents().claim(other, node);
+                    if (claimed > 0) {
+                        logger.info("Claimed {} outbox events of node {}, its lease expired", claimed, other);
+                    }
+                }
+            }
+            // leases of the nodes gone & relayed
+            nodes.deleteMany(Filters.and(Filters.lt("leaseUntil", new Date(now)), Filters.nin("_id", waiting)));
+        } finally {
+            session.stop();
+        }
+    }
+
+    private static int relayBatch() throws IOException {
+        final MongoSession session = MongoConfiguration.createSession();
+        session.start();
+        Repositories.initialise(new MongoRepositories(session));
+        try {
+            List<RideEvent> events = Repositories.rideEvents().findPending(node, BATCH_SIZE);
+            for (RideEvent event : events) {
+                byte[] payload = UberAppUtil.dataToCompactJson(event).getBytes(StandardCharsets.UTF_8);
+                if (log.append(event.getId(), payload) >= 0) {
+                    eventsRelayed++;
+                }
+            }
+            if (!events.isEmpty()) {
+                log.flush();
+            }
+            List<UUID> relayed = new ArrayList<>(events.size());
+            for (RideEvent event : events) {
+                relayed.add(event.getId());
+            }
+            Repositories.rideEvents().deleteRelayed(relayed);
+            return events.size();
+        } finally {
+            session.stop();
+        }
+    }
+}
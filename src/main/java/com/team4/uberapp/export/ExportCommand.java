@@ -0,0 +1,200 @@
+/**
+ * ExportCommand: command line mode of the ride export, to a file, resumable
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.export;
+
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.archive.RideArchive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *   export --out=rides.ndjson.gz [--from=ms] [--to=ms] [--format=ndjson|csv] [--routePoints] [--gzip]
+ *
+ * The file is written through a FileChannel. Every export.checkpointRides rides the output is forced to disk
+ * and <out>.checkpoint records its length & the last ride written. Run again with the same arguments after a
+ * failure, the file is cut back to the checkpoint & the export continues from there; the checkpoint is deleted
+ * once the export is complete. Gzip output is a series of gzip members, one per checkpoint, which gzip tools
+ * read as a single stream.
+ */
+public class ExportCommand {
+    private static final Logger logger = LoggerFactory.getLogger(ExportCommand.class);
+
+    private static final int BUFFER_BYTES = 65536;
+
+    /**
+     * Run an export
+     * @param args "export" then the options
+     * @return int - process exit code, 0 when the export is complete
+     */
+    public static int run(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                return usage("Unexpected argument " + arg);
+            }
+            int equals = arg.indexOf('=');
+            options.put(equals < 0 ? arg.substring(2) : arg.substring(2, equals), equals < 0 ? "true" : arg.substring(equals + 1));
+        }
+        if (options.get("out") == null) {
+            return usage("--out is required");
+        }
+        String format = options.getOrDefault("format", RideExport.NDJSON);
+        if (!RideExport.NDJSON.equals(format) && !RideExport.CSV.equals(format)) {
+            return usage("--format should be ndjson or csv");
+        }
+        Properties properties = new Properties();
+        // the rides moved out of Mongo are exported too
+        RideArchive.open(properties);
+        RideExport export = new RideExport(MongoConfiguration.database())
+                .format(format)
+                .withRoutePoints(options.containsKey("routePoints"))
+                .batchSize(properties.getExportBatchSize())
+                .chunkSize(properties.getExportChunkSize())
+                .archive(RideArchive.segments());
+        try {
+            export.range(Long.parseLong(options.getOrDefault("from", "0")),
+                    Long.parseLong(options.getOrDefault("to", Long.toString(Long.MAX_VALUE))));
+        } catch (NumberFormatException e) {
+            return usage("--from & --to should be unix times in ms");
+        }
+        try {
+            long rides = export(export, Paths.get(options.get("out")), options, properties.getExportCheckpointRides());
+            logger.info("Exported {} rides to {}", rides, options.get("out"));
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Export to {} failed, run the same command again to resume", options.get("out"), e);
+            return 1;
+        }
+    }
+
+    private static long export(RideExport export, Path file, Map<String, String> options, int checkpointRides) throws IOException {
+        Path checkpointFile = file.resolveSibling(file.getFileName() + ".checkpoint");
+        // the options, a checkpoint is only used by the same export
+        String arguments = new TreeMap<>(options).toString();
+        java.util.Properties checkpoint = new java.util.Properties();
+        if (Files.exists(checkpointFile)) {
+            try (InputStream in = Files.newInputStream(checkpointFile)) {
+                checkpoint.load(in);
+            }
+            if (!arguments.equals(checkpoint.getProperty("arguments"))) {
+                throw new IOException(checkpointFile + " belongs to another export (" + checkpoint.getProperty("arguments") + ")");
+            }
+        }
+        long start = Long.parseLong(checkpoint.getProperty("bytes", "0"));
+        long resumed = Long.parseLong(checkpoint.getProperty("rides", "0"));
+        if (checkpoint.getProperty("afterId") != null) {
+            export.after(RideExport.parseTime(checkpoint.getProperty("afterTime")), UUID.fromString(checkpoint.getProperty("afterId")));
+            export.header(false);
+            logger.info("Resuming export to {} after {} rides", file, resumed);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // whatever follows the checkpoint was written by the failed run
+            channel.truncate(start);
+            channel.position(start);
+            OutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_BYTES);
+            GzipMembers out = new GzipMembers(buffered, options.containsKey("gzip"));
+            long[] lastCheckpoint = {0};
+            long rides = export.writeTo(out, (requestTime, id, written) -> {
+                if (written - lastCheckpoint[0] < checkpointRides) {
+                    return;
+                }
+                lastCheckpoint[0] = written;
+                out.endMember();
+                channel.force(false);
+                checkpoint.setProperty("arguments", arguments);
+                checkpoint.setProperty("bytes", Long.toString(channel.position()));
+                checkpoint.setProperty("rides", Long.toString(resumed + written));
+                checkpoint.setProperty("afterTime", requestTime.toString());
+                checkpoint.setProperty("afterId", id.toString());
+                Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+                try (OutputStream stream = Files.newOutputStream(tmp)) {
+                    checkpoint.store(stream, "ride export checkpoint");
+                }
+                Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            });
+            out.endMember();
+            channel.force(false);
+            Files.deleteIfExists(checkpointFile);
+            return resumed + rides;
+        }
+    }
+
+    private static int usage(String error) {
+        System.err.println(error);
+        System.err.println("usage: export --out=file [--from=ms] [--to=ms] [--format=ndjson|csv] [--routePoints] [--gzip]");
+        return 2;
+    }
+
+    // gzip stream that can be ended at a checkpoint, the next write starts a new member
+    private static class GzipMembers extends OutputStream {
+        private final OutputStream out;
+        private final boolean gzip;
+        private GZIPOutputStream member;
+
+        private GzipMembers(OutputStream out, boolean gzip) {
+            this.out = out;
+            this.gzip = gzip;
+        }
+
+        private OutputStream target() throws IOException {
+            if (!gzip) {
+                return out;
+            }
+            if (member == null) {
+                member = new GZIPOutputStream(out, BUFFER_BYTES);
+            }
+            return member;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (member != null) {
+                member.flush();
+            }
+            out.flush();
+        }
+
+        // everything written so far is complete on the underlying stream
+        private void endMember() throws IOException {
+            if (member != null) {
+                member.finish();
+                member = null;
+            }
+            out.flush();
+        }
+    }
+}
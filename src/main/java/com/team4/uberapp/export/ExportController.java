@@ -0,0 +1,100 @@
+/**
+ * Export Controller, bulk export of rides for analytics
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.export;
+
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.archive.RideArchive;
+import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.JsonResponses;
+import com.team4.uberapp.util.UberAppUtil;
+import org.eclipse.jetty.io.EofException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Route;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+
+/**
+ * ExportController: export routes, the response is streamed while the rides are read
+ */
+public class ExportController extends UberAppUtil {
+    private static final Logger logger = LoggerFactory.getLogger(ExportController.class);
+
+    private static final int BUFFER_BYTES = 65536;
+
+    private static final Properties properties = new Properties();
+    // an export keeps a worker thread for its whole duration
+    private static final Semaphore running = new Semaphore(properties.getExportMaxConcurrent());
+
+    /**
+     * GET /export/rides?from=&to=&format=&routePoints=&afterTime=&afterId=  Stream rides requested in [from, to)
+     *      from, to: unix time in ms, default everything
+     *      format: ndjson (default), one ride per line, or csv
+     *      routePoints: true to join the route points, nested in ndjson, one row per route point in csv
+     *      afterTime & afterId: requestTime & id of the last ride received, to resume an interrupted export
+     *      Accept-Encoding: gzip compresses the stream, as every other response
+     * {"id":"01a150ea-a2bb-7000-b1e9-8738d2f05160","rideType":"ECONOMY",...,"routePoints":[{"id":"...","lat":22.11,"lng":11.11,"timestamp":1480131657374}]}
+     * @return application/x-ndjson or text/csv  rides in (requestTime, id) order
+     */
+    public static Route getRides = (req, res) -> {
+        res.type("application/json");
+        String format = req.queryParams("format") == null ? RideExport.NDJSON : req.queryParams("format");
+        if (!RideExport.NDJSON.equals(format) && !RideExport.CSV.equals(format)) {
+            res.status(400);
+            return ErrorReport.toBytes(8101, "format should be ndjson or csv");
+        }
+        RideExport export = new RideExport(MongoConfiguration.database())
+                .format(format)
+                .withRoutePoints("true".equals(req.queryParams("routePoints")))
+                .batchSize(properties.getExportBatchSize())
+                .chunkSize(properties.getExportChunkSize())
+                .archive(RideArchive.segments());
+        long from;
+        long to;
+        try {
+            from = req.queryParams("from") == null ? 0 : Long.parseLong(req.queryParams("from"));
+            to = req.queryParams("to") == null ? Long.MAX_VALUE : Long.parseLong(req.queryParams("to"));
+            if (req.queryParams("afterId") != null) {
+                export.after(RideExport.parseTime(req.queryParams("afterTime")), UUID.fromString(req.queryParams("afterId")));
+            }
+        } catch (IllegalArgumentException e) {
+            res.status(400);
+            return ErrorReport.toBytes(8101, "from, to & afterTime should be numbers, afterId a ride id");
+        }
+        export.range(from, to);
+
+        if (!running.tryAcquire()) {
+            res.status(503);
+            return JsonResponses.SERVER_BUSY;
+        }
+        try {
+            HttpServletResponse raw = res.raw();
+            raw.setStatus(200);
+            raw.setContentType(RideExport.CSV.equals(format) ? "text/csv; charset=utf-8" : "application/x-ndjson");
+            raw.setHeader("Content-Disposition", "attachment; filename=\"rides." + format + "\"");
+            // compressed by the server's GzipHandler, each chunk flushed to the client as soon as it is written
+            OutputStream out = new BufferedOutputStream(raw.getOutputStream(), BUFFER_BYTES);
+            long rides = export.writeTo(out, null);
+            out.flush();
+            logger.info("Exported {} rides requested in [{}, {})", rides, from, to);
+        } catch (EofException e) {
+            // the client went away, it resumes with afterTime & afterId
+            logger.debug("Ride export interrupted by the client");
+        } catch (IOException e) {
+            logger.warn("Ride export interrupted", e);
+        } finally {
+            running.release();
+        }
+        return "";
+    };
+}
@@ -0,0 +1,482 @@
+/**
+ * RideExport: streams the rides of a time range, optionally with their route points, as NDJSON or CSV
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.export;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.team4.uberapp.archive.ArchiveSegment;
+import com.team4.uberapp.archive.RideArchive;
+import com.team4.uberapp.persistence.Uuids;
+import com.team4.uberapp.util.UberAppUtil;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+/**
+ * Rides are read in (requestTime, _id) order with one driver cursor, batchSize documents per round trip,
+ * so nothing but the current chunk is ever held: chunkSize rides, plus their route points when they are
+ * joined, read with one $in query per chunk. Documents are written field by field with a streaming
+ * generator, without mapping them to entities.
+ *
+ * The rides archived out of Mongo (see RideArchive) are merged in the same order. A segment holds a batch of
+ * rides closed about the same time: it is read, filtered & sorted once the merge reaches its earliest request
+ * time, so only the segments overlapping the current position are held. No batch is archived by this node
+ * while an export runs, a ride is neither missed nor written twice.
+ *
+ * After each chunk the output is flushed and the checkpoint called with the last ride written; an export
+ * restarted with after(requestTime, id) continues right after it.
+ */
+public class RideExport {
+    public static final String NDJSON = "ndjson";
+    public static final String CSV = "csv";
+
+    // route points json of an archived ride, until it is written
+    private static final String ARCHIVED_POINTS = "archivedRoutePoints";
+
+    private static final List<String> RIDE_FIELDS = Arrays.asList("id", "rideType", "startLat", "startLong", "endLat",
+            "endLong", "requestTime", "pickupTime", "dropOffTime", "status", "fare", "driverId", "carId", "passengerId");
+    private static final List<String> ROUTE_POINT_FIELDS = Arrays.asList("id", "lat", "lng", "timestamp");
+
+    /**
+     * Called after each chunk, once its records are flushed to the output
+     */
+    public interface Checkpoint {
+        /**
+         * @param requestTime request time of the last ride written
+         * @param id id of the last ride written
+         * @param rides rides written so far by this export
+         * @throws IOException to abort the export
+         */
+        void reached(Number requestTime, UUID id, long rides) throws IOException;
+    }
+
+    private final MongoDatabase database;
+    private long from = 0;
+    private long to = Long.MAX_VALUE;
+    private String format = NDJSON;
+    private boolean withRoutePoints = false;
+    private Number afterTime;
+    private UUID afterId;
+    private int batchSize = 5000;
+    private int chunkSize = 500;
+    private boolean header = true;
+    private List<ArchiveSegment> archive = Collections.emptyList();
+
+    public RideExport(MongoDatabase database) {
+        this.database = database;
+    }
+
+    // rides requested in [from, to), unix time in ms
+    public RideExport range(long from, long to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    public RideExport format(String format) {
+        this.format = format;
+        return this;
+    }
+
+    public RideExport withRoutePoints(boolean withRoutePoints) {
+        this.withRoutePoints = withRoutePoints;
+        return this;
+    }
+
+    // resume after the last ride of a previous export
+    public RideExport after(Number requestTime, UUID id) {
+        this.afterTime = requestTime;
+        this.afterId = id;
+        return this;
+    }
+
+    public RideExport batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public RideExport chunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    // segments of the archived rides, see RideArchive.segments
+    public RideExport archive(List<ArchiveSegment> archive) {
+        this.archive = archive;
+        return this;
+    }
+
+    // the csv header line, left out when appending to a resumed file
+    public RideExport header(boolean header) {
+        this.header = header;
+        return this;
+    }
+
+    /**
+     * Stream the export
+     * @param out destination, flushed after each chunk but not closed
+     * @param checkpoint called after each chunk, may be null
+     * @return long - number of rides written
+     * @throws IOException if the output fails or the checkpoint aborts
+     */
+    public long writeTo(OutputStream out, Checkpoint checkpoint) throws IOException {
+        try {
+            return RideArchive.withoutArchiving(() -> {
+                try {
+                    return write(out, checkpoint);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private long write(OutputStream out, Checkpoint checkpoint) throws IOException {
+        RecordWriter writer = CSV.equals(format) ? new CsvWriter(out) : new NdjsonWriter(out);
+        if (header) {
+            writer.header();
+        }
+        MongoCollection<Document> rides = database.getCollection("ride");
+        MongoCollection<Document> routePoints = database.getCollection("routepoint");
+        ArchivedRides archived = new ArchivedRides();
+        long written = 0;
+        try (MongoCursor<Document> cursor = rides.find(filter())
+                .sort(Sorts.ascending("requestTime", "_id"))
+                .batchSize(batchSize)
+                .iterator()) {
+            List<Document> chunk = new ArrayList<>(chunkSize);
+            Document stored = cursor.hasNext() ? cursor.next() : null;
+            while (stored != null || archived.peek() != null) {
+                if (stored != null && archived.peek() != null && compare(stored, archived.peek()) == 0) {
+                    // archived by a batch interrupted before it deleted the ride from Mongo
+                    archived.next();
+                    continue;
+                }
+                if (stored != null && (archived.peek() == null || compare(stored, archived.peek()) <= 0)) {
+                    chunk.add(stored);
+                    stored = cursor.hasNext() ? cursor.next() : null;
+                } else {
+                    chunk.add(archived.next());
+                }
+                if (chunk.size() == chunkSize || (stored == null && archived.peek() == null)) {
+                    Map<Object, List<Document>> points = withRoutePoints ? routePointsOf(routePoints, chunk) : null;
+                    for (Document ride : chunk) {
+                        List<Document> ridePoints = null;
+                        if (points != null) {
+                            ridePoints = ride.containsKey(ARCHIVED_POINTS) ? archived.routePoints(ride)
+                                    : points.getOrDefault(ride.get("_id"), Collections.emptyList());
+                        }
+                        writer.write(ride, ridePoints);
+                    }
+                    writer.flush();
+                    written += chunk.size();
+                    Document last = chunk.get(chunk.size() - 1);
+                    if (checkpoint != null) {
+                        checkpoint.reached((Number) last.get("requestTime"), id(last), written);
+                    }
+                    chunk.clear();
+                }
+            }
+        }
+        writer.flush();
+        return written;
+    }
+
+    /**
+     * Parse a requestTime sent back by a client
+     * @param time decimal number
+     * @return Number - a Long when integral, else a Double
+     * @throws IllegalArgumentException if time is missing or not a number
+     */
+    public static Number parseTime(String time) {
+        if (time == null) {
+            throw new IllegalArgumentException("Missing time");
+        }
+        try {
+            return Long.valueOf(time);
+        } catch (NumberFormatException e) {
+            return Double.valueOf(time);
+        }
+    }
+
+    private Bson filter() {
+        Bson range = Filters.and(Filters.gte("requestTime", from), Filters.lt("requestTime", to));
+        if (afterId == null) {
+            return range;
+        }
+        return Filters.and(range, Filters.or(Filters.gt("requestTime", afterTime),
+                Filters.and(Filters.eq("requestTime", afterTime), Filters.gt("_id", afterId))));
+    }
+
+    // route points of the rides of a chunk read from Mongo, by ride id, in timestamp order
+    private Map<Object, List<Document>> routePointsOf(MongoCollection<Document> routePoints, List<Document> chunk) {
+        List<Object> ids = new ArrayList<>(chunk.size());
+        for (Document ride : chunk) {
+            if (!ride.containsKey(ARCHIVED_POINTS)) {
+                ids.add(ride.get("_id"));
+            }
+        }
+        Map<Object, List<Document>> points = new HashMap<>();
+        if (ids.isEmpty()) {
+            return points;
+        }
+        try (MongoCursor<Document> cursor = routePoints.find(Filters.in("rideId", ids))
+                .projection(Projections.include("lat", "lng", "timestamp", "rideId"))
+                .sort(Sorts.ascending("rideId", "timestamp"))
+                .batchSize(batchSize)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document point = cursor.next();
+                points.computeIfAbsent(point.get("rideId"), id -> new ArrayList<>()).add(point);
+            }
+        }
+        return points;
+    }
+
+    // (requestTime, id) order of the cursor, the UUIDs of a STANDARD database sort as UUID.compareTo
+    private static int compare(Document ride, Document other) {
+        int time = Double.compare(((Number) ride.get("requestTime")).doubleValue(),
+                ((Number) other.get("requestTime")).doubleValue());
+        return time != 0 ? time : id(ride).compareTo(id(other));
+    }
+
+    // id of a stored ride, or of an archived one (a string of its json)
+    private static UUID id(Document ride) {
+        Object id = ride.get("_id");
+        return Uuids.isUuid(id) ? Uuids.of(id) : UUID.fromString(id.toString());
+    }
+
+    private boolean selected(Document ride) {
+        Object time = ride.get("requestTime");
+        if (!(time instanceof Number) || ((Number) time).doubleValue() < from || ((Number) time).doubleValue() >= to) {
+            return false;
+        }
+        if (afterId == null) {
+            return true;
+        }
+        int order = Double.compare(((Number) time).doubleValue(), afterTime.doubleValue());
+        return order > 0 || (order == 0 && id(ride).compareTo(afterId) > 0);
+    }
+
+    // the archived rides of the range in (requestTime, id) order, a segment is read when the merge reaches it
+    private class ArchivedRides {
+        private final List<ArchiveSegment> waiting = new ArrayList<>();
+        private final PriorityQueue<Document> rides = new PriorityQueue<>(RideExport::compare);
+
+        private ArchivedRides() {
+            for (ArchiveSegment segment : archive) {
+                if (segment.overlaps(from, to)) {
+                    waiting.add(segment);
+                }
+            }
+            waiting.sort(Comparator.comparingLong(ArchiveSegment::getMinRequestTime));
+        }
+
+        private Document peek() throws IOException {
+            // a segment starting before the next ride may hold an earlier one
+            while (!waiting.isEmpty() && (rides.isEmpty()
+                    || waiting.get(0).getMinRequestTime() <= ((Number) rides.peek().get("requestTime")).doubleValue())) {
+                read(waiting.remove(0));
+            }
+            return rides.peek();
+        }
+
+        private Document next() throws IOException {
+            peek();
+            return rides.poll();
+        }
+
+        private void read(ArchiveSegment segment) throws IOException {
+            for (int block = 0; block < segment.getBlockCount(); block++) {
+                for (ArchiveSegment.Entry entry : segment.readBlock(block)) {
+                    Document ride = Document.parse(new String(entry.getRide(), StandardCharsets.UTF_8));
+                    ride.put("_id", ride.remove("id"));
+                    if (selected(ride)) {
+                        ride.put(ARCHIVED_POINTS, withRoutePoints ? entry.getRoutePoints() : null);
+                        rides.add(ride);
+                    }
+                }
+            }
+        }
+
+        // the route points kept with an archived ride, in timestamp order
+        @SuppressWarnings("unchecked")
+        private List<Document> routePoints(Document ride) {
+            byte[] json = (byte[]) ride.remove(ARCHIVED_POINTS);
+            List<Document> points = (List<Document>) Document.parse("{\"points\":"
+                    + new String(json, StandardCharsets.UTF_8) + "}").get("points");
+            for (Document point : points) {
+                point.put("_id", point.remove("id"));
+            }
+            points.sort(Comparator.comparingDouble(point -> ((Number) point.get("timestamp")).doubleValue()));
+            return points;
+        }
+    }
+
+    // value of an export field, the id is stored as _id
+    private static Object value(Document document, String field) {
+        Object value = document.get("id".equals(field) ? "_id" : field);
+        return Uuids.isUuid(value) ? Uuids.of(value).toString() : value;
+    }
+
+    private interface RecordWriter {
+        void header() throws IOException;
+
+        void write(Document ride, List<Document> routePoints) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    // one json object per line, the route points nested in the ride
+    private static class NdjsonWriter implements RecordWriter {
+        private final OutputStream out;
+        private final JsonGenerator generator;
+
+        private NdjsonWriter(OutputStream out) throws IOException {
+            this.out = out;
+            this.generator = UberAppUtil.jsonMapper().getFactory().createGenerator(out);
+            this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // lines are separated by the \n written after each ride, not by the default space
+            this.generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void header() {
+        }
+
+        @Override
+        public void write(Document ride, List<Document> routePoints) throws IOException {
+            generator.writeStartObject();
+            for (String field : RIDE_FIELDS) {
+                writeField(field, value(ride, field));
+            }
+            if (routePoints != null) {
+                generator.writeArrayFieldStart("routePoints");
+                for (Document point : routePoints) {
+                    generator.writeStartObject();
+                    for (String field : ROUTE_POINT_FIELDS) {
+                        writeField(field, value(point, field));
+                    }
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        private void writeField(String field, Object value) throws IOException {
+            generator.writeFieldName(field);
+            if (value == null) {
+                generator.writeNull();
+            } else if (value instanceof Integer || value instanceof Long) {
+                generator.writeNumber(((Number) value).longValue());
+            } else if (value instanceof Number) {
+                generator.writeNumber(((Number) value).doubleValue());
+            } else {
+                generator.writeString(value.toString());
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            generator.flush();
+            out.flush();
+        }
+    }
+
+    // one row per ride, or per route point when they are joined (ride columns repeated)
+    private class CsvWriter implements RecordWriter {
+        private final Writer out;
+
+        private CsvWriter(OutputStream out) {
+            this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void header() throws IOException {
+            List<String> columns = new ArrayList<>(RIDE_FIELDS);
+            if (withRoutePoints) {
+                for (String field : ROUTE_POINT_FIELDS) {
+                    columns.add("routePoint." + field);
+                }
+            }
+            row(columns);
+        }
+
+        @Override
+        public void write(Document ride, List<Document> routePoints) throws IOException {
+            List<Object> values = new ArrayList<>(RIDE_FIELDS.size() + ROUTE_POINT_FIELDS.size());
+            for (String field : RIDE_FIELDS) {
+                values.add(value(ride, field));
+            }
+            if (routePoints == null) {
+                row(values);
+                return;
+            }
+            if (routePoints.isEmpty()) {
+                values.addAll(Collections.nCopies(ROUTE_POINT_FIELDS.size(), null));
+                row(values);
+                return;
+            }
+            for (Document point : routePoints) {
+                List<Object> joined = new ArrayList<>(values);
+                for (String field : ROUTE_POINT_FIELDS) {
+                    joined.add(value(point, field));
+                }
+                row(joined);
+            }
+        }
+
+        private void row(List<?> values) throws IOException {
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                Object value = values.get(i);
+                if (value != null) {
+                    out.write(escape(value.toString()));
+                }
+            }
+            out.write('\n');
+        }
+
+        private String escape(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
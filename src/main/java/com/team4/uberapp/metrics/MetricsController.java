@@ -0,0 +1,242 @@
+/**
+ * Metrics Controller, runtime statistics used for capacity planning
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.metrics;
+
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.archive.RideArchive;
+import com.team4.uberapp.eta.EtaEngine;
+import com.team4.uberapp.eventlog.EventLog;
+import com.team4.uberapp.eventlog.OutboxRelay;
+import com.team4.uberapp.persistence.Counts;
+import com.team4.uberapp.ride.RideEvents;
+import com.team4.uberapp.server.RateLimiter;
+import com.team4.uberapp.server.WarmUp;
+import com.team4.uberapp.stats.RideStats;
+import com.team4.uberapp.surge.SurgeEngine;
+import com.team4.uberapp.util.JsonResponses;
+import com.team4.uberapp.util.SingleFlight;
+import com.team4.uberapp.util.UberAppUtil;
+import spark.Route;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MetricsController: metrics routes
+ */
+public class MetricsController extends UberAppUtil {
+    /**
+     * GET /metrics/mongoPool  Mongo connection pool statistics
+     * {
+     *  "poolSize": 10,
+     *  "checkedOutCount": 2,
+     *  "waitQueueSize": 0,
+     *  "checkoutCount": 1024,
+     *  "connectionsCreated": 10,
+     *  "averageConnectionCreateMillis": 3.2,
+     *  "maxConnectionCreateMillis": 7.9
+     * }
+     * @return ConnectionPoolMetrics  live pool statistics
+     */
+    public static Route getMongoPool = (req, res) -> {
+        res.status(200);
+        res.type("application/json");
+        return dataToJson(MongoConfiguration.poolMetrics());
+    };
+
+    /**
+     * GET /metrics/surge  Surge engine statistics
+     * {
+     *  "cells": 120,
+     *  "lastRecomputeMicros": 850
+     * }
+     * @return Map<String, Object>  number of active cells & duration of the last recompute of all cells
+     */
+    public static Route getSurge = (req, res) -> {
+        Map<String, Object> surge = new LinkedHashMap<>();
+        surge.put("cells", SurgeEngine.getCellCount());
+        surge.put("lastRecomputeMicros", SurgeEngine.getLastRecomputeMicros());
+        res.status(200);
+        res.type("application/json");
+        return dataToJson(surge);
+    };
+
+    /**
+     * GET /metrics/eta  Speed grid statistics
+     * {
+     *  "cells": 310,
+     *  "routePointsRead": 1250000,
+     *  "lastBuildMillis": 40
+     * }
+     * @return Map<String, Object>  cells with observed speeds, route points read so far & duration of the last build
+     */
+    public static Route getEta = (req, res) -> {
+        Map<String, Object> eta = new LinkedHashMap<>();
+        eta.put("cells", EtaEngine.getCellCount());
+        eta.put("routePointsRead", EtaEngine.getRoutePointsRead());
+        eta.put("lastBuildMillis", EtaEngine.getLastBuildMillis());
+        res.status(200);
+        res.type("application/json");
+        return dataToJson(eta);
+    };
+
+    /**
+     * GET /metrics/rideEvents  Open ride event streams
+     * {
+     *  "subscribers": 12000
+     * }
+     * @return Map<String, Object>  number of subscribers
+     */
+    public static Route getRideEvents = (req, res) -> {
+        Map<String, Object> rideEvents = new LinkedHashMap<>();
+        rideEvents.put("subscribers", RideEvents.getSubscriberCount());
+        res.status(200);
+        res.type("application/json");
+        return dataToJson(rideEvents);
+    };
+
+    /**
+     * GET /metrics/eventLog  Ride event log of this instance
+     * {
+     *  "node": "app-1",
+     *  "firstOffset": 0,
+     *  "nextOffset": 125000,
+     *  "segments": 2,
+     *  "eventsRelayed": 125000
+     * }
+     * @return Map<String, Object>  offsets of the oldest kept & of the next record, segment files & events moved from the outbox since start
+     */
+    public static Route getEventLog = (req, res) -> {
+        EventLog log = OutboxRelay.getLog();
+        Map<String, Object> eventLog = new LinkedHashMap<>();
+        eventLog.put("node", OutboxRelay.getNode());
+        eventLog.put("firstOffset", log == null ? -1 : log.getFirstOffset());
+        eventLog.put("nextOffset", log == null ? -1 : log.getNextOffset());
+        eventLog.put("segments", log == null ? 0 : log.getSegmentCount());
+        eventLog.put("eventsRelayed", OutboxRelay.getEventsRelayed());
+        res.status(200);
+        res.type("application/json");
+        return dataToJson(eventLog);
+    };
+
+    /**
+     * GET /metrics/archive  Ride archive statistics
+     * {
+     *  "segments": 14,
+     *  "ridesArchived": 10000,
+     *  "lastRunMillis": 5300
+     * }
+     * @return Map<String, Object>  segment files, rides archived since start & duration of the last archiver run
+     */
+    public static Route getArchive = (req, res) -> {
+        Map<String, Object> archive = new LinkedHashMap<>();
+        archive.put("segments", RideArchive.getSegmentCount());
+        archive.put("ridesArchived", RideArchive.getRidesArchived());
+        archive.put("lastRunMillis", RideArchive.getLastRunMillis());
+        res.status(200);
+        res.type("application/json");
+        return dataToJson(archive);
+    };
+
+    /**
+     * GET /metrics/stats  Ride statistics counters
+     * {
+     *  "pendingDeltas": 12,
+     *  "rebuilding": false,
+     *  "lastRebuildMillis": 5120
+     * }
+     * @return Map<String, Object>  deltas waiting for the next flush & duration of the last rebuild, -1 before the first one
+     */
+    public static Route getStats = (req, res) -> {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pendingDeltas", RideStats.getPendingCount());
+        stats.put("rebuilding", RideStats.isRebuilding());
+        stats.put("lastRebuildMillis", RideStats.getLastRebuildMillis());
+        res.status(200);
+        res.type("application/json");
+        return dataToJson(stats);
+    };
+
+    /**
+     * GET /metrics/rateLimit  Rate limiter statistics
+     * {
+     *  "enabled": true,
+     *  "buckets": 1520,
+     *  "limited": 48,
+     *  "evicted": 30211
+     * }
+     * @return Map<String, Object>  client buckets kept, requests answered 429 & buckets dropped since start
+     */
+    public static Route getRateLimit = (req, res) -> {
+        Map<String, Object> rateLimit = new LinkedHashMap<>();
+        rateLimit.put("enabled", RateLimiter.isEnabled());
+        rateLimit.put("buckets", RateLimiter.getBucketCount());
+        rateLimit.put("limited", RateLimiter.getLimitedCount());
+        rateLimit.put("evicted", RateLimiter.getEvictedCount());
+        res.status(200);
+        res.type("application/json");
+        return dataToJson(rateLimit);
+    };
+
+    /**
+     * GET /metrics/coalescing  Requests sharing the read of another GET by id
+     * {
+     *  "rides": {"requests": 5210, "loads": 1302, "coalescedRatio": 0.75},
+     *  "cars": {"requests": 12, "loads": 12, "coalescedRatio": 0.0}
+     * }
+     * @return Map<String, Object>  requests, Mongo reads & part of the requests served by another one's read, by resource
+     */
+    public static Route getCoalescing = (req, res) -> {
+        res.status(200);
+        res.type("application/json");
+        return dataToJson(SingleFlight.metrics());
+    };
+
+    /**
+     * GET /metrics/counts  Totals of the lists asked with withTotal
+     * {
+     *  "estimated": 1200,
+     *  "cacheHits": 5400,
+     *  "cacheMisses": 310,
+     *  "cachedFilters": 42,
+     *  "evictedFilters": 12
+     * }
+     * @return Map<String, Object>  totals from the collection metadata, filtered totals cached or counted
+     */
+    public static Route getCounts = (req, res) -> {
+        Map<String, Object> counts = new LinkedHashMap<>();
+        counts.put("estimated", Counts.getEstimated());
+        counts.put("cacheHits", Counts.getHits());
+        counts.put("cacheMisses", Counts.getMisses());
+        counts.put("cachedFilters", Counts.getCached());
+        counts.put("evictedFilters", Counts.getEvicted());
+        res.status(200);
+        res.type("application/json");
+        return dataToJson(counts);
+    };
+
+    /**
+     * GET /ready  Readiness probe, 503 until the startup warm-up succeeded
+     * {
+     *  "ready": true,
+     *  "warmupMillis": 1830
+     * }
+     * @return Map<String, Object>  readiness status
+     */
+    public static Route getReady = (req, res) -> {
+        res.type("application/json");
+        if (!WarmUp.isReady()) {
+            res.status(503);
+            return JsonResponses.SERVER_WARMING_UP;
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("ready", true);
+        status.put("warmupMillis", WarmUp.getWarmupMillis());
+        res.status(200);
+        return dataToJson(status);
+    };
+}
@@ -0,0 +1,33 @@
+/**
+ * PassengerBatch: batch of passenger creates, updates & deletes
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.passenger;
+
+import com.team4.uberapp.batch.AccountBatch;
+
+public class PassengerBatch extends AccountBatch<Passenger> {
+
+    public PassengerBatch() {
+        super(Passenger.class, "passenger", 3001, "Driver/Passenger has conflict email address： ");
+    }
+
+    @Override
+    protected Passenger merge(Passenger passenger, Passenger update) throws CloneNotSupportedException {
+        Passenger merged = PassengerController.merge(passenger, update);
+        merged.nextVersion();
+        return merged;
+    }
+
+    @Override
+    protected void updated(Passenger previous, Passenger passenger) {
+        PassengerController.reads.forget(passenger.getId());
+    }
+
+    @Override
+    protected void deleted(Passenger passenger) {
+        PassengerController.reads.forget(passenger.getId());
+    }
+}
@@ -8,12 +8,20 @@
 package com.team4.uberapp.passenger;
 
 import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.team4.uberapp.MongoConfiguration;
 import com.team4.uberapp.domain.Repositories;
 import com.team4.uberapp.driver.Driver;
+import com.team4.uberapp.persistence.ListQuery;
 import com.team4.uberapp.persistence.MongoRepositories;
+import com.team4.uberapp.persistence.Versions;
+import com.team4.uberapp.util.DataFormat;
+import com.team4.uberapp.util.ETags;
+import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.JsonResponses;
+import com.team4.uberapp.util.SingleFlight;
+import com.team4.uberapp.util.TimeOrderedIds;
 import com.team4.uberapp.util.UberAppUtil;
+import com.team4.uberapp.validation.Violation;
 import org.mongolink.MongoSession;
 import org.mongolink.domain.criteria.Criteria;
 import org.mongolink.domain.criteria.Order;
@@ -32,68 +40,125 @@ import java.util.UUID;
  * @version 0.2
  */
 public class PassengerController extends UberAppUtil {
+    // concurrent GET /passengers/:id of the same id share one read
+    static final SingleFlight<UUID> reads = new SingleFlight<>("passengers");
+
     /**
      * Implementation for route:
      *      //GET  /passengers  -- get all passengers
      *      //GET  /passengers for querying parameters count, offsetId, sort & sortOrder
      *      Used in combination with sort, it specifies the order in which to return the elements. asc is for asending
      *      or desc for descending. Default value is asc except for a time-based sort field in which case the default values is desc
+     *      fields, comma separated fields to return
+     *      withTotal=true, X-Total-Count header with the number of matching passengers & X-Next-Offset with the offsetId
+     *      of the next page
+     *      filters on any field: field=value, field[in]=a,b, field[gt|gte|lt|lte]=value, answered only when an
+     *      index serves them, else 400; a sort no index serves is answered with a Warning header
+     *      Accept: application/cbor, application/x-jackson-smile or application/x-msgpack for a binary list
      *
      * @return List<Passenger> a list of passengers
      */
     public static Route getAll = (req, res) -> {
+        DataFormat format = acceptedFormat(req, res);
+        // read before the list, the list is at least as recent as its ETag
+        long version = Versions.collection("passenger");
+        String etag = format.etag(ETags.collection(version));
+        if (ETags.notModified(req, res, etag)) {
+            return "";
+        }
         //initialize db connection
         MongoSession session = MongoConfiguration.createSession();
         session.start();
         Repositories.initialise(new MongoRepositories(session));
-        List<Passenger> passengers;
+        List<?> passengers;
 
         if (req.queryParams().isEmpty()) {
             passengers = Repositories.passengers().all();
         } else {
-            Criteria criteria = session.createCriteria(Passenger.class); // create criteria object
-            final List<String> queryFields = Arrays.asList("count", "offsetId", "sort", "sortOrder");
+            ListQuery query = new ListQuery();
+            final List<String> queryFields = Arrays.asList("count", "offsetId", "sort", "sortOrder", "fields", "withTotal");
             Set<String> queryParams = req.queryParams();
             String querySort = null;
             String querySortOrder = null;
+            boolean withTotal = false;
             for(String param : queryParams){
-                if (!queryFields.contains(param)) {
+                if (!queryFields.contains(param) && !ListQuery.isFilter(param, Passenger.class)) {
                     session.stop();
                     res.status(200);
                     res.type("applicaiton/json");
-                    return dataToJson("Wrong query params :" + param);
+                    return JsonResponses.wrongQueryParams(param);
                 }
                 if (param.compareTo("count") == 0)  {
-                    criteria.limit(Integer.parseInt(req.queryParams(param)));
+                    query.limit(Integer.parseInt(req.queryParams(param)));
                 } else if (param.compareTo("offsetId") == 0) {
-                    criteria.skip(Integer.parseInt(req.queryParams(param)));
+                    query.skip(Integer.parseInt(req.queryParams(param)));
                 } else if (param.equalsIgnoreCase("sort") == true){
                     querySort = new String(req.queryParams(param));
                 } else if (param.equalsIgnoreCase("sortOrder") == true) {
                     querySortOrder = new String(req.queryParams(param));
+                } else if (param.equals("withTotal")) {
+                    withTotal = Boolean.parseBoolean(req.queryParams(param));
+                } else if (param.equals("fields")) {
+                    try {
+                        query.fields(ListQuery.parseFields(req.queryParams(param), Passenger.class));
+                    } catch (IllegalArgumentException e) {
+                        session.stop();
+                        res.status(400);
+                        res.type("application/json");
+                        return ErrorReport.toBytes(4002, e.getMessage());
+                    }
+                } else {
+                    try {
+                        query.where(param, req.queryParams(param), Passenger.class);
+                    } catch (IllegalArgumentException e) {
+                        session.stop();
+                        res.status(400);
+                        res.type("application/json");
+                        return ErrorReport.toBytes(4002, e.getMessage());
+                    }
                 }
             }
             // setup sort and sortOrder
             if (querySort != null && querySortOrder != null) {
                 if (querySortOrder.equalsIgnoreCase("asc") == true) {
-                    criteria.sort(querySort, Order.ASCENDING);
+                    query.sort(querySort, Order.ASCENDING);
                 } else {
-                    criteria.sort(querySort, Order.DESCENDING);
+                    query.sort(querySort, Order.DESCENDING);
                 }
             } else if (((querySort != null) && (querySortOrder == null)) ||
                     ((querySort == null) && (querySortOrder != null)) ){
                 session.stop();
                 res.status(200);
                 res.type("applicaiton/json");
-                return dataToJson("sort & sortOrder params must be in pair.");
+                return JsonResponses.SORT_PARAMS_NOT_IN_PAIR;
+            }
+            // filters only run on an index, whole lists sorted without one are still answered but flagged
+            String unindexed = query.unindexed(MongoConfiguration.indexKeys("passenger"));
+            if (unindexed != null && query.isFiltered()) {
+                session.stop();
+                res.status(400);
+                res.type("application/json");
+                return ErrorReport.toBytes(4002, unindexed);
+            } else if (unindexed != null) {
+                res.header("Warning", "299 - \"" + unindexed + "\"");
+            }
+            // only the fields asked for are read when there are some
+            passengers = query.isProjected() ? Repositories.passengers().project(query) : Repositories.passengers().list(query);
+            if (withTotal) {
+                long total = Repositories.passengers().count(query, version);
+                res.header("X-Total-Count", String.valueOf(total));
+                // offsetId of the next page, until the pages reach the total
+                if (query.getLimit() > 0 && query.getSkip() + passengers.size() < total) {
+                    res.header("X-Next-Offset", String.valueOf(query.getSkip() + passengers.size()));
+                }
             }
-            passengers = criteria.list();
         }
         /* close database connection */
         session.stop();
+        res.header("ETag", etag);
         res.status(200);
-        res.type("application/json");
-        return dataToJson(passengers);
+        res.type(format.getContentType());
+        return dataToFormat(passengers, format);
 
     };
 
@@ -104,28 +169,40 @@ public class PassengerController extends UberAppUtil {
      * @return Passenger  info for one passenger
      */
     public static Route getById = (req, res) -> {
-        //initialize db connection
-        MongoSession session = MongoConfiguration.createSession();
-        session.start();
-        Repositories.initialise(new MongoRepositories(session));
-
         // get car by id, generate UUID from string id first
         UUID uid = UUID.fromString(req.params(":id"));
-        Passenger passenger = Repositories.passengers().get(uid);
-
-        // close database connection
-        session.stop();
+        // the client's copy is current: answered from the version alone
+        if (req.headers("If-None-Match") != null && ETags.notModified(req, res, ETags.entity(Versions.entity("passenger", uid)))) {
+            return "";
+        }
+        SingleFlight.Response response = reads.load(uid, PassengerController::read);
 
         res.type("application/json");
-        if (passenger == null) {
-            res.status(404); // 404 Not found
-            return dataToJson("Passenger: " + req.params(":id") +" not found");
-        } else {
-            res.status(200);
-            return dataToJson(passenger);
+        res.status(response.getStatus());
+        if (response.getEtag() != null) {
+            res.header("ETag", response.getEtag());
         }
+        return response.getBody();
     };
 
+    // one Mongo read & one serialization for the concurrent requests of a passenger
+    private static SingleFlight.Response read(UUID uid) {
+        //initialize db connection
+        MongoSession session = MongoConfiguration.createSession();
+        session.start();
+        Repositories.initialise(new MongoRepositories(session));
+        try {
+            Passenger passenger = Repositories.passengers().get(uid);
+            if (passenger == null) {
+                return new SingleFlight.Response(404, dataToJsonBytes("Passenger: " + uid + " not found"));
+            }
+            return new SingleFlight.Response(200, dataToJsonBytes(passenger), ETags.entity(passenger.getVersion()));
+        } finally {
+            // close database connection
+            session.stop();
+        }
+    }
+
     /**
      * The constant create.
      * POST /passengers  Create passenger
@@ -150,14 +227,13 @@ public class PassengerController extends UberAppUtil {
         Repositories.initialise(new MongoRepositories(session));
 
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            Passenger passenger = mapper.readValue(req.body(), Passenger.class);
-            try {
-                passenger.isValid();
-            } catch (Exception e){
+            Passenger passenger = jsonToData(req.body(), Passenger.class);
+            List<Violation> violations = passenger.violations();
+            if (!violations.isEmpty()) {
+                session.stop();
                 res.status(400);
                 res.type("application/json");
-                return dataToJson(e.getMessage());
+                return ErrorReport.toBytes(violations);
             }
 
             Criteria criteria = session.createCriteria(Driver.class); // create criteria object
@@ -169,12 +245,13 @@ public class PassengerController extends UberAppUtil {
                 criteria = session.createCriteria(Passenger.class);
                 criteria.add(Restrictions.equals("emailAddress", passenger.getEmailAddress()));
                 if (criteria.list() == null || criteria.list().isEmpty()) {
-                    passenger.setId(UUID.randomUUID()); //generate UUID for driver
+                    passenger.setId(TimeOrderedIds.next()); //generate UUID for driver
                     passenger.setPassword(hashPassword(passenger.getPassword()));
                     //session.clear();
                     Repositories.passengers().add(passenger);
 
                     session.stop();
+                    Versions.touch("passenger");
                     res.status(201);
                     res.type("application/json");
                     return dataToJson(passenger);
@@ -214,6 +291,8 @@ public class PassengerController extends UberAppUtil {
             Repositories.passengers().delete(passenger);
             // close database connection
             session.stop();
+            reads.forget(uid);
+            Versions.touch("passenger");
             res.type("application/json");
             res.status(200);
             return dataToJson("Passenger: " + req.params(":id") +" deleted");
@@ -241,82 +320,17 @@ public class PassengerController extends UberAppUtil {
             res.type("application/json");
             return dataToJson("Passenger: " + req.params(":id") +" not found");
         } else {
-            // clone a passenger for validation purpose
-            Passenger validationPassenger = (Passenger) passenger.clone();
 
             try {
-                ObjectMapper mapper = new ObjectMapper();
-                Passenger updatePassenger = mapper.readValue(req.body(), Passenger.class);
-
-                // firstName
-                if (updatePassenger.getFirstName() != null) {
-                    if (!updatePassenger.getFirstName().isEmpty()) {
-                        validationPassenger.setFirstName(updatePassenger.getFirstName());
-                    }
-                }
-                // lastName
-                if (updatePassenger.getLastName() != null) {
-                    if (!updatePassenger.getLastName().isEmpty()) {
-                        validationPassenger.setLastName(updatePassenger.getLastName());
-                    }
-                }
-                // emailAddress
-                if (updatePassenger.getEmailAddress() != null) {
-                    if (!updatePassenger.getEmailAddress().isEmpty()) {
-                        validationPassenger.setEmailAddress(updatePassenger.getEmailAddress());
-                    }
-                }
-                // password: we may need special handle on password later
-                if (updatePassenger.getPassword() != null) {
-                    if (!updatePassenger.getPassword().isEmpty()) {
-                        validationPassenger.setPassword(updatePassenger.getPassword());
-                    }
-                }
-
-                // addressLine1
-                if (updatePassenger.getAddressLine1() != null) {
-                    if (!updatePassenger.getAddressLine1().isEmpty()) {
-                        validationPassenger.setAddressLine1(updatePassenger.getAddressLine1());
-                    }
-                }
-                // addressLine2
-                if (updatePassenger.getAddressLine2() != null) {
-                    if (!updatePassenger.getAddressLine2().isEmpty()) {
-                        validationPassenger.setAddressLine2(updatePassenger.getAddressLine2());
-                    }
-                }
-                // city
-                if (updatePassenger.getCity() != null) {
-                    if (!updatePassenger.getCity().isEmpty()) {
-                        validationPassenger.setCity(updatePassenger.getCity());
-                    }
-                }
-                // state
-                if (updatePassenger.getState() != null) {
-                    if (!updatePassenger.getState().isEmpty()) {
-                        validationPassenger.setState(updatePassenger.getState());
-                    }
-                }
-                // zip
-                if (updatePassenger.getZip() != null) {
-                    if (!updatePassenger.getZip().isEmpty()) {
-                        validationPassenger.setZip(updatePassenger.getZip());
-                    }
-                }
-                // phoneNumber
-                if (updatePassenger.getPhoneNumber() != null) {
-                    if (!updatePassenger.getPhoneNumber().isEmpty()) {
-                        validationPassenger.setPhoneNumber(updatePassenger.getPhoneNumber());
-                    }
-                }
+                Passenger updatePassenger = jsonToData(req.body(), Passenger.class);
+                Passenger validationPassenger = merge(passenger, updatePassenger);
 
-                //validation
-                try {
-                    validationPassenger.isValid();
-                } catch (Exception e) {
+                List<Violation> violations = validationPassenger.violations();
+                if (!violations.isEmpty()) {
                     session.stop();
+                    res.status(400);
                     res.type("application/json");
-                    return e.getMessage();
+                    return ErrorReport.toBytes(violations);
                 }
 
                 //update value
@@ -330,8 +344,17 @@ public class PassengerController extends UberAppUtil {
                 passenger.setState(validationPassenger.getState());
                 passenger.setZip(validationPassenger.getZip());
                 passenger.setPhoneNumber(validationPassenger.getPhoneNumber());
+                long read = passenger.getVersion();
+                passenger.nextVersion();
+                // written only at the version read, not by the session
+                session.clear();
                 session.stop();
                 res.type("application/json");
+                if (!Versions.replace("passenger", passenger, uid, read)) {
+                    return notUpdated(res, "Passenger", 3009, uid, Versions.entity("passenger", uid) == null);
+                }
+                reads.forget(passenger.getId());
+                Versions.touch("passenger");
                 return dataToJson("Passenger:" + req.params(":id") +" updated!");
             } catch (JsonParseException e) {
                 session.stop();
@@ -342,4 +365,85 @@ public class PassengerController extends UberAppUtil {
         }
     };
 
+    // the fields of the update that are set, over a copy of the passenger, to validate before it changes
+    static Passenger merge(Passenger passenger, Passenger updatePassenger) throws CloneNotSupportedException {
+        Passenger validationPassenger = (Passenger) passenger.clone();
+        // firstName
+        if (updatePassenger.getFirstName() != null) {
+            if (!updatePassenger.getFirstName().isEmpty()) {
+                validationPassenger.setFirstName(updatePassenger.getFirstName());
+            }
+        }
+        // lastName
+        if (updatePassenger.getLastName() != null) {
+            if (!updatePassenger.getLastName().isEmpty()) {
+                validationPassenger.setLastName(updatePassenger.getLastName());
+            }
+        }
+        // emailAddress
+        if (updatePassenger.getEmailAddress() != null) {
+            if (!updatePassenger.getEmailAddress().isEmpty()) {
+                validationPassenger.setEmailAddress(updatePassenger.getEmailAddress());
+            }
+        }
+        // password: we may need special handle on password later
+        if (updatePassenger.getPassword() != null) {
+            if (!updatePassenger.getPassword().isEmpty()) {
+                validationPassenger.setPassword(updatePassenger.getPassword());
+            }
+        }
+
+        // addressLine1
+        if (updatePassenger.getAddressLine1() != null) {
+            if (!updatePassenger.getAddressLine1().isEmpty()) {
+                validationPassenger.setAddressLine1(updatePassenger.getAddressLine1());
+            }
+        }
+        // addressLine2
+        if (updatePassenger.getAddressLine2() != null) {
+            if (!updatePassenger.getAddressLine2().isEmpty()) {
+                validationPassenger.setAddressLine2(updatePassenger.getAddressLine2());
+            }
+        }
+        // city
+        if (updatePassenger.getCity() != null) {
+            if (!updatePassenger.getCity().isEmpty()) {
+                validationPassenger.setCity(updatePassenger.getCity());
+            }
+        }
+        // state
+        if (updatePassenger.getState() != null) {
+            if (!updatePassenger.getState().isEmpty()) {
+                validationPassenger.setState(updatePassenger.getState());
+            }
+        }
+        // zip
+        if (updatePassenger.getZip() != null) {
+            if (!updatePassenger.getZip().isEmpty()) {
+                validationPassenger.setZip(updatePassenger.getZip());
+            }
+        }
+        // phoneNumber
+        if (updatePassenger.getPhoneNumber() != null) {
+            if (!updatePassenger.getPhoneNumber().isEmpty()) {
+                validationPassenger.setPhoneNumber(updatePassenger.getPhoneNumber());
+            }
+        }
+
+        //validation
+        return validationPassenger;
+    }
+
+    /**
+     * POST /passengers/batch  Create, update & delete passengers with one bulk write
+     * [
+     *  {"op":"create", "data":{"firstName":"Lin", "lastName":"Zhai", "emailAddress":"lin@example.com",
+     *                          "password":"password", ...}},
+     *  {"op":"update", "id":"a57536e5-c05c-437a-9ef9-d27a267a7d85", "data":{"city":"Mountain View"}},
+     *  {"op":"delete", "id":"6c1a2f0e-93c4-4d55-b8f5-2b1f0c0d4e11"}
+     * ]
+     * @return List of the status of each operation, in order
+     */
+    public static Route batch = (req, res) -> new PassengerBatch().handle(req, res);
+
 }
@@ -0,0 +1,119 @@
+/**
+ * ConnectionPoolMetrics: live statistics of the Mongo connection pool, used to size
+ * db.pool.* settings against the request concurrency
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.persistence;
+
+import com.mongodb.connection.ConnectionId;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListenerAdapter;
+import com.mongodb.event.ConnectionReadyEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Only the connection monitoring events of driver 3.12 are used, none of the deprecated ones. A request waits
+ * for a connection from its check out start until it is checked out or fails, after db.pool.maxWaitTime or with
+ * a full wait queue. A connection is timed from its creation until it is ready, its connect & handshake done;
+ * that includes the connections opened in the background to keep db.pool.minSize.
+ */
+public class ConnectionPoolMetrics extends ConnectionPoolListenerAdapter {
+    private final AtomicInteger poolSize = new AtomicInteger();
+    private final AtomicInteger checkedOutCount = new AtomicInteger();
+    private final AtomicInteger waitQueueSize = new AtomicInteger();
+    private final AtomicLong checkoutCount = new AtomicLong();
+    private final AtomicLong connectionsCreated = new AtomicLong();
+    private final AtomicLong timedConnectionCreates = new AtomicLong();
+    private final AtomicLong connectionCreateNanos = new AtomicLong();
+    private final AtomicLong maxConnectionCreateNanos = new AtomicLong();
+
+    private final Map<ConnectionId, Long> connectionCreatedAt = new ConcurrentHashMap<>();
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        waitQueueSize.incrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        waitQueueSize.decrementAndGet();
+        checkedOutCount.incrementAndGet();
+        checkoutCount.incrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        waitQueueSize.decrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        checkedOutCount.decrementAndGet();
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        poolSize.incrementAndGet();
+        connectionsCreated.incrementAndGet();
+        connectionCreatedAt.put(event.getConnectionId(), System.nanoTime());
+    }
+
+    @Override
+    public void connectionReady(ConnectionReadyEvent event) {
+        Long createdAt = connectionCreatedAt.remove(event.getConnectionId());
+        if (createdAt != null) {
+            long createNanos = System.nanoTime() - createdAt;
+            timedConnectionCreates.incrementAndGet();
+            connectionCreateNanos.addAndGet(createNanos);
+            maxConnectionCreateNanos.accumulateAndGet(createNanos, Math::max);
+        }
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        poolSize.decrementAndGet();
+        // a connection that failed to open is never ready
+        connectionCreatedAt.remove(event.getConnectionId());
+    }
+
+    public int getPoolSize() {
+        return poolSize.get();
+    }
+
+    public int getCheckedOutCount() {
+        return checkedOutCount.get();
+    }
+
+    public int getWaitQueueSize() {
+        return waitQueueSize.get();
+    }
+
+    public long getCheckoutCount() {
+        return checkoutCount.get();
+    }
+
+    public long getConnectionsCreated() {
+        return connectionsCreated.get();
+    }
+
+    public double getAverageConnectionCreateMillis() {
+        long created = timedConnectionCreates.get();
+        return created == 0 ? 0 : (double) connectionCreateNanos.get() / created / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getMaxConnectionCreateMillis() {
+        return (double) maxConnectionCreateNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
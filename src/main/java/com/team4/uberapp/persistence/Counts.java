@@ -0,0 +1,134 @@
+/**
+ * Counts: totals of the lists, from the collection metadata or cached by filter
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.persistence;
+
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The total of a whole collection is its estimated count, kept in the collection metadata: no document or
+ * index entry is read. The total of a filter is a count of the matching index entries, as costly as the list
+ * itself, so it is kept with the version of the collection it was taken at and reused until the next write
+ * to the collection, the same rule as the ETag of the list. The first count at a newer version drops every
+ * filter of the collection, and each collection keeps its most recently used filters only. A collection without
+ * a version, rides, counts with its generation instead: its totals are reused for a while, not until a write.
+ */
+public class Counts {
+    // filters kept by collection, the least recently used is dropped past it
+    private static final int MAX_FILTERS = 256;
+
+    private static final Map<String, Filters> cache = new ConcurrentHashMap<>();
+    private static final LongAdder estimated = new LongAdder();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evicted = new LongAdder();
+
+    /**
+     * Number of documents matching a filter
+     * @param collection collection to count
+     * @param filter restrictions of the list, empty for the whole collection
+     * @param version version of the collection, read before the count
+     * @return long - the total
+     */
+    public static long count(MongoCollection<Document> collection, Document filter, long version) {
+        if (filter.isEmpty()) {
+            estimated.increment();
+            return collection.estimatedDocumentCount();
+        }
+        Filters filters = cache.compute(collection.getNamespace().getCollectionName(), (name, current) -> {
+            if (current == null || current.version < version) {
+                if (current != null) {
+                    evicted.add(current.size());
+                }
+                return new Filters(version);
+            }
+            return current;
+        });
+        String key = filter.toJson();
+        Long cached = filters.version == version ? filters.get(key) : null;
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        long count = collection.countDocuments(filter);
+        // read before a write the cache has already seen, not kept
+        if (filters.version == version) {
+            filters.put(key, count);
+        }
+        return count;
+    }
+
+    /**
+     * Version to count a collection that has none with: the totals are kept for at most maxAgeMillis
+     * @param maxAgeMillis how long a total is reused
+     * @return long - changes every maxAgeMillis
+     */
+    public static long generation(long maxAgeMillis) {
+        return System.currentTimeMillis() / Math.max(1, maxAgeMillis);
+    }
+
+    public static long getEstimated() {
+        return estimated.sum();
+    }
+
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    public static long getEvicted() {
+        return evicted.sum();
+    }
+
+    public static int getCached() {
+        int cached = 0;
+        for (Filters filters : cache.values()) {
+            cached += filters.size();
+        }
+        return cached;
+    }
+
+    // counts of the filters of one collection at one version, in access order
+    private static class Filters {
+        private final long version;
+        private final Map<String, Long> counts = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() > MAX_FILTERS) {
+                    evicted.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        Filters(long version) {
+            this.version = version;
+        }
+
+        synchronized Long get(String key) {
+            return counts.get(key);
+        }
+
+        synchronized void put(String key, long count) {
+            counts.put(key, count);
+        }
+
+        synchronized int size() {
+            return counts.size();
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/**
+ * ListQuery: restrictions, order, page & fields of a list read
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.persistence;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.team4.uberapp.util.UberAppUtil;
+import org.bson.Document;
+import org.mongolink.MongoSession;
+import org.mongolink.domain.criteria.Criteria;
+import org.mongolink.domain.criteria.Order;
+import org.mongolink.domain.criteria.Restriction;
+import org.mongolink.domain.criteria.Restrictions;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The same query runs either as a MongoLink criteria, loading whole entities, or, when only some fields are
+ * asked for, as a find with a projection: the other fields never leave the database and no entity is built.
+ * Filters from query parameters are kept by kind, equality, IN or range, to tell whether an index serves them.
+ */
+public class ListQuery {
+    // fields a list may be reduced to, by entity
+    private static final Map<Class<?>, Set<String>> selectableFields = new ConcurrentHashMap<>();
+
+    private final List<Restriction> restrictions = new ArrayList<>();
+    private final Map<String, Order> sorts = new LinkedHashMap<>();
+    private int skip = 0;
+    private int limit = 0;
+    private List<String> fields;
+    // document fields of the filters, by kind
+    private final Set<String> equalFields = new LinkedHashSet<>();
+    private final Set<String> inFields = new LinkedHashSet<>();
+    private final Map<String, RestrictionRange> ranges = new LinkedHashMap<>();
+
+    public ListQuery add(Restriction restriction) {
+        restrictions.add(restriction);
+        return this;
+    }
+
+    public ListQuery skip(int skip) {
+        this.skip = skip;
+        return this;
+    }
+
+    public ListQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Sort by a field, after the sorts already added
+     * @param field as in the json of the entity, id is the _id of the documents
+     * @param order ascending or descending
+     * @return ListQuery - this query
+     */
+    public ListQuery sort(String field, Order order) {
+        sorts.put(documentField(field), order);
+        return this;
+    }
+
+    /**
+     * Add a filter given as a query parameter: field=value, field[in]=a,b or field[gt|gte|lt|lte]=value
+     * @param param field as in the json of the entity, with an optional [operator]
+     * @param value converted to the type of the field
+     * @param type entity class
+     * @return ListQuery - this query
+     * @throws IllegalArgumentException if the field, the operator or the value is not valid, or the field
+     *         is already filtered otherwise
+     */
+    public ListQuery where(String param, String value, Class<?> type) {
+        String field = filterField(param);
+        if (!selectableFields(type).contains(field)) {
+            throw new IllegalArgumentException("Unknown field " + field + ", should be one of " + selectableFields(type));
+        }
+        String operator = field.equals(param) ? "eq" : param.substring(field.length() + 1, param.length() - 1);
+        String documentField = documentField(field);
+        boolean range = RestrictionRange.isOperator(operator);
+        if (equalFields.contains(documentField) || inFields.contains(documentField)
+                || (!range && ranges.containsKey(documentField))) {
+            throw new IllegalArgumentException(field + " is filtered more than once");
+        }
+        if (range) {
+            RestrictionRange restriction = ranges.get(documentField);
+            if (restriction == null) {
+                restriction = new RestrictionRange(documentField);
+                ranges.put(documentField, restriction);
+                add(restriction);
+            }
+            restriction.bound(operator, filterValue(type, field, value));
+        } else if ("in".equals(operator)) {
+            List<Object> values = new ArrayList<>();
+            for (String each : value.split(",")) {
+                values.add(filterValue(type, field, each.trim()));
+            }
+            inFields.add(documentField);
+            add(Restrictions.in(documentField, values));
+        } else if ("eq".equals(operator)) {
+            equalFields.add(documentField);
+            add(Restrictions.equals(documentField, filterValue(type, field, value)));
+        } else {
+            throw new IllegalArgumentException("Unknown operator " + operator + ", should be one of eq, in, gt, gte, lt, lte");
+        }
+        return this;
+    }
+
+    /**
+     * Whether a query parameter names a field of the entity, with or without an operator
+     * @param param query parameter name
+     * @param type entity class
+     * @return boolean - true when where can take it
+     */
+    public static boolean isFilter(String param, Class<?> type) {
+        return selectableFields(type).contains(filterField(param));
+    }
+
+    public boolean isFiltered() {
+        return !restrictions.isEmpty();
+    }
+
+    /**
+     * Check the filters & the sort against the indexes of the collection. An index serves the query when it
+     * starts with the equality & IN fields, in any order, then has the range field, then the sort fields; an
+     * IN reads its values one after the other, so the index order is not the sort order after one.
+     * @param indexes keys of the indexes of the collection, _id included
+     * @return String - null when an index serves the query or there is nothing to look up, else why not
+     */
+    public String unindexed(List<Document> indexes) {
+        if (!isFiltered() && sorts.isEmpty()) {
+            return null;
+        }
+        Set<String> equalities = new HashSet<>(equalFields);
+        equalities.addAll(inFields);
+        List<List<String>> indexed = new ArrayList<>();
+        for (Document index : indexes) {
+            List<String> keys = new ArrayList<>(index.keySet());
+            if (serves(keys, equalities)) {
+                return null;
+            }
+            indexed.add(keys);
+        }
+        List<String> filtered = new ArrayList<>(equalities);
+        filtered.addAll(ranges.keySet());
+        List<String> unserved = new ArrayList<>();
+        if (!filtered.isEmpty()) {
+            unserved.add("filters on " + filtered);
+        }
+        if (!sorts.isEmpty()) {
+            unserved.add("sort on " + sorts.keySet());
+        }
+        return "No index for " + String.join(" & ", unserved) + ", indexes are " + indexed;
+    }
+
+    private boolean serves(List<String> keys, Set<String> equalities) {
+        int prefix = equalities.size();
+        if (keys.size() < prefix || !new HashSet<>(keys.subList(0, prefix)).equals(equalities)) {
+            return false;
+        }
+        List<String> rest = keys.subList(prefix, keys.size());
+        if (ranges.size() > 1) {
+            return false;
+        }
+        if (ranges.size() == 1 && (rest.isEmpty() || !ranges.containsKey(rest.get(0)))) {
+            return false;
+        }
+        if (sorts.isEmpty()) {
+            return true;
+        }
+        // an index is walked either way, the sorts of the api all go one way
+        List<String> sorted = new ArrayList<>(sorts.keySet());
+        return inFields.isEmpty() && rest.size() >= sorted.size() && rest.subList(0, sorted.size()).equals(sorted);
+    }
+
+    /**
+     * Reduce the list to some fields
+     * @param fields field names, as in the json of the entity; null for whole entities
+     * @return ListQuery - this query
+     */
+    public ListQuery fields(List<String> fields) {
+        this.fields = fields;
+        return this;
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    public boolean isProjected() {
+        return fields != null;
+    }
+
+    /**
+     * The restrictions as a Mongo filter
+     * @return Document - filter of a find
+     */
+    public Document filter() {
+        Document filter = new Document();
+        for (Restriction restriction : restrictions) {
+            restriction.apply(filter);
+        }
+        return filter;
+    }
+
+    /**
+     * Sort of a find
+     * @return Document - fields & 1 or -1, in the order they were added
+     */
+    public Document sort() {
+        Document sort = new Document();
+        for (Map.Entry<String, Order> entry : sorts.entrySet()) {
+            sort.put(entry.getKey(), entry.getValue().mongoValue());
+        }
+        return sort;
+    }
+
+    public int getSkip() {
+        return skip;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * The query as a MongoLink criteria, for whole entities
+     * @param session open session
+     * @param type entity class
+     * @return Criteria - ready to list
+     */
+    public Criteria criteria(MongoSession session, Class<?> type) {
+        Criteria criteria = session.createCriteria(type);
+        for (Restriction restriction : restrictions) {
+            criteria.add(restriction);
+        }
+        for (Map.Entry<String, Order> entry : sorts.entrySet()) {
+            criteria.sort(entry.getKey(), entry.getValue());
+        }
+        if (skip > 0) {
+            criteria.skip(skip);
+        }
+        if (limit > 0) {
+            criteria.limit(limit);
+        }
+        return criteria;
+    }
+
+    /**
+     * Parse a fields query parameter
+     * @param fields comma separated field names, as in the json of the entity
+     * @param type entity class
+     * @return List<String> - the fields, without duplicates
+     * @throws IllegalArgumentException if a field is not one the entity is stored & serialized with
+     */
+    public static List<String> parseFields(String fields, Class<?> type) {
+        Set<String> selectable = selectableFields(type);
+        Set<String> parsed = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            field = field.trim();
+            if (field.isEmpty()) {
+                continue;
+            }
+            if (!selectable.contains(field)) {
+                throw new IllegalArgumentException("Unknown field " + field + ", should be one of " + selectable);
+            }
+            parsed.add(field);
+        }
+        if (parsed.isEmpty()) {
+            throw new IllegalArgumentException("fields should list at least one of " + selectable);
+        }
+        return new ArrayList<>(parsed);
+    }
+
+    // the id of the entities is the _id of their documents, the other fields keep their names
+    static String documentField(String field) {
+        return "id".equals(field) ? "_id" : field;
+    }
+
+    // values of the fields of a projected document, a binary UUID of either layout as a UUID
+    static Map<String, Object> projected(Document document, List<String> fields) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (String field : fields) {
+            Object value = document.get(documentField(field));
+            values.put(field, Uuids.isUuid(value) ? Uuids.of(value) : value);
+        }
+        return values;
+    }
+
+    // field of a filter parameter, without its [operator]
+    private static String filterField(String param) {
+        int bracket = param.indexOf('[');
+        return bracket > 0 && param.endsWith("]") ? param.substring(0, bracket) : param;
+    }
+
+    // a query parameter as a value of the type of the field
+    private static Object filterValue(Class<?> type, String field, String value) {
+        Class<?> valueType;
+        try {
+            valueType = type.getDeclaredField(field).getType();
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+        try {
+            if (valueType == UUID.class) {
+                return UUID.fromString(value);
+            }
+            if (valueType == int.class || valueType == Integer.class) {
+                return Integer.valueOf(value);
+            }
+            if (valueType == Long.class) {
+                return Long.valueOf(value);
+            }
+            if (valueType == Number.class) {
+                // stored as posted, a long or a double, Mongo compares both alike
+                return value.matches("-?\\d+") ? (Object) Long.valueOf(value) : Double.valueOf(value);
+            }
+            return value;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value " + value + " for " + field);
+        }
+    }
+
+    // stored fields written by the json serializer of the entity, so a projection never shows a hidden one
+    private static Set<String> selectableFields(Class<?> type) {
+        Set<String> selectable = selectableFields.get(type);
+        if (selectable != null) {
+            return selectable;
+        }
+        Set<String> stored = new LinkedHashSet<>();
+        for (Field field : type.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+                stored.add(field.getName());
+            }
+        }
+        selectable = new LinkedHashSet<>();
+        try {
+            JsonSerializer<Object> serializer = UberAppUtil.jsonMapper().getSerializerProviderInstance().findValueSerializer(type);
+            for (Iterator<PropertyWriter> properties = serializer.properties(); properties.hasNext(); ) {
+                String name = properties.next().getName();
+                if (stored.contains(name)) {
+                    selectable.add(name);
+                }
+            }
+        } catch (JsonMappingException e) {
+            throw new IllegalStateException(e);
+        }
+        selectable = Collections.unmodifiableSet(selectable);
+        selectableFields.put(type, selectable);
+        return selectable;
+    }
+}
@@ -60,6 +60,11 @@ public class MongoRepositories extends Repositories {
         return new RoutePointMongoRepository(session);
     }
 
+    @Override
+    protected RideEventRepository rideEventsRepository() {
+        return new RideEventMongoRepository(session);
+    }
+
     private MongoSession session;
 
 
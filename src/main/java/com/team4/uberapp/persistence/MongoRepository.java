@@ -21,13 +21,19 @@
 
 package com.team4.uberapp.persistence;
 
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.mongolink.MongoSession;
 import com.team4.uberapp.domain.Repository;
 import org.mongolink.domain.criteria.Criteria;
 import org.mongolink.domain.criteria.Restriction;
 
 import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public abstract class MongoRepository<T> implements Repository<T> {
 
@@ -62,6 +68,53 @@ public abstract class MongoRepository<T> implements Repository<T> {
         return criteria.list();
     }
 
+    @Override
+    public List<T> list(ListQuery query) {
+        return query.criteria(session, persistentType()).list();
+    }
+
+    @Override
+    public List<Map<String, Object>> project(ListQuery query) {
+        List<String> fields = query.getFields();
+        Document projection = new Document();
+        if (!fields.contains("id")) {
+            projection.put("_id", 0);
+        }
+        for (String field : fields) {
+            projection.put(ListQuery.documentField(field), 1);
+        }
+        FindIterable<Document> found = collection().find(query.filter()).projection(projection);
+        if (!query.sort().isEmpty()) {
+            found.sort(query.sort());
+        }
+        if (query.getSkip() > 0) {
+            found.skip(query.getSkip());
+        }
+        if (query.getLimit() > 0) {
+            found.limit(query.getLimit());
+        }
+        List<Map<String, Object>> documents = new ArrayList<>();
+        for (Document document : found) {
+            documents.add(ListQuery.projected(document, fields));
+        }
+        return documents;
+    }
+
+    @Override
+    public long count(ListQuery query, long version) {
+        return Counts.count(collection(), query.filter(), version);
+    }
+
+    // one deleteMany on the collection, without loading the entities in the session
+    protected final long deleteMany(Bson filter) {
+        return collection().deleteMany(filter).getDeletedCount();
+    }
+
+    // MongoLink names the collection after the entity class
+    protected final MongoCollection<Document> collection() {
+        return session.getDb().getCollection(persistentType().getSimpleName().toLowerCase());
+    }
+
     protected final Class<T> persistentType() {
         final ParameterizedType superclass = (ParameterizedType) getClass().getGenericSuperclass();
         return (Class<T>) superclass.getActualTypeArguments()[0];
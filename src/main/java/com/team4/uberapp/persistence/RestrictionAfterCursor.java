@@ -0,0 +1,44 @@
+/**
+ * RestrictionAfterCursor: keyset pagination on (requestTime desc, _id desc)
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.persistence;
+
+import com.team4.uberapp.ride.RideCursor;
+import org.bson.Document;
+import org.mongolink.domain.criteria.Restriction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches the rides coming after the cursor when sorted newest first.
+ * Rides without requestTime sort last, so they follow every dated ride.
+ * MongoLink has no $lt restriction, this one writes the whole $or clause.
+ */
+public class RestrictionAfterCursor extends Restriction {
+    private final RideCursor cursor;
+
+    public RestrictionAfterCursor(RideCursor cursor) {
+        super("requestTime");
+        this.cursor = cursor;
+    }
+
+    @Override
+    public void apply(Document query) {
+        Object id = getDBValue(cursor.getId());
+        if (cursor.getRequestTime() == null) {
+            query.put(getField(), null);
+            query.put("_id", new Document("$lt", id));
+            return;
+        }
+        Object time = getDBValue(cursor.getRequestTime());
+        List<Document> after = new ArrayList<>();
+        after.add(new Document(getField(), new Document("$lt", time)));
+        after.add(new Document(getField(), time).append("_id", new Document("$lt", id)));
+        after.add(new Document(getField(), null));
+        query.put("$or", after);
+    }
+}
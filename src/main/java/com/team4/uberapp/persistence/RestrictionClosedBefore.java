@@ -0,0 +1,35 @@
+/**
+ * RestrictionClosedBefore: rides ended before a time
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.persistence;
+
+import org.bson.Document;
+import org.mongolink.domain.criteria.Restriction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches the rides dropped off before the time, rides without dropOffTime by their requestTime.
+ * MongoLink has no $lt restriction, this one writes the whole $or clause.
+ */
+public class RestrictionClosedBefore extends Restriction {
+    private final long time;
+
+    public RestrictionClosedBefore(long time) {
+        super("dropOffTime");
+        this.time = time;
+    }
+
+    @Override
+    public void apply(Document query) {
+        Object before = new Document("$lt", getDBValue(time));
+        List<Document> ended = new ArrayList<>();
+        ended.add(new Document(getField(), before));
+        ended.add(new Document(getField(), null).append("requestTime", before));
+        query.put("$or", ended);
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * RestrictionRange: bounds on one field, any of $gt, $gte, $lt & $lte
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.persistence;
+
+import org.bson.Document;
+import org.mongolink.domain.criteria.Restriction;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MongoLink only has $gte and between, and two restrictions on the same field overwrite each other,
+ * so every bound of a field goes in one restriction, written as a single clause.
+ */
+public class RestrictionRange extends Restriction {
+    private final Map<String, Object> bounds = new LinkedHashMap<>();
+
+    public RestrictionRange(String field) {
+        super(field);
+    }
+
+    /**
+     * Add a bound
+     * @param operator gt, gte, lt or lte
+     * @param value bound, converted like the other restrictions
+     * @return RestrictionRange - this restriction
+     * @throws IllegalArgumentException if the operator is not one of a range or already bounds the field
+     */
+    public RestrictionRange bound(String operator, Object value) {
+        if (!isOperator(operator)) {
+            throw new IllegalArgumentException("Unknown operator " + operator + ", should be one of gt, gte, lt, lte");
+        }
+        if (bounds.containsKey("$" + operator)) {
+            throw new IllegalArgumentException(getField() + "[" + operator + "] is given twice");
+        }
+        bounds.put("$" + operator, value);
+        return this;
+    }
+
+    public static boolean isOperator(String operator) {
+        return "gt".equals(operator) || "gte".equals(operator) || "lt".equals(operator) || "lte".equals(operator);
+    }
+
+    @Override
+    public void apply(Document query) {
+        Document range = new Document();
+        for (Map.Entry<String, Object> bound : bounds.entrySet()) {
+            range.put(bound.getKey(), getDBValue(bound.getValue()));
+        }
+        query.put(getField(), range);
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Ride event outbox, relayed to the event log
+ */
+
+package com.team4.uberapp.persistence;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.domain.RideEventRepository;
+import com.team4.uberapp.ride.RideEvent;
+import org.bson.Document;
+import org.mongolink.MongoSession;
+import org.mongolink.domain.mapper.ClassMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class RideEventMongoRepository extends MongoRepository<RideEvent> implements RideEventRepository {
+    public RideEventMongoRepository(MongoSession mongoSession) {
+        super(mongoSession);
+    }
+
+    // read without the session: the events are removed by deleteRelayed, the session must not write them back.
+    // _id is only a tie-break, a JAVA_LEGACY database stores the halves of the ids byte reversed; events written
+    // before the sequence field have none and go first. The batch ends before the first event whose change is not committed
+    // yet (committed false, see Outbox), the later ones wait for it so that the log keeps the sequence order
+    @Override
+    public List<RideEvent> findPending(String node, int count) {
+        ClassMapper<RideEvent> mapper = MongoConfiguration.mapperContext().mapperFor(RideEvent.class);
+        List<RideEvent> events = new ArrayList<>();
+        for (Document document : collection().find(Filters.eq("node", node))
+                .sort(Sorts.ascending("sequence", "_id")).limit(count)) {
+            if (Boolean.FALSE.equals(document.get("committed"))) {
+                break;
+            }
+            events.add(mapper.toInstance(document));
+        }
+        return events;
+    }
+
+    @Override
+    public long deleteRelayed(List<UUID> ids) {
+        return ids.isEmpty() ? 0 : deleteMany(Filters.in("_id", ids));
+    }
+
+    @Override
+    public List<String> nodes() {
+        return collection().distinct("node", String.class).into(new ArrayList<>());
+    }
+
+    @Override
+    public long claim(String from, String to) {
+        return collection().updateMany(Filters.eq("node", from), Updates.set("node", to)).getModifiedCount();
+    }
+}
@@ -21,13 +21,65 @@
 
 package com.team4.uberapp.persistence;
 
+import com.mongodb.client.model.Filters;
 import com.team4.uberapp.domain.RideRepository;
 import com.team4.uberapp.ride.Ride;
+import com.team4.uberapp.ride.RideCursor;
 import org.mongolink.MongoSession;
+import org.mongolink.domain.criteria.Criteria;
+import org.mongolink.domain.criteria.Order;
+import org.mongolink.domain.criteria.Restrictions;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 public class RideMongoRepository extends MongoRepository<Ride> implements RideRepository {
     public RideMongoRepository(MongoSession mongoSession) {
         super(mongoSession);
     }
 
+    @Override
+    public List<Ride> findHistory(String ownerField, UUID ownerId, String status, RideCursor after, int count) {
+        return list(historyQuery(ownerField, ownerId, status, after, count));
+    }
+
+    @Override
+    public List<Map<String, Object>> projectHistory(String ownerField, UUID ownerId, String status, RideCursor after,
+                                                    int count, List<String> fields) {
+        return project(historyQuery(ownerField, ownerId, status, after, count).fields(fields));
+    }
+
+    @Override
+    public long countHistory(String ownerField, UUID ownerId, String status, long version) {
+        return count(historyQuery(ownerField, ownerId, status, null, 0), version);
+    }
+
+    private static ListQuery historyQuery(String ownerField, UUID ownerId, String status, RideCursor after, int count) {
+        ListQuery query = new ListQuery().add(Restrictions.equals(ownerField, ownerId));
+        if (status != null) {
+            query.add(Restrictions.equals("status", status));
+        }
+        if (after != null) {
+            query.add(new RestrictionAfterCursor(after));
+        }
+        // same order as the (owner, requestTime, _id) index, walked backwards
+        return query.sort("requestTime", Order.DESCENDING).sort("_id", Order.DESCENDING).limit(count);
+    }
+
+    @Override
+    public List<Ride> findClosedBefore(long time, int count) {
+        Criteria criteria = session.createCriteria(Ride.class);
+        criteria.add(Restrictions.equals("status", "CLOSED"));
+        criteria.add(new RestrictionClosedBefore(time));
+        criteria.sort("_id", Order.ASCENDING);
+        criteria.limit(count);
+        return criteria.list();
+    }
+
+    @Override
+    public long deleteAll(List<UUID> ids) {
+        return deleteMany(Filters.in("_id", ids));
+    }
+
 }
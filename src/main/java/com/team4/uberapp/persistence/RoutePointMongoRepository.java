@@ -4,13 +4,102 @@
 
 package com.team4.uberapp.persistence;
 
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.team4.uberapp.MongoConfiguration;
 import com.team4.uberapp.domain.RoutePointRepository;
 import com.team4.uberapp.ride.RoutePoint;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.mongolink.MongoSession;
+import org.mongolink.domain.criteria.Criteria;
+import org.mongolink.domain.criteria.Order;
+import org.mongolink.domain.criteria.Restrictions;
+import org.mongolink.domain.mapper.ClassMapper;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
 
 public class RoutePointMongoRepository extends MongoRepository<RoutePoint> implements RoutePointRepository {
+    private static final String STORED_AT = "storedAt";
+
     public RoutePointMongoRepository(MongoSession mongoSession) {
         super(mongoSession);
     }
 
+    /**
+     * Written at once rather than at the session flush: one upsert, so the database sets storedAt
+     * with its own clock, the same for every node
+     */
+    @Override
+    public void add(RoutePoint routePoint) {
+        UpdateOneModel<Document> insert = insertModel(routePoint);
+        collection().updateOne(insert.getFilter(), insert.getUpdate(), insert.getOptions());
+    }
+
+    /**
+     * Write of a new route point, for the writes done with the driver
+     * @param routePoint new route point
+     * @return UpdateOneModel<Document> - upsert of the point with the storedAt of the database
+     */
+    public static UpdateOneModel<Document> insertModel(RoutePoint routePoint) {
+        Document document = mapper().toDBObject(routePoint);
+        Object id = document.remove("_id");
+        return new UpdateOneModel<>(Filters.eq("_id", id),
+                Updates.combine(Updates.setOnInsert(document), Updates.currentDate(STORED_AT)),
+                new UpdateOptions().upsert(true));
+    }
+
+    @Override
+    public List<RoutePoint> findStoredSince(Date from, RoutePoint after, int count) {
+        List<Bson> filters = new ArrayList<>();
+        if (from != null) {
+            filters.add(Filters.gte(STORED_AT, from));
+        }
+        if (after != null) {
+            // keyset: past the last point of the previous page, points stored before storedAt existed come first
+            // compared by whole milliseconds, the precision of a BSON date
+            Bson laterId = Filters.gt("_id", after.getId());
+            if (after.getStoredAt() == null) {
+                filters.add(Filters.or(Filters.and(Filters.eq(STORED_AT, null), laterId), Filters.ne(STORED_AT, null)));
+            } else {
+                Date nextMilli = new Date(after.getStoredAt().getTime() + 1);
+                filters.add(Filters.or(Filters.gte(STORED_AT, nextMilli),
+                        Filters.and(Filters.gte(STORED_AT, after.getStoredAt()), Filters.lt(STORED_AT, nextMilli), laterId)));
+            }
+        }
+        ClassMapper<RoutePoint> mapper = mapper();
+        List<RoutePoint> routePoints = new ArrayList<>();
+        for (Document document : collection().find(filters.isEmpty() ? new Document() : Filters.and(filters))
+                .sort(Sorts.ascending(STORED_AT, "_id"))
+                .limit(count)) {
+            RoutePoint routePoint = mapper.toInstance(document);
+            routePoint.setStoredAt(document.getDate(STORED_AT));
+            routePoints.add(routePoint);
+        }
+        return routePoints;
+    }
+
+    @Override
+    public List<RoutePoint> findByRides(List<UUID> rideIds) {
+        Criteria criteria = session.createCriteria(RoutePoint.class);
+        criteria.add(Restrictions.in("rideId", rideIds));
+        criteria.sort("rideId", Order.ASCENDING);
+        criteria.sort("timestamp", Order.ASCENDING);
+        return criteria.list();
+    }
+
+    @Override
+    public long deleteByRides(List<UUID> rideIds) {
+        return deleteMany(Filters.in("rideId", rideIds));
+    }
+
+    private static ClassMapper<RoutePoint> mapper() {
+        return MongoConfiguration.mapperContext().mapperFor(RoutePoint.class);
+    }
 }
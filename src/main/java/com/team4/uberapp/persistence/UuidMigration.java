@@ -0,0 +1,195 @@
+/**
+ * UuidMigration: rewrites the subtype 3 (JAVA_LEGACY) UUIDs of a database as subtype 4 (STANDARD)
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.persistence;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *   migrate-uuids
+ *
+ * STANDARD stores a UUID in its natural byte order, so the time ordered ids sort by creation time in the _id
+ * index. Databases written with JAVA_LEGACY hold subtype 3 values, each half byte reversed, which STANDARD does
+ * not find by id. The migration rewrites every subtype 3 value of every collection, in nested documents & arrays
+ * too; a document whose _id changes is written under the new _id, then the old one is deleted. It is idempotent:
+ * run it again after a failure. Run it with the servers stopped, it records its completion in the migrations
+ * collection.
+ *
+ * A server configured with STANDARD checks at warm-up that the database was migrated, or holds no subtype 3 UUID
+ * in an _id or a reference field of any document.
+ */
+public class UuidMigration {
+    private static final Logger logger = LoggerFactory.getLogger(UuidMigration.class);
+
+    private static final String MIGRATIONS = "migrations";
+    private static final String DONE = "uuidStandard";
+    // where the entities keep their ids & the ids of others
+    private static final List<String> ID_FIELDS = Arrays.asList("_id", "rideId", "driverId", "carId", "passengerId");
+
+    /**
+     * Run the migration of the configured database
+     * @param args "migrate-uuids"
+     * @return int - process exit code, 0 when every collection is migrated
+     */
+    public static int run(String[] args) {
+        try {
+            long migrated = migrate(MongoConfiguration.database());
+            System.out.println(migrated + " documents migrated to STANDARD uuids");
+            return 0;
+        } catch (RuntimeException e) {
+            logger.error("Uuid migration failed, run it again", e);
+            return 1;
+        }
+    }
+
+    /**
+     * Migrate every collection of a database, then record the migration
+     * @param database the database
+     * @return long - number of documents rewritten
+     */
+    public static long migrate(MongoDatabase database) {
+        long migrated = 0;
+        for (String name : database.listCollectionNames()) {
+            if (!name.startsWith("system.") && !name.equals(MIGRATIONS)) {
+                long count = migrate(database.getCollection(name, BsonDocument.class));
+                logger.info("{}: {} documents migrated", name, count);
+                migrated += count;
+            }
+        }
+        done(database);
+        return migrated;
+    }
+
+    /**
+     * Migrate the documents of a collection
+     * @param collection the collection, read as raw BSON
+     * @return long - number of documents rewritten
+     */
+    public static long migrate(MongoCollection<BsonDocument> collection) {
+        long migrated = 0;
+        for (BsonDocument document : collection.find()) {
+            BsonDocument standard = (BsonDocument) standard(document);
+            if (standard.equals(document)) {
+                continue;
+            }
+            BsonValue id = document.get("_id");
+            BsonValue newId = standard.get("_id");
+            collection.replaceOne(Filters.eq("_id", newId), standard, new ReplaceOptions().upsert(true));
+            if (!newId.equals(id)) {
+                collection.deleteOne(Filters.eq("_id", id));
+            }
+            migrated++;
+        }
+        return migrated;
+    }
+
+    /**
+     * Fail if the server is configured with STANDARD but the database still holds JAVA_LEGACY ids
+     * @param properties application configuration
+     * @throws IllegalStateException if the database needs the migration
+     */
+    public static void check(Properties properties) {
+        if (properties.getDBUuidRepresentation() != UuidRepresentation.STANDARD) {
+            return;
+        }
+        MongoDatabase database = MongoConfiguration.database();
+        if (database.getCollection(MIGRATIONS).find(Filters.eq("_id", DONE)).first() != null) {
+            return;
+        }
+        for (String name : database.listCollectionNames()) {
+            if (!name.startsWith("system.") && holdsLegacy(database.getCollection(name, BsonDocument.class))) {
+                throw new IllegalStateException("Collection " + name + " holds JAVA_LEGACY uuids, run "
+                        + "UberAppMain migrate-uuids or set db.uuidRepresentation=JAVA_LEGACY");
+            }
+        }
+        // a new database
+        done(database);
+    }
+
+    /**
+     * Whether any document of a collection has a subtype 3 UUID in its _id or a reference field
+     * @param collection the collection, read as raw BSON
+     * @return boolean - true if the collection needs the migration
+     */
+    static boolean holdsLegacy(MongoCollection<BsonDocument> collection) {
+        // binaries sort by length, then subtype: the range holds the 16 byte subtype 3 values only, on an index if any
+        byte[] last = new byte[16];
+        Arrays.fill(last, (byte) 0xff);
+        BsonDocument legacy = new BsonDocument("$type", new BsonInt32(5))
+                .append("$gte", new BsonBinary(BsonBinarySubType.UUID_LEGACY, new byte[16]))
+                .append("$lte", new BsonBinary(BsonBinarySubType.UUID_LEGACY, last));
+        for (String field : ID_FIELDS) {
+            BsonDocument found = collection.find(new BsonDocument(field, legacy)).limit(1).first();
+            // an array field matches by its items
+            if (found != null && !standard(found.get(field)).equals(found.get(field))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A value with its subtype 3 UUIDs in the STANDARD layout
+     * @param value any BSON value
+     * @return BsonValue - equal to value when it holds no subtype 3 UUID
+     */
+    static BsonValue standard(BsonValue value) {
+        if (value.isBinary()) {
+            BsonBinary binary = value.asBinary();
+            if (binary.getType() != BsonBinarySubType.UUID_LEGACY.getValue() || binary.getData().length != 16) {
+                return value;
+            }
+            // JAVA_LEGACY: each half in reversed byte order
+            byte[] legacy = binary.getData();
+            byte[] bytes = new byte[16];
+            for (int i = 0; i < 8; i++) {
+                bytes[i] = legacy[7 - i];
+                bytes[8 + i] = legacy[15 - i];
+            }
+            return new BsonBinary(BsonBinarySubType.UUID_STANDARD, bytes);
+        }
+        if (value.isDocument()) {
+            BsonDocument copy = new BsonDocument();
+            for (Map.Entry<String, BsonValue> field : value.asDocument().entrySet()) {
+                copy.put(field.getKey(), standard(field.getValue()));
+            }
+            return copy;
+        }
+        if (value.isArray()) {
+            BsonArray copy = new BsonArray();
+            for (BsonValue item : value.asArray()) {
+                copy.add(standard(item));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    private static void done(MongoDatabase database) {
+        database.getCollection(MIGRATIONS).replaceOne(Filters.eq("_id", DONE),
+                new Document("_id", DONE).append("at", new Date()), new ReplaceOptions().upsert(true));
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Uuids: UUID values of raw documents, whatever their binary layout
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.persistence;
+
+import org.bson.BsonBinarySubType;
+import org.bson.types.Binary;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.UUID;
+
+/**
+ * The driver decodes a binary id to a UUID only when its subtype matches db.uuidRepresentation: subtype 3 for
+ * JAVA_LEGACY, 4 for STANDARD. A document written with the other layout comes back as a Binary, which the
+ * reads that skip MongoLink (projections, cursors, exports, batches) must still take as a UUID.
+ * Subtype 3 is read in the JAVA_LEGACY layout, the one of databases not migrated yet: each half in reversed byte
+ * order (see UuidMigration).
+ */
+public class Uuids {
+
+    /**
+     * UUID of a document value
+     * @param value a UUID, or a Binary of subtype 3 or 4
+     * @return UUID - null if value is null
+     * @throws IllegalArgumentException if value is no UUID
+     */
+    public static UUID of(Object value) {
+        if (value == null || value instanceof UUID) {
+            return (UUID) value;
+        }
+        if (!isUuid(value)) {
+            throw new IllegalArgumentException("Not a UUID: " + value);
+        }
+        Binary binary = (Binary) value;
+        ByteBuffer bytes = ByteBuffer.wrap(binary.getData());
+        if (binary.getType() == BsonBinarySubType.UUID_LEGACY.getValue()) {
+            bytes.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new UUID(bytes.getLong(), bytes.getLong());
+    }
+
+    /**
+     * Whether of() takes a value
+     * @param value document value
+     * @return boolean - true for a UUID or a 16 byte Binary of subtype 3 or 4
+     */
+    public static boolean isUuid(Object value) {
+        if (value instanceof UUID) {
+            return true;
+        }
+        if (!(value instanceof Binary)) {
+            return false;
+        }
+        Binary binary = (Binary) value;
+        return binary.length() == 16 && (binary.getType() == BsonBinarySubType.UUID_LEGACY.getValue()
+                || binary.getType() == BsonBinarySubType.UUID_STANDARD.getValue());
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Versions: entity & collection versions, the ETags of the GET routes
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.persistence;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.eventlog.Outbox;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The version of an entity is its version field, written by the same flush as the rest of the entity. It is
+ * read alone through the (_id, version) index of the collection, a covered query: no document is fetched. A PATCH
+ * writes the entity only while its version is still the one it read, so a concurrent update is answered 409.
+ *
+ * The version of a collection is a counter of the versions collection, incremented after every write to the
+ * collection is flushed, so a list read with a version never holds older data than the version says. Only the
+ * collections that change slowly have one, cars, drivers & passengers: rides are written all the time, a counter
+ * would be one more write, to a single document, per ride change, and the ETag of their lists would hardly ever
+ * match. Their lists have no ETag.
+ */
+public class Versions {
+    public static final String ID_VERSION_INDEX = "_id_version";
+
+    private static final String COLLECTION = "versions";
+    private static final Document ID_VERSION = new Document("_id", 1).append("version", 1);
+    private static final List<String> VERSIONED = Arrays.asList("car", "driver", "passenger");
+
+    /**
+     * Version of an entity
+     * @param collection collection of the entity
+     * @param id entity id
+     * @return Long - null if there is no such entity, 0 if it was never updated
+     */
+    public static Long entity(String collection, Object id) {
+        Document found;
+        try {
+            found = find(collection, id).hint(ID_VERSION).first();
+        } catch (MongoException e) {
+            // no (_id, version) index yet, e.g. a collection created since the indexes were: the _id index answers
+            found = find(collection, id).first();
+        }
+        if (found == null) {
+            return null;
+        }
+        Object version = found.get("version");
+        return version instanceof Number ? ((Number) version).longValue() : 0L;
+    }
+
+    private static FindIterable<Document> find(String collection, Object id) {
+        return MongoConfiguration.database().getCollection(collection)
+                .find(Filters.eq("_id", id))
+                .projection(Projections.include("version"));
+    }
+
+    /**
+     * Filter of an entity still at the version read
+     * @param id entity id
+     * @param version version read, 0 for an entity never updated
+     * @return Bson - matches the entity only while its version is the one read
+     */
+    public static Bson unchanged(Object id, long version) {
+        // documents written before versions have none, they are at version 0
+        Bson current = version == 0 ? Filters.or(Filters.eq("version", 0L), Filters.exists("version", false))
+                : Filters.eq("version", version);
+        return Filters.and(Filters.eq("_id", id), current);
+    }
+
+    /**
+     * Replace an entity if it is still at the version read: the PATCH routes write this way, not through their
+     * session, so that of two concurrent updates of an entity the second one fails instead of undoing the first
+     * @param collection collection of the entity
+     * @param entity entity with its next version, mapped by MongoLink
+     * @param id entity id
+     * @param version version read
+     * @return boolean - false if the entity was changed or deleted since it was read
+     */
+    public static boolean replace(String collection, Object entity, Object id, long version) {
+        return MongoConfiguration.database().getCollection(collection)
+                .replaceOne(unchanged(id, version), Outbox.document(entity)).getMatchedCount() > 0;
+    }
+
+    /**
+     * Version of a collection
+     * @param collection collection name
+     * @return long - 0 before the first write
+     */
+    public static long collection(String collection) {
+        Document found = MongoConfiguration.database().getCollection(COLLECTION).find(Filters.eq("_id", collection)).first();
+        Object version = found == null ? null : found.get("version");
+        return version instanceof Number ? ((Number) version).longValue() : 0L;
+    }
+
+    /**
+     * Whether a collection has a version, see touch
+     * @param collection collection name
+     * @return boolean - true for the slowly changing collections
+     */
+    public static boolean versioned(String collection) {
+        return VERSIONED.contains(collection);
+    }
+
+    /**
+     * A write to a versioned collection was flushed
+     * @param collection collection name
+     */
+    public static void touch(String collection) {
+        MongoConfiguration.database().getCollection(COLLECTION)
+                .updateOne(Filters.eq("_id", collection), Updates.inc("version", 1L), new UpdateOptions().upsert(true));
+    }
+}
@@ -30,6 +30,7 @@ public class CarMapping extends AggregateMap<Car> {
     @Override
     public void map() {
         id().onProperty(element().getId()).natural();
+        property().onField("version");
         property().onField("make");
         property().onField("model");
         property().onField("license");
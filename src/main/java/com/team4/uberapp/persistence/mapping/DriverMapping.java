@@ -30,6 +30,7 @@ public class DriverMapping extends AggregateMap<Driver> {
     @Override
     public void map() {
         id().onProperty(element().getId()).natural();
+        property().onField("version");
         property().onField("firstName");
         property().onField("lastName");
         property().onField("emailAddress");
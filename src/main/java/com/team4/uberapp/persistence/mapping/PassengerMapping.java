@@ -30,6 +30,7 @@ public class PassengerMapping extends AggregateMap<Passenger> {
     @Override
     public void map() {
         id().onProperty(element().getId()).natural();
+        property().onField("version");
         property().onField("firstName");
         property().onField("lastName");
         property().onField("emailAddress");
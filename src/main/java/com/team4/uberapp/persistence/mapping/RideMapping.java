@@ -30,6 +30,7 @@ public class RideMapping extends AggregateMap<Ride> {
     @Override
     public void map() {
         id().onProperty(element().getId()).natural();
+        property().onField("version");
         property().onField("rideType");
 //        property().onField("startPoint");
 //        property().onField("endPoint");
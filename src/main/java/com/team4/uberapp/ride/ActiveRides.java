@@ -0,0 +1,340 @@
+/**
+ * ActiveRides: resident registry of the rides which are not CLOSED yet
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.ride;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.domain.Repositories;
+import com.team4.uberapp.persistence.MongoRepositories;
+import com.team4.uberapp.persistence.Uuids;
+import com.team4.uberapp.persistence.Versions;
+import org.bson.Document;
+import org.mongolink.MongoSession;
+import org.mongolink.domain.mapper.ClassMapper;
+import org.mongolink.domain.criteria.Restrictions;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Live rides are the hottest data of the application: status changes, route points and polling
+ * all read them. The registry keeps every non CLOSED ride in memory, indexed by ride, driver & passenger id.
+ *
+ * Mongo stays the source of truth, the controllers write through it first and register the saved ride
+ * once the session is flushed. The registry is rebuilt from Mongo at start-up, a CLOSED or deleted ride is evicted.
+ *
+ * Rides handed out are snapshots shared by all readers, they must not be modified.
+ * Lookups are lock free, changes are serialized so the three indexes always agree.
+ *
+ * Writes of one ride may register out of order: a ride is only replaced by the same or a later version, and an
+ * evicted ride is remembered for a while so a late write of an older version does not bring it back.
+ * A driver or passenger may have more than one active ride, the current one is the last requested.
+ *
+ * Each node has its own registry and only registers its own writes. The reads that answer clients go through
+ * current & currentOf*, served from memory: a status change that starts from an entry another node changed since is
+ * refused by its version checked write (409), and the entry is checked against the stored ride on its next read.
+ * When several nodes change the same rides, activerides.checkReads makes each read check its entry against the
+ * stored version, read from the (_id, version) index, and replace a stale entry with the stored ride; an entry
+ * written or checked less than activerides.trustMillis ago is still served without that round trip, 0 always checks.
+ * A current ride lookup that finds nothing asks Mongo, so rides created on another node are found too; a newer
+ * ride requested on another node while this node still holds an older active ride of the same owner is only seen
+ * once that older ride changes.
+ */
+public class ActiveRides {
+    public static final String CLOSED = "CLOSED";
+    private static final String COLLECTION = "ride";
+
+    private static final ConcurrentHashMap<UUID, Ride> byId = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<UUID, Set<UUID>> byDriver = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<UUID, Set<UUID>> byPassenger = new ConcurrentHashMap<>();
+    // when each entry was last known to be the stored version, registered or checked
+    private static final ConcurrentHashMap<UUID, Long> checked = new ConcurrentHashMap<>();
+    private static volatile boolean checkReads = new Properties().isActiveRidesCheckReads();
+    private static volatile long trustMillis = new Properties().getActiveRidesTrustMillis();
+
+    // version of the rides evicted lately, a deleted ride never comes back
+    private static final int MAX_EVICTED = 10000;
+    private static final Map<UUID, Long> evicted = new LinkedHashMap<UUID, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Long> eldest) {
+            return size() > MAX_EVICTED;
+        }
+    };
+
+    /**
+     * Reload all the active rides from Mongo, run at start-up
+     * @return int - number of active rides
+     */
+    public static synchronized int rebuild() {
+        final MongoSession session = MongoConfiguration.createSession();
+        session.start();
+        Repositories.initialise(new MongoRepositories(session));
+        List<Ride> rides = Repositories.rides().find(Restrictions.notEquals("status", CLOSED));
+        session.stop();
+
+        byId.clear();
+        byDriver.clear();
+        byPassenger.clear();
+        checked.clear();
+        evicted.clear();
+        for (Ride ride : rides) {
+            put(ride);
+        }
+        return byId.size();
+    }
+
+    /**
+     * Register a ride after it was written to Mongo, a CLOSED ride is evicted
+     * @param ride the saved ride, a snapshot is kept
+     * @return boolean - false if a later version of the ride was registered or evicted already
+     */
+    public static synchronized boolean put(Ride ride) {
+        Ride current = byId.get(ride.getId());
+        Long evictedVersion = evicted.get(ride.getId());
+        if ((current != null && current.getVersion() > ride.getVersion())
+                || (evictedVersion != null && evictedVersion >= ride.getVersion())) {
+            return false;
+        }
+        if (CLOSED.equals(ride.getStatus())) {
+            unindex(byId.remove(ride.getId()));
+            checked.remove(ride.getId());
+            evicted.put(ride.getId(), ride.getVersion());
+            return true;
+        }
+        evicted.remove(ride.getId());
+        Ride snapshot = snapshot(ride);
+        Ride previous = byId.put(snapshot.getId(), snapshot);
+        checked.put(snapshot.getId(), System.currentTimeMillis());
+        index(byDriver, snapshot.getDriverId(), snapshot.getId());
+        index(byPassenger, snapshot.getPassengerId(), snapshot.getId());
+        // the ride changed hands, readers never see an owner without its ride in between
+        if (previous != null) {
+            if (previous.getDriverId() != null && !previous.getDriverId().equals(snapshot.getDriverId())) {
+                unindex(byDriver, previous.getDriverId(), previous.getId());
+            }
+            if (previous.getPassengerId() != null && !previous.getPassengerId().equals(snapshot.getPassengerId())) {
+                unindex(byPassenger, previous.getPassengerId(), previous.getId());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evict a deleted ride, for good
+     * @param rideId ride id
+     */
+    public static synchronized void remove(UUID rideId) {
+        unindex(byId.remove(rideId));
+        checked.remove(rideId);
+        evicted.put(rideId, Long.MAX_VALUE);
+    }
+
+    /**
+     * Check the entry of a ride against the stored version on its next read, e.g. after a write refused with 409
+     * @param rideId ride id
+     */
+    public static void recheck(UUID rideId) {
+        checked.remove(rideId);
+    }
+
+    /**
+     * Active ride by id
+     * @param rideId ride id
+     * @return Ride - read only snapshot, null if the ride is not active
+     */
+    public static Ride get(UUID rideId) {
+        return byId.get(rideId);
+    }
+
+    /**
+     * Active ride by id, as stored: another node may have changed or deleted the ride since it was registered
+     * @param rideId ride id
+     * @return Ride - read only snapshot, checked against the stored version if it was refused a write since or
+     * with activerides.checkReads; null if the ride is not registered or not active
+     */
+    public static Ride current(UUID rideId) {
+        Ride ride = byId.get(rideId);
+        if (ride == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Long at = checked.get(rideId);
+        if (at != null && (!checkReads || now - at < trustMillis)) {
+            return ride;
+        }
+        Long stored = Versions.entity(COLLECTION, rideId);
+        if (stored != null && stored == ride.getVersion()) {
+            checked.put(rideId, now);
+            if (!byId.containsKey(rideId)) {
+                // evicted meanwhile
+                checked.remove(rideId);
+            }
+            return ride;
+        }
+        return reload(rideId);
+    }
+
+    // whether the reads check their entry against the stored version, and how long a checked entry is trusted
+    static void checkReads(boolean check, long millis) {
+        checkReads = check;
+        trustMillis = millis;
+    }
+
+    /**
+     * Current ride of a driver
+     * @param driverId driver id
+     * @return Ride - read only snapshot of the last requested active ride, null if the driver has none
+     */
+    public static Ride ofDriver(UUID driverId) {
+        return latest(byDriver.get(driverId));
+    }
+
+    /**
+     * Current ride of a driver, as stored
+     * @param driverId driver id
+     * @return Ride - see ofDriver, checked with current & asked to Mongo when the registry has none
+     */
+    public static Ride currentOfDriver(UUID driverId) {
+        return currentOf("driverId", driverId, byDriver);
+    }
+
+    /**
+     * Current ride of a passenger
+     * @param passengerId passenger id
+     * @return Ride - read only snapshot of the last requested active ride, null if the passenger has none
+     */
+    public static Ride ofPassenger(UUID passengerId) {
+        return latest(byPassenger.get(passengerId));
+    }
+
+    /**
+     * Current ride of a passenger, as stored
+     * @param passengerId passenger id
+     * @return Ride - see ofPassenger, checked with current & asked to Mongo when the registry has none
+     */
+    public static Ride currentOfPassenger(UUID passengerId) {
+        return currentOf("passengerId", passengerId, byPassenger);
+    }
+
+    public static int size() {
+        return byId.size();
+    }
+
+    // the latest ride of an owner whose entry is current, each stale entry is replaced or evicted then looked up again
+    private static Ride currentOf(String ownerField, UUID owner, ConcurrentHashMap<UUID, Set<UUID>> owners) {
+        Ride ride = latest(owners.get(owner));
+        while (ride != null) {
+            if (current(ride.getId()) == ride) {
+                return ride;
+            }
+            ride = latest(owners.get(owner));
+        }
+        // the last requested active ride, on the (owner, requestTime, _id) index
+        Document document = collection().find(Filters.and(Filters.eq(ownerField, owner), Filters.ne("status", CLOSED)))
+                .sort(Sorts.descending("requestTime", "_id")).first();
+        if (document == null) {
+            return null;
+        }
+        put(mapper().toInstance(document));
+        return byId.get(Uuids.of(document.get("_id")));
+    }
+
+    // the stored ride in place of a stale entry, evicted if it was deleted or closed
+    private static Ride reload(UUID rideId) {
+        Document document = collection().find(Filters.eq("_id", rideId)).first();
+        if (document == null) {
+            remove(rideId);
+            return null;
+        }
+        put(mapper().toInstance(document));
+        return byId.get(rideId);
+    }
+
+    private static MongoCollection<Document> collection() {
+        return MongoConfiguration.database().getCollection(COLLECTION);
+    }
+
+    private static ClassMapper<Ride> mapper() {
+        return MongoConfiguration.mapperContext().mapperFor(Ride.class);
+    }
+
+    // drop the owner entries still pointing at this version of the ride
+    private static void unindex(Ride previous) {
+        if (previous == null) {
+            return;
+        }
+        unindex(byDriver, previous.getDriverId(), previous.getId());
+        unindex(byPassenger, previous.getPassengerId(), previous.getId());
+    }
+
+    // the rides of an owner are immutable sets, replaced on change so lookups need no lock
+    private static void index(ConcurrentHashMap<UUID, Set<UUID>> owners, UUID owner, UUID rideId) {
+        if (owner == null) {
+            return;
+        }
+        owners.compute(owner, (key, rides) -> {
+            if (rides != null && rides.contains(rideId)) {
+                return rides;
+            }
+            Set<UUID> changed = rides == null ? new HashSet<>() : new HashSet<>(rides);
+            changed.add(rideId);
+            return Collections.unmodifiableSet(changed);
+        });
+    }
+
+    private static void unindex(ConcurrentHashMap<UUID, Set<UUID>> owners, UUID owner, UUID rideId) {
+        if (owner == null) {
+            return;
+        }
+        owners.computeIfPresent(owner, (key, rides) -> {
+            if (!rides.contains(rideId)) {
+                return rides;
+            }
+            Set<UUID> changed = new HashSet<>(rides);
+            changed.remove(rideId);
+            return changed.isEmpty() ? null : Collections.unmodifiableSet(changed);
+        });
+    }
+
+    // last requested of the rides of an owner, the id breaks ties
+    private static Ride latest(Set<UUID> rideIds) {
+        if (rideIds == null) {
+            return null;
+        }
+        Ride latest = null;
+        for (UUID rideId : rideIds) {
+            Ride ride = byId.get(rideId);
+            if (ride != null && (latest == null || compareRequests(ride, latest) > 0)) {
+                latest = ride;
+            }
+        }
+        return latest;
+    }
+
+    private static int compareRequests(Ride ride, Ride other) {
+        long time = ride.getRequestTime() == null ? 0 : ride.getRequestTime().longValue();
+        long otherTime = other.getRequestTime() == null ? 0 : other.getRequestTime().longValue();
+        return time != otherTime ? Long.compare(time, otherTime) : ride.getId().compareTo(other.getId());
+    }
+
+    private static Ride snapshot(Ride ride) {
+        try {
+            return (Ride) ride.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -4,14 +4,20 @@ package com.team4.uberapp.ride;
  * Created by HectorGuo on 11/8/16.
  */
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.team4.uberapp.domain.Validable;
-import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.TimeOrderedIds;
+import com.team4.uberapp.validation.*;
 
 import java.util.UUID;
 
 //@Data
+@ErrorCode(4001)
 public class Ride implements Validable,Cloneable {
     private UUID id;
+    // incremented by every update, sent as the ETag
+    private Long version;
+    @OneOf(value = {"ECONOMY", "PREMIUM", "EXECUTIVE"}, message = "The rideType should be ECONOMY, PREMIUM or EXECUTIVE")
     private String rideType;
     private Number startLat;
     private Number startLong;
@@ -20,6 +26,8 @@ public class Ride implements Validable,Cloneable {
     private Number requestTime;
     private Number pickupTime;
     private Number dropOffTime;
+    @OneOf(value = {"REQUESTED", "AWAITING_DRIVER", "DRIVE_ASSIGNED", "IN_PROGRESS", "ARRIVED", "CLOSED"},
+            message = "The Ride status should be REQUESTED, AWAITING_DRIVER, DRIVE_ASSIGNED, IN_PROGRESS, ARRIVED or CLOSED")
     private String status;
     private int fare;
     private UUID driverId;
@@ -140,7 +148,7 @@ public class Ride implements Validable,Cloneable {
      * @param passengerId the passenger id
      */
     public Ride(String rideType, Number startLat, Number startLong, Number endLat, Number endLong, Number requestTime, Number pickupTime, Number dropOffTime, String status, int fare, UUID driverId, UUID carId, UUID passengerId) {
-        this.id = UUID.randomUUID();
+        this.id = TimeOrderedIds.next();
         this.rideType = rideType;
         this.startLat = startLat;
         this.startLong = startLong;
@@ -156,18 +164,20 @@ public class Ride implements Validable,Cloneable {
         this.passengerId = passengerId;
     }
 
-    public boolean isValid() throws Exception{
-        //Could set up any additional validation rule
-        if (this.rideType.isEmpty()){
-            throw new Exception(ErrorReport.toJson(4001, "The Ride name should not be empty"));
-        }
-        if (!this.status.equals("REQUESTED") && !this.status.equals("AWAITING_DRIVER") && !this.status.equals("DRIVE_ASSIGNED") && !this.status.equals("IN_PROGRESS") && !this.status.equals("ARRIVED") && !this.status.equals("CLOSED")) {
-            throw new Exception(ErrorReport.toJson(4001, "The Ride status should be REQUESTED, AWAITING_DRIVER, DRIVE_ASSIGNED, IN_PROGRESS, ARRIVED or CLOSED"));
-        }
-        if (!this.rideType.equals("ECONOMY") && !this.rideType.equals("PREMIUM") && !this.rideType.equals("EXECUTIVE")) {
-            throw new Exception(ErrorReport.toJson(4001, "The rideType should be ECONOMY, PREMIUM or EXECUTIVE"));
-        }
-        return true;
+    public boolean isValid() throws Exception {
+        return Validator.check(this);
+    }
+
+    @JsonIgnore
+    public long getVersion() {
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * The entity is being updated
+     */
+    public void nextVersion() {
+        version = getVersion() + 1;
     }
 
     public Object clone() throws CloneNotSupportedException {
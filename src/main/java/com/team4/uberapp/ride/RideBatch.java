@@ -0,0 +1,68 @@
+/**
+ * RideBatch: batch of ride creates, updates & deletes
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.ride;
+
+import com.team4.uberapp.batch.Batch;
+import com.team4.uberapp.eventlog.OutboxRelay;
+import com.team4.uberapp.util.TimeOrderedIds;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outbox events of the rides are inserted pending ahead of the bulk write, committed once their ride is
+ * written, then relayed as the events of the single routes.
+ */
+public class RideBatch extends Batch<Ride> {
+
+    public RideBatch() {
+        super(Ride.class, "ride");
+    }
+
+    @Override
+    protected void prepare(List<Ride> rides) {
+        for (Ride ride : rides) {
+            ride.setId(TimeOrderedIds.next());
+        }
+    }
+
+    @Override
+    protected Ride merge(Ride ride, Ride update) throws CloneNotSupportedException {
+        Ride merged = RideController.merge(ride, update);
+        merged.nextVersion();
+        return merged;
+    }
+
+    @Override
+    protected List<RideEvent> events(Ride previous, Ride ride) {
+        String event;
+        if (previous == null) {
+            event = RideEvent.CREATED;
+        } else if (ride == null) {
+            event = RideEvent.DELETED;
+        } else {
+            event = RideController.updateEvent(previous, ride);
+        }
+        Ride changed = ride == null ? previous : ride;
+        return Collections.singletonList(new RideEvent(event, changed.getId(), changed, OutboxRelay.getNode()));
+    }
+
+    @Override
+    protected void created(Ride ride) {
+        RideController.created(ride);
+    }
+
+    @Override
+    protected void updated(Ride previous, Ride ride) {
+        RideController.updated(previous, ride, RideController.updateEvent(previous, ride));
+    }
+
+    @Override
+    protected void deleted(Ride ride) {
+        RideController.deleted(ride);
+    }
+}
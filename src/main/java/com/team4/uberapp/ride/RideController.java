@@ -8,39 +8,109 @@
 package com.team4.uberapp.ride;
 
 import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.archive.RideArchive;
 import com.team4.uberapp.domain.Repositories;
+import com.team4.uberapp.eventlog.Outbox;
+import com.team4.uberapp.eventlog.OutboxRelay;
+import com.team4.uberapp.persistence.Counts;
+import com.team4.uberapp.persistence.ListQuery;
 import com.team4.uberapp.persistence.MongoRepositories;
+import com.team4.uberapp.persistence.RoutePointMongoRepository;
+import com.team4.uberapp.persistence.Uuids;
+import com.team4.uberapp.persistence.Versions;
+import com.team4.uberapp.stats.RideStats;
+import com.team4.uberapp.surge.SurgeEngine;
+import com.team4.uberapp.util.DataFormat;
+import com.team4.uberapp.util.ETags;
+import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.JsonResponses;
+import com.team4.uberapp.util.SingleFlight;
+import com.team4.uberapp.util.TimeOrderedIds;
 import com.team4.uberapp.util.UberAppUtil;
+import com.team4.uberapp.validation.Violation;
 import org.mongolink.MongoSession;
 import org.mongolink.domain.criteria.Restrictions;
+import spark.Request;
+import spark.Response;
 import spark.Route;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
  * Created by HectorGuo on 11/8/16.
  */
 public class RideController extends UberAppUtil {
+    // concurrent GET /rides/:id of the same id share one read
+    private static final SingleFlight<UUID> reads = new SingleFlight<>("rides");
+
+    private static final int HISTORY_DEFAULT_COUNT = 20;
+    private static final int HISTORY_MAX_COUNT = 100;
+    private static final List<String> HISTORY_QUERY_FIELDS = Arrays.asList("count", "cursor", "status", "fields", "withTotal");
+    // ride totals are reused this long, rides have no collection version
+    private static final long COUNT_MAX_AGE = new Properties().getCountsMaxAgeMillis();
 
     /**
      * GET /rides  Get all rides
+     *      query params: fields, comma separated fields of the rides to return, the others are not read
+     *      filters on any field: field=value, field[in]=a,b, field[gt|gte|lt|lte]=value, answered only when an
+     *      index serves them, e.g. status=IN_PROGRESS&requestTime[gte]=1500000000000, else 400
+     *      withTotal=true, X-Total-Count header with the number of matching rides
+     *      Accept: application/cbor, application/x-jackson-smile or application/x-msgpack for a binary list
      * @return List<Ride> a list of rides
      */
     public static Route getAll = (req, res) -> {
+        DataFormat format = acceptedFormat(req, res);
+        ListQuery query = new ListQuery();
+        boolean withTotal = false;
+        try {
+            for (String param : req.queryParams()) {
+                if (param.equals("withTotal")) {
+                    withTotal = Boolean.parseBoolean(req.queryParams(param));
+                } else if (param.equals("fields")) {
+                    query.fields(ListQuery.parseFields(req.queryParams(param), Ride.class));
+                } else if (ListQuery.isFilter(param, Ride.class)) {
+                    query.where(param, req.queryParams(param), Ride.class);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            res.status(400);
+            res.type("application/json");
+            return ErrorReport.toBytes(4002, e.getMessage());
+        }
+        // filters only run on an index
+        String unindexed = query.unindexed(MongoConfiguration.indexKeys("ride"));
+        if (unindexed != null) {
+            res.status(400);
+            res.type("application/json");
+            return ErrorReport.toBytes(4002, unindexed);
+        }
+        // rides change all the time, the list has no ETag, see Versions
         final MongoSession session = MongoConfiguration.createSession();
 
         session.start();
         Repositories.initialise(new MongoRepositories(session));
 
-        List<Ride> rides = Repositories.rides().all();
+        List<?> rides = query.isProjected() ? Repositories.rides().project(query) : Repositories.rides().list(query);
+        if (withTotal) {
+            res.header("X-Total-Count", String.valueOf(Repositories.rides().count(query, Counts.generation(COUNT_MAX_AGE))));
+        }
 
         session.stop();
         res.status(200);
-        res.type("application/json");
-        return dataToJson(rides);
+        res.type(format.getContentType());
+        return dataToFormat(rides, format);
     };
 
     /**
@@ -48,20 +118,44 @@ public class RideController extends UberAppUtil {
      * @return Ride  one ride
      */
     public static Route getById = (req, res) -> {
-        final MongoSession session = MongoConfiguration.createSession();
-
-        session.start();
-        Repositories.initialise(new MongoRepositories(session));
-
         UUID rideId = UUID.fromString(req.params(":id"));
-        Ride ride = Repositories.rides().get(rideId);
-
-        session.stop();
-        res.status(200);
+        // the client's copy is current: answered from the stored version alone, another node may have changed it
+        if (req.headers("If-None-Match") != null) {
+            Long version = Versions.entity("ride", rideId);
+            if (ETags.notModified(req, res, ETags.entity(version))) {
+                return "";
+            }
+        }
+        SingleFlight.Response response = reads.load(rideId, RideController::read);
+        res.status(response.getStatus());
         res.type("application/json");
-        return dataToJson(ride);
+        if (response.getEtag() != null) {
+            res.header("ETag", response.getEtag());
+        }
+        return response.getBody();
     };
 
+    // one lookup & one serialization for the concurrent polls of a ride
+    private static SingleFlight.Response read(UUID rideId) throws IOException {
+        // live rides are polled, they are answered from the registry once checked against the stored version
+        Ride ride = ActiveRides.current(rideId);
+        if (ride == null) {
+            final MongoSession session = MongoConfiguration.createSession();
+
+            session.start();
+            Repositories.initialise(new MongoRepositories(session));
+
+            ride = Repositories.rides().get(rideId);
+
+            session.stop();
+        }
+        if (ride == null) {
+            // closed long ago, moved out of Mongo, archived rides have no version
+            return new SingleFlight.Response(200, dataToJsonBytes(RideArchive.ride(rideId)));
+        }
+        return new SingleFlight.Response(200, dataToJsonBytes(ride), ETags.entity(ride.getVersion()));
+    }
+
     /**
      * POST /rides  Create ride
      * {
@@ -88,21 +182,21 @@ public class RideController extends UberAppUtil {
         Repositories.initialise(new MongoRepositories(session));
 
         try{
-            ObjectMapper mapper = new ObjectMapper();
-            Ride ride = mapper.readValue(req.body(), Ride.class);
+            Ride ride = jsonToData(req.body(), Ride.class);
 
-            try {
-                ride.isValid();
-            } catch (Exception e){
+            List<Violation> violations = ride.violations();
+            if (!violations.isEmpty()) {
+                session.stop();
                 res.status(400);
                 res.type("application/json");
-                return e.getMessage();
+                return ErrorReport.toBytes(violations);
             }
 
-            ride.setId(UUID.randomUUID());
-            Repositories.rides().add(ride);
+            ride.setId(TimeOrderedIds.next());
+            Outbox.write("ride", new InsertOneModel<>(Outbox.document(ride)), event(RideEvent.CREATED, ride.getId(), ride));
 
             session.stop();
+            created(ride);
             res.status(201);
             res.type("application/json");
             return dataToJson(ride);
@@ -141,88 +235,28 @@ public class RideController extends UberAppUtil {
         Repositories.initialise(new MongoRepositories(session));
 
         UUID rideId = UUID.fromString(req.params(":id"));
-        Ride ride = Repositories.rides().get(rideId);
-        Ride validationRide = (Ride) ride.clone();
+        Ride ride = toChange(rideId);
+        if (ride == null) {
+            session.stop();
+            res.status(404);
+            res.type("application/json");
+            return ErrorReport.toBytes(4004, "Ride " + rideId + " not found");
+        }
 
         try{
-            ObjectMapper mapper = new ObjectMapper();
-            Ride updatedRide = mapper.readValue(req.body(), Ride.class);
-
-            // carID
-            if (updatedRide.getCarId() != null) {
-                //if (!updatedRide.getCarId()..isEmpty())
-                {
-                    validationRide.setCarId(updatedRide.getCarId());
-                }
-            }
-            // driverId
-            if (updatedRide.getDriverId() != null) {
-                //if (!updatedRide.getCarId()..isEmpty())
-                {
-                    validationRide.setDriverId(updatedRide.getDriverId());
-                }
-            }
-            // passengerId
-            if (updatedRide.getPassengerId() != null) {
-                //if (!updatedRide.getCarId()..isEmpty())
-                {
-                    validationRide.setPassengerId(updatedRide.getPassengerId());
-                }
-            }
-            // status
-            if (updatedRide.getStatus() != null) {
-                if (!updatedRide.getStatus().isEmpty())
-                {
-                    validationRide.setStatus(updatedRide.getStatus());
-                }
-            }
-            // rideType
-            if (updatedRide.getRideType() != null) {
-                if (!updatedRide.getRideType().isEmpty()) {
-                    validationRide.setRideType(updatedRide.getRideType());
-                }
-            }
-            // startLat
-            if (updatedRide.getStartLat() != null) {
-                    validationRide.setStartLat(updatedRide.getStartLat());
-            }
-            // startLong
-            if (updatedRide.getStartLong() != null) {
-                validationRide.setStartLong( updatedRide.getStartLong());
-            }
-            // endLat
-            if (updatedRide.getEndLat() != null) {
-                validationRide.setEndLat(updatedRide.getEndLat());
-            }
-            // endLong
-            if (updatedRide.getEndLong() != null) {
-                validationRide.setEndLong(updatedRide.getEndLong());
-            }
-            // pickupTime
-            if (updatedRide.getPickupTime() != null) {
-                validationRide.setPickupTime(updatedRide.getPickupTime());
-            }
-            // requestTime
-            if (updatedRide.getRequestTime() != null) {
-                validationRide.setRequestTime(updatedRide.getRequestTime());
-            }
-            // dropOffTime
-            if (updatedRide.getDropOffTime() != null) {
-                validationRide.setDropOffTime(updatedRide.getDropOffTime());
-            }
-            // fair
-            if (updatedRide.getFare() !=0) {
-                validationRide.setFare(updatedRide.getFare());
-            }
+            Ride updatedRide = jsonToData(req.body(), Ride.class);
+            Ride validationRide = merge(ride, updatedRide);
 
-            try{
-                validationRide.isValid();
-            }catch (Exception e){
+            List<Violation> violations = validationRide.violations();
+            if (!violations.isEmpty()) {
                 session.stop();
                 res.status(400);
-                return e.getMessage();
+                res.type("application/json");
+                return ErrorReport.toBytes(violations);
             }
+            String event = updateEvent(ride, validationRide);
             //update value
+            Ride previous = (Ride) ride.clone();
             ride.setRideType(validationRide.getRideType());
             ride.setStartLat(validationRide.getStartLat());
             ride.setStartLong(validationRide.getStartLong());
@@ -236,11 +270,28 @@ public class RideController extends UberAppUtil {
             ride.setDriverId(validationRide.getDriverId());
             ride.setPassengerId(validationRide.getPassengerId());
             ride.setCarId(validationRide.getCarId());
-
+            long read = ride.getVersion();
+            ride.nextVersion();
+            // written only at the version read, with its event
+            boolean written = Outbox.write("ride", new ReplaceOneModel<>(Versions.unchanged(rideId, read), Outbox.document(ride)),
+                    event(event, rideId, ride));
+            // written above, the session must not write the ride again
+            session.clear();
             session.stop();
+            if (!written) {
+                res.type("application/json");
+                if (Versions.entity("ride", rideId) == null) {
+                    res.status(404);
+                    return ErrorReport.toBytes(4004, "Ride " + rideId + " not found");
+                }
+                ActiveRides.recheck(rideId);
+                res.status(409);
+                return ErrorReport.toBytes(4009, "Ride " + rideId + " changed since it was read, retry the update");
+            }
+            updated(previous, ride, event);
             res.status(200);
             res.type("application/json");
-            return dataToJson("Ride Updated");
+            return JsonResponses.RIDE_UPDATED;
 
         }catch (JsonParseException e){
             session.stop();
@@ -250,6 +301,97 @@ public class RideController extends UberAppUtil {
         }
     };
 
+    // a copy of the registered ride a status change starts from, Mongo is read only for a ride the registry does not
+    // hold; a stale copy fails the version checked write with 409
+    private static Ride toChange(UUID rideId) throws CloneNotSupportedException {
+        Ride active = ActiveRides.current(rideId);
+        return active != null ? (Ride) active.clone() : Repositories.rides().get(rideId);
+    }
+
+    // the fields of the update that are set, over a copy of the ride, to validate before it changes
+    static Ride merge(Ride ride, Ride updatedRide) throws CloneNotSupportedException {
+        Ride validationRide = (Ride) ride.clone();
+        // carID
+        if (updatedRide.getCarId() != null) {
+            //if (!updatedRide.getCarId()..isEmpty())
+            {
+                validationRide.setCarId(updatedRide.getCarId());
+            }
+        }
+        // driverId
+        if (updatedRide.getDriverId() != null) {
+            //if (!updatedRide.getCarId()..isEmpty())
+            {
+                validationRide.setDriverId(updatedRide.getDriverId());
+            }
+        }
+        // passengerId
+        if (updatedRide.getPassengerId() != null) {
+            //if (!updatedRide.getCarId()..isEmpty())
+            {
+                validationRide.setPassengerId(updatedRide.getPassengerId());
+            }
+        }
+        // status
+        if (updatedRide.getStatus() != null) {
+            if (!updatedRide.getStatus().isEmpty())
+            {
+                validationRide.setStatus(updatedRide.getStatus());
+            }
+        }
+        // rideType
+        if (updatedRide.getRideType() != null) {
+            if (!updatedRide.getRideType().isEmpty()) {
+                validationRide.setRideType(updatedRide.getRideType());
+            }
+        }
+        // startLat
+        if (updatedRide.getStartLat() != null) {
+                validationRide.setStartLat(updatedRide.getStartLat());
+        }
+        // startLong
+        if (updatedRide.getStartLong() != null) {
+            validationRide.setStartLong( updatedRide.getStartLong());
+        }
+        // endLat
+        if (updatedRide.getEndLat() != null) {
+            validationRide.setEndLat(updatedRide.getEndLat());
+        }
+        // endLong
+        if (updatedRide.getEndLong() != null) {
+            validationRide.setEndLong(updatedRide.getEndLong());
+        }
+        // pickupTime
+        if (updatedRide.getPickupTime() != null) {
+            validationRide.setPickupTime(updatedRide.getPickupTime());
+        }
+        // requestTime
+        if (updatedRide.getRequestTime() != null) {
+            validationRide.setRequestTime(updatedRide.getRequestTime());
+        }
+        // dropOffTime
+        if (updatedRide.getDropOffTime() != null) {
+            validationRide.setDropOffTime(updatedRide.getDropOffTime());
+        }
+        // fair
+        if (updatedRide.getFare() !=0) {
+            validationRide.setFare(updatedRide.getFare());
+        }
+        return validationRide;
+    }
+
+    /**
+     * POST /rides/batch  Create, update & delete rides with one bulk write
+     * [
+     *  {"op":"create", "data":{"rideType":"ECONOMY", "startLat":10.22, "startLong":0, "endLat":0.22, "endLong":0,
+     *                          "requestTime":1480131627374, "status":"REQUESTED", ...}},
+     *  {"op":"update", "id":"b462bcae-2add-4b59-8c18-107a30c1e87e", "data":{"status":"CLOSED", "fare":5}},
+     *  {"op":"delete", "id":"6c1a2f0e-93c4-4d55-b8f5-2b1f0c0d4e11"}
+     * ]
+     * @return List of the status of each operation, in order
+     */
+    public static Route batch = (req, res) -> new RideBatch().handle(req, res);
+
     /**
      * DELETE /rides/:id  Delete ride by id
      */
@@ -260,13 +402,27 @@ public class RideController extends UberAppUtil {
         Repositories.initialise(new MongoRepositories(session));
 
         UUID rideId = UUID.fromString(req.params(":id"));
-        Ride ride = Repositories.rides().get(rideId);
-        Repositories.rides().delete(ride);
+        Ride ride = toChange(rideId);
+        // deleted only at the version read, the event carries the ride as it was
+        boolean written = ride != null && Outbox.write("ride",
+                new DeleteOneModel<>(Versions.unchanged(rideId, ride.getVersion())), event(RideEvent.DELETED, rideId, ride));
 
+        session.clear();
         session.stop();
+        if (!written) {
+            res.type("application/json");
+            if (ride != null && Versions.entity("ride", rideId) != null) {
+                ActiveRides.recheck(rideId);
+                res.status(409);
+                return ErrorReport.toBytes(4009, "Ride " + rideId + " changed since it was read, retry the delete");
+            }
+            res.status(404);
+            return ErrorReport.toBytes(4004, "Ride " + rideId + " not found");
+        }
+        deleted(ride);
         res.status(200);
         res.type("application/json");
-        return dataToJson("Ride Deleted");
+        return JsonResponses.RIDE_DELETED;
     };
 
     /**
@@ -276,39 +432,65 @@ public class RideController extends UberAppUtil {
      *  "lng": 11.11,
      *  "timestamp": 1480131657374
      * }
+     *      the body may be sent as application/cbor, application/x-jackson-smile or application/x-msgpack,
+     *      the answer is in the format of Accept
      * @return <RoutePoint>  one route point with id
      */
     public static Route addRoutePoints = (req, res) -> {
+        DataFormat format = acceptedFormat(req, res);
         final MongoSession session = MongoConfiguration.createSession();
 
         session.start();
         Repositories.initialise(new MongoRepositories(session));
 
         try{
-            ObjectMapper mapper = new ObjectMapper();
-            RoutePoint routePoint = mapper.readValue(req.body(), RoutePoint.class);
-
-            UUID rideId = UUID.fromString(req.params(":id"));
-            Ride ride = Repositories.rides().get(rideId);
+            RoutePoint routePoint = bodyToData(req, RoutePoint.class);
 
+            UUID rideId;
             try {
-                ride.isValid();
-                routePoint.isValid();
-            } catch (Exception e){
+                rideId = UUID.fromString(req.params(":id"));
+            } catch (IllegalArgumentException e) {
+                session.stop();
+                res.status(400);
+                res.type("application/json");
+                return ErrorReport.toBytes(4002, "Invalid ride id");
+            }
+            Ride ride = ActiveRides.current(rideId);
+            if (ride == null) {
+                ride = Repositories.rides().get(rideId);
+            }
+            if (ride == null) {
+                session.stop();
+                res.status(404);
+                res.type("application/json");
+                return ErrorReport.toBytes(4004, "Ride " + rideId + " not found");
+            }
+
+            List<Violation> violations = ride.violations();
+            if (violations.isEmpty()) {
+                violations = routePoint.violations();
+            }
+            if (!violations.isEmpty()) {
+                session.stop();
                 res.status(400);
-                return e.getMessage();
+                res.type("application/json");
+                return ErrorReport.toBytes(violations);
             }
 
             routePoint.setRideId(rideId);
-            routePoint.setId(UUID.randomUUID());
-            Repositories.routePoints().add(routePoint);
+            routePoint.setId(TimeOrderedIds.next());
+            Outbox.write("routepoint", RoutePointMongoRepository.insertModel(routePoint),
+                    event(RideEvent.ROUTE_POINT_ADDED, rideId, routePoint));
 
+            // the ride was only read
+            session.clear();
             session.stop();
+            RideEvents.publishRoutePoint(routePoint);
             res.status(201);
-            res.type("application/json");
-            return dataToJson(routePoint);
+            res.type(format.getContentType());
+            return dataToFormat(routePoint, format);
 
-        }catch (JsonParseException e){
+        }catch (JsonParseException | JsonMappingException e){
             session.stop();
             res.status(400);
             res.type("application/json");
@@ -316,11 +498,55 @@ public class RideController extends UberAppUtil {
         }
     };
 
+    /**
+     * GET /rides/:id/events  Server-sent events of a ride, replaces polling GET /rides/:id
+     *      event "ride": the ride, first its current state then each change, the stream ends after CLOSED
+     *      event "routePoint": each route point added
+     * @return text/event-stream  stream of events
+     */
+    public static Route getEvents = (req, res) -> {
+        UUID rideId;
+        try {
+            rideId = UUID.fromString(req.params(":id"));
+        } catch (IllegalArgumentException e) {
+            res.status(400);
+            res.type("application/json");
+            return ErrorReport.toBytes(4002, "Invalid ride id");
+        }
+        Ride ride = stored(rideId);
+        if (ride == null) {
+            res.status(404);
+            res.type("application/json");
+            return ErrorReport.toBytes(4004, "Ride " + rideId + " not found");
+        }
+        // no thread is kept for the stream, the request is completed when the ride is CLOSED or the client leaves
+        RideEvents.subscribe(ride, () -> stored(rideId), req.raw(), res.raw());
+        return "";
+    };
+
+    // the ride as stored, from the registry when it is current
+    private static Ride stored(UUID rideId) {
+        Ride ride = ActiveRides.current(rideId);
+        if (ride == null) {
+            final MongoSession session = MongoConfiguration.createSession();
+
+            session.start();
+            Repositories.initialise(new MongoRepositories(session));
+
+            ride = Repositories.rides().get(rideId);
+
+            session.stop();
+        }
+        return ride;
+    }
+
     /**
      * GET /rides/:id/routePoints  Get route points by ride id
+     *      Accept: application/cbor, application/x-jackson-smile or application/x-msgpack for a binary list
      * @return List<RoutePoint> a list of route points
      */
     public static Route getRoutePoints = (req, res) -> {
+        DataFormat format = acceptedFormat(req, res);
         final MongoSession session = MongoConfiguration.createSession();
 
         session.start();
@@ -330,8 +556,173 @@ public class RideController extends UberAppUtil {
         List<RoutePoint> routePoints = Repositories.routePoints().find(Restrictions.equals("rideId", rideId));
 
         session.stop();
+        // the segment filters rule out a ride without route points yet, no archive file is read for it
+        if (routePoints.isEmpty()) {
+            List<RoutePoint> archived = RideArchive.routePoints(rideId);
+            if (archived != null) {
+                routePoints = archived;
+            }
+        }
         res.status(200);
-        res.type("application/json");
-        return dataToJson(routePoints);
+        res.type(format.getContentType());
+        return dataToFormat(routePoints, format);
     };
+
+    // outbox event of a change, written with it by Outbox & relayed to the event log of this node
+    private static RideEvent event(String type, UUID rideId, Object data) {
+        return new RideEvent(type, rideId, data, OutboxRelay.getNode());
+    }
+
+    // event of an update, from the ride before & after it
+    static String updateEvent(Ride previous, Ride ride) {
+        boolean closing = "CLOSED".equals(ride.getStatus()) && !"CLOSED".equals(previous.getStatus());
+        boolean assigning = (ride.getDriverId() != null && !ride.getDriverId().equals(previous.getDriverId())) ||
+                ("DRIVE_ASSIGNED".equals(ride.getStatus()) && !"DRIVE_ASSIGNED".equals(previous.getStatus()));
+        return closing ? RideEvent.CLOSED : assigning ? RideEvent.ASSIGNED : RideEvent.UPDATED;
+    }
+
+    // registries & counters following a written ride, once the write is flushed
+    static void created(Ride ride) {
+        ActiveRides.put(ride);
+        RideStats.record(null, ride);
+        SurgeEngine.recordRequest(ride.getStartLat(), ride.getStartLong(), ride.getRideType());
+    }
+
+    static void updated(Ride previous, Ride ride, String event) {
+        // written through, a CLOSED ride leaves the registry
+        ActiveRides.put(ride);
+        RideEvents.publishRide(ride);
+        RideStats.record(previous, ride);
+        reads.forget(ride.getId());
+        // the driver is available again where the ride ends
+        if (RideEvent.CLOSED.equals(event)) {
+            SurgeEngine.recordAvailableDriver(ride.getEndLat(), ride.getEndLong(), ride.getRideType());
+        }
+    }
+
+    static void deleted(Ride ride) {
+        ActiveRides.remove(ride.getId());
+        RideStats.record(ride, null);
+        reads.forget(ride.getId());
+    }
+
+    /**
+     * GET /passengers/:id/currentRide  Active ride of a passenger, from the registry or Mongo
+     * @return Ride  the ride which is not CLOSED yet
+     */
+    public static Route getCurrentOfPassenger = (req, res) -> current(ActiveRides.currentOfPassenger(UUID.fromString(req.params(":id"))), res);
+
+    /**
+     * GET /drivers/:id/currentRide  Active ride of a driver, from the registry or Mongo
+     * @return Ride  the ride which is not CLOSED yet
+     */
+    public static Route getCurrentOfDriver = (req, res) -> current(ActiveRides.currentOfDriver(UUID.fromString(req.params(":id"))), res);
+
+    private static Object current(Ride ride, Response res) {
+        res.type("application/json");
+        if (ride == null) {
+            res.status(404);
+            return JsonResponses.NO_ACTIVE_RIDE;
+        }
+        res.status(200);
+        return dataToJson(ride);
+    }
+
+    /**
+     * GET /passengers/:id/rides  Ride history of a passenger, newest first
+     *      query params: count (default 20, max 100), status, cursor (X-Next-Cursor of the previous page),
+     *      fields (comma separated fields of the rides to return), withTotal=true (X-Total-Count header)
+     * @return List<Ride> one page of rides
+     */
+    public static Route getByPassengerId = (req, res) -> history("passengerId", req, res);
+
+    /**
+     * GET /drivers/:id/rides  Ride history of a driver, newest first
+     *      query params: count (default 20, max 100), status, cursor (X-Next-Cursor of the previous page),
+     *      fields (comma separated fields of the rides to return), withTotal=true (X-Total-Count header)
+     * @return List<Ride> one page of rides
+     */
+    public static Route getByDriverId = (req, res) -> history("driverId", req, res);
+
+    // one index range scan per page, the cursor of a full page points at its last ride
+    private static Object history(String ownerField, Request req, Response res) {
+        res.type("application/json");
+        for (String param : req.queryParams()) {
+            if (!HISTORY_QUERY_FIELDS.contains(param)) {
+                res.status(400);
+                return JsonResponses.wrongQueryParams(param);
+            }
+        }
+        UUID ownerId;
+        RideCursor cursor = null;
+        int count = HISTORY_DEFAULT_COUNT;
+        try {
+            ownerId = UUID.fromString(req.params(":id"));
+            if (req.queryParams("cursor") != null) {
+                cursor = RideCursor.decode(req.queryParams("cursor"));
+            }
+            if (req.queryParams("count") != null) {
+                count = Integer.parseInt(req.queryParams("count"));
+            }
+        } catch (IllegalArgumentException e) {
+            res.status(400);
+            return ErrorReport.toBytes(4002, "Invalid id, count or cursor");
+        }
+        if (count < 1 || count > HISTORY_MAX_COUNT) {
+            res.status(400);
+            return ErrorReport.toBytes(4002, "count should be between 1 and " + HISTORY_MAX_COUNT);
+        }
+        List<String> fields = null;
+        if (req.queryParams("fields") != null) {
+            try {
+                fields = ListQuery.parseFields(req.queryParams("fields"), Ride.class);
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                return ErrorReport.toBytes(4002, e.getMessage());
+            }
+        }
+
+        final MongoSession session = MongoConfiguration.createSession();
+        session.start();
+        Repositories.initialise(new MongoRepositories(session));
+
+        List<?> rides;
+        RideCursor next = null;
+        if (fields == null) {
+            List<Ride> page = Repositories.rides().findHistory(ownerField, ownerId, req.queryParams("status"), cursor, count);
+            if (page.size() == count) {
+                next = RideCursor.after(page.get(count - 1));
+            }
+            rides = page;
+        } else {
+            // the cursor is made of the request time & id of the last ride, read even when not asked for
+            List<String> read = new ArrayList<>(fields);
+            for (String cursorField : Arrays.asList("id", "requestTime")) {
+                if (!read.contains(cursorField)) {
+                    read.add(cursorField);
+                }
+            }
+            List<Map<String, Object>> page = Repositories.rides().projectHistory(ownerField, ownerId,
+                    req.queryParams("status"), cursor, count, read);
+            if (page.size() == count) {
+                Map<String, Object> last = page.get(count - 1);
+                next = new RideCursor((Number) last.get("requestTime"), Uuids.of(last.get("id")));
+            }
+            for (Map<String, Object> ride : page) {
+                ride.keySet().retainAll(fields);
+            }
+            rides = page;
+        }
+        if (Boolean.parseBoolean(req.queryParams("withTotal"))) {
+            res.header("X-Total-Count", String.valueOf(Repositories.rides().countHistory(ownerField, ownerId,
+                    req.queryParams("status"), Counts.generation(COUNT_MAX_AGE))));
+        }
+
+        session.stop();
+        if (next != null) {
+            res.header("X-Next-Cursor", next.encode());
+        }
+        res.status(200);
+        return dataToJson(rides);
+    }
 }
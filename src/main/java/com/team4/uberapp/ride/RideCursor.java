@@ -0,0 +1,72 @@
+/**
+ * RideCursor: position in a newest-first ride history, handed to clients as an opaque string
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.ride;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+public class RideCursor {
+    private final Number requestTime;
+    private final UUID id;
+
+    /**
+     * Instantiates a new Ride cursor, pointing at the last ride of a page
+     *
+     * @param requestTime the request time of the ride, may be null
+     * @param id          the ride id
+     */
+    public RideCursor(Number requestTime, UUID id) {
+        this.requestTime = requestTime;
+        this.id = id;
+    }
+
+    public static RideCursor after(Ride ride) {
+        return new RideCursor(ride.getRequestTime(), ride.getId());
+    }
+
+    public Number getRequestTime() {
+        return requestTime;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    /**
+     * Encode the cursor for a response
+     * @return String - url safe cursor
+     */
+    public String encode() {
+        String raw = (requestTime == null ? "" : requestTime.toString()) + "_" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a cursor sent back by a client
+     * @param cursor value of the cursor query param
+     * @return RideCursor - the decoded cursor
+     * @throws IllegalArgumentException if the cursor was not produced by encode()
+     */
+    public static RideCursor decode(String cursor) {
+        String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int separator = raw.lastIndexOf('_');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        String time = raw.substring(0, separator);
+        UUID id = UUID.fromString(raw.substring(separator + 1));
+        if (time.isEmpty()) {
+            return new RideCursor(null, id);
+        }
+        try {
+            return new RideCursor(Long.valueOf(time), id);
+        } catch (NumberFormatException e) {
+            return new RideCursor(Double.valueOf(time), id);
+        }
+    }
+}
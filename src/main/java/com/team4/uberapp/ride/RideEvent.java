@@ -0,0 +1,88 @@
+/**
+ * RideEvent: state change of a ride, written to the outbox with the change then relayed to the event log
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.ride;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import com.team4.uberapp.util.TimeOrderedIds;
+import com.team4.uberapp.util.UberAppUtil;
+
+import java.util.UUID;
+
+public class RideEvent {
+    public static final String CREATED = "RIDE_CREATED";
+    public static final String ASSIGNED = "RIDE_ASSIGNED";
+    public static final String UPDATED = "RIDE_UPDATED";
+    public static final String CLOSED = "RIDE_CLOSED";
+    public static final String DELETED = "RIDE_DELETED";
+    public static final String ROUTE_POINT_ADDED = "ROUTE_POINT_ADDED";
+
+    private UUID id;
+    private String type;
+    private UUID rideId;
+    private long timestamp;
+    // relay order: the high half of the id, increasing per JVM whatever the stored layout of the id
+    private long sequence;
+    // node whose event log receives the event
+    private String node;
+    // json of the ride or route point, as it was saved
+    private String data;
+
+    @SuppressWarnings("UnusedDeclaration")
+    protected RideEvent() {
+        // for mongolink
+    }
+
+    /**
+     * Instantiates a new Ride event, the data is serialized now
+     *
+     * @param type   one of the event types
+     * @param rideId the ride id
+     * @param data   the ride or route point
+     * @param node   the node relaying the event
+     */
+    public RideEvent(String type, UUID rideId, Object data, String node) {
+        this.id = TimeOrderedIds.next();
+        this.sequence = id.getMostSignificantBits();
+        this.type = type;
+        this.rideId = rideId;
+        this.timestamp = System.currentTimeMillis();
+        this.node = node;
+        this.data = UberAppUtil.dataToCompactJson(data);
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public UUID getRideId() {
+        return rideId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @JsonIgnore
+    public long getSequence() {
+        return sequence;
+    }
+
+    @JsonIgnore
+    public String getNode() {
+        return node;
+    }
+
+    @JsonRawValue
+    public String getData() {
+        return data;
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * RideEvents: in-process publish/subscribe of ride changes, delivered as server-sent events
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.ride;
+
+import com.team4.uberapp.util.UberAppUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A subscriber is a servlet async request: once the stream is open no thread is attached to it.
+ * A change is serialized once by the thread publishing it, then queued to each subscriber of the ride and
+ * written with non-blocking I/O, the rest of a queue is sent when Jetty reports the socket writable again.
+ * A heartbeat comment every 15 seconds keeps idle connections below server.idleTimeout and finds dead clients.
+ * Subscribers too slow to keep up with MAX_PENDING events are disconnected, they reconnect & get a fresh snapshot.
+ * A change saved between the read of the snapshot & the registration is published to no one: the ride is read
+ * again once the subscriber is registered, and sent if it is newer than what the subscriber got.
+ */
+public class RideEvents {
+    private static final Logger logger = LoggerFactory.getLogger(RideEvents.class);
+
+    private static final int MAX_PENDING = 256;
+    private static final long HEARTBEAT_SECONDS = 15;
+    private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RETRY = "retry: 3000\n\n".getBytes(StandardCharsets.UTF_8);
+    // marks the end of the stream, after the CLOSED event
+    private static final byte[] END = new byte[0];
+
+    private static final ConcurrentHashMap<UUID, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private static final AtomicInteger subscriberCount = new AtomicInteger();
+    private static final AtomicLong eventIds = new AtomicLong();
+
+    private static final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ride-events-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        heartbeat.scheduleAtFixedRate(() -> {
+            for (Set<Subscriber> ofRide : subscribers.values()) {
+                for (Subscriber subscriber : ofRide) {
+                    subscriber.send(HEARTBEAT);
+                }
+            }
+        }, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Turn the request into an event stream of a ride, the current ride is the first event
+     * @param ride current state of the ride
+     * @param reread reads the ride again after the registration, null if it is gone
+     * @param request servlet request, put in async mode
+     * @param response servlet response, committed here
+     * @throws IOException if the client is gone
+     */
+    public static void subscribe(Ride ride, Supplier<Ride> reread, HttpServletRequest request,
+                                 HttpServletResponse response) throws IOException {
+        response.setStatus(200);
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        // tells nginx not to buffer the stream
+        response.setHeader("X-Accel-Buffering", "no");
+        AsyncContext async = request.startAsync();
+        async.setTimeout(0);
+        // headers are sent while the stream is still blocking, Spark sees a committed response & writes nothing
+        response.flushBuffer();
+
+        Subscriber subscriber = new Subscriber(ride.getId(), ride.getVersion(), async, response.getOutputStream());
+        subscriber.queue(RETRY);
+        subscriber.queue(event("ride", ride));
+        boolean closed = ActiveRides.CLOSED.equals(ride.getStatus());
+        if (closed) {
+            subscriber.queue(END);
+        }
+        async.addListener(subscriber);
+        // from now on writes are non-blocking, onWritePossible is called right away
+        subscriber.out.setWriteListener(subscriber);
+        if (!closed) {
+            subscribers.computeIfAbsent(ride.getId(), id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+            subscriberCount.incrementAndGet();
+            if (subscriber.isDone()) {
+                // the client left before it was registered
+                unsubscribe(subscriber);
+                return;
+            }
+            Ride current = reread.get();
+            if (current != null) {
+                subscriber.catchUp(current);
+            }
+        }
+    }
+
+    /**
+     * A ride changed, a CLOSED ride ends its streams
+     * @param ride ride as saved
+     */
+    public static void publishRide(Ride ride) {
+        Set<Subscriber> ofRide = subscribers.get(ride.getId());
+        if (ofRide == null || ofRide.isEmpty()) {
+            return;
+        }
+        byte[] event = event("ride", ride);
+        boolean closed = ActiveRides.CLOSED.equals(ride.getStatus());
+        for (Subscriber subscriber : ofRide) {
+            subscriber.sendRide(ride, event, closed);
+        }
+    }
+
+    /**
+     * A route point was added to a ride
+     * @param routePoint route point as saved
+     */
+    public static void publishRoutePoint(RoutePoint routePoint) {
+        Set<Subscriber> ofRide = subscribers.get(routePoint.getRideId());
+        if (ofRide == null || ofRide.isEmpty()) {
+            return;
+        }
+        byte[] event = event("routePoint", routePoint);
+        for (Subscriber subscriber : ofRide) {
+            subscriber.send(event);
+        }
+    }
+
+    public static int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    // data must hold on one line
+    private static byte[] event(String name, Object data) {
+        String event = "id: " + eventIds.incrementAndGet() + "\nevent: " + name + "\ndata: " + UberAppUtil.dataToCompactJson(data) + "\n\n";
+        return event.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void unsubscribe(Subscriber subscriber) {
+        subscribers.computeIfPresent(subscriber.rideId, (id, ofRide) -> {
+            if (ofRide.remove(subscriber)) {
+                subscriberCount.decrementAndGet();
+            }
+            return ofRide.isEmpty() ? null : ofRide;
+        });
+    }
+
+    private static class Subscriber implements WriteListener, AsyncListener {
+        private final UUID rideId;
+        private final AsyncContext async;
+        private final ServletOutputStream out;
+        private final Queue<byte[]> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private boolean done = false;
+        // version of the last ride sent, guarded by this
+        private long version;
+
+        private Subscriber(UUID rideId, long version, AsyncContext async, ServletOutputStream out) {
+            this.rideId = rideId;
+            this.version = version;
+            this.async = async;
+            this.out = out;
+        }
+
+        private void send(byte[] event) {
+            if (queue(event)) {
+                drain();
+            }
+        }
+
+        // each version once: an older one published late or one already sent by catchUp is dropped
+        private synchronized void sendRide(Ride ride, byte[] event, boolean closed) {
+            if (ride.getVersion() <= version) {
+                return;
+            }
+            version = ride.getVersion();
+            send(event);
+            if (closed) {
+                send(END);
+            }
+        }
+
+        // the ride read again after the registration, unless it was published meanwhile
+        private synchronized void catchUp(Ride ride) {
+            if (ride.getVersion() > version) {
+                sendRide(ride, event("ride", ride), ActiveRides.CLOSED.equals(ride.getStatus()));
+            }
+        }
+
+        private boolean queue(byte[] event) {
+            if (pendingCount.incrementAndGet() > MAX_PENDING) {
+                close();
+                return false;
+            }
+            pending.add(event);
+            return true;
+        }
+
+        // called by publishers & by Jetty, only one of them writes at a time
+        private synchronized void drain() {
+            if (done) {
+                return;
+            }
+            try {
+                while (out.isReady()) {
+                    byte[] event = pending.poll();
+                    if (event == null) {
+                        return;
+                    }
+                    pendingCount.decrementAndGet();
+                    if (event == END) {
+                        close();
+                        return;
+                    }
+                    out.write(event);
+                    if (out.isReady()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                close();
+            }
+        }
+
+        private synchronized boolean isDone() {
+            return done;
+        }
+
+        private synchronized void close() {
+            if (done) {
+                return;
+            }
+            done = true;
+            unsubscribe(this);
+            try {
+                async.complete();
+            } catch (IllegalStateException e) {
+                // already completed by the container
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            logger.debug("Ride event stream of {} failed: {}", rideId, t.getMessage());
+            close();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            unsubscribe(this);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
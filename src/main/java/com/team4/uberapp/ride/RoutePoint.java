@@ -4,17 +4,25 @@ package com.team4.uberapp.ride;
  * Created by HectorGuo on 11/8/16.
  */
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.team4.uberapp.domain.Validable;
+import com.team4.uberapp.util.TimeOrderedIds;
+import com.team4.uberapp.validation.*;
 
+import java.util.Date;
 import java.util.UUID;
 
 //@Data
+@ErrorCode(4001)
 public class RoutePoint implements Validable {
     private UUID id;
     private Number lat;
     private Number lng;
+    @Required(message = "timestamp should not be empty")
     private Number timestamp;
     private UUID rideId;
+    // set by the database when the point is stored, not mapped: only read by the ETA grid build
+    private Date storedAt;
 
 
 
@@ -32,7 +40,7 @@ public class RoutePoint implements Validable {
      * @param rideId    the ride id
      */
     public RoutePoint(float lat, float lng, Number timestamp, UUID rideId) {
-        this.id = UUID.randomUUID();
+        this.id = TimeOrderedIds.next();
         this.lat = lat;
         this.lng = lng;
         this.timestamp = timestamp;
@@ -79,12 +87,17 @@ public class RoutePoint implements Validable {
         this.rideId = rideId;
     }
 
-    public boolean isValid() throws Exception{
-        //Could set up any additional validation rule
-        if (this.timestamp.toString().isEmpty()){
-            throw new Exception("timestamp should not be empty");
-        }
-        return true;
+    @JsonIgnore
+    public Date getStoredAt() {
+        return storedAt;
+    }
+
+    public void setStoredAt(Date storedAt) {
+        this.storedAt = storedAt;
+    }
+
+    public boolean isValid() throws Exception {
+        return Validator.check(this);
     }
 
     public Object clone() throws CloneNotSupportedException {
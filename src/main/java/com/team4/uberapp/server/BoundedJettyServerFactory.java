@@ -0,0 +1,110 @@
+/**
+ * BoundedJettyServerFactory: builds the embedded Jetty server used by Spark
+ * with a bounded job queue, a configurable accept backlog and overload protection
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.server;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import spark.embeddedserver.jetty.JettyServerFactory;
+
+import java.util.zip.Deflater;
+
+public class BoundedJettyServerFactory implements JettyServerFactory {
+    private final int maxQueuedJobs;
+    private final int acceptQueueSize;
+    private final int maxActiveRequests;
+    private final GzipHandler gzipHandler;
+
+    /**
+     * Instantiates a new Bounded jetty server factory.
+     *
+     * @param maxQueuedJobs     the max number of jobs waiting for a worker thread
+     * @param acceptQueueSize   the TCP accept backlog of the connector
+     * @param maxActiveRequests the max number of requests handled at the same time, 503 beyond
+     */
+    public BoundedJettyServerFactory(int maxQueuedJobs, int acceptQueueSize, int maxActiveRequests) {
+        this(maxQueuedJobs, acceptQueueSize, maxActiveRequests, null);
+    }
+
+    /**
+     * Instantiates a new Bounded jetty server factory compressing the responses.
+     *
+     * @param maxQueuedJobs      the max number of jobs waiting for a worker thread
+     * @param acceptQueueSize    the TCP accept backlog of the connector
+     * @param maxActiveRequests  the max number of requests handled at the same time, 503 beyond
+     * @param gzipHandler        compression of the responses of the admitted requests, null for none
+     */
+    public BoundedJettyServerFactory(int maxQueuedJobs, int acceptQueueSize, int maxActiveRequests,
+                                     GzipHandler gzipHandler) {
+        this.maxQueuedJobs = maxQueuedJobs;
+        this.acceptQueueSize = acceptQueueSize;
+        this.maxActiveRequests = maxActiveRequests;
+        this.gzipHandler = gzipHandler;
+    }
+
+    /**
+     * Jetty's gzip compression of the response bodies bigger than minBytes, for the clients accepting it.
+     * It takes its deflaters from a pool, adds Vary: Accept-Encoding and suffixes the ETag of a compressed
+     * response with --gzip, removed again from If-None-Match. Flushes are sync flushes, so the streamed export
+     * reaches the client chunk by chunk; event streams and responses already carrying a Content-Encoding are
+     * sent as they are written.
+     *
+     * @param minBytes bodies of less than this size are sent uncompressed
+     * @param level    deflate level, 1 (fastest) to 9 (smallest)
+     * @return GzipHandler - to pass to the constructor
+     */
+    public static GzipHandler gzipHandler(int minBytes, int level) {
+        GzipHandler gzipHandler = new GzipHandler();
+        gzipHandler.setMinGzipSize(Math.max(0, minBytes));
+        gzipHandler.setCompressionLevel(Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level)));
+        gzipHandler.setSyncFlush(true);
+        gzipHandler.setIncludedMethods("GET", "POST", "PUT", "PATCH", "DELETE");
+        gzipHandler.addExcludedMimeTypes("text/event-stream");
+        return gzipHandler;
+    }
+
+    @Override
+    public Server create(int maxThreads, int minThreads, int threadTimeoutMillis) {
+        // jobs beyond maxQueuedJobs are rejected by the pool instead of waiting forever
+        QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads, minThreads, threadTimeoutMillis,
+                new BlockingArrayQueue<>(maxQueuedJobs));
+        return create(threadPool);
+    }
+
+    @Override
+    public Server create(ThreadPool threadPool) {
+        final Server server = new Server(threadPool);
+
+        // Spark sets connectors and handler after the server is created, so finish the setup right before start
+        server.addLifeCycleListener(new AbstractLifeCycle.AbstractLifeCycleListener() {
+            @Override
+            public void lifeCycleStarting(LifeCycle event) {
+                for (Connector connector : server.getConnectors()) {
+                    if (connector instanceof ServerConnector) {
+                        ((ServerConnector) connector).setAcceptQueueSize(acceptQueueSize);
+                    }
+                }
+                OverloadProtectionHandler overloadHandler = new OverloadProtectionHandler(maxActiveRequests);
+                if (gzipHandler != null) {
+                    gzipHandler.setHandler(server.getHandler());
+                    overloadHandler.setHandler(gzipHandler);
+                } else {
+                    overloadHandler.setHandler(server.getHandler());
+                }
+                server.setHandler(overloadHandler);
+            }
+        });
+        return server;
+    }
+}
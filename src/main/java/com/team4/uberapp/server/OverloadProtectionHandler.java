@@ -0,0 +1,62 @@
+/**
+ * OverloadProtectionHandler: rejects requests with 503 when too many are in flight
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.server;
+
+import com.team4.uberapp.util.JsonResponses;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class OverloadProtectionHandler extends HandlerWrapper {
+    private final int maxActiveRequests;
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicLong rejectedRequests = new AtomicLong();
+
+    /**
+     * Instantiates a new Overload protection handler.
+     *
+     * @param maxActiveRequests the max number of requests handled at the same time
+     */
+    public OverloadProtectionHandler(int maxActiveRequests) {
+        this.maxActiveRequests = maxActiveRequests;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        if (activeRequests.incrementAndGet() > maxActiveRequests) {
+            // fail fast, the worker threads left are kept for answering this instead of queueing
+            activeRequests.decrementAndGet();
+            rejectedRequests.incrementAndGet();
+            baseRequest.setHandled(true);
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "1");
+            response.setContentType("application/json");
+            response.getOutputStream().write(JsonResponses.SERVER_BUSY);
+            return;
+        }
+        try {
+            super.handle(target, baseRequest, request, response);
+        } finally {
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    public int getActiveRequests() {
+        return activeRequests.get();
+    }
+
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+}
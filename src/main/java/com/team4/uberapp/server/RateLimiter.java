@@ -0,0 +1,326 @@
+/**
+ * RateLimiter: per client request rate limits, checked before the routes
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.server;
+
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.util.AppUser;
+import com.team4.uberapp.util.JsonResponses;
+import com.team4.uberapp.util.UberAppUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Filter;
+import spark.Request;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static spark.Spark.halt;
+
+/**
+ * A client is the user of its token (query param token or x-access-token header), else its ip address. Behind
+ * a load balancer the address is taken from X-Forwarded-For, but only when the connection comes from one of
+ * ratelimit.trustedProxies: the last address of the header not of a trusted proxy, the one the first trusted
+ * proxy saw. A client can not pick its bucket by sending the header itself. Tokens are validated once, valid or
+ * not, the result is kept for the next requests holding the same token.
+ *
+ * Each client has one bucket per rule: ratelimit.routes lists "METHOD /path=perSecond/burst" rules, path
+ * segments starting with ':' match any segment, perSecond 0 means no limit; other requests fall under
+ * ratelimit.default.
+ *
+ * Buckets are kept as the time at which they will be full again (GCRA): a request adds 1/perSecond to it
+ * and is refused when that would go more than burst/perSecond past now. Taking a token is one compare & set
+ * on that time, the bucket map is a ConcurrentHashMap, so nothing locks on the request path. A full bucket
+ * is the same as no bucket, so buckets full again are dropped by a sweep on a background thread every
+ * ratelimit.evictSeconds, or earlier when a request notices more than ratelimit.maxBuckets; requests never sweep.
+ */
+public class RateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+
+    // tokens already checked, a stale entry only picks the bucket, it does not authorize anything
+    private static final int MAX_TOKENS = 10000;
+    private static final String INVALID_TOKEN = "";
+    private static final String TOO_MANY_REQUESTS = new String(JsonResponses.TOO_MANY_REQUESTS, StandardCharsets.UTF_8);
+
+    private static final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> tokenClients = new ConcurrentHashMap<>();
+    private static final AtomicBoolean sweeping = new AtomicBoolean();
+    private static final AtomicLong limited = new AtomicLong();
+    private static final AtomicLong evicted = new AtomicLong();
+
+    private static volatile boolean enabled = false;
+    private static volatile List<Rule> rules = new ArrayList<>();
+    private static volatile Rule defaultRule;
+    private static volatile Set<String> trustedProxies = Collections.emptySet();
+    private static int maxBuckets = 100000;
+    private static volatile long lastSweep = 0;
+    private static ScheduledExecutorService sweeper;
+
+    /**
+     * Read the limits from the configuration, only the first call does it
+     * @param properties application configuration
+     */
+    public static synchronized void start(Properties properties) {
+        if (defaultRule != null) {
+            return;
+        }
+        List<Rule> parsed = new ArrayList<>();
+        for (String rule : properties.getRateLimitRoutes().split(",")) {
+            if (!rule.trim().isEmpty()) {
+                parsed.add(Rule.parse(parsed.size() + 1, rule.trim()));
+            }
+        }
+        rules = parsed;
+        defaultRule = Rule.parse(0, "* *=" + properties.getRateLimitDefault());
+        trustedProxies = properties.getRateLimitTrustedProxies();
+        maxBuckets = properties.getRateLimitMaxBuckets();
+        lastSweep = System.nanoTime();
+        enabled = properties.isRateLimitEnabled();
+        if (enabled) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "rate-limit-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long evictSeconds = properties.getRateLimitEvictSeconds();
+            sweeper.scheduleWithFixedDelay(() -> sweep(System.nanoTime()), evictSeconds, evictSeconds, TimeUnit.SECONDS);
+        }
+        logger.info("Rate limits {}: {} by default, {}, trusted proxies {}", enabled ? "on" : "off", defaultRule, rules,
+                trustedProxies);
+    }
+
+    /**
+     * before() filter, halts with 429 & Retry-After when the client is over the limit of the route
+     */
+    public static Filter filter = (req, res) -> {
+        if (!enabled) {
+            return;
+        }
+        long waitNanos = acquire(req.requestMethod(), req.pathInfo(), client(req), System.nanoTime());
+        if (waitNanos > 0) {
+            limited.incrementAndGet();
+            res.header("Retry-After", Long.toString(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999999999L))));
+            res.type("application/json");
+            halt(429, TOO_MANY_REQUESTS);
+        }
+    };
+
+    /**
+     * Take a token from the bucket of a client for a request
+     * @param method http method
+     * @param path request path
+     * @param client client key
+     * @param now System.nanoTime()
+     * @return long - 0 if the request is allowed, else nanoseconds until it would be
+     */
+    static long acquire(String method, String path, String client, long now) {
+        Rule rule = rule(method, path);
+        if (rule.intervalNanos == 0) {
+            return 0;
+        }
+        String key = rule.index + " " + client;
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            AtomicLong created = new AtomicLong(now);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        // too many clients: sweep early, but at most once a second
+        if (buckets.size() > maxBuckets && now - lastSweep > TimeUnit.SECONDS.toNanos(1) && sweeper != null) {
+            lastSweep = now;
+            sweeper.execute(() -> sweep(System.nanoTime()));
+        }
+        while (true) {
+            long full = bucket.get();
+            long next = Math.max(full, now) + rule.intervalNanos;
+            if (next - now > rule.burstNanos) {
+                return next - now - rule.burstNanos;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static int getBucketCount() {
+        return buckets.size();
+    }
+
+    public static long getLimitedCount() {
+        return limited.get();
+    }
+
+    public static long getEvictedCount() {
+        return evicted.get();
+    }
+
+    private static Rule rule(String method, String path) {
+        for (Rule rule : rules) {
+            if (rule.matches(method, path)) {
+                return rule;
+            }
+        }
+        return defaultRule;
+    }
+
+    private static String client(Request req) {
+        String token = tokenParam(req.queryString());
+        token = token == null ? req.headers("x-access-token") : token;
+        if (token != null) {
+            String client = tokenClients.get(token);
+            if (client == null) {
+                AppUser user = UberAppUtil.validTokenUser(token);
+                client = user == null ? INVALID_TOKEN : "user:" + user.getUserID();
+                if (tokenClients.size() >= MAX_TOKENS) {
+                    tokenClients.clear();
+                }
+                tokenClients.put(token, client);
+            }
+            if (client != INVALID_TOKEN) {
+                return client;
+            }
+        }
+        return "ip:" + address(req.ip(), req.headers("X-Forwarded-For"), trustedProxies);
+    }
+
+    /**
+     * Address of the client of a request
+     * @param remote address of the connection
+     * @param forwardedFor X-Forwarded-For header, may be null
+     * @param trusted addresses of the proxies in front of this server
+     * @return String - the remote address unless it is a trusted proxy, else the last untrusted forwarded address
+     */
+    static String address(String remote, String forwardedFor, Set<String> trusted) {
+        if (forwardedFor == null || !trusted.contains(remote)) {
+            return remote;
+        }
+        String[] forwarded = forwardedFor.split(",");
+        String address = remote;
+        // each proxy appends the address it saw, the entries before the first trusted one are the client's to write
+        for (int i = forwarded.length - 1; i >= 0; i--) {
+            address = forwarded[i].trim();
+            if (!trusted.contains(address)) {
+                break;
+            }
+        }
+        return address.isEmpty() ? remote : address;
+    }
+
+    // token query param, read from the query string: req.queryParams() would consume a form encoded body
+    private static String tokenParam(String query) {
+        if (query == null) {
+            return null;
+        }
+        for (String param : query.split("&")) {
+            if (param.startsWith("token=")) {
+                try {
+                    return URLDecoder.decode(param.substring(6), "UTF-8");
+                } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    // drop the buckets full again
+    static void sweep(long now) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // a request holding a bucket being dropped may get one token for free
+            for (Map.Entry<String, AtomicLong> bucket : buckets.entrySet()) {
+                if (now - bucket.getValue().get() >= 0 && buckets.remove(bucket.getKey(), bucket.getValue())) {
+                    evicted.incrementAndGet();
+                }
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private static class Rule {
+        private final int index;
+        private final String method;
+        private final String[] segments;
+        private final String text;
+        private final long intervalNanos;
+        private final long burstNanos;
+
+        private Rule(int index, String method, String path, String text, double perSecond, int burst) {
+            this.index = index;
+            this.method = method;
+            this.segments = path.split("/");
+            this.text = text;
+            this.intervalNanos = perSecond <= 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+            this.burstNanos = intervalNanos * Math.max(1, burst);
+        }
+
+        // METHOD /path=perSecond/burst, the burst defaults to perSecond
+        private static Rule parse(int index, String rule) {
+            try {
+                int space = rule.indexOf(' ');
+                int equals = rule.lastIndexOf('=');
+                String[] limit = rule.substring(equals + 1).trim().split("/");
+                double perSecond = Double.parseDouble(limit[0].trim());
+                int burst = limit.length > 1 ? Integer.parseInt(limit[1].trim()) : (int) Math.ceil(perSecond);
+                return new Rule(index, rule.substring(0, space).trim().toUpperCase(), rule.substring(space + 1, equals).trim(),
+                        rule, perSecond, burst);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Rate limit rule should be METHOD /path=perSecond/burst: " + rule, e);
+            }
+        }
+
+        private boolean matches(String requestMethod, String path) {
+            if (!method.equals(requestMethod)) {
+                return false;
+            }
+            int segment = 0;
+            int start = 0;
+            int length = path.length();
+            while (start <= length) {
+                int end = path.indexOf('/', start);
+                if (end < 0) {
+                    end = length;
+                }
+                if (segment >= segments.length) {
+                    return false;
+                }
+                String expected = segments[segment++];
+                if (!expected.startsWith(":") &&
+                        (expected.length() != end - start || !path.regionMatches(start, expected, 0, end - start))) {
+                    return false;
+                }
+                start = end + 1;
+            }
+            return segment == segments.length;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
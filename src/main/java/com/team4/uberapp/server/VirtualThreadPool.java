@@ -0,0 +1,84 @@
+/**
+ * VirtualThreadPool: Jetty thread pool running every job on its own virtual thread
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.server;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+    private final ExecutorService executor;
+    private final AtomicInteger runningJobs = new AtomicInteger();
+
+    private VirtualThreadPool(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Create a virtual thread pool. The project is compiled for Java 8, so the
+     * virtual thread executor is looked up at runtime
+     * @return VirtualThreadPool - the pool, or null if the running JVM has no virtual threads (before Java 21)
+     */
+    public static VirtualThreadPool create() {
+        try {
+            Method newExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return new VirtualThreadPool((ExecutorService) newExecutor.invoke(null));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        runningJobs.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    job.run();
+                } finally {
+                    runningJobs.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            runningJobs.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int getThreads() {
+        return runningJobs.get();
+    }
+
+    @Override
+    public int getIdleThreads() {
+        // virtual threads are never pooled, a new one is started for every job
+        return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        executor.shutdown();
+        super.doStop();
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * WarmUp: runs the hot request paths before the server accepts traffic
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.server;
+
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.car.Car;
+import com.team4.uberapp.domain.Repositories;
+import com.team4.uberapp.domain.Validable;
+import com.team4.uberapp.driver.Driver;
+import com.team4.uberapp.passenger.Passenger;
+import com.team4.uberapp.persistence.MongoRepositories;
+import com.team4.uberapp.persistence.UuidMigration;
+import com.team4.uberapp.ride.ActiveRides;
+import com.team4.uberapp.ride.Ride;
+import com.team4.uberapp.ride.RoutePoint;
+import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.JsonResponses;
+import com.team4.uberapp.validation.Violation;
+import org.mongolink.MongoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.UUID;
+
+import static com.team4.uberapp.util.UberAppUtil.*;
+
+/**
+ * The first requests after a start used to pay for the mapping scan, the Mongo connections,
+ * class loading and interpreted code (a first "Create a Driver" took 2 seconds).
+ * WarmUp does that work once per JVM, the application is ready only after it succeeded.
+ */
+public class WarmUp {
+    private static final Logger logger = LoggerFactory.getLogger(WarmUp.class);
+
+    private static final String CAR_JSON = "{\"make\":\"isuzu\",\"model\":\"sx4\",\"license\":\"88PX123\"," +
+            "\"carType\":\"sedan\",\"color\":\"blue\",\"maxPassengers\":5,\"validRideTypes\":\"ECONOMY\"}";
+    private static final String DRIVER_JSON = "{\"firstName\":\"nala\",\"lastName\":\"zhai\"," +
+            "\"emailAddress\":\"nala@gmail.com\",\"password\":\"password\",\"addressLine1\":\"20350 stevens creek\"," +
+            "\"addressLine2\":\"apt 407\",\"city\":\"cupertino\",\"state\":\"ca\",\"zip\":\"95014\"," +
+            "\"phoneNumber\":\"650-525-2525\",\"drivingLicense\":\"D1234567\",\"licensedState\":\"ca\"}";
+    private static final String PASSENGER_JSON = "{\"firstName\":\"nala\",\"lastName\":\"zhai\"," +
+            "\"emailAddress\":\"nala@gmail.com\",\"password\":\"password\",\"addressLine1\":\"20350 stevens creek\"," +
+            "\"addressLine2\":\"apt 407\",\"city\":\"cupertino\",\"state\":\"ca\",\"zip\":\"95014\"," +
+            "\"phoneNumber\":\"650-525-2525\"}";
+    private static final String RIDE_JSON = "{\"rideType\":\"ECONOMY\",\"startLat\":10.22,\"startLong\":0," +
+            "\"endLat\":0.22,\"endLong\":0,\"requestTime\":1480131627374,\"pickupTime\":1480131657374," +
+            "\"dropOffTime\":1480131697374,\"status\":\"AWAITING_DRIVER\",\"fare\":5," +
+            "\"driverId\":\"9e584258-554c-4275-abba-6f02c3ab7476\",\"carId\":\"b462bcae-2add-4b59-8c18-107a30c1e87e\"," +
+            "\"passengerId\":\"a57536e5-c05c-437a-9ef9-d27a267a7d85\"}";
+    private static final String ROUTE_POINT_JSON = "{\"lat\":22.11,\"lng\":11.11,\"timestamp\":1480131657374}";
+    private static final String INVALID_CAR_JSON = "{\"make\":\"isuzu\",\"maxPassengers\":0}";
+
+    private static volatile boolean ready = false;
+    private static volatile long warmupMillis = -1;
+
+    public static boolean isReady() {
+        return ready;
+    }
+
+    public static long getWarmupMillis() {
+        return warmupMillis;
+    }
+
+    /**
+     * Run the warm-up, only the first successful call does the work
+     * @param properties application configuration
+     * @return boolean - true when the application is ready to serve requests
+     */
+    public static boolean run(Properties properties) {
+        return run(() -> warmUp(properties));
+    }
+
+    /**
+     * Run the warm-up again in the background until it succeeds, after a failed run
+     * @param properties application configuration
+     * @param periodMillis time between two runs
+     * @return Thread - the daemon thread retrying, ends once the application is ready
+     */
+    public static Thread retry(Properties properties, long periodMillis) {
+        return retry(() -> warmUp(properties), periodMillis);
+    }
+
+    static synchronized boolean run(Steps steps) {
+        if (ready) {
+            return true;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            steps.run();
+        } catch (Exception e) {
+            logger.error("Warm-up failed, the application is not ready yet", e);
+            return false;
+        }
+        warmupMillis = System.currentTimeMillis() - start;
+        ready = true;
+        logger.info("Warm-up done in {} ms", warmupMillis);
+        return true;
+    }
+
+    static Thread retry(Steps steps, long periodMillis) {
+        Thread retry = new Thread(() -> {
+            while (!ready) {
+                try {
+                    Thread.sleep(periodMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                run(steps);
+            }
+        }, "warm-up-retry");
+        retry.setDaemon(true);
+        retry.start();
+        return retry;
+    }
+
+    // not ready again, for the tests
+    static synchronized void reset() {
+        ready = false;
+        warmupMillis = -1;
+    }
+
+    interface Steps {
+        void run() throws Exception;
+    }
+
+    private static void warmUp(Properties properties) throws Exception {
+        // mapping scan, Mongo client and pool
+        MongoConfiguration.openConnections(properties.getDBPoolMinSize());
+        UuidMigration.check(properties);
+        MongoConfiguration.ensureIndexes();
+        logger.info("{} active rides loaded", ActiveRides.rebuild());
+        warmUpRepositories(Math.max(1, properties.getWarmupIterations() / 100));
+        warmUpJson(properties.getWarmupIterations());
+        warmUpTokens(properties.getWarmupIterations());
+        warmUpPasswords(properties.getWarmupPasswordRounds());
+    }
+
+    // lookups of unknown ids, goes through mongolink sessions & the bson codecs without changing any data
+    private static void warmUpRepositories(int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            final MongoSession session = MongoConfiguration.createSession();
+            session.start();
+            try {
+                Repositories.initialise(new MongoRepositories(session));
+                UUID id = UUID.randomUUID();
+                Repositories.cars().get(id);
+                Repositories.drivers().get(id);
+                Repositories.passengers().get(id);
+                Repositories.rides().get(id);
+                Repositories.userSessions().get(id);
+            } finally {
+                session.stop();
+            }
+        }
+    }
+
+    // the same read, validate & write path the controllers use, including the validation failures
+    private static void warmUpJson(int iterations) throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            warmUpEntity(jsonToData(CAR_JSON, Car.class));
+            warmUpEntity(jsonToData(DRIVER_JSON, Driver.class));
+            warmUpEntity(jsonToData(PASSENGER_JSON, Passenger.class));
+            warmUpEntity(jsonToData(RIDE_JSON, Ride.class));
+            warmUpEntity(jsonToData(ROUTE_POINT_JSON, RoutePoint.class));
+            warmUpEntity(jsonToData(INVALID_CAR_JSON, Car.class));
+            JsonResponses.wrongQueryParams("count");
+        }
+    }
+
+    private static void warmUpEntity(Validable entity) {
+        List<Violation> violations = entity.violations();
+        if (!violations.isEmpty()) {
+            ErrorReport.toBytes(violations);
+        }
+        dataToJson(entity);
+    }
+
+    private static void warmUpTokens(int iterations) {
+        String userId = UUID.randomUUID().toString();
+        for (int i = 0; i < iterations; i++) {
+            validTokenUser(createToken(userId, "passenger"));
+        }
+    }
+
+    // bcrypt is slow on purpose (workload 12), one round is enough to load it
+    private static void warmUpPasswords(int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            checkPassword("password", hashPassword("password"));
+        }
+    }
+}
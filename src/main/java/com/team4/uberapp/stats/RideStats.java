@@ -0,0 +1,336 @@
+/**
+ * RideStats: fleet-wide ride counters, kept up to date by the ride routes
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.stats;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.archive.RideArchive;
+import com.team4.uberapp.ride.Ride;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The counters live in the ridestats collection, one small document per counter group:
+ *   all {count}, status:CLOSED {count}, rideType:ECONOMY {count}, day:2016-11-26 {revenue, rides}, wait {millis, count}
+ * so every node updates the same counters and a read is one query over a few hundred documents,
+ * whatever the number of rides.
+ *
+ * A ride change is turned into counter deltas (what the ride counts for after the change minus before).
+ * Deltas are added up in memory and written every stats.flushMillis as one unordered bulk of $inc upserts;
+ * $inc commutes, so the order of the changes does not matter. A flush takes each delta out of the map before
+ * writing it and adds back the ones whose update failed, they are retried at the next flush. Revenue is the
+ * fare of the CLOSED rides per day of their requestTime (UTC), the pickup wait is pickupTime - requestTime of
+ * the rides having both. Archived rides stay counted: moving a ride to the archive is no change of the ride.
+ *
+ * rebuild() recomputes every counter from the rides with aggregation pipelines plus the rides of the archive,
+ * while this node archives nothing. It runs when the collection is empty at start-up and on demand. The new
+ * counters replace the old ones document by document, then the counters no ride has any more are deleted:
+ * a reader sees the old or the new value of a counter, never none. The deltas of this node are dropped when a
+ * rebuild starts and not flushed until it is written; deltas of the changes made during a rebuild, or pending on
+ * other nodes, may still be counted twice.
+ */
+public class RideStats {
+    private static final Logger logger = LoggerFactory.getLogger(RideStats.class);
+
+    private static final String COLLECTION = "ridestats";
+    private static final long DAY_MILLIS = 24 * 3600 * 1000L;
+
+    // "documentId field" -> delta not written yet
+    private static final ConcurrentHashMap<String, Long> pending = new ConcurrentHashMap<>();
+    private static final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    private static ScheduledExecutorService flusher;
+    private static volatile long lastRebuildMillis = -1;
+
+    /**
+     * Schedule the flush of the deltas & rebuild the counters if there are none, only the first call does it
+     * @param properties application configuration
+     */
+    public static synchronized void start(Properties properties) {
+        if (flusher != null) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ride-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long flushMillis = properties.getStatsFlushMillis();
+        flusher.scheduleWithFixedDelay(RideStats::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        flusher.execute(() -> {
+            try {
+                if (collection().countDocuments() == 0) {
+                    rebuild();
+                }
+            } catch (RuntimeException e) {
+                logger.error("Ride statistics can not be initialized", e);
+            }
+        });
+    }
+
+    /**
+     * A ride was created, updated or deleted
+     * @param before the ride before the change, null for a creation
+     * @param after the ride as saved, null for a deletion
+     */
+    public static void record(Ride before, Ride after) {
+        if (before != null) {
+            contribute(before, -1, pending);
+        }
+        if (after != null) {
+            contribute(after, 1, pending);
+        }
+    }
+
+    /**
+     * Current counters
+     * @param fromDay first day of the revenue per day
+     * @param toDay last day of the revenue per day
+     * @return Map<String, Object> - rides, byStatus, byRideType, revenuePerDay, averagePickupWaitSeconds
+     */
+    public static Map<String, Object> read(LocalDate fromDay, LocalDate toDay) {
+        Map<String, Object> byStatus = new TreeMap<>();
+        Map<String, Object> byRideType = new TreeMap<>();
+        Map<String, Object> revenuePerDay = new TreeMap<>();
+        long rides = 0;
+        Double averageWait = null;
+        Bson filter = Filters.or(Filters.not(Filters.regex("_id", "^day:")),
+                Filters.and(Filters.gte("_id", "day:" + fromDay), Filters.lte("_id", "day:" + toDay)));
+        try (MongoCursor<Document> counters = collection().find(filter).iterator()) {
+            while (counters.hasNext()) {
+                Document counter = counters.next();
+                String id = counter.getString("_id");
+                if (id.equals("all")) {
+                    rides = number(counter, "count");
+                } else if (id.equals("wait")) {
+                    long count = number(counter, "count");
+                    averageWait = count == 0 ? null : number(counter, "millis") / 1000.0 / count;
+                } else if (id.startsWith("status:")) {
+                    putIfPositive(byStatus, id.substring(7), number(counter, "count"));
+                } else if (id.startsWith("rideType:")) {
+                    putIfPositive(byRideType, id.substring(9), number(counter, "count"));
+                } else if (id.startsWith("day:")) {
+                    putIfPositive(revenuePerDay, id.substring(4), number(counter, "revenue"));
+                }
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rides", rides);
+        stats.put("byStatus", byStatus);
+        stats.put("byRideType", byRideType);
+        stats.put("revenuePerDay", revenuePerDay);
+        stats.put("averagePickupWaitSeconds", averageWait == null ? null : Math.round(averageWait * 10) / 10.0);
+        return stats;
+    }
+
+    /**
+     * Recompute all the counters from the rides collection
+     * @return boolean - false if a rebuild is already running
+     */
+    public static boolean rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            // no flush in between: the deltas recorded so far are in the rides counted
+            synchronized (RideStats.class) {
+                pending.clear();
+                write(RideArchive.withoutArchiving(RideStats::count));
+            }
+            lastRebuildMillis = System.currentTimeMillis() - start;
+            logger.info("Ride statistics rebuilt in {} ms", lastRebuildMillis);
+            return true;
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+
+    public static boolean isRebuilding() {
+        return rebuilding.get();
+    }
+
+    public static long getLastRebuildMillis() {
+        return lastRebuildMillis;
+    }
+
+    public static int getPendingCount() {
+        return pending.size();
+    }
+
+    static synchronized void flush() {
+        Map<String, Document> increments = new LinkedHashMap<>();
+        for (String key : pending.keySet()) {
+            // a delta recorded after the removal starts a new entry, written at the next flush
+            Long value = pending.remove(key);
+            if (value != null && value != 0) {
+                int space = key.lastIndexOf(' ');
+                increments.computeIfAbsent(key.substring(0, space), id -> new Document()).append(key.substring(space + 1), value);
+            }
+        }
+        if (increments.isEmpty()) {
+            return;
+        }
+        List<String> ids = new ArrayList<>(increments.keySet());
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        for (String id : ids) {
+            updates.add(new UpdateOneModel<>(Filters.eq("_id", id),
+                    new Document("$inc", increments.get(id)), new UpdateOptions().upsert(true)));
+        }
+        try {
+            collection().bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            // the bulk is unordered, the other updates are written
+            for (BulkWriteError error : e.getWriteErrors()) {
+                putBack(ids.get(error.getIndex()), increments.get(ids.get(error.getIndex())));
+            }
+            logger.warn("Ride statistics update failed for {} counters, retrying at the next flush", e.getWriteErrors().size(), e);
+        } catch (RuntimeException e) {
+            // an update written before the failure is counted twice, until the next rebuild
+            for (String id : ids) {
+                putBack(id, increments.get(id));
+            }
+            logger.error("Ride statistics update failed, retrying at the next flush", e);
+        }
+    }
+
+    private static void putBack(String id, Document increment) {
+        for (Map.Entry<String, Object> field : increment.entrySet()) {
+            pending.merge(id + " " + field.getKey(), (Long) field.getValue(), Long::sum);
+        }
+    }
+
+    // every counter, from the rides in Mongo & in the archive
+    private static Map<String, Long> count() {
+        Map<String, Long> counters = new HashMap<>();
+        MongoCollection<Document> rides = MongoConfiguration.database().getCollection("ride");
+        counters.put("all count", rides.countDocuments());
+        for (Document group : rides.aggregate(Arrays.asList(
+                Aggregates.group("$status", Accumulators.sum("count", 1)))).allowDiskUse(true)) {
+            if (group.get("_id") != null) {
+                counters.put("status:" + group.get("_id") + " count", number(group, "count"));
+            }
+        }
+        for (Document group : rides.aggregate(Arrays.asList(
+                Aggregates.group("$rideType", Accumulators.sum("count", 1)))).allowDiskUse(true)) {
+            if (group.get("_id") != null) {
+                counters.put("rideType:" + group.get("_id") + " count", number(group, "count"));
+            }
+        }
+        Document day = new Document("$dateToString", new Document("format", "%Y-%m-%d")
+                .append("date", new Document("$add", Arrays.asList(new Date(0), "$requestTime"))));
+        for (Document group : rides.aggregate(Arrays.asList(
+                Aggregates.match(Filters.and(Filters.eq("status", "CLOSED"), Filters.ne("requestTime", null))),
+                Aggregates.group(day, Accumulators.sum("revenue", "$fare"), Accumulators.sum("rides", 1))))
+                .allowDiskUse(true)) {
+            counters.put("day:" + group.get("_id") + " revenue", number(group, "revenue"));
+            counters.put("day:" + group.get("_id") + " rides", number(group, "rides"));
+        }
+        for (Document group : rides.aggregate(Arrays.asList(
+                Aggregates.match(Filters.and(Filters.ne("pickupTime", null), Filters.ne("requestTime", null))),
+                Aggregates.group(null, Accumulators.sum("millis", new Document("$subtract", Arrays.asList("$pickupTime", "$requestTime"))),
+                        Accumulators.sum("count", 1)))).allowDiskUse(true)) {
+            counters.put("wait millis", number(group, "millis"));
+            counters.put("wait count", number(group, "count"));
+        }
+        try {
+            RideArchive.forEachRide(ride -> contribute(ride, 1, counters));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Archived rides can not be counted", e);
+        }
+        return counters;
+    }
+
+    // replace each counter document, then delete the ones left
+    private static void write(Map<String, Long> counters) {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            int space = counter.getKey().lastIndexOf(' ');
+            String id = counter.getKey().substring(0, space);
+            documents.computeIfAbsent(id, key -> new Document("_id", key)).append(counter.getKey().substring(space + 1), counter.getValue());
+        }
+        List<WriteModel<Document>> replacements = new ArrayList<>();
+        for (Document document : documents.values()) {
+            replacements.add(new ReplaceOneModel<>(Filters.eq("_id", document.get("_id")), document, new ReplaceOptions().upsert(true)));
+        }
+        MongoCollection<Document> stats = collection();
+        stats.bulkWrite(replacements, new BulkWriteOptions().ordered(false));
+        stats.deleteMany(Filters.nin("_id", new ArrayList<>(documents.keySet())));
+    }
+
+    private static void contribute(Ride ride, int sign, Map<String, Long> counters) {
+        add(counters, "all", "count", sign);
+        if (ride.getStatus() != null) {
+            add(counters, "status:" + ride.getStatus(), "count", sign);
+        }
+        if (ride.getRideType() != null) {
+            add(counters, "rideType:" + ride.getRideType(), "count", sign);
+        }
+        if (ride.getRequestTime() != null && "CLOSED".equals(ride.getStatus())) {
+            String day = "day:" + LocalDate.ofEpochDay(Math.floorDiv(ride.getRequestTime().longValue(), DAY_MILLIS));
+            add(counters, day, "revenue", sign * (long) ride.getFare());
+            add(counters, day, "rides", sign);
+        }
+        if (ride.getRequestTime() != null && ride.getPickupTime() != null) {
+            add(counters, "wait", "millis", sign * (ride.getPickupTime().longValue() - ride.getRequestTime().longValue()));
+            add(counters, "wait", "count", sign);
+        }
+    }
+
+    private static void add(Map<String, Long> counters, String id, String field, long delta) {
+        counters.merge(id + " " + field, delta, Long::sum);
+    }
+
+    private static long number(Document document, String field) {
+        Object value = document.get(field);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static void putIfPositive(Map<String, Object> map, String key, long value) {
+        if (value > 0) {
+            map.put(key, value);
+        }
+    }
+
+    private static MongoCollection<Document> collection() {
+        MongoDatabase database = MongoConfiguration.database();
+        return database.getCollection(COLLECTION);
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Stats Controller, fleet-wide ride statistics for the ops dashboards
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.stats;
+
+import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.UberAppUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Route;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+
+/**
+ * StatsController: stats routes, answered from the ride counters
+ */
+public class StatsController extends UberAppUtil {
+    private static final Logger logger = LoggerFactory.getLogger(StatsController.class);
+
+    // revenue per day covers the last 30 days by default, a year at most
+    private static final int DEFAULT_DAYS = 30;
+    private static final int MAX_DAYS = 366;
+
+    /**
+     * GET /stats/rides?from=&to=  Ride counts, revenue & pickup wait of the whole fleet
+     *      from, to: days of the revenue per day (yyyy-mm-dd, UTC), default the last 30 days
+     * {
+     *  "rides": 120453,
+     *  "byStatus": {"AWAITING_DRIVER": 12, "CLOSED": 120102, "DRIVE_ASSIGNED": 339},
+     *  "byRideType": {"ECONOMY": 100211, "PREMIUM": 15032, "COACH": 5210},
+     *  "revenuePerDay": {"2016-11-25": 18210, "2016-11-26": 20412},
+     *  "averagePickupWaitSeconds": 312.5
+     * }
+     * @return Map  counters as of the last flush
+     */
+    public static Route getRides = (req, res) -> {
+        res.type("application/json");
+        LocalDate from;
+        LocalDate to;
+        try {
+            to = req.queryParams("to") == null ? LocalDate.now(ZoneOffset.UTC) : LocalDate.parse(req.queryParams("to"));
+            from = req.queryParams("from") == null ? to.minusDays(DEFAULT_DAYS - 1) : LocalDate.parse(req.queryParams("from"));
+        } catch (DateTimeParseException e) {
+            res.status(400);
+            return ErrorReport.toBytes(8201, "from & to should be days, yyyy-mm-dd");
+        }
+        if (from.isAfter(to) || from.plusDays(MAX_DAYS).isBefore(to)) {
+            res.status(400);
+            return ErrorReport.toBytes(8201, "from should be before to, at most " + MAX_DAYS + " days apart");
+        }
+        res.status(200);
+        return dataToJson(RideStats.read(from, to));
+    };
+
+    /**
+     * POST /stats/rides/rebuild  Recompute the counters from the rides, in the background
+     *      token query param or x-access-token header: a valid token, 401 without
+     * {"rebuilding": true}
+     * @return Map  202, or 409 when a rebuild is already running
+     */
+    public static Route rebuild = (req, res) -> {
+        res.type("application/json");
+        if (RideStats.isRebuilding()) {
+            res.status(409);
+            return dataToJson(Collections.singletonMap("rebuilding", true));
+        }
+        Thread rebuild = new Thread(() -> {
+            try {
+                RideStats.rebuild();
+            } catch (RuntimeException e) {
+                logger.error("Ride statistics rebuild failed", e);
+            }
+        }, "ride-stats-rebuild");
+        rebuild.setDaemon(true);
+        rebuild.start();
+        res.status(202);
+        return dataToJson(Collections.singletonMap("rebuilding", true));
+    };
+}
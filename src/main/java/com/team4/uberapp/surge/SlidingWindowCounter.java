@@ -0,0 +1,58 @@
+/**
+ * SlidingWindowCounter: events of the last N seconds, in a ring of per second buckets
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.surge;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Each bucket packs the second it belongs to (high 32 bits) with its count (low 32 bits) in one long,
+ * so a stale bucket is reset and incremented by the same compare-and-set: no lock, no lost update.
+ * Buckets older than the window are skipped by sum(), nothing has to clear them.
+ */
+public class SlidingWindowCounter {
+    private static final long COUNT_MASK = 0xffffffffL;
+
+    private final AtomicLongArray buckets;
+    private final int windowSeconds;
+
+    public SlidingWindowCounter(int windowSeconds) {
+        this.windowSeconds = windowSeconds;
+        this.buckets = new AtomicLongArray(windowSeconds);
+    }
+
+    /**
+     * Count one event, O(1)
+     * @param second current time in seconds
+     */
+    public void increment(long second) {
+        int slot = (int) (second % windowSeconds);
+        long stamp = second << 32;
+        while (true) {
+            long bucket = buckets.get(slot);
+            long next = (bucket & ~COUNT_MASK) == stamp ? bucket + 1 : stamp | 1;
+            if (buckets.compareAndSet(slot, bucket, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Events of the window ending at second
+     * @param second current time in seconds
+     * @return long - number of events of the last windowSeconds seconds
+     */
+    public long sum(long second) {
+        long sum = 0;
+        for (int slot = 0; slot < windowSeconds; slot++) {
+            long bucket = buckets.get(slot);
+            if (second - (bucket >>> 32) < windowSeconds) {
+                sum += bucket & COUNT_MASK;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Surge Controller, current fare multipliers of an area
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.surge;
+
+import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.GeoCells;
+import com.team4.uberapp.util.UberAppUtil;
+import spark.Route;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SurgeController: surge routes, answered from memory
+ */
+public class SurgeController extends UberAppUtil {
+    /**
+     * GET /surge?lat=&lng=  Fare multipliers of the cell of a position, per rideType
+     * {
+     *  "cell": "3733:-12204",
+     *  "multipliers": {
+     *    "ECONOMY": 1.4,
+     *    "PREMIUM": 1.0,
+     *    "EXECUTIVE": 1.0
+     *  }
+     * }
+     * @return Map<String, Object>  cell & multipliers
+     */
+    public static Route getSurge = (req, res) -> {
+        res.type("application/json");
+        double lat;
+        double lng;
+        try {
+            lat = Double.parseDouble(req.queryParams("lat"));
+            lng = Double.parseDouble(req.queryParams("lng"));
+        } catch (NullPointerException | NumberFormatException e) {
+            res.status(400);
+            return ErrorReport.toBytes(6001, "lat & lng are required numbers");
+        }
+        if (Math.abs(lat) > 90 || Math.abs(lng) > 180) {
+            res.status(400);
+            return ErrorReport.toBytes(6001, "lat & lng are out of range");
+        }
+
+        double[] multipliers = SurgeEngine.multipliers(lat, lng);
+        Map<String, Double> byRideType = new LinkedHashMap<>();
+        for (int i = 0; i < SurgeEngine.RIDE_TYPES.length; i++) {
+            byRideType.put(SurgeEngine.RIDE_TYPES[i], multipliers[i]);
+        }
+        Map<String, Object> surge = new LinkedHashMap<>();
+        surge.put("cell", GeoCells.name(SurgeEngine.cellKey(lat, lng)));
+        surge.put("multipliers", byRideType);
+        res.status(200);
+        return dataToJson(surge);
+    };
+}
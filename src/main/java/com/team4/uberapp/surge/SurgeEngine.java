@@ -0,0 +1,192 @@
+/**
+ * SurgeEngine: supply & demand per geo cell and the resulting fare multipliers
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.surge;
+
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.util.GeoCells;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Demand is the rides requested from a cell, supply the drivers becoming available in it (a driver is free
+ * again where a ride is closed), both per rideType over a sliding window of surge.windowSeconds.
+ *
+ * Recording an event is a map lookup and one CAS. Multipliers are recomputed for all cells once per second
+ * in the background and published as an immutable array, GET /surge only reads it.
+ * Cells without any event in the window are dropped by the recompute.
+ */
+public class SurgeEngine {
+    private static final Logger logger = LoggerFactory.getLogger(SurgeEngine.class);
+
+    public static final String[] RIDE_TYPES = {"ECONOMY", "PREMIUM", "EXECUTIVE"};
+    private static final double[] NO_SURGE = {1.0, 1.0, 1.0};
+    private static final long RECOMPUTE_MILLIS = 1000;
+
+    private static final ConcurrentHashMap<Long, Cell> cells = new ConcurrentHashMap<>();
+
+    private static double cellDegrees = 0.01;
+    private static int windowSeconds = 300;
+    private static double maxMultiplier = 3.0;
+    private static double sensitivity = 0.5;
+    private static int minRequests = 5;
+
+    private static ScheduledExecutorService recompute;
+    private static volatile long lastRecomputeMicros = -1;
+
+    /**
+     * Read the surge.* settings & schedule the recompute, only the first call does it
+     * @param properties application configuration
+     */
+    public static synchronized void start(Properties properties) {
+        if (recompute != null) {
+            return;
+        }
+        cellDegrees = properties.getSurgeCellDegrees();
+        windowSeconds = properties.getSurgeWindowSeconds();
+        maxMultiplier = properties.getSurgeMaxMultiplier();
+        sensitivity = properties.getSurgeSensitivity();
+        minRequests = properties.getSurgeMinRequests();
+        recompute = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "surge-recompute");
+            thread.setDaemon(true);
+            return thread;
+        });
+        recompute.scheduleAtFixedRate(SurgeEngine::recomputeAll, RECOMPUTE_MILLIS, RECOMPUTE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A ride was requested
+     * @param lat start latitude
+     * @param lng start longitude
+     * @param rideType ECONOMY, PREMIUM or EXECUTIVE
+     */
+    public static void recordRequest(Number lat, Number lng, String rideType) {
+        int type = rideTypeIndex(rideType);
+        if (lat == null || lng == null || type < 0) {
+            return;
+        }
+        cell(lat.doubleValue(), lng.doubleValue()).demand[type].increment(nowSecond());
+    }
+
+    /**
+     * A driver became available
+     * @param lat latitude of the driver
+     * @param lng longitude of the driver
+     * @param rideType ride type the driver serves
+     */
+    public static void recordAvailableDriver(Number lat, Number lng, String rideType) {
+        int type = rideTypeIndex(rideType);
+        if (lat == null || lng == null || type < 0) {
+            return;
+        }
+        cell(lat.doubleValue(), lng.doubleValue()).supply[type].increment(nowSecond());
+    }
+
+    /**
+     * Current multipliers of the cell of a position
+     * @param lat latitude
+     * @param lng longitude
+     * @return double[] - one multiplier per RIDE_TYPES entry, must not be modified
+     */
+    public static double[] multipliers(double lat, double lng) {
+        Cell cell = cells.get(GeoCells.key(lat, lng, cellDegrees));
+        return cell == null ? NO_SURGE : cell.multipliers;
+    }
+
+    public static long cellKey(double lat, double lng) {
+        return GeoCells.key(lat, lng, cellDegrees);
+    }
+
+    public static int getCellCount() {
+        return cells.size();
+    }
+
+    public static long getLastRecomputeMicros() {
+        return lastRecomputeMicros;
+    }
+
+    static void recomputeAll() {
+        recomputeAll(nowSecond());
+    }
+
+    // recompute at a given second, the windows end there
+    static void recomputeAll(long second) {
+        long start = System.nanoTime();
+        try {
+            // an event racing with the removal of an idle cell can be lost, harmless for a rate
+            for (Iterator<Map.Entry<Long, Cell>> it = cells.entrySet().iterator(); it.hasNext(); ) {
+                if (!it.next().getValue().recompute(second)) {
+                    it.remove();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Surge recompute failed", e);
+        }
+        lastRecomputeMicros = (System.nanoTime() - start) / 1000;
+    }
+
+    // 1 until the demand is significant, then grows with the requests in excess of the available drivers
+    static double multiplier(long demand, long supply) {
+        if (demand < minRequests || demand <= supply) {
+            return 1.0;
+        }
+        double surge = 1.0 + sensitivity * (demand - supply) / Math.max(supply, 1);
+        return Math.round(Math.min(surge, maxMultiplier) * 10) / 10.0;
+    }
+
+    private static Cell cell(double lat, double lng) {
+        return cells.computeIfAbsent(GeoCells.key(lat, lng, cellDegrees), key -> new Cell());
+    }
+
+    private static long nowSecond() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private static int rideTypeIndex(String rideType) {
+        for (int i = 0; i < RIDE_TYPES.length; i++) {
+            if (RIDE_TYPES[i].equals(rideType)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class Cell {
+        private final SlidingWindowCounter[] demand = new SlidingWindowCounter[RIDE_TYPES.length];
+        private final SlidingWindowCounter[] supply = new SlidingWindowCounter[RIDE_TYPES.length];
+        private volatile double[] multipliers = NO_SURGE;
+
+        private Cell() {
+            for (int i = 0; i < RIDE_TYPES.length; i++) {
+                demand[i] = new SlidingWindowCounter(windowSeconds);
+                supply[i] = new SlidingWindowCounter(windowSeconds);
+            }
+        }
+
+        // false when the cell had no event during the whole window
+        private boolean recompute(long second) {
+            double[] next = new double[RIDE_TYPES.length];
+            long events = 0;
+            for (int i = 0; i < RIDE_TYPES.length; i++) {
+                long requested = demand[i].sum(second);
+                long available = supply[i].sum(second);
+                events += requested + available;
+                next[i] = multiplier(requested, available);
+            }
+            multipliers = Arrays.equals(next, NO_SURGE) ? NO_SURGE : next;
+            return events > 0;
+        }
+    }
+}
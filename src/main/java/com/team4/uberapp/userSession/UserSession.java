@@ -11,17 +11,21 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.team4.uberapp.domain.Validable;
-import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.TimeOrderedIds;
+import com.team4.uberapp.validation.*;
 
 import java.util.UUID;
 
 
 //@Data
 @JsonIgnoreProperties( { "id" })
+@ErrorCode(5001)
 public class UserSession implements Validable, Cloneable {
     private UUID id;
     //private DateTime creationDate = new DateTime();
+    @Length(min = 1, max = 50, message = "email at most 50 Characters")
     private String email;
+    @Required(message = "Password is empty")
     private String password;
     private String token;
 
@@ -37,7 +41,7 @@ public class UserSession implements Validable, Cloneable {
      * @param password the password
      */
     public UserSession(String email, String password) {
-        //this.id = UUID.randomUUID();
+        //this.id = TimeOrderedIds.next();
         this.email   = email;
         this.password  =  password;
         //generate token
@@ -75,14 +79,7 @@ public class UserSession implements Validable, Cloneable {
     }
 
     public boolean isValid() throws Exception {
-        //Could set up any additional validation rule
-        if (this.email.isEmpty() || this.email.length() > 50) {
-            throw new Exception(ErrorReport.toJson(5001, "email at most 50 Characters"));
-        }
-        if (this.password.isEmpty() ) {
-            throw new Exception(ErrorReport.toJson(5001, "Password is empty"));
-        }
-        return true;
+        return Validator.check(this);
     }
 
     public Object clone() throws CloneNotSupportedException {
@@ -8,13 +8,16 @@
  */
 package com.team4.uberapp.userSession;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.team4.uberapp.MongoConfiguration;
 import com.team4.uberapp.domain.Repositories;
 import com.team4.uberapp.driver.Driver;
 import com.team4.uberapp.passenger.Passenger;
 import com.team4.uberapp.persistence.MongoRepositories;
+import com.team4.uberapp.util.ErrorReport;
+import com.team4.uberapp.util.JsonResponses;
+import com.team4.uberapp.util.TimeOrderedIds;
 import com.team4.uberapp.util.UberAppUtil;
+import com.team4.uberapp.validation.Violation;
 import org.mongolink.MongoSession;
 import org.mongolink.domain.criteria.Criteria;
 import org.mongolink.domain.criteria.Order;
@@ -54,7 +57,7 @@ public class UserSessionController extends UberAppUtil {
                     session.stop();
                     res.status(200);
                     res.type("applicaiton/json");
-                    return dataToJson("Wrong query params :" + param);
+                    return JsonResponses.wrongQueryParams(param);
                 }
                 if (param.compareTo("count") == 0)  {
                     criteria.limit(Integer.parseInt(req.queryParams(param)));
@@ -78,7 +81,7 @@ public class UserSessionController extends UberAppUtil {
                 session.stop();
                 res.status(200);
                 res.type("applicaiton/json");
-                return dataToJson("sort & sortOrder params must be in pair.");
+                return JsonResponses.SORT_PARAMS_NOT_IN_PAIR;
             }
             userSessions = criteria.list();
         }
@@ -89,7 +92,7 @@ public class UserSessionController extends UberAppUtil {
         res.status(200);
         res.type("application/json");
         if (userSessions.size() == 0) {
-            return dataToJson("No user session");
+            return JsonResponses.NO_USER_SESSION;
         } else {
             return dataToJson(userSessions);
         }
@@ -117,19 +120,18 @@ public class UserSessionController extends UberAppUtil {
         try {
             Map<String, String> token = new HashMap<String, String>();
             try {
-                ObjectMapper mapper = new ObjectMapper();
-                userSession = mapper.readValue(req.body(), UserSession.class);
+                userSession = jsonToData(req.body(), UserSession.class);
             } catch (Exception e) {
                 res.status(400);
                 res.type("application/json");
                 return dataToJson(e.getMessage());
             }
-            try {
-                userSession.isValid();
-            } catch (Exception e){
+            List<Violation> violations = userSession.violations();
+            if (!violations.isEmpty()) {
+                session.stop();
                 res.status(400);
                 res.type("application/json");
-                return dataToJson(e.getMessage());
+                return ErrorReport.toBytes(violations);
             }
 
             // find driver by email address
@@ -143,7 +145,7 @@ public class UserSessionController extends UberAppUtil {
                     if (checkPassword(userSession.getPassword(),driver.getPassword())) {
                         // cleanup session
                         session.clear();
-                        userSession.setId(UUID.randomUUID());
+                        userSession.setId(TimeOrderedIds.next());
                         // hash password
                         userSession.setPassword(hashPassword(userSession.getPassword()));
                         // generate session token
@@ -165,7 +167,7 @@ public class UserSessionController extends UberAppUtil {
                         session.stop();
                         res.status(401);
                         res.type("application/json");
-                        return dataToJson("Log in failed. Password failed");
+                        return JsonResponses.LOGIN_FAILED_PASSWORD;
                     }
                 }
             }
@@ -181,7 +183,7 @@ public class UserSessionController extends UberAppUtil {
                     if (checkPassword(userSession.getPassword(),passenger.getPassword())) {
                         // cleanup session
                         session.clear();
-                        userSession.setId(UUID.randomUUID());
+                        userSession.setId(TimeOrderedIds.next());
                         // hash password
                         userSession.setPassword(hashPassword(userSession.getPassword()));
                         // generate session token
@@ -204,14 +206,14 @@ public class UserSessionController extends UberAppUtil {
                         session.stop();
                         res.status(401);
                         res.type("application/json");
-                        return dataToJson("Log in failed. Password failed");
+                        return JsonResponses.LOGIN_FAILED_PASSWORD;
                     }
                 }
             }
             session.stop();
             res.status(401);
             res.type("application/json");
-            return dataToJson("Log in failed. No user found");
+            return JsonResponses.LOGIN_FAILED_NO_USER;
         }  catch (Exception e){
             session.stop();
             res.type("application/json");
@@ -0,0 +1,175 @@
+/**
+ * DataFormat: json & the binary formats negotiated with Accept and Content-Type
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The binary formats go through the same Jackson databinding as json, with the same annotations, only the
+ * encoding differs: numbers are written as binary numbers instead of text, ids as 16 bytes instead of 36
+ * characters, and Smile back-references repeated field names. Each has its own ObjectMapper, thread safe
+ * once configured like the json one.
+ */
+public enum DataFormat {
+    JSON("application/json", null),
+    CBOR("application/cbor", new ObjectMapper(new CBORFactory())),
+    SMILE("application/x-jackson-smile", new ObjectMapper(new SmileFactory())),
+    MSGPACK("application/x-msgpack", new ObjectMapper(new MessagePackFactory()), "application/msgpack",
+            "application/vnd.msgpack");
+
+    private final String contentType;
+    private final ObjectMapper mapper;
+    private final String[] aliases;
+
+    DataFormat(String contentType, ObjectMapper mapper, String... aliases) {
+        this.contentType = contentType;
+        this.mapper = mapper;
+        this.aliases = aliases;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public boolean isBinary() {
+        return this != JSON;
+    }
+
+    /**
+     * Format of a response
+     * @param accept Accept header
+     * @return DataFormat - the supported format with the highest q, a listed one before a wildcard; json when none
+     * is listed, null when json is refused, e.g. application/json;q=0, and no other format is acceptable
+     */
+    public static DataFormat accepted(String accept) {
+        if (accept == null || accept.trim().isEmpty()) {
+            return JSON;
+        }
+        DataFormat[] formats = values();
+        double[] listed = new double[formats.length];
+        int[] positions = new int[formats.length];
+        Arrays.fill(listed, -1);
+        double any = -1;
+        String[] ranges = accept.split(",");
+        for (int position = 0; position < ranges.length; position++) {
+            String[] parts = ranges[position].split(";");
+            String type = parts[0].trim().toLowerCase();
+            DataFormat format = of(type);
+            if (format != null) {
+                listed[format.ordinal()] = quality(parts);
+                positions[format.ordinal()] = position;
+            } else if (type.equals("*/*") || type.equals("application/*")) {
+                any = Math.max(any, quality(parts));
+            }
+        }
+        // a tie goes to the format listed first, then to one of a wildcard, json first
+        DataFormat best = null;
+        double bestQ = 0;
+        int bestPosition = Integer.MAX_VALUE;
+        for (DataFormat format : formats) {
+            boolean isListed = listed[format.ordinal()] >= 0;
+            double q = isListed ? listed[format.ordinal()] : any;
+            int position = isListed ? positions[format.ordinal()] : Integer.MAX_VALUE;
+            if (q > bestQ || (q > 0 && q == bestQ && position < bestPosition)) {
+                best = format;
+                bestQ = q;
+                bestPosition = position;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        double json = listed[JSON.ordinal()] >= 0 ? listed[JSON.ordinal()] : any;
+        return json == 0 ? null : JSON;
+    }
+
+    private static double quality(String[] parts) {
+        double q = 1;
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    q = Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    q = 0;
+                }
+            }
+        }
+        return q;
+    }
+
+    /**
+     * Format of a request body
+     * @param contentType Content-Type header
+     * @return DataFormat - json unless it is one of the binary formats, as before they existed
+     */
+    public static DataFormat ofContent(String contentType) {
+        DataFormat format = contentType == null ? null : of(contentType.split(";")[0]);
+        return format == null ? JSON : format;
+    }
+
+    private static DataFormat of(String mediaType) {
+        String type = mediaType.trim().toLowerCase();
+        for (DataFormat format : values()) {
+            if (format.contentType.equals(type)) {
+                return format;
+            }
+            for (String alias : format.aliases) {
+                if (alias.equals(type)) {
+                    return format;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * ETag of a representation in this format, each format has its own bytes
+     * @param etag json ETag, quoted
+     * @return String - the same for json, else suffixed with the format
+     */
+    public String etag(String etag) {
+        if (this == JSON || etag == null) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "+" + name().toLowerCase() + "\"";
+    }
+
+    /**
+     * Serialize in this format
+     * @param data Java Object need to convert
+     * @return byte[] - serialized object
+     */
+    public byte[] write(Object data) {
+        try {
+            return mapper().writeValueAsBytes(data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Deserialize from this format
+     * @param data serialized object, usually a request body
+     * @param type class of the object
+     * @return T - deserialized object
+     * @throws IOException if data is not valid for the format or the type
+     */
+    public <T> T read(byte[] data, Class<T> type) throws IOException {
+        return mapper().readValue(data, type);
+    }
+
+    private ObjectMapper mapper() {
+        return mapper == null ? UberAppUtil.jsonMapper() : mapper;
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * ETags: conditional GET, If-None-Match answered with 304
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.util;
+
+import spark.Request;
+import spark.Response;
+
+/**
+ * An entity is tagged with its version, "3", a list with the version of its collection, "c17".
+ */
+public class ETags {
+
+    /**
+     * ETag of an entity
+     * @param version version of the entity
+     * @return String - null when the entity does not exist
+     */
+    public static String entity(Long version) {
+        return version == null ? null : "\"" + version + "\"";
+    }
+
+    /**
+     * ETag of a list
+     * @param version version of the collection, read before the list
+     * @return String - quoted etag
+     */
+    public static String collection(long version) {
+        return "\"c" + version + "\"";
+    }
+
+    /**
+     * Answer 304 when If-None-Match holds the current ETag
+     * @param req request
+     * @param res response, status 304 & ETag set when not modified
+     * @param etag current ETag, null if unknown
+     * @return boolean - true if the route should return an empty body
+     */
+    public static boolean notModified(Request req, Response res, String etag) {
+        String ifNoneMatch = req.headers("If-None-Match");
+        if (etag == null || ifNoneMatch == null || !matches(ifNoneMatch, etag)) {
+            return false;
+        }
+        res.header("ETag", etag);
+        res.status(304);
+        return true;
+    }
+
+    // If-None-Match is "*" or a list of etags, compared weakly
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,13 +1,25 @@
 package com.team4.uberapp.util;
 
-import com.google.gson.Gson;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.team4.uberapp.validation.Violation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 /**
  * Created by HectorGuo on 11/17/16.
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class ErrorReport {
+    // error bodies stay on one line, like before
+    private static final ObjectWriter writer = UberAppUtil.jsonMapper().writer().without(SerializationFeature.INDENT_OUTPUT);
+
     private int errorCode;
     private String errorMsg;
+    private List<Violation> violations;
 
     /**
      * Instantiates a new Error report.
@@ -20,6 +32,18 @@ public class ErrorReport {
         this.errorMsg = errorMsg;
     }
 
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    public String getErrorMsg() {
+        return errorMsg;
+    }
+
+    public List<Violation> getViolations() {
+        return violations;
+    }
+
     /**
      * Generate standard error report
      * @param errorCode error code
@@ -27,8 +51,56 @@ public class ErrorReport {
      * @return string - json string
      */
     public static String toJson(int errorCode, String errorMsg) {
-        Gson gson = new Gson();
-        ErrorReport err = new ErrorReport(errorCode, errorMsg);
-        return gson.toJson(err);
+        return write(new ErrorReport(errorCode, errorMsg));
+    }
+
+    /**
+     * Generate error report of a failed validation, errorMsg is the first violation
+     * @param violations violations of one entity, not empty
+     * @return string - json string
+     */
+    public static String toJson(List<Violation> violations) {
+        return write(of(violations));
+    }
+
+    /**
+     * Error report of a failed validation, errorMsg is the first violation
+     * @param violations violations of one entity, not empty
+     * @return ErrorReport - to send inside another response
+     */
+    public static ErrorReport of(List<Violation> violations) {
+        ErrorReport err = new ErrorReport(violations.get(0).getErrorCode(), violations.get(0).getMessage());
+        err.violations = violations;
+        return err;
+    }
+
+    /**
+     * Encode a fixed error report once, for the responses sent as is
+     * @param errorCode error code
+     * @param errorMsg error detail
+     * @return byte[] - utf-8 json
+     */
+    public static byte[] toBytes(int errorCode, String errorMsg) {
+        return toJson(errorCode, errorMsg).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Error report of a failed validation as utf-8 json, pre-encoded when only one constraint failed
+     * @param violations violations of one entity, not empty
+     * @return byte[] - utf-8 json
+     */
+    public static byte[] toBytes(List<Violation> violations) {
+        if (violations.size() == 1 && violations.get(0).getReport() != null) {
+            return violations.get(0).getReport();
+        }
+        return toJson(violations).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String write(ErrorReport err) {
+        try {
+            return writer.writeValueAsString(err);
+        } catch (JsonProcessingException e) {
+            return e.getMessage();
+        }
     }
 }
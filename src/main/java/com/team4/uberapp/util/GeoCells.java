@@ -0,0 +1,57 @@
+/**
+ * GeoCells: square lat/lng grid used to aggregate rides by area
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.util;
+
+/**
+ * A cell is identified by the floor of lat and lng divided by the cell size, packed in one long
+ * so it can key a map without allocating. 0.01 degree is about 1.1 km of latitude.
+ */
+public class GeoCells {
+    private static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    /**
+     * Cell of a position
+     * @param lat latitude in degrees
+     * @param lng longitude in degrees
+     * @param cellDegrees cell size in degrees
+     * @return long - cell key
+     */
+    public static long key(double lat, double lng, double cellDegrees) {
+        long row = (long) Math.floor(lat / cellDegrees);
+        long column = (long) Math.floor(lng / cellDegrees);
+        return (row << 32) | (column & 0xffffffffL);
+    }
+
+    public static int row(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int column(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Great circle distance (haversine)
+     * @return double - distance in meters
+     */
+    public static double distanceMeters(double fromLat, double fromLng, double toLat, double toLng) {
+        double dLat = Math.toRadians(toLat - fromLat);
+        double dLng = Math.toRadians(toLng - fromLng);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(fromLat)) * Math.cos(Math.toRadians(toLat)) * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Readable cell name, "row:column"
+     * @param key cell key
+     * @return String - name of the cell
+     */
+    public static String name(long key) {
+        return row(key) + ":" + column(key);
+    }
+}
@@ -0,0 +1,48 @@
+package com.team4.uberapp.util;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed response bodies, encoded to utf-8 json once when the class is loaded.
+ * Routes return the arrays as is, they must never be modified.
+ */
+public class JsonResponses {
+    public static final byte[] RIDE_UPDATED = encode("Ride Updated");
+    public static final byte[] RIDE_DELETED = encode("Ride Deleted");
+    public static final byte[] NO_ACTIVE_RIDE = encode("No active ride");
+    public static final byte[] DRIVER_DELETED = encode("Driver Deleted");
+    public static final byte[] SORT_PARAMS_NOT_IN_PAIR = encode("sort & sortOrder params must be in pair.");
+    public static final byte[] NO_USER_SESSION = encode("No user session");
+    public static final byte[] LOGIN_FAILED_PASSWORD = encode("Log in failed. Password failed");
+    public static final byte[] LOGIN_FAILED_NO_USER = encode("Log in failed. No user found");
+
+    public static final byte[] SERVER_BUSY = ErrorReport.toBytes(9001, "Server is busy, please retry later");
+    public static final byte[] SERVER_WARMING_UP = ErrorReport.toBytes(9002, "Server is warming up");
+    public static final byte[] EVENT_LOG_UNAVAILABLE = ErrorReport.toBytes(9003, "Event log is not available");
+    public static final byte[] TOO_MANY_REQUESTS = ErrorReport.toBytes(9004, "Too many requests, please retry later");
+    public static final String NOT_ACCEPTABLE = ErrorReport.toJson(9005, "Accept refuses every format of the response: "
+            + "application/json, application/cbor, application/x-jackson-smile, application/x-msgpack");
+
+    // "Wrong query params :<param>", only the param is encoded per request
+    private static final byte[] WRONG_QUERY_PARAMS_PREFIX = "\"Wrong query params :".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Body of the 400 answered to an unknown query param
+     * @param param the unknown query param
+     * @return byte[] - utf-8 json string
+     */
+    public static byte[] wrongQueryParams(String param) {
+        byte[] quoted = JsonStringEncoder.getInstance().quoteAsUTF8(param);
+        byte[] body = new byte[WRONG_QUERY_PARAMS_PREFIX.length + quoted.length + 1];
+        System.arraycopy(WRONG_QUERY_PARAMS_PREFIX, 0, body, 0, WRONG_QUERY_PARAMS_PREFIX.length);
+        System.arraycopy(quoted, 0, body, WRONG_QUERY_PARAMS_PREFIX.length, quoted.length);
+        body[body.length - 1] = '"';
+        return body;
+    }
+
+    private static byte[] encode(Object data) {
+        return UberAppUtil.dataToJson(data).getBytes(StandardCharsets.UTF_8);
+    }
+}
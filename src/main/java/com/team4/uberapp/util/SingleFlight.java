@@ -0,0 +1,154 @@
+/**
+ * SingleFlight: one load shared by the concurrent requests for the same key
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The first request for a key runs the load on its own thread, requests for the same key arriving before it
+ * completes wait for it & get the same response, whose body must never be modified. Nothing is cached: the
+ * key is forgotten once the load completes, the next request loads again.
+ *
+ * A write calls forget(key), so the requests arriving after the write start a new load instead of joining
+ * one that may have read the entity before the write.
+ *
+ * @param <K> key type
+ */
+public class SingleFlight<K> {
+    // by name, for the metrics
+    private static final Map<String, SingleFlight<?>> flights = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * A response to share: status, utf-8 json body & ETag
+     */
+    public static class Response {
+        private final int status;
+        private final byte[] body;
+        private final String etag;
+
+        public Response(int status, byte[] body) {
+            this(status, body, null);
+        }
+
+        public Response(int status, byte[] body, String etag) {
+            this.status = status;
+            this.body = body;
+            this.etag = etag;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        // null when the response has no version
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    /**
+     * The load of a response
+     * @param <K> key type
+     */
+    public interface Loader<K> {
+        Response load(K key) throws Exception;
+    }
+
+    private final ConcurrentHashMap<K, CompletableFuture<Response>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+
+    /**
+     * Instantiates a single flight group
+     * @param name name in the metrics
+     */
+    public SingleFlight(String name) {
+        flights.put(name, this);
+    }
+
+    /**
+     * Response for a key, loaded by this request or shared with the one loading it
+     * @param key key
+     * @param loader load run when no request for the key is in flight
+     * @return Response - the same instance for all the requests sharing the load
+     * @throws Exception thrown by the load, to every request sharing it
+     */
+    public Response load(K key, Loader<K> loader) throws Exception {
+        requests.increment();
+        CompletableFuture<Response> flight = inFlight.get(key);
+        if (flight == null) {
+            CompletableFuture<Response> started = new CompletableFuture<>();
+            flight = inFlight.putIfAbsent(key, started);
+            if (flight == null) {
+                loads.increment();
+                try {
+                    started.complete(loader.load(key));
+                } catch (Exception | Error e) {
+                    started.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(key, started);
+                }
+                flight = started;
+            }
+        }
+        try {
+            return flight.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * The entity changed, the requests from now on do not join the load in flight
+     * @param key key
+     */
+    public void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * Statistics of all the single flight groups
+     * @return Map<String, Object> - requests, loads & coalesced requests ratio by group name
+     */
+    public static Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (flights) {
+            for (Map.Entry<String, SingleFlight<?>> flight : flights.entrySet()) {
+                long requests = flight.getValue().getRequestCount();
+                long loads = flight.getValue().getLoadCount();
+                Map<String, Object> group = new LinkedHashMap<>();
+                group.put("requests", requests);
+                group.put("loads", loads);
+                group.put("coalescedRatio", requests == 0 ? 0.0 : Math.round((requests - loads) * 1000.0 / requests) / 1000.0);
+                metrics.put(flight.getKey(), group);
+            }
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * TimeOrderedIds: UUIDv7 style identifiers, increasing with creation time
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.util;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Layout (RFC 9562 version 7): 48 bits unix time in ms, version, 12 bits sequence, variant, 62 random bits.
+ *
+ * The sequence keeps the ids of one JVM strictly increasing, also within one millisecond: when it overflows
+ * the next millisecond is borrowed. The STANDARD uuid representation, the default, stores them in this order, so
+ * that consecutive ids land next to each other in the _id index. JAVA_LEGACY stores each half byte reversed: the
+ * first stored byte is the low byte of the sequence and inserts spread over the whole B-tree as with random ids
+ * (see Properties.getDBUuidRepresentation & UuidMigration).
+ * The random part comes from ThreadLocalRandom, ids are unique but not secret, they are no access token.
+ */
+public class TimeOrderedIds {
+    private static final int SEQUENCE_BITS = 12;
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000000000000000L;
+
+    // (time in ms << 12) | sequence of the last id
+    private static final AtomicLong last = new AtomicLong();
+
+    /**
+     * Create a new id
+     * @return UUID - greater than all the ids created before by this JVM
+     */
+    public static UUID next() {
+        long now = System.currentTimeMillis() << SEQUENCE_BITS;
+        long previous;
+        long current;
+        do {
+            previous = last.get();
+            current = Math.max(now, previous + 1);
+        } while (!last.compareAndSet(previous, current));
+
+        long time = current >>> SEQUENCE_BITS;
+        long sequence = current & ((1L << SEQUENCE_BITS) - 1);
+        long msb = (time << 16) | VERSION | sequence;
+        long lsb = VARIANT | (ThreadLocalRandom.current().nextLong() >>> 2);
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * Creation time of an id made by next()
+     * @param id version 7 id
+     * @return long - unix time in ms
+     */
+    public static long timestamp(UUID id) {
+        return id.getMostSignificantBits() >>> 16;
+    }
+}
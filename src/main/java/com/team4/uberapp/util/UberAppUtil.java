@@ -1,23 +1,41 @@
 package com.team4.uberapp.util;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import io.jsonwebtoken.*;
 import org.mindrot.jbcrypt.BCrypt;
+import spark.Request;
+import spark.Response;
+import spark.Spark;
 
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
 import java.security.Key;
 import java.util.Date;
+import java.util.UUID;
 
 /**
  * Created by hectorguo on 2016/11/2
  * Modified by Lin Zhai on 11/17, add hash and token function.
  */
 public class UberAppUtil {
+    // the only json engine of the application, thread safe once configured
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    // single line json, for event streams & logs
+    private static final ObjectWriter compactWriter = mapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * Shared ObjectMapper, used for all json reading & writing
+     * @return ObjectMapper - must not be reconfigured
+     */
+    public static ObjectMapper jsonMapper() {
+        return mapper;
+    }
+
     /**
      * This method can be used to convert a java object to json string
      * Using ObjectMapper, This will work with jackson annotation
@@ -25,23 +43,114 @@ public class UberAppUtil {
      * @return String - serialized object string
      */
     public static String dataToJson(Object data) {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.enable(SerializationFeature.INDENT_OUTPUT);
         try {
             return mapper.writeValueAsString(data);
         } catch (JsonProcessingException e) {
             return e.getMessage();
         }
     }
+
+    /**
+     * Same as dataToJson, encoded to utf-8 without going through a String
+     * @param data Java Object need to convert
+     * @return byte[] - serialized object
+     */
+    public static byte[] dataToJsonBytes(Object data) {
+        try {
+            return mapper.writeValueAsBytes(data);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Same as dataToJson, on one line
+     * @param data Java Object need to convert
+     * @return String - serialized object string, without line breaks
+     */
+    public static String dataToCompactJson(Object data) {
+        try {
+            return compactWriter.writeValueAsString(data);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * This method can be used to convert a json string, usually a request body, to a java object
+     * @param data json format string
+     * @param type class of the object
+     * @return T - deserialized object
+     * @throws IOException if data is not valid json for the type
+     */
+    public static <T> T jsonToData(String data, Class<T> type) throws IOException {
+        return mapper.readValue(data, type);
+    }
+
     /**
      * This method can be used to convert a string to json object
      * @param data json format string
-     * @return String - deserialize into json object
+     * @return JsonNode - deserialize into json tree
+     * @throws IOException if data is not valid json
+     */
+    public static JsonNode stringToJson(String data) throws IOException {
+        return mapper.readTree(data);
+    }
+
+    /**
+     * Format of the response to a request, from its Accept header
+     * @param req request
+     * @param res response, told that it varies with Accept
+     * @return DataFormat - json unless the client prefers a binary format; halts with 406 if it refuses them all
      */
-    public static JsonObject stringToJson(String data) {
-        JsonParser parser = new JsonParser();
-        JsonObject o = parser.parse(data).getAsJsonObject();
-        return o;
+    public static DataFormat acceptedFormat(Request req, Response res) {
+        res.header("Vary", "Accept");
+        DataFormat format = DataFormat.accepted(req.headers("Accept"));
+        if (format == null) {
+            res.type("application/json");
+            Spark.halt(406, JsonResponses.NOT_ACCEPTABLE);
+        }
+        return format;
+    }
+
+    /**
+     * Same as dataToJson, in the given format
+     * @param data Java Object need to convert
+     * @param format format of the response
+     * @return Object - String for json, byte[] for the binary formats
+     */
+    public static Object dataToFormat(Object data, DataFormat format) {
+        return format.isBinary() ? format.write(data) : dataToJson(data);
+    }
+
+    /**
+     * Same as jsonToData, for a request body in the format of its Content-Type
+     * @param req request
+     * @param type class of the object
+     * @return T - deserialized object
+     * @throws IOException if the body is not valid for its format or the type
+     */
+    public static <T> T bodyToData(Request req, Class<T> type) throws IOException {
+        DataFormat format = DataFormat.ofContent(req.contentType());
+        return format.isBinary() ? format.read(req.bodyAsBytes(), type) : jsonToData(req.body(), type);
+    }
+
+    /**
+     * Answer to a PATCH whose entity was deleted or updated by another request since it was read
+     * @param res response
+     * @param entity entity name, as in the messages of the route
+     * @param errorCode error code of the conflict
+     * @param id entity id
+     * @param deleted whether the entity is gone
+     * @return Object - 404 message or 409 error report
+     */
+    public static Object notUpdated(Response res, String entity, int errorCode, UUID id, boolean deleted) {
+        if (deleted) {
+            res.status(404);
+            return dataToJson(entity + ": " + id + " not found");
+        }
+        res.status(409);
+        return ErrorReport.toBytes(errorCode, entity + " " + id + " changed since it was read, retry the update");
     }
 
     // Define the BCrypt workload to use when generating password hashes. 10-31 is a valid value.
@@ -81,6 +190,10 @@ public class UberAppUtil {
     private static String tokenSecret = "ilovecmu";
     // token ttl
     private static int tokenTTL = 12 * 3600 * 1000;
+    // built once: DefaultJwtParser only reads its settings while parsing, and each instance creates its own ObjectMapper
+    private static final JwtParser tokenParser = Jwts.parser().setSigningKey(DatatypeConverter.parseBase64Binary(tokenSecret));
+    private static final Key signingKey = new SecretKeySpec(DatatypeConverter.parseBase64Binary(tokenSecret),
+            SignatureAlgorithm.HS256.getJcaName());
     /**
      * This method can be used to generate token for use session, the token is encrypted and hashed
      * it contains username and expiration date.
@@ -96,9 +209,7 @@ public class UberAppUtil {
         long nowMillis = System.currentTimeMillis();
         Date now = new Date(nowMillis);
 
-        //We will sign our JWT with our ApiKey secret
-        byte[] apiKeySecretBytes = DatatypeConverter.parseBase64Binary(tokenSecret);
-        Key signingKey = new SecretKeySpec(apiKeySecretBytes, signatureAlgorithm.getJcaName());
+        //We will sign our JWT with our ApiKey secret (signingKey)
         Claims customClaims = Jwts.claims();
         customClaims.setIssuer("uberapp-team4");
         customClaims.setSubject("uberapp");
@@ -131,13 +242,13 @@ public class UberAppUtil {
     public static AppUser validTokenUser(String jwtToken) {
         //This line will throw an exception if it is not a signed JWS (as expected)
         try {
-            Claims claims = Jwts.parser()
-                    .setSigningKey(DatatypeConverter.parseBase64Binary(tokenSecret))
-                    .parseClaimsJws(jwtToken).getBody();
-            JsonObject jsonObject = (JsonObject) new JsonParser().parse(claims.toString());
+            Claims claims = tokenParser.parseClaimsJws(jwtToken).getBody();
+            // claims are already parsed, no need to go through json again
+            String userID = claims.get("userID", String.class);
+            String userType = claims.get("userType", String.class);
 
-            if ((claims.getExpiration().getTime() > System.currentTimeMillis()) && (jsonObject.get("userID")!=null) && (jsonObject.get("userType")!=null) ) {
-                return (new AppUser(jsonObject.get("userID").getAsString(),jsonObject.get("userType").getAsString()));
+            if ((claims.getExpiration().getTime() > System.currentTimeMillis()) && (userID != null) && (userType != null)) {
+                return (new AppUser(userID, userType));
             } else {
                 return null;
             }
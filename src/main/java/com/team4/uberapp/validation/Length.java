@@ -0,0 +1,22 @@
+/**
+ * Length: the string field must be set and its length within [min, max]
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.validation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Length {
+    int min() default 0;
+
+    int max() default Integer.MAX_VALUE;
+
+    String message();
+}
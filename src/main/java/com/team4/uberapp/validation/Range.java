@@ -0,0 +1,22 @@
+/**
+ * Range: the numeric field must be set and its value within [min, max]
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.validation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Range {
+    double min() default -Double.MAX_VALUE;
+
+    double max() default Double.MAX_VALUE;
+
+    String message();
+}
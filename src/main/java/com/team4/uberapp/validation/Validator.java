@@ -0,0 +1,227 @@
+/**
+ * Validator: constraint checks of an entity class, compiled once from its annotations
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.validation;
+
+import com.team4.uberapp.domain.Validable;
+import com.team4.uberapp.util.ErrorReport;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Fields are checked in declaration order, a field reports only its first failed constraint.
+ * Patterns are compiled, enum values hashed & violations pre-built when the class is first validated,
+ * no exception is thrown and the violation list is only allocated when something is wrong.
+ */
+public class Validator {
+    private static final ClassValue<Validator> validators = new ClassValue<Validator>() {
+        @Override
+        protected Validator computeValue(Class<?> type) {
+            return new Validator(type);
+        }
+    };
+
+    private final int errorCode;
+    private final FieldRules[] fields;
+
+    /**
+     * Get the validator of a class, built on first use
+     * @param type entity class
+     * @return Validator - shared, thread safe validator
+     */
+    public static Validator forClass(Class<?> type) {
+        return validators.get(type);
+    }
+
+    /**
+     * Validable.isValid() contract: true, or an Exception carrying the json error report
+     * @param entity entity to check
+     * @return boolean - true if valid
+     * @throws Exception with ErrorReport json message, listing all violations
+     */
+    public static boolean check(Validable entity) throws Exception {
+        List<Violation> violations = forClass(entity.getClass()).validate(entity);
+        if (!violations.isEmpty()) {
+            throw new Exception(ErrorReport.toJson(violations));
+        }
+        return true;
+    }
+
+    private Validator(Class<?> type) {
+        ErrorCode code = type.getAnnotation(ErrorCode.class);
+        errorCode = code == null ? 0 : code.value();
+
+        List<FieldRules> compiled = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                List<Rule> rules = new ArrayList<>();
+                Required required = field.getAnnotation(Required.class);
+                if (required != null) {
+                    rules.add(new RequiredRule(required.message()));
+                }
+                Length length = field.getAnnotation(Length.class);
+                if (length != null) {
+                    rules.add(new LengthRule(length.min(), length.max(), length.message()));
+                }
+                Range range = field.getAnnotation(Range.class);
+                if (range != null) {
+                    rules.add(new RangeRule(range.min(), range.max(), range.message()));
+                }
+                OneOf oneOf = field.getAnnotation(OneOf.class);
+                if (oneOf != null) {
+                    rules.add(new OneOfRule(oneOf.value(), oneOf.message()));
+                }
+                Matches matches = field.getAnnotation(Matches.class);
+                if (matches != null) {
+                    rules.add(new MatchesRule(matches.value(), matches.message()));
+                }
+                if (!rules.isEmpty()) {
+                    for (Rule rule : rules) {
+                        rule.violation = new Violation(field.getName(), rule.message, errorCode);
+                        // most rejected requests break one rule, their response is encoded here once
+                        rule.violation.report = ErrorReport.toBytes(Collections.singletonList(rule.violation));
+                    }
+                    field.setAccessible(true);
+                    compiled.add(new FieldRules(field, rules.toArray(new Rule[rules.size()])));
+                }
+            }
+        }
+        fields = compiled.toArray(new FieldRules[compiled.size()]);
+    }
+
+    /**
+     * Check all constraints in one pass
+     * @param entity entity to check, instance of the validator class
+     * @return List<Violation> - all violations, empty if the entity is valid
+     */
+    public List<Violation> validate(Object entity) {
+        List<Violation> violations = null;
+        for (FieldRules field : fields) {
+            Object value;
+            try {
+                value = field.field.get(entity);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            for (Rule rule : field.rules) {
+                if (!rule.accepts(value)) {
+                    if (violations == null) {
+                        violations = new ArrayList<>(fields.length);
+                    }
+                    violations.add(rule.violation);
+                    break;
+                }
+            }
+        }
+        return violations == null ? Collections.<Violation>emptyList() : violations;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    private static class FieldRules {
+        private final Field field;
+        private final Rule[] rules;
+
+        private FieldRules(Field field, Rule[] rules) {
+            this.field = field;
+            this.rules = rules;
+        }
+    }
+
+    private static abstract class Rule {
+        private final String message;
+        // immutable, shared by all the reports of this rule
+        private Violation violation;
+
+        Rule(String message) {
+            this.message = message;
+        }
+
+        abstract boolean accepts(Object value);
+    }
+
+    private static class RequiredRule extends Rule {
+        RequiredRule(String message) {
+            super(message);
+        }
+
+        boolean accepts(Object value) {
+            return value != null && !(value instanceof CharSequence && ((CharSequence) value).length() == 0);
+        }
+    }
+
+    private static class LengthRule extends Rule {
+        private final int min;
+        private final int max;
+
+        LengthRule(int min, int max, String message) {
+            super(message);
+            this.min = min;
+            this.max = max;
+        }
+
+        boolean accepts(Object value) {
+            if (!(value instanceof CharSequence)) {
+                return false;
+            }
+            int length = ((CharSequence) value).length();
+            return length >= min && length <= max;
+        }
+    }
+
+    private static class RangeRule extends Rule {
+        private final double min;
+        private final double max;
+
+        RangeRule(double min, double max, String message) {
+            super(message);
+            this.min = min;
+            this.max = max;
+        }
+
+        boolean accepts(Object value) {
+            if (!(value instanceof Number)) {
+                return false;
+            }
+            double number = ((Number) value).doubleValue();
+            return number >= min && number <= max;
+        }
+    }
+
+    private static class OneOfRule extends Rule {
+        private final Set<String> values;
+
+        OneOfRule(String[] values, String message) {
+            super(message);
+            this.values = new HashSet<>(Arrays.asList(values));
+        }
+
+        boolean accepts(Object value) {
+            return value != null && values.contains(value.toString());
+        }
+    }
+
+    private static class MatchesRule extends Rule {
+        private final Pattern pattern;
+
+        MatchesRule(String regex, String message) {
+            super(message);
+            this.pattern = Pattern.compile(regex);
+        }
+
+        boolean accepts(Object value) {
+            return value instanceof CharSequence && pattern.matcher((CharSequence) value).matches();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Violation: one constraint an entity does not satisfy
+ *
+ * @author  Lin Zhai
+ * @version 0.1
+ */
+package com.team4.uberapp.validation;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+public class Violation {
+    private final String field;
+    private final String message;
+    private final int errorCode;
+    // error report of this violation alone, set by the Validator
+    byte[] report;
+
+    public Violation(String field, String message, int errorCode) {
+        this.field = field;
+        this.message = message;
+        this.errorCode = errorCode;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    // already in the enclosing error report
+    @JsonIgnore
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    @JsonIgnore
+    public byte[] getReport() {
+        return report;
+    }
+}
@@ -0,0 +1,147 @@
+package com.team4.uberapp.archive;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Entries of the test take about 120 bytes: blocks of 256 bytes hold 3 of them, 50 entries make 17 blocks.
+ */
+public class ArchiveSegmentTest {
+    private static final int BLOCK_BYTES = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everyRideIsFoundAcrossBlocks() throws Exception {
+        List<ArchiveSegment.Entry> entries = entries(50);
+        Path file = folder.getRoot().toPath().resolve("0.arc");
+        ArchiveSegment.write(file, entries, BLOCK_BYTES);
+
+        ArchiveSegment segment = ArchiveSegment.open(file);
+        assertTrue(segment.getBlockCount() > 10);
+        assertEquals(50, segment.getRideCount());
+        for (ArchiveSegment.Entry entry : entries) {
+            assertTrue(segment.contains(entry.getRideId()));
+            ArchiveSegment.Entry found = segment.find(entry.getRideId());
+            assertEquals(entry.getRideId(), found.getRideId());
+            assertArrayEquals(entry.getRide(), found.getRide());
+            assertArrayEquals(entry.getRoutePoints(), found.getRoutePoints());
+        }
+        assertFalse(Files.exists(file.resolveSibling("0.arc.tmp")));
+    }
+
+    @Test
+    public void unknownRidesAreNotFound() throws Exception {
+        List<ArchiveSegment.Entry> entries = entries(50);
+        Path file = folder.getRoot().toPath().resolve("0.arc");
+        ArchiveSegment.write(file, entries, BLOCK_BYTES);
+        ArchiveSegment segment = ArchiveSegment.open(file);
+
+        // between the first & the last id of the segment, in a block
+        UUID first = entries.get(0).getRideId();
+        UUID inside = new UUID(first.getMostSignificantBits(), first.getLeastSignificantBits() + 1);
+        assertFalse(segment.contains(inside));
+        assertNull(segment.find(inside));
+        // before the first and after the last id
+        assertNull(segment.find(new UUID(Long.MIN_VALUE, Long.MIN_VALUE)));
+        assertNull(segment.find(new UUID(Long.MAX_VALUE, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void lookupsKeepNoFileOpen() throws Exception {
+        List<ArchiveSegment.Entry> entries = entries(10);
+        Path file = folder.getRoot().toPath().resolve("0.arc");
+        ArchiveSegment.write(file, entries, BLOCK_BYTES);
+        ArchiveSegment segment = ArchiveSegment.open(file);
+
+        // the file is only opened for a lookup: once it is gone, an archived ride can not be read
+        Files.delete(file);
+        assertTrue(segment.mightContain(entries.get(3).getRideId()));
+        try {
+            segment.find(entries.get(3).getRideId());
+            fail("the deleted file was still open");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void filterRulesOutMostUnknownRides() throws Exception {
+        List<ArchiveSegment.Entry> entries = entries(1000);
+        Path file = folder.getRoot().toPath().resolve("0.arc");
+        ArchiveSegment.write(file, entries, BLOCK_BYTES);
+        ArchiveSegment segment = ArchiveSegment.open(file);
+
+        for (ArchiveSegment.Entry entry : entries) {
+            assertTrue(segment.mightContain(entry.getRideId()));
+        }
+        int passed = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (segment.mightContain(UUID.randomUUID())) {
+                passed++;
+            }
+        }
+        // about 1% expected
+        assertTrue(passed + " unknown rides passed the filter", passed < 300);
+    }
+
+    @Test
+    public void requestTimesBoundTheSegment() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("0.arc");
+        ArchiveSegment.write(file, entries(20), BLOCK_BYTES);
+        ArchiveSegment segment = ArchiveSegment.open(file);
+
+        assertEquals(1480131627374L, segment.getMinRequestTime());
+        assertTrue(segment.overlaps(1480131627374L + 19, Long.MAX_VALUE));
+        assertFalse(segment.overlaps(1480131627374L + 20, Long.MAX_VALUE));
+        assertFalse(segment.overlaps(0, 1480131627374L));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedSegmentIsRefused() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("0.arc");
+        ArchiveSegment.write(file, entries(20), BLOCK_BYTES);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        ArchiveSegment.open(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFileIsRefused() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("0.arc");
+        Files.write(file, new byte[100]);
+        ArchiveSegment.open(file);
+    }
+
+    private static List<ArchiveSegment.Entry> entries(int count) {
+        List<ArchiveSegment.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            UUID rideId = UUID.randomUUID();
+            entries.add(new ArchiveSegment.Entry(rideId, 1480131627374L + i,
+                    ("{\"id\":\"" + rideId + "\",\"n\":" + i + "}").getBytes(StandardCharsets.UTF_8),
+                    ("[{\"lat\":37.77,\"lng\":-122.41,\"n\":" + i + "}]").getBytes(StandardCharsets.UTF_8)));
+        }
+        entries.sort(Comparator.comparing(ArchiveSegment.Entry::getRideId));
+        return entries;
+    }
+}
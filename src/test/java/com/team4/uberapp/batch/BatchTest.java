@@ -0,0 +1,223 @@
+package com.team4.uberapp.batch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.car.Car;
+import com.team4.uberapp.car.CarBatch;
+import com.team4.uberapp.driver.DriverBatch;
+import com.team4.uberapp.eventlog.Outbox;
+import com.team4.uberapp.persistence.Versions;
+import com.team4.uberapp.ride.Ride;
+import com.team4.uberapp.ride.RideBatch;
+import com.team4.uberapp.ride.RideEvent;
+import com.team4.uberapp.util.UberAppUtil;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class BatchTest {
+    private final List<UUID> cars = new ArrayList<>();
+    private final List<UUID> rides = new ArrayList<>();
+    private final String emailAddress = "batch-" + UUID.randomUUID() + "@test.com";
+
+    private MongoCollection<Document> carCollection;
+
+    @Before
+    public void setUp() {
+        carCollection = MongoConfiguration.database().getCollection("car");
+    }
+
+    @After
+    public void tearDown() {
+        carCollection.deleteMany(Filters.in("_id", cars));
+        MongoConfiguration.database().getCollection("ride").deleteMany(Filters.in("_id", rides));
+        MongoConfiguration.database().getCollection("rideevent").deleteMany(Filters.in("rideId", rides));
+        MongoConfiguration.database().getCollection("driver").deleteMany(Filters.eq("emailAddress", emailAddress));
+    }
+
+    @Test
+    public void eachItemGetsTheStatusOfItsSingleRoute() {
+        UUID stored = storedCar();
+        UUID deleted = storedCar();
+        UUID missing = UUID.randomUUID();
+        Map<String, Object> invalid = car();
+        invalid.put("make", "");
+        List<BatchResult> results = new CarBatch().run(Arrays.asList(
+                operation(BatchOperation.CREATE, null, car()),
+                operation(BatchOperation.UPDATE, stored, color("red")),
+                operation(BatchOperation.DELETE, deleted, null),
+                operation(BatchOperation.DELETE, missing, null),
+                operation(BatchOperation.CREATE, null, invalid),
+                operation(BatchOperation.UPDATE, "not-an-id", color("red")),
+                operation(BatchOperation.DELETE, stored, null),
+                operation("replace", null, car())));
+        cars.add(results.get(0).getId());
+
+        assertEquals(201, results.get(0).getStatus());
+        assertNotNull(carCollection.find(Filters.eq("_id", results.get(0).getId())).first());
+        assertEquals(200, results.get(1).getStatus());
+        assertEquals("red", carCollection.find(Filters.eq("_id", stored)).first().get("color"));
+        assertEquals(200, results.get(2).getStatus());
+        assertNull(carCollection.find(Filters.eq("_id", deleted)).first());
+        assertEquals(404, results.get(3).getStatus());
+        assertEquals(8303, results.get(3).getError().getErrorCode());
+        assertEquals(400, results.get(4).getStatus());
+        assertEquals(400, results.get(5).getStatus());
+        assertEquals(8302, results.get(5).getError().getErrorCode());
+        // a second operation on the same car
+        assertEquals(400, results.get(6).getStatus());
+        assertEquals(400, results.get(7).getStatus());
+    }
+
+    @Test
+    public void updateOfAChangedEntityIsAConflict() {
+        UUID stored = storedCar();
+        // another request updates the car between the read of the batch & its write
+        CarBatch batch = new CarBatch() {
+            @Override
+            protected Car merge(Car car, Car update) throws CloneNotSupportedException {
+                carCollection.updateOne(Filters.eq("_id", stored), Updates.combine(Updates.set("color", "blue"),
+                        Updates.set("version", 7L)));
+                return super.merge(car, update);
+            }
+        };
+        List<BatchResult> results = batch.run(Arrays.asList(operation(BatchOperation.UPDATE, stored, color("red"))));
+        assertEquals(409, results.get(0).getStatus());
+        assertEquals(8304, results.get(0).getError().getErrorCode());
+        assertEquals("blue", carCollection.find(Filters.eq("_id", stored)).first().get("color"));
+    }
+
+    @Test
+    public void emailAddressIsTakenByTheFirstItem() {
+        List<BatchResult> results = new DriverBatch().run(Arrays.asList(
+                operation(BatchOperation.CREATE, null, driver()),
+                operation(BatchOperation.CREATE, null, driver())));
+        assertEquals(201, results.get(0).getStatus());
+        assertEquals(409, results.get(1).getStatus());
+        assertEquals(1001, results.get(1).getError().getErrorCode());
+        assertEquals(1, MongoConfiguration.database().getCollection("driver")
+                .countDocuments(Filters.eq("emailAddress", emailAddress)));
+    }
+
+    @Test
+    public void collectionVersionChangesOnlyWhenAnItemIsWritten() {
+        long version = Versions.collection("car");
+        new CarBatch().run(Arrays.asList(operation(BatchOperation.DELETE, UUID.randomUUID(), null)));
+        assertEquals(version, Versions.collection("car"));
+        new CarBatch().run(Arrays.asList(operation(BatchOperation.DELETE, storedCar(), null)));
+        assertEquals(version + 1, Versions.collection("car"));
+    }
+
+    @Test
+    public void rideBatchLeavesNoCollectionVersion() {
+        long version = Versions.collection("ride");
+        new RideBatch().run(Arrays.asList(operation(BatchOperation.DELETE, storedRide(), null)));
+        assertEquals(version, Versions.collection("ride"));
+    }
+
+    @Test
+    public void eventsAreKeptForTheWrittenRidesOnly() {
+        UUID stored = storedRide();
+        UUID changed = storedRide();
+        RideBatch batch = new RideBatch() {
+            @Override
+            protected Ride merge(Ride ride, Ride update) throws CloneNotSupportedException {
+                if (ride.getId().equals(changed)) {
+                    MongoConfiguration.database().getCollection("ride").updateOne(Filters.eq("_id", changed),
+                            Updates.set("version", 7L));
+                }
+                return super.merge(ride, update);
+            }
+        };
+        Map<String, Object> closed = new LinkedHashMap<>();
+        closed.put("status", "CLOSED");
+        List<BatchResult> results = batch.run(Arrays.asList(
+                operation(BatchOperation.UPDATE, stored, closed),
+                operation(BatchOperation.UPDATE, changed, closed)));
+        assertEquals(200, results.get(0).getStatus());
+        assertEquals(409, results.get(1).getStatus());
+
+        MongoCollection<Document> events = MongoConfiguration.database().getCollection("rideevent");
+        assertEquals(1, events.countDocuments(Filters.eq("rideId", stored)));
+        assertEquals(RideEvent.CLOSED, events.find(Filters.eq("rideId", stored)).first().get("type"));
+        // released to the relay once written
+        assertEquals(true, events.find(Filters.eq("rideId", stored)).first().get("committed"));
+        assertNull(events.find(Filters.eq("rideId", stored)).first().get("change"));
+        assertEquals(0, events.countDocuments(Filters.eq("rideId", changed)));
+    }
+
+    private UUID storedCar() {
+        Car car = new Car("vw", "beetle", "5PVXXX", "Sedan", 4, "white", "ECONOMY");
+        car.setId(UUID.randomUUID());
+        carCollection.insertOne(Outbox.document(car));
+        cars.add(car.getId());
+        return car.getId();
+    }
+
+    private UUID storedRide() {
+        Ride ride = new Ride("ECONOMY", 37.77, -122.41, 37.33, -121.89, System.currentTimeMillis(), null, null,
+                "IN_PROGRESS", 1250, UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        ride.setId(UUID.randomUUID());
+        MongoConfiguration.database().getCollection("ride").insertOne(Outbox.document(ride));
+        rides.add(ride.getId());
+        return ride.getId();
+    }
+
+    private static Map<String, Object> car() {
+        Map<String, Object> car = new LinkedHashMap<>();
+        car.put("make", "vw");
+        car.put("model", "beetle");
+        car.put("license", "5PVXXX");
+        car.put("carType", "Sedan");
+        car.put("maxPassengers", 4);
+        car.put("color", "white");
+        car.put("validRideTypes", "ECONOMY");
+        return car;
+    }
+
+    private static Map<String, Object> color(String color) {
+        Map<String, Object> update = new LinkedHashMap<>();
+        update.put("color", color);
+        return update;
+    }
+
+    private Map<String, Object> driver() {
+        Map<String, Object> driver = new LinkedHashMap<>();
+        driver.put("firstName", "Ada");
+        driver.put("lastName", "Batch");
+        driver.put("emailAddress", emailAddress);
+        driver.put("password", "password1");
+        driver.put("addressLine1", "1 Main St");
+        driver.put("addressLine2", "");
+        driver.put("city", "San Jose");
+        driver.put("state", "CA");
+        driver.put("zip", "95112");
+        driver.put("phoneNumber", "408-555-0100");
+        driver.put("drivingLicense", "D1234567");
+        driver.put("licensedState", "CA");
+        return driver;
+    }
+
+    private static BatchOperation operation(String op, Object id, Map<String, Object> data) {
+        BatchOperation operation = new BatchOperation();
+        operation.setOp(op);
+        operation.setId(id == null ? null : id.toString());
+        operation.setData(data == null ? null : UberAppUtil.jsonMapper().<JsonNode>valueToTree(data));
+        return operation;
+    }
+}
@@ -6,13 +6,21 @@ import com.team4.uberapp.MongoConfiguration;
 import com.team4.uberapp.UberAppMain;
 import com.team4.uberapp.domain.Repositories;
 import com.team4.uberapp.persistence.MongoRepositories;
+import com.team4.uberapp.util.DataFormat;
 import com.team4.uberapp.util.SparkTestUtil;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mongolink.MongoSession;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static junit.framework.TestCase.assertEquals;
@@ -20,6 +28,7 @@ import static junit.framework.TestCase.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static spark.Spark.awaitInitialization;
+import static spark.Spark.awaitStop;
 import static spark.Spark.stop;
 
 /**
@@ -44,6 +53,7 @@ public class CarControllerTest {
     @After
     public void tearDown() throws Exception {
         stop();
+        awaitStop();
     }
 
     @Test
@@ -274,6 +284,110 @@ public class CarControllerTest {
         }
     }
     @Test
+    public void canNotPatchMissingCar() {
+        String path = "/v1/cars/" + UUID.randomUUID();
+        try {
+            SparkTestUtil.UrlResponse response = http.doMethod("PATCH", path, "{\"color\" : \"red\"}", "application/json");
+            assertEquals(404, response.status);
+        } catch (Exception e) {
+            assertTrue(false);
+        }
+    }
+    @Test
+    public void canGetCarsInEveryFormat() throws Exception {
+        for (DataFormat format : DataFormat.values()) {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:8080/v1/cars?count=2").openConnection();
+            connection.setRequestProperty("Accept", format.getContentType());
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith(format.getContentType()));
+            try (InputStream body = connection.getInputStream()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int length;
+                while ((length = body.read(buffer)) > 0) {
+                    bytes.write(buffer, 0, length);
+                }
+                Car[] cars = format.read(bytes.toByteArray(), Car[].class);
+                assertTrue(cars.length <= 2);
+            }
+        }
+    }
+    @Test
+    public void canNotGetCarsInARefusedFormat() throws Exception {
+        SparkTestUtil.UrlResponse response = http.doMethod("GET", "/v1/cars", null, "application/json;q=0, text/html");
+        assertEquals(406, response.status);
+        assertTrue(response.body.contains("9005"));
+    }
+    @Test
+    public void canGetCarsWithFields() throws Exception {
+        SparkTestUtil.UrlResponse response = http.doMethod("GET", "/v1/cars?count=2&fields=make,id", null, "application/json");
+        assertEquals(200, response.status);
+        List<Map<String, Object>> cars = new ObjectMapper().readValue(response.body, new TypeReference<List<Map<String, Object>>>() {});
+        assertTrue(cars.size() <= 2);
+        for (Map<String, Object> car : cars) {
+            assertEquals(Arrays.asList("make", "id"), new ArrayList<>(car.keySet()));
+            assertNotNull(UUID.fromString((String) car.get("id")));
+        }
+    }
+    @Test
+    public void canNotGetCarsWithAnUnknownField() throws Exception {
+        SparkTestUtil.UrlResponse response = http.doMethod("GET", "/v1/cars?fields=make,wheels", null, "application/json");
+        assertEquals(400, response.status);
+        assertTrue(response.body.contains("4002"));
+    }
+    @Test
+    public void canFilterCarsSortedById() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:8080/v1/cars?carType=SUV&sort=id&sortOrder=asc").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertNull(connection.getHeaderField("Warning"));
+        connection = (HttpURLConnection) new URL("http://localhost:8080/v1/cars?sort=id&sortOrder=desc").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertNull(connection.getHeaderField("Warning"));
+    }
+    @Test
+    public void canNotFilterCarsWithoutAnIndex() throws Exception {
+        SparkTestUtil.UrlResponse response = http.doMethod("GET", "/v1/cars?color=white", null, "application/json");
+        assertEquals(400, response.status);
+        assertTrue(response.body.contains("4002"));
+    }
+    @Test
+    public void canGetCarsWithTotal() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:8080/v1/cars?count=1&withTotal=true").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        long total = Long.parseLong(connection.getHeaderField("X-Total-Count"));
+        // the next page while the first does not reach the total
+        assertEquals(total > 1 ? "1" : null, connection.getHeaderField("X-Next-Offset"));
+
+        connection = (HttpURLConnection) new URL("http://localhost:8080/v1/cars?count=1&offsetId=" + total + "&withTotal=true").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(String.valueOf(total), connection.getHeaderField("X-Total-Count"));
+        assertNull(connection.getHeaderField("X-Next-Offset"));
+
+        connection = (HttpURLConnection) new URL("http://localhost:8080/v1/cars?carType=SUV&count=1&withTotal=true").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(Long.parseLong(connection.getHeaderField("X-Total-Count")) <= total);
+    }
+    @Test
+    public void canNotPostABatchThatIsNoListOfOperations() throws Exception {
+        SparkTestUtil.UrlResponse response = http.doMethod("POST", "/v1/cars/batch", "{\"op\":\"create\"}", "application/json");
+        assertEquals(400, response.status);
+        assertTrue(response.body.contains("8301"));
+        response = http.doMethod("POST", "/v1/cars/batch", "[]", "application/json");
+        assertEquals(400, response.status);
+        assertTrue(response.body.contains("8301"));
+    }
+    @Test
+    public void canNotPostABatchOverMaxOperations() throws Exception {
+        // batch.maxOperations of conf.properties
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i <= 1000; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"op\":\"delete\",\"id\":\"").append(UUID.randomUUID()).append("\"}");
+        }
+        SparkTestUtil.UrlResponse response = http.doMethod("POST", "/v1/cars/batch", body.append(']').toString(), "application/json");
+        assertEquals(400, response.status);
+        assertTrue(response.body.contains("8301"));
+    }
+    @Test
     public void testQueryCount() {
         // using get/v1/car?count=xx
         int count = 1;
@@ -0,0 +1,170 @@
+package com.team4.uberapp.eta;
+
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.domain.Repositories;
+import com.team4.uberapp.persistence.MongoRepositories;
+import com.team4.uberapp.ride.RoutePoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mongolink.MongoSession;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Each ride moves north at 5 m/s in a cell of its test, far from the rides of the other tests; the estimates are
+ * read back as distance / time. The grid is static, each test starts from a reset one, as after a restart.
+ */
+public class EtaEngineTest {
+    private static final long HOUR_MILLIS = 3600000L;
+    // 2024-01-01 was a monday
+    private static final long MONDAY = 1704067200000L;
+    private static final double DEFAULT_SPEED = 30 / 3.6;
+
+    private final List<UUID> rideIds = new ArrayList<>();
+    private final long start = System.currentTimeMillis() / HOUR_MILLIS * HOUR_MILLIS;
+
+    @Before
+    public void setUp() {
+        EtaEngine.reset();
+    }
+
+    @After
+    public void tearDown() {
+        MongoSession session = MongoConfiguration.createSession();
+        session.start();
+        try {
+            Repositories.initialise(new MongoRepositories(session));
+            Repositories.routePoints().deleteByRides(rideIds);
+        } finally {
+            session.stop();
+        }
+        EtaEngine.reset();
+    }
+
+    @Test
+    public void hourOfWeekStartsOnMonday() {
+        assertEquals(0, EtaEngine.hourOfWeek(MONDAY));
+        assertEquals(0, EtaEngine.hourOfWeek(MONDAY + HOUR_MILLIS - 1));
+        assertEquals(1, EtaEngine.hourOfWeek(MONDAY + HOUR_MILLIS));
+        assertEquals(167, EtaEngine.hourOfWeek(MONDAY - 1));
+        assertEquals(0, EtaEngine.hourOfWeek(MONDAY + 7 * 24 * HOUR_MILLIS));
+        // 1970-01-01 was a thursday
+        assertEquals(72, EtaEngine.hourOfWeek(0));
+    }
+
+    @Test
+    public void unknownPlaceUsesTheDefaultSpeed() {
+        EtaEngine.Estimate estimate = EtaEngine.estimate(-45.0, -7.0, -45.0, -6.9);
+        assertEquals(0, estimate.getObservedShare(), 0);
+        assertEquals(DEFAULT_SPEED, speed(estimate), 0.05);
+    }
+
+    @Test
+    public void unobservedCellUsesTheCitywideSpeed() {
+        UUID rideId = UUID.randomUUID();
+        EtaEngine.addAll(Arrays.asList(point(rideId, 45.0012, 0), point(rideId, 45.0021, 20000)));
+
+        EtaEngine.Estimate estimate = EtaEngine.estimate(-45.0, -7.0, -45.0, -6.9);
+        assertEquals(0, estimate.getObservedShare(), 0);
+        assertEquals(5.0, speed(estimate), 0.1);
+    }
+
+    @Test
+    public void observedCellUsesItsOwnSpeed() {
+        UUID rideId = UUID.randomUUID();
+        EtaEngine.addAll(Arrays.asList(point(rideId, 45.0012, 0), point(rideId, 45.0021, 20000)));
+
+        EtaEngine.Estimate estimate = EtaEngine.estimate(45.0020, 7.0015, 45.0040, 7.0015);
+        assertEquals(1, estimate.getObservedShare(), 0);
+        assertEquals(5.0, speed(estimate), 0.15);
+    }
+
+    @Test
+    public void gpsJumpsAndLatePointsAreDiscarded() {
+        UUID rideId = UUID.randomUUID();
+        EtaEngine.addAll(Arrays.asList(
+                point(rideId, 45.0012, 0),
+                point(rideId, 45.0021, 20000),
+                // stored after the previous point but taken before it: 50 m/s from the first point
+                point(rideId, 45.0057, 10000),
+                point(rideId, 45.0030, 40000),
+                // 550 m in a second
+                point(rideId, 45.0080, 41000),
+                point(rideId, 45.0089, 61000)));
+
+        EtaEngine.Estimate estimate = EtaEngine.estimate(45.0020, 7.0015, 45.0040, 7.0015);
+        assertEquals(1, estimate.getObservedShare(), 0);
+        assertEquals(5.0, speed(estimate), 0.15);
+        assertEquals(1, EtaEngine.getCellCount());
+    }
+
+    @Test
+    public void nextBuildReadsOnlyTheNewPoints() {
+        EtaEngine.build();
+        long read = EtaEngine.getRoutePointsRead();
+        EtaEngine.build();
+        assertEquals(read, EtaEngine.getRoutePointsRead());
+
+        UUID rideId = UUID.randomUUID();
+        store(point(rideId, 46.0012, 0), point(rideId, 46.0021, 20000), point(rideId, 46.0030, 40000));
+        EtaEngine.build();
+        assertEquals(read + 3, EtaEngine.getRoutePointsRead());
+        EtaEngine.build();
+        assertEquals(read + 3, EtaEngine.getRoutePointsRead());
+
+        EtaEngine.Estimate estimate = EtaEngine.estimate(46.0020, 7.0015, 46.0040, 7.0015);
+        assertEquals(1, estimate.getObservedShare(), 0);
+        assertEquals(5.0, speed(estimate), 0.15);
+    }
+
+    @Test
+    public void restartRestoresTheGridWithoutReadingAgain() {
+        EtaEngine.build();
+        UUID rideId = UUID.randomUUID();
+        store(point(rideId, 46.0012, 0), point(rideId, 46.0021, 20000));
+        EtaEngine.build();
+        long read = EtaEngine.getRoutePointsRead();
+        int cells = EtaEngine.getCellCount();
+
+        EtaEngine.reset();
+        assertEquals(0, EtaEngine.getCellCount());
+        EtaEngine.build();
+
+        assertEquals(read, EtaEngine.getRoutePointsRead());
+        assertEquals(cells, EtaEngine.getCellCount());
+        EtaEngine.Estimate estimate = EtaEngine.estimate(46.0020, 7.0015, 46.0040, 7.0015);
+        assertEquals(1, estimate.getObservedShare(), 0);
+        assertEquals(5.0, speed(estimate), 0.15);
+    }
+
+    // in the current hour, the hour the estimates are made for
+    private RoutePoint point(UUID rideId, double lat, long offsetMillis) {
+        rideIds.add(rideId);
+        return new RoutePoint((float) lat, 7.0015f, start + offsetMillis, rideId);
+    }
+
+    private static void store(RoutePoint... points) {
+        MongoSession session = MongoConfiguration.createSession();
+        session.start();
+        try {
+            Repositories.initialise(new MongoRepositories(session));
+            for (RoutePoint point : points) {
+                Repositories.routePoints().add(point);
+            }
+        } finally {
+            session.stop();
+        }
+    }
+
+    private static double speed(EtaEngine.Estimate estimate) {
+        assertTrue(estimate.getEtaSeconds() > 0);
+        return (double) estimate.getDistanceMeters() / estimate.getEtaSeconds();
+    }
+}
@@ -0,0 +1,101 @@
+package com.team4.uberapp.eta;
+
+import com.team4.uberapp.ride.RoutePoint;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RoutePointCursorTest {
+    private static final long LOOKBACK = 10000;
+    private static final long T = 1500000000000L;
+
+    @Test
+    public void firstReadIsAFullScan() {
+        RoutePointCursor cursor = new RoutePointCursor(LOOKBACK);
+        assertNull(cursor.from());
+    }
+
+    @Test
+    public void nextReadStartsALookbackBeforeTheNewestPoint() {
+        RoutePointCursor cursor = new RoutePointCursor(LOOKBACK);
+        cursor.accept(point(T));
+        cursor.accept(point(T + 5000));
+
+        assertEquals(T + 5000, cursor.getWatermark());
+        assertEquals(new Date(T + 5000 - LOOKBACK), cursor.from());
+    }
+
+    @Test
+    public void pointsReadAgainAreSkipped() {
+        RoutePointCursor cursor = new RoutePointCursor(LOOKBACK);
+        RoutePoint point = point(T);
+        assertTrue(cursor.accept(point));
+        cursor.prune();
+
+        assertFalse(cursor.accept(point));
+    }
+
+    @Test
+    public void lateCommitBelowTheWatermarkIsRead() {
+        RoutePointCursor cursor = new RoutePointCursor(LOOKBACK);
+        RoutePoint early = point(T + 1000);
+        RoutePoint later = point(T + 2000);
+        // the point stored first was not visible yet when the later one was read
+        assertTrue(cursor.accept(later));
+        cursor.prune();
+
+        assertTrue(early.getStoredAt().compareTo(cursor.from()) >= 0);
+        assertFalse(cursor.accept(later));
+        assertTrue(cursor.accept(early));
+        assertEquals(T + 2000, cursor.getWatermark());
+    }
+
+    @Test
+    public void idsOutOfTheWindowAreForgotten() {
+        RoutePointCursor cursor = new RoutePointCursor(LOOKBACK);
+        RoutePoint old = point(T);
+        RoutePoint edge = point(T + 30000 - LOOKBACK);
+        cursor.accept(old);
+        cursor.accept(edge);
+        cursor.accept(point(T + 30000));
+        cursor.prune();
+
+        assertFalse(cursor.getSeen().containsKey(old.getId()));
+        // the point at the lower bound is read again by the next query, it is still known
+        assertTrue(cursor.getSeen().containsKey(edge.getId()));
+        assertEquals(2, cursor.getSeen().size());
+    }
+
+    @Test
+    public void restoredCursorGoesOnWhereItStopped() {
+        RoutePointCursor cursor = new RoutePointCursor(LOOKBACK);
+        RoutePoint point = point(T);
+        cursor.accept(point);
+
+        RoutePointCursor restored = new RoutePointCursor(LOOKBACK, cursor.getWatermark(), cursor.getSeen());
+        assertEquals(cursor.from(), restored.from());
+        assertFalse(restored.accept(point));
+    }
+
+    @Test
+    public void pointsWithoutStoredAtAreReadOnce() {
+        RoutePointCursor cursor = new RoutePointCursor(LOOKBACK);
+        RoutePoint legacy = new RoutePoint(37.77f, -122.41f, T, UUID.randomUUID());
+
+        assertTrue(cursor.accept(legacy));
+        // they do not move the cursor, the next read only asks for dated points
+        assertNull(cursor.from());
+    }
+
+    private static RoutePoint point(long storedAt) {
+        RoutePoint point = new RoutePoint(37.77f, -122.41f, storedAt, UUID.randomUUID());
+        point.setStoredAt(new Date(storedAt));
+        return point;
+    }
+}
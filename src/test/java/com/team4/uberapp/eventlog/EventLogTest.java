@@ -0,0 +1,184 @@
+package com.team4.uberapp.eventlog;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Payloads of 40 bytes make records of 64: a segment of 640 bytes holds 10 records.
+ */
+public class EventLogTest {
+    private static final int RECORD_BYTES = EventLog.HEADER_BYTES + 40;
+    private static final int SEGMENT_BYTES = 10 * RECORD_BYTES;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EventLog log;
+
+    @After
+    public void tearDown() {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    @Test
+    public void readsFromAnyOffsetAcrossSegments() throws Exception {
+        log = EventLog.open(directory(), SEGMENT_BYTES, 0);
+        for (int i = 0; i < 35; i++) {
+            assertEquals(i, log.append(UUID.randomUUID(), payload(i)));
+        }
+        assertEquals(4, log.getSegmentCount());
+        assertEquals(35, log.getNextOffset());
+
+        List<LogRecord> all = log.read(0, 100);
+        assertEquals(35, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(i, all.get(i).getOffset());
+            assertArrayEquals(payload(i), all.get(i).getPayload());
+        }
+        List<LogRecord> middle = log.read(8, 5);
+        assertEquals(5, middle.size());
+        assertEquals(8, middle.get(0).getOffset());
+        assertEquals(12, middle.get(4).getOffset());
+        assertTrue(log.read(35, 10).isEmpty());
+    }
+
+    @Test
+    public void readerTailsTheLog() throws Exception {
+        log = EventLog.open(directory(), SEGMENT_BYTES, 0);
+        EventLogReader reader = log.reader(log.getNextOffset());
+        assertTrue(reader.poll(10).isEmpty());
+
+        log.append(UUID.randomUUID(), payload(0));
+        log.append(UUID.randomUUID(), payload(1));
+        assertEquals(2, reader.poll(10).size());
+        assertEquals(2, reader.getOffset());
+        assertTrue(reader.poll(10).isEmpty());
+    }
+
+    @Test
+    public void reopenedLogGoesOnAfterTheLastRecord() throws Exception {
+        Path directory = directory();
+        log = EventLog.open(directory, SEGMENT_BYTES, 0);
+        for (int i = 0; i < 15; i++) {
+            log.append(UUID.randomUUID(), payload(i));
+        }
+        log.close();
+
+        log = EventLog.open(directory, SEGMENT_BYTES, 0);
+        assertEquals(15, log.getNextOffset());
+        assertEquals(15, log.append(UUID.randomUUID(), payload(15)));
+        assertArrayEquals(payload(12), log.read(12, 1).get(0).getPayload());
+    }
+
+    @Test
+    public void tornRecordIsCutOff() throws Exception {
+        Path directory = directory();
+        log = EventLog.open(directory, SEGMENT_BYTES, 0);
+        for (int i = 0; i < 3; i++) {
+            log.append(UUID.randomUUID(), payload(i));
+        }
+        log.close();
+        // a crash in the middle of the third record: its bytes do not match its crc
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve(String.format("%020d.log", 0)).toFile(), "rw")) {
+            file.seek(2 * RECORD_BYTES + EventLog.HEADER_BYTES);
+            file.write('#');
+        }
+
+        log = EventLog.open(directory, SEGMENT_BYTES, 0);
+        assertEquals(2, log.getNextOffset());
+        assertEquals(2, log.read(0, 10).size());
+        assertEquals(2, log.append(UUID.randomUUID(), payload(2)));
+        assertArrayEquals(payload(2), log.read(2, 1).get(0).getPayload());
+    }
+
+    @Test
+    public void idsAppendedAgainAreSkipped() throws Exception {
+        log = EventLog.open(directory(), SEGMENT_BYTES, 0);
+        UUID id = UUID.randomUUID();
+        assertEquals(0, log.append(id, payload(0)));
+        assertEquals(-1, log.append(id, payload(0)));
+        assertEquals(1, log.getNextOffset());
+    }
+
+    @Test
+    public void idsOfThePreviousSegmentAreKnownAfterARestart() throws Exception {
+        Path directory = directory();
+        log = EventLog.open(directory, SEGMENT_BYTES, 0);
+        List<UUID> ids = new ArrayList<>();
+        // a full segment, then one record in the next one
+        for (int i = 0; i < 11; i++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            log.append(id, payload(i));
+        }
+        assertEquals(2, log.getSegmentCount());
+        log.close();
+
+        // the relay crashed before deleting the batch, it is relayed again
+        log = EventLog.open(directory, SEGMENT_BYTES, 0);
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(-1, log.append(ids.get(i), payload(i)));
+        }
+        assertEquals(11, log.getNextOffset());
+    }
+
+    @Test
+    public void oldestSegmentsAreDeleted() throws Exception {
+        Path directory = directory();
+        log = EventLog.open(directory, SEGMENT_BYTES, 2);
+        for (int i = 0; i < 45; i++) {
+            log.append(UUID.randomUUID(), payload(i));
+        }
+        assertEquals(2, log.getSegmentCount());
+        assertEquals(2, segmentFiles(directory));
+        assertEquals(30, log.getFirstOffset());
+
+        // reading from a dropped offset starts at the oldest record kept
+        List<LogRecord> records = log.read(0, 100);
+        assertEquals(15, records.size());
+        assertEquals(30, records.get(0).getOffset());
+        assertArrayEquals(payload(30), records.get(0).getPayload());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void recordLargerThanASegmentIsRefused() throws Exception {
+        log = EventLog.open(directory(), SEGMENT_BYTES, 0);
+        log.append(UUID.randomUUID(), new byte[SEGMENT_BYTES]);
+    }
+
+    private Path directory() throws Exception {
+        return folder.newFolder().toPath();
+    }
+
+    private static int segmentFiles(Path directory) throws Exception {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.log")) {
+            for (Path ignored : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // 40 bytes, different for each record
+    private static byte[] payload(int i) {
+        return String.format("{\"type\":\"RIDE_UPDATED\",\"n\":%12d}", i).getBytes(StandardCharsets.UTF_8);
+    }
+}
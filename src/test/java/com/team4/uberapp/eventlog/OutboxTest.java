@@ -0,0 +1,255 @@
+package com.team4.uberapp.eventlog;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.persistence.RideEventMongoRepository;
+import com.team4.uberapp.persistence.Versions;
+import com.team4.uberapp.ride.Ride;
+import com.team4.uberapp.ride.RideEvent;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mongolink.MongoSession;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The events are saved for a node of the test, holding a lease so that no running relay claims them.
+ */
+public class OutboxTest {
+    private final String node = "outbox-test-" + UUID.randomUUID();
+    private MongoCollection<Document> nodes;
+    private MongoCollection<Document> events;
+    private MongoCollection<Document> rides;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        nodes = MongoConfiguration.database().getCollection("eventlognode");
+        events = MongoConfiguration.database().getCollection("rideevent");
+        rides = MongoConfiguration.database().getCollection("ride");
+        nodes.insertOne(new Document("_id", node).append("leaseUntil", new Date(System.currentTimeMillis() + 3600000)));
+    }
+
+    @After
+    public void tearDown() {
+        events.deleteMany(Filters.eq("node", node));
+        nodes.deleteOne(Filters.eq("_id", node));
+    }
+
+    @Test
+    public void changeIsWrittenWithItsEvent() {
+        Ride ride = ride();
+        RideEvent event = new RideEvent(RideEvent.CREATED, ride.getId(), ride, node);
+
+        assertTrue(Outbox.write("ride", new InsertOneModel<>(Outbox.document(ride)), event));
+        assertEquals(1, rides.countDocuments(Filters.eq("_id", ride.getId())));
+        Document saved = events.find(Filters.eq("_id", event.getId())).first();
+        assertEquals(RideEvent.CREATED, saved.getString("type"));
+        assertEquals(ride.getId(), saved.get("rideId"));
+
+        RideEvent deleted = new RideEvent(RideEvent.DELETED, ride.getId(), ride, node);
+        assertTrue(Outbox.write("ride", new DeleteOneModel<>(Filters.eq("_id", ride.getId())), deleted));
+        assertEquals(0, rides.countDocuments(Filters.eq("_id", ride.getId())));
+        assertEquals(1, events.countDocuments(Filters.eq("_id", deleted.getId())));
+    }
+
+    @Test
+    public void changeMatchingNothingKeepsNoEvent() {
+        Ride ride = ride();
+        RideEvent event = new RideEvent(RideEvent.UPDATED, ride.getId(), ride, node);
+
+        assertFalse(Outbox.write("ride", new ReplaceOneModel<>(Filters.eq("_id", ride.getId()), Outbox.document(ride)), event));
+        assertEquals(0, rides.countDocuments(Filters.eq("_id", ride.getId())));
+        assertEquals(0, events.countDocuments(Filters.eq("_id", event.getId())));
+    }
+
+    @Test
+    public void failedChangeKeepsNoEvent() {
+        Ride ride = ride();
+        Outbox.write("ride", new InsertOneModel<>(Outbox.document(ride)));
+        RideEvent event = new RideEvent(RideEvent.CREATED, ride.getId(), ride, node);
+        try {
+            // same _id again
+            Outbox.write("ride", new InsertOneModel<>(Outbox.document(ride)), event);
+            throw new AssertionError("duplicate key expected");
+        } catch (RuntimeException e) {
+            assertEquals(0, events.countDocuments(Filters.eq("_id", event.getId())));
+        } finally {
+            rides.deleteOne(Filters.eq("_id", ride.getId()));
+        }
+    }
+
+    @Test
+    public void refusedVersionKeepsNoEvent() {
+        Ride ride = ride();
+        Outbox.write("ride", new InsertOneModel<>(Outbox.document(ride)));
+        try {
+            // the ride is at version 0, the update read version 1: answered 409
+            ride.nextVersion();
+            ride.nextVersion();
+            RideEvent event = new RideEvent(RideEvent.CLOSED, ride.getId(), ride, node);
+            assertFalse(Outbox.writeInOrder(rides, new ReplaceOneModel<>(Versions.unchanged(ride.getId(), 1),
+                    Outbox.document(ride)), new ArrayList<>(Outbox.documents(Collections.singletonList(event)))));
+            assertEquals(0, events.countDocuments(Filters.eq("_id", event.getId())));
+        } finally {
+            rides.deleteOne(Filters.eq("_id", ride.getId()));
+        }
+    }
+
+    @Test
+    public void pendingEventIsNotRelayed() {
+        Ride ride = ride();
+        RideEvent before = new RideEvent(RideEvent.CREATED, ride.getId(), ride, node);
+        RideEvent pending = new RideEvent(RideEvent.ASSIGNED, ride.getId(), ride, node);
+        RideEvent after = new RideEvent(RideEvent.CLOSED, ride.getId(), ride, node);
+        Outbox.insert(Outbox.documents(Collections.singletonList(before)));
+        Outbox.insert(Outbox.pending(Outbox.documents(Collections.singletonList(pending)), "ride",
+                new InsertOneModel<>(Outbox.document(ride))));
+        Outbox.insert(Outbox.documents(Collections.singletonList(after)));
+
+        // the relay stops at the pending event, the later one waits for it
+        List<RideEvent> found = pending();
+        assertEquals(1, found.size());
+        assertEquals(before.getId(), found.get(0).getId());
+    }
+
+    @Test
+    public void pendingEventsAreResolvedByTheirChange() {
+        Ride made = ride();
+        Ride notMade = ride();
+        RideEvent first = new RideEvent(RideEvent.CREATED, made.getId(), made, node);
+        RideEvent second = new RideEvent(RideEvent.CREATED, notMade.getId(), notMade, node);
+        Outbox.insert(Outbox.pending(Outbox.documents(Collections.singletonList(first)), "ride",
+                new InsertOneModel<>(Outbox.document(made))));
+        Outbox.insert(Outbox.pending(Outbox.documents(Collections.singletonList(second)), "ride",
+                new InsertOneModel<>(Outbox.document(notMade))));
+        // a crash after the first change was written, before its events were committed
+        rides.insertOne(Outbox.document(made));
+        try {
+            assertEquals(0, Outbox.resolve(node, first.getTimestamp()));
+            assertEquals(2, Outbox.resolve(node, System.currentTimeMillis() + 1));
+
+            List<RideEvent> found = pending();
+            assertEquals(1, found.size());
+            assertEquals(first.getId(), found.get(0).getId());
+            assertEquals(0, events.countDocuments(Filters.eq("_id", second.getId())));
+        } finally {
+            rides.deleteOne(Filters.eq("_id", made.getId()));
+        }
+    }
+
+    @Test
+    public void failedWriteIsResolvedRightAway() {
+        Ride ride = ride();
+        RideEvent failed = new RideEvent(RideEvent.UPDATED, ride.getId(), ride, node);
+        try {
+            // not an update document: refused by the driver before it is sent, not a MongoBulkWriteException
+            Outbox.writeInOrder(rides, upsert(ride), new ArrayList<>(Outbox.documents(Collections.singletonList(failed))));
+            throw new AssertionError("invalid update expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, events.countDocuments(Filters.eq("_id", failed.getId())));
+        }
+        RideEvent next = new RideEvent(RideEvent.CLOSED, ride.getId(), ride, node);
+        Outbox.insert(Outbox.documents(Collections.singletonList(next)));
+
+        // the relay moves on without waiting for the lease
+        List<RideEvent> found = pending();
+        assertEquals(1, found.size());
+        assertEquals(next.getId(), found.get(0).getId());
+    }
+
+    @Test
+    public void failedWriteOfAChangeInPlaceIsCommitted() {
+        Ride ride = ride();
+        rides.insertOne(Outbox.document(ride));
+        RideEvent event = new RideEvent(RideEvent.UPDATED, ride.getId(), ride, node);
+        try {
+            Outbox.writeInOrder(rides, upsert(ride), new ArrayList<>(Outbox.documents(Collections.singletonList(event))));
+            throw new AssertionError("invalid update expected");
+        } catch (IllegalArgumentException e) {
+            // the filter of the change matches: told made, as a lost reply of a write that went through
+            List<RideEvent> found = pending();
+            assertEquals(1, found.size());
+            assertEquals(event.getId(), found.get(0).getId());
+        } finally {
+            rides.deleteOne(Filters.eq("_id", ride.getId()));
+        }
+    }
+
+    @Test
+    public void pendingEventsAreInCreationOrder() {
+        Ride ride = ride();
+        List<RideEvent> created = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            created.add(new RideEvent(RideEvent.UPDATED, ride.getId(), ride, node));
+        }
+        List<Document> documents = Outbox.documents(created);
+        Collections.reverse(documents);
+        Outbox.insert(documents);
+        // written before the sequence field
+        UUID legacy = UUID.randomUUID();
+        events.insertOne(new Document("_id", legacy).append("type", RideEvent.UPDATED).append("node", node));
+
+        List<RideEvent> pending = pending();
+
+        assertEquals(51, pending.size());
+        assertEquals(legacy, pending.get(0).getId());
+        for (int i = 0; i < created.size(); i++) {
+            assertEquals(created.get(i).getId(), pending.get(i + 1).getId());
+        }
+    }
+
+    @Test
+    public void nodeIsStoredWithTheLog() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        String first = OutboxRelay.node(new Properties(), directory);
+        assertTrue(Files.exists(directory.resolve("node")));
+        assertEquals(first, OutboxRelay.node(new Properties(), directory));
+        assertNotEquals(first, OutboxRelay.node(new Properties(), folder.newFolder().toPath()));
+    }
+
+    private List<RideEvent> pending() {
+        MongoSession session = MongoConfiguration.createSession();
+        session.start();
+        try {
+            return new RideEventMongoRepository(session).findPending(node, 100);
+        } finally {
+            session.stop();
+        }
+    }
+
+    // an upsert of the ride the driver can not encode: a field without an update operator
+    private static UpdateOneModel<Document> upsert(Ride ride) {
+        return new UpdateOneModel<>(Filters.eq("_id", ride.getId()), new Document("status", "CLOSED"),
+                new UpdateOptions().upsert(true));
+    }
+
+    private static Ride ride() {
+        return new Ride("ECONOMY", 37.77, -122.41, 37.78, -122.42, System.currentTimeMillis(), null, null,
+                "AWAITING_DRIVER", 0, UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+    }
+}
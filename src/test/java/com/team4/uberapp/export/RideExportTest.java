@@ -0,0 +1,200 @@
+package com.team4.uberapp.export;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.archive.ArchiveSegment;
+import com.team4.uberapp.eventlog.Outbox;
+import com.team4.uberapp.ride.Ride;
+import com.team4.uberapp.ride.RoutePoint;
+import com.team4.uberapp.util.UberAppUtil;
+import org.bson.BsonBinary;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.types.Binary;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The rides of a test are requested in a time range of their own, far in the future, so that no other ride is exported.
+ */
+public class RideExportTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MongoCollection<Document> rides;
+    private MongoCollection<Document> routePoints;
+    private long from;
+    private final List<UUID> rideIds = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        rides = MongoConfiguration.database().getCollection("ride");
+        routePoints = MongoConfiguration.database().getCollection("routepoint");
+        from = 4000000000000L + ThreadLocalRandom.current().nextLong(1000000000L) * 1000;
+    }
+
+    @After
+    public void tearDown() {
+        // by time, an id of the other layout is not matched by its UUID
+        rides.deleteMany(Filters.and(Filters.gte("requestTime", from), Filters.lt("requestTime", from + 1000)));
+        routePoints.deleteMany(Filters.in("rideId", new ArrayList<Object>(rideIds)));
+    }
+
+    @Test
+    public void ndjsonHasOneRidePerLineWithItsRoutePoints() throws Exception {
+        Ride first = ride(0, "ECONOMY");
+        Ride second = ride(1, "PREMIUM");
+        routePoint(first, 2);
+        routePoint(first, 1);
+
+        String[] lines = export(new RideExport(MongoConfiguration.database()).withRoutePoints(true)).split("\n");
+        assertEquals(2, lines.length);
+        JsonNode ride = UberAppUtil.jsonMapper().readTree(lines[0]);
+        assertEquals(first.getId().toString(), ride.get("id").asText());
+        assertEquals("ECONOMY", ride.get("rideType").asText());
+        assertEquals(from, ride.get("requestTime").asLong());
+        assertEquals(2, ride.get("routePoints").size());
+        // in timestamp order
+        assertEquals(from + 1, ride.get("routePoints").get(0).get("timestamp").asLong());
+        assertEquals(from + 2, ride.get("routePoints").get(1).get("timestamp").asLong());
+        JsonNode next = UberAppUtil.jsonMapper().readTree(lines[1]);
+        assertEquals(second.getId().toString(), next.get("id").asText());
+        assertEquals(0, next.get("routePoints").size());
+    }
+
+    @Test
+    public void csvHasAHeaderThenOneRowPerRoutePoint() throws Exception {
+        Ride first = ride(0, "ECONOMY, shared");
+        ride(1, "PREMIUM");
+        routePoint(first, 1);
+        routePoint(first, 2);
+
+        String[] lines = export(new RideExport(MongoConfiguration.database()).format(RideExport.CSV).withRoutePoints(true))
+                .split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("id,rideType,startLat,"));
+        assertTrue(lines[0].endsWith(",routePoint.id,routePoint.lat,routePoint.lng,routePoint.timestamp"));
+        // the ride columns repeated for each route point, a value holding a comma quoted
+        assertTrue(lines[1].startsWith(first.getId() + ",\"ECONOMY, shared\","));
+        assertTrue(lines[1].endsWith("," + (from + 1)));
+        assertTrue(lines[2].endsWith("," + (from + 2)));
+        // a ride without route points, empty route point columns
+        assertTrue(lines[3].contains(",PREMIUM,"));
+        assertTrue(lines[3].endsWith(",,,,"));
+    }
+
+    @Test
+    public void resumedExportGoesOnAfterTheCheckpoint() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            ride(i, "ECONOMY");
+        }
+        List<UUID> checkpoints = new ArrayList<>();
+        List<Number> times = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RideExport(MongoConfiguration.database()).range(from, from + 1000).chunkSize(2)
+                .writeTo(out, (requestTime, id, written) -> {
+                    checkpoints.add(id);
+                    times.add(requestTime);
+                });
+        assertEquals(3, checkpoints.size());
+        assertEquals(rideIds.get(1), checkpoints.get(0));
+
+        String rest = export(new RideExport(MongoConfiguration.database()).after(times.get(0), checkpoints.get(0)));
+        String[] lines = rest.split("\n");
+        assertEquals(3, lines.length);
+        assertEquals(rideIds.get(2).toString(), UberAppUtil.jsonMapper().readTree(lines[0]).get("id").asText());
+    }
+
+    @Test
+    public void archivedRidesAreMergedInOrder() throws Exception {
+        Ride first = ride(0, "ECONOMY");
+        Ride last = ride(2, "ECONOMY");
+        // closed long ago, moved out of Mongo with its route point
+        Ride archived = new Ride("PREMIUM", 37.77, -122.41, 37.78, -122.42, from + 1, null, null,
+                "CLOSED", 10, UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        List<RoutePoint> points = new ArrayList<>();
+        points.add(new RoutePoint(37.775f, -122.415f, from + 5, archived.getId()));
+        Path file = folder.getRoot().toPath().resolve("0.arc");
+        ArchiveSegment.write(file, Collections.singletonList(new ArchiveSegment.Entry(archived.getId(),
+                archived.getRequestTime(), UberAppUtil.dataToCompactJson(archived).getBytes(StandardCharsets.UTF_8),
+                UberAppUtil.dataToCompactJson(points).getBytes(StandardCharsets.UTF_8))), 65536);
+        List<ArchiveSegment> segments = Collections.singletonList(ArchiveSegment.open(file));
+
+        String[] lines = export(new RideExport(MongoConfiguration.database()).withRoutePoints(true).archive(segments))
+                .split("\n");
+        assertEquals(3, lines.length);
+        assertEquals(first.getId().toString(), UberAppUtil.jsonMapper().readTree(lines[0]).get("id").asText());
+        JsonNode ride = UberAppUtil.jsonMapper().readTree(lines[1]);
+        assertEquals(archived.getId().toString(), ride.get("id").asText());
+        assertEquals("PREMIUM", ride.get("rideType").asText());
+        assertEquals(from + 5, ride.get("routePoints").get(0).get("timestamp").asLong());
+        assertEquals(last.getId().toString(), UberAppUtil.jsonMapper().readTree(lines[2]).get("id").asText());
+
+        // resumed after the archived ride
+        String rest = export(new RideExport(MongoConfiguration.database()).archive(segments).after(from + 1, archived.getId()));
+        assertEquals(1, rest.split("\n").length);
+        // a range before the segment does not read it
+        assertEquals("", new String(exportRange(new RideExport(MongoConfiguration.database()).archive(segments),
+                from - 1000, from), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void idsOfTheOtherLayoutAreExported() throws Exception {
+        UUID id = UUID.randomUUID();
+        rideIds.add(id);
+        // written with the layout db.uuidRepresentation does not decode to a UUID
+        UuidRepresentation other = new Properties().getDBUuidRepresentation() == UuidRepresentation.STANDARD
+                ? UuidRepresentation.JAVA_LEGACY : UuidRepresentation.STANDARD;
+        BsonBinary binary = new BsonBinary(id, other);
+        rides.insertOne(new Document("_id", new Binary(binary.getType(), binary.getData()))
+                .append("rideType", "ECONOMY").append("requestTime", from));
+
+        List<UUID> checkpoints = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RideExport(MongoConfiguration.database()).range(from, from + 1000)
+                .writeTo(out, (requestTime, rideId, written) -> checkpoints.add(rideId));
+        JsonNode ride = UberAppUtil.jsonMapper().readTree(new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(id.toString(), ride.get("id").asText());
+        assertEquals(id, checkpoints.get(0));
+    }
+
+    private String export(RideExport export) throws Exception {
+        return new String(exportRange(export, from, from + 1000), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] exportRange(RideExport export, long from, long to) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        export.range(from, to).writeTo(out, null);
+        return out.toByteArray();
+    }
+
+    private Ride ride(int i, String rideType) {
+        Ride ride = new Ride(rideType, 37.77, -122.41, 37.78, -122.42, from + i, null, null,
+                "CLOSED", 10, UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        rides.insertOne(Outbox.document(ride));
+        rideIds.add(ride.getId());
+        return ride;
+    }
+
+    private void routePoint(Ride ride, int offset) {
+        routePoints.insertOne(Outbox.document(new RoutePoint(37.775f, -122.415f, from + offset, ride.getId())));
+    }
+}
@@ -1,10 +1,12 @@
 package com.team4.uberapp.passenger;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.team4.uberapp.MongoConfiguration;
 import com.team4.uberapp.UberAppMain;
 import com.team4.uberapp.domain.Repositories;
 import com.team4.uberapp.persistence.MongoRepositories;
+import com.team4.uberapp.ride.Ride;
 import com.team4.uberapp.util.SparkTestUtil;
 import org.junit.After;
 import org.junit.Before;
@@ -18,6 +20,7 @@ import static junit.framework.TestCase.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static spark.Spark.awaitInitialization;
+import static spark.Spark.awaitStop;
 import static spark.Spark.stop;
 
 /**
@@ -41,6 +44,7 @@ public class PassengerTest {
     @After
     public void tearDown() throws Exception {
         stop();
+        awaitStop();
     }
     @Test
     public void canGetAllPassengers() {
@@ -233,6 +237,122 @@ public class PassengerTest {
         }
     }
 
+    @Test
+    public void canReportAllViolationsOfPassenger() {
+        //prepare json, emailAddress, state & zip are illegal
+        String reqestJson = "{" +
+                "\"firstName\" : \"nala\","+
+                "\"lastName\" : \"zhai\"," +
+                "\"emailAddress\" : \"xxx\"," +
+                "\"password\" : \"password\"," +
+                "\"addressLine1\": \"20350 stevens creek\"," +
+                "\"addressLine2\" : \"apt 407\"," +
+                "\"city\" : \"cupertino\","+
+                "\"state\" : \"cal\","+
+                "\"zip\" : \"852\","+
+                "\"phoneNumber\" : \"650-254-2544\"}";
+
+        try {
+            SparkTestUtil.UrlResponse response = http.doMethod("POST", "/v1/passengers",reqestJson, "application/json");
+            // should fail with all three violations in one report
+            JsonNode report = new ObjectMapper().readTree(response.body);
+            assertEquals(400, response.status);
+            assertEquals(3001, report.get("errorCode").asInt());
+            assertEquals(3, report.get("violations").size());
+            assertEquals("emailAddress", report.get("violations").get(0).get("field").asText());
+        } catch (Exception e) {
+            assertTrue(false);
+        }
+    }
+
+    @Test
+    public void canPageThroughRidesOfPassenger() {
+        // add three rides of one passenger, plus one of somebody else
+        UUID passengerId = UUID.randomUUID();
+        Ride[] rides = new Ride[4];
+        for (int i = 0; i < 3; i++) {
+            rides[i] = new Ride("ECONOMY", 10.22, 0, 0.22, 0, 1480131627374L + i, null, null, i == 0 ? "CLOSED" : "REQUESTED",
+                    5, UUID.randomUUID(), UUID.randomUUID(), passengerId);
+        }
+        rides[3] = new Ride("ECONOMY", 10.22, 0, 0.22, 0, 1480131627374L, null, null, "REQUESTED",
+                5, UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        MongoSession session = MongoConfiguration.createSession();
+        session.start();
+        Repositories.initialise(new MongoRepositories(session));
+        for (Ride ride : rides) {
+            Repositories.rides().add(ride);
+        }
+        session.stop();
+
+        String path = "/v1/passengers/" + passengerId + "/rides";
+        try {
+            ObjectMapper mapper = new ObjectMapper();
+            // newest first, two per page
+            SparkTestUtil.UrlResponse first = http.doMethod("GET", path + "?count=2", null, "application/json");
+            JsonNode firstPage = mapper.readTree(first.body);
+            String cursor = first.headers.get("X-Next-Cursor");
+            SparkTestUtil.UrlResponse second = http.doMethod("GET", path + "?count=2&cursor=" + cursor, null, "application/json");
+            JsonNode secondPage = mapper.readTree(second.body);
+            SparkTestUtil.UrlResponse closed = http.doMethod("GET", path + "?status=CLOSED", null, "application/json");
+            JsonNode closedPage = mapper.readTree(closed.body);
+
+            // remove testing rides from db
+            session = MongoConfiguration.createSession();
+            session.start();
+            Repositories.initialise(new MongoRepositories(session));
+            for (Ride ride : rides) {
+                Repositories.rides().delete(Repositories.rides().get(ride.getId()));
+            }
+            session.stop();
+
+            assertEquals(200, first.status);
+            assertNotNull(cursor);
+            assertEquals(2, firstPage.size());
+            assertEquals(rides[2].getId().toString(), firstPage.get(0).get("id").asText());
+            assertEquals(rides[1].getId().toString(), firstPage.get(1).get("id").asText());
+            assertEquals(200, second.status);
+            assertNull(second.headers.get("X-Next-Cursor"));
+            assertEquals(1, secondPage.size());
+            assertEquals(rides[0].getId().toString(), secondPage.get(0).get("id").asText());
+            assertEquals(1, closedPage.size());
+            assertEquals(rides[0].getId().toString(), closedPage.get(0).get("id").asText());
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            assertTrue(false);
+        }
+    }
+
+    @Test
+    public void canGetCurrentRideOfPassenger() {
+        UUID passengerId = UUID.randomUUID();
+        String path = "/v1/passengers/" + passengerId + "/currentRide";
+        String reqestJson = "{" +
+                "\"rideType\" : \"ECONOMY\"," +
+                "\"requestTime\" : 1480131627374," +
+                "\"status\" : \"REQUESTED\"," +
+                "\"passengerId\" : \"" + passengerId + "\"}";
+        try {
+            ObjectMapper mapper = new ObjectMapper();
+            SparkTestUtil.UrlResponse created = http.doMethod("POST", "/v1/rides", reqestJson, "application/json");
+            String rideId = mapper.readTree(created.body).get("id").asText();
+            SparkTestUtil.UrlResponse active = http.doMethod("GET", path, null, "application/json");
+            // closing the ride ends it
+            http.doMethod("PATCH", "/v1/rides/" + rideId, "{\"status\" : \"CLOSED\"}", "application/json");
+            SparkTestUtil.UrlResponse closed = http.doMethod("GET", path, null, "application/json");
+            SparkTestUtil.UrlResponse stored = http.doMethod("GET", "/v1/rides/" + rideId, null, "application/json");
+            http.doMethod("DELETE", "/v1/rides/" + rideId, null, "application/json");
+
+            assertEquals(201, created.status);
+            assertEquals(200, active.status);
+            assertEquals(rideId, mapper.readTree(active.body).get("id").asText());
+            assertEquals(404, closed.status);
+            assertEquals("CLOSED", mapper.readTree(stored.body).get("status").asText());
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            assertTrue(false);
+        }
+    }
+
     @Test
     public void canPatchPassenger() {
         // add a passenger in to db
@@ -0,0 +1,107 @@
+package com.team4.uberapp.persistence;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionId;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionReadyEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The listener fed with pool events, as the driver fires them, without a Mongo server.
+ */
+public class ConnectionPoolMetricsTest {
+    private final ServerId serverId = new ServerId(new ClusterId(), new ServerAddress());
+    private ConnectionPoolMetrics metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new ConnectionPoolMetrics();
+    }
+
+    @Test
+    public void checkedOutConnectionsAreCounted() {
+        ConnectionId first = new ConnectionId(serverId);
+        ConnectionId second = new ConnectionId(serverId);
+        checkOut(first);
+        checkOut(second);
+        assertEquals(2, metrics.getCheckedOutCount());
+
+        metrics.connectionCheckedIn(new ConnectionCheckedInEvent(first));
+        assertEquals(1, metrics.getCheckedOutCount());
+        checkOut(first);
+        metrics.connectionCheckedIn(new ConnectionCheckedInEvent(first));
+        metrics.connectionCheckedIn(new ConnectionCheckedInEvent(second));
+        assertEquals(0, metrics.getCheckedOutCount());
+        assertEquals(3, metrics.getCheckoutCount());
+        assertEquals(0, metrics.getWaitQueueSize());
+    }
+
+    @Test
+    public void requestsWaitUntilCheckedOutOrFailed() {
+        metrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(serverId));
+        metrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(serverId));
+        metrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(serverId));
+        assertEquals(3, metrics.getWaitQueueSize());
+
+        metrics.connectionCheckedOut(new ConnectionCheckedOutEvent(new ConnectionId(serverId)));
+        assertEquals(2, metrics.getWaitQueueSize());
+        metrics.connectionCheckOutFailed(new ConnectionCheckOutFailedEvent(serverId,
+                ConnectionCheckOutFailedEvent.Reason.TIMEOUT));
+        assertEquals(1, metrics.getWaitQueueSize());
+        metrics.connectionCheckOutFailed(new ConnectionCheckOutFailedEvent(serverId,
+                ConnectionCheckOutFailedEvent.Reason.CONNECTION_ERROR));
+        assertEquals(0, metrics.getWaitQueueSize());
+
+        // a failed check out is not a checked out connection
+        assertEquals(1, metrics.getCheckedOutCount());
+        assertEquals(1, metrics.getCheckoutCount());
+    }
+
+    @Test
+    public void connectionIsTimedFromCreatedToReady() throws InterruptedException {
+        ConnectionId slow = new ConnectionId(serverId);
+        ConnectionId fast = new ConnectionId(serverId);
+        metrics.connectionCreated(new ConnectionCreatedEvent(slow));
+        Thread.sleep(50);
+        metrics.connectionCreated(new ConnectionCreatedEvent(fast));
+        metrics.connectionReady(new ConnectionReadyEvent(fast));
+        metrics.connectionReady(new ConnectionReadyEvent(slow));
+
+        assertEquals(2, metrics.getPoolSize());
+        assertEquals(2, metrics.getConnectionsCreated());
+        assertTrue(metrics.getMaxConnectionCreateMillis() >= 50);
+        assertTrue(metrics.getAverageConnectionCreateMillis() >= 25);
+        assertTrue(metrics.getAverageConnectionCreateMillis() < metrics.getMaxConnectionCreateMillis());
+    }
+
+    @Test
+    public void connectionClosedBeforeReadyIsNotTimed() {
+        assertEquals(0, metrics.getAverageConnectionCreateMillis(), 0);
+        ConnectionId failed = new ConnectionId(serverId);
+        metrics.connectionCreated(new ConnectionCreatedEvent(failed));
+        metrics.connectionClosed(new ConnectionClosedEvent(failed, ConnectionClosedEvent.Reason.ERROR));
+        // a late ready of the same id is ignored
+        metrics.connectionReady(new ConnectionReadyEvent(failed));
+
+        assertEquals(0, metrics.getPoolSize());
+        assertEquals(1, metrics.getConnectionsCreated());
+        assertEquals(0, metrics.getAverageConnectionCreateMillis(), 0);
+        assertEquals(0, metrics.getMaxConnectionCreateMillis(), 0);
+    }
+
+    private void checkOut(ConnectionId connectionId) {
+        metrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(serverId));
+        metrics.connectionCheckedOut(new ConnectionCheckedOutEvent(connectionId));
+    }
+}
@@ -0,0 +1,93 @@
+package com.team4.uberapp.persistence;
+
+import com.mongodb.client.MongoCollection;
+import com.team4.uberapp.MongoConfiguration;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A collection of its own, each test at versions above those of the tests before it.
+ */
+public class CountsTest {
+    private static long base = 0;
+
+    private MongoCollection<Document> collection;
+
+    @Before
+    public void setUp() {
+        collection = MongoConfiguration.database().getCollection("countstest");
+        collection.drop();
+        base += 10;
+        for (int i = 0; i < 10; i++) {
+            collection.insertOne(new Document("status", i % 2 == 0 ? "OPEN" : "CLOSED").append("fare", i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        collection.drop();
+    }
+
+    @Test
+    public void filteredCountIsReusedAtTheSameVersion() {
+        Document filter = new Document("status", "OPEN");
+        long hits = Counts.getHits();
+        assertEquals(5, Counts.count(collection, filter, base + 1));
+        collection.insertOne(new Document("status", "OPEN"));
+        // no write seen yet, the cached total
+        assertEquals(5, Counts.count(collection, filter, base + 1));
+        assertEquals(hits + 1, Counts.getHits());
+        assertEquals(6, Counts.count(collection, filter, base + 2));
+    }
+
+    @Test
+    public void newerVersionDropsTheFiltersOfTheCollection() {
+        for (int fare = 0; fare < 10; fare++) {
+            Counts.count(collection, new Document("fare", fare), base + 1);
+        }
+        int cached = Counts.getCached();
+        long evicted = Counts.getEvicted();
+        Counts.count(collection, new Document("fare", 0), base + 2);
+        assertEquals(cached - 9, Counts.getCached());
+        assertEquals(evicted + 10, Counts.getEvicted());
+    }
+
+    @Test
+    public void countReadBeforeANewerVersionIsNotKept() {
+        Document filter = new Document("status", "CLOSED");
+        Counts.count(collection, filter, base + 2);
+        int cached = Counts.getCached();
+        long misses = Counts.getMisses();
+        assertEquals(5, Counts.count(collection, new Document("status", "OPEN"), base + 1));
+        assertEquals(5, Counts.count(collection, new Document("status", "OPEN"), base + 1));
+        assertEquals(misses + 2, Counts.getMisses());
+        assertEquals(cached, Counts.getCached());
+    }
+
+    @Test
+    public void leastRecentlyUsedFilterIsDropped() {
+        Document first = new Document("fare", -1);
+        Counts.count(collection, first, base + 1);
+        for (int fare = 0; fare < 300; fare++) {
+            Counts.count(collection, new Document("fare", fare), base + 1);
+            // kept in use, never the eldest
+            Counts.count(collection, first, base + 1);
+        }
+        long misses = Counts.getMisses();
+        Counts.count(collection, first, base + 1);
+        assertEquals(misses, Counts.getMisses());
+        Counts.count(collection, new Document("fare", 0), base + 1);
+        assertEquals(misses + 1, Counts.getMisses());
+    }
+
+    @Test
+    public void wholeCollectionIsEstimated() {
+        long estimated = Counts.getEstimated();
+        assertEquals(10, Counts.count(collection, new Document(), base + 1));
+        assertEquals(estimated + 1, Counts.getEstimated());
+    }
+}
@@ -0,0 +1,151 @@
+package com.team4.uberapp.persistence;
+
+import com.team4.uberapp.car.Car;
+import com.team4.uberapp.driver.Driver;
+import com.team4.uberapp.ride.Ride;
+import org.bson.BsonBinary;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.types.Binary;
+import org.junit.Test;
+import org.mongolink.domain.criteria.Order;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ListQueryTest {
+    private static final UUID ID = UUID.fromString("01a150ea-a2bb-7000-b1e9-8738d2f05160");
+    private static final List<Document> CAR_INDEXES = Arrays.asList(new Document("_id", 1),
+            new Document("carType", 1).append("_id", 1), new Document("driverId", 1));
+    private static final List<Document> RIDE_INDEXES = Arrays.asList(new Document("_id", 1),
+            new Document("status", 1).append("requestTime", 1).append("_id", 1));
+
+    @Test
+    public void fieldsAreParsedInOrderWithoutDuplicates() {
+        assertEquals(Arrays.asList("make", "id", "color"), ListQuery.parseFields(" make,id, ,color,make", Car.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFieldIsRefused() {
+        ListQuery.parseFields("make,wheels", Car.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hiddenFieldIsRefused() {
+        ListQuery.parseFields("emailAddress,password", Driver.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noFieldIsRefused() {
+        ListQuery.parseFields(" , ", Car.class);
+    }
+
+    @Test
+    public void projectedDocumentHasTheFieldsAskedFor() {
+        Document document = new Document("_id", ID).append("make", "vw").append("color", "white");
+        Map<String, Object> values = ListQuery.projected(document, Arrays.asList("color", "id"));
+        assertEquals(Arrays.asList("color", "id"), new ArrayList<>(values.keySet()));
+        assertEquals(ID, values.get("id"));
+        assertEquals("white", values.get("color"));
+    }
+
+    @Test
+    public void binaryIdsOfEitherLayoutAreProjectedAsUuids() {
+        for (UuidRepresentation representation : Arrays.asList(UuidRepresentation.JAVA_LEGACY, UuidRepresentation.STANDARD)) {
+            BsonBinary binary = new BsonBinary(ID, representation);
+            Document document = new Document("_id", new Binary(binary.getType(), binary.getData()))
+                    .append("passengerId", new Binary(binary.getType(), binary.getData()));
+            Map<String, Object> values = ListQuery.projected(document, Arrays.asList("id", "passengerId"));
+            assertEquals(representation.name(), ID, values.get("id"));
+            assertEquals(representation.name(), ID, values.get("passengerId"));
+        }
+    }
+
+    @Test
+    public void filtersAreReadAsTheTypeOfTheField() {
+        ListQuery query = new ListQuery()
+                .where("status", "CLOSED", Ride.class)
+                .where("passengerId[in]", ID + ", " + ID, Ride.class)
+                .where("fare[gte]", "10", Ride.class)
+                .where("requestTime[lt]", "1500000000000", Ride.class);
+        assertTrue(query.isFiltered());
+        Document filter = query.filter();
+        assertEquals("CLOSED", filter.get("status"));
+        assertEquals(new Document("$gte", 10), filter.get("fare"));
+        assertEquals(new Document("$lt", 1500000000000L), filter.get("requestTime"));
+        assertTrue(filter.containsKey("passengerId"));
+    }
+
+    @Test
+    public void idIsFilteredAndSortedAsTheDocumentId() {
+        ListQuery query = new ListQuery().where("id[in]", ID.toString(), Car.class).sort("id", Order.ASCENDING);
+        assertTrue(query.filter().containsKey("_id"));
+        assertEquals(new Document("_id", 1), query.sort());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFilterFieldIsRefused() {
+        new ListQuery().where("wheels", "4", Car.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownOperatorIsRefused() {
+        new ListQuery().where("maxPassengers[ne]", "4", Car.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void valueOfAnotherTypeIsRefused() {
+        new ListQuery().where("maxPassengers[gt]", "four", Car.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fieldFilteredTwiceIsRefused() {
+        new ListQuery().where("requestTime[gt]", "1", Ride.class).where("requestTime", "2", Ride.class);
+    }
+
+    @Test
+    public void filterParamsAreTheFieldsOfTheEntity() {
+        assertTrue(ListQuery.isFilter("carType", Car.class));
+        assertTrue(ListQuery.isFilter("maxPassengers[lte]", Car.class));
+        assertFalse(ListQuery.isFilter("sortOrder", Car.class));
+        assertFalse(ListQuery.isFilter("password", Driver.class));
+    }
+
+    @Test
+    public void indexServesEqualityThenRangeThenSort() {
+        assertNull(new ListQuery().unindexed(CAR_INDEXES));
+        assertNull(new ListQuery().where("carType", "SUV", Car.class).unindexed(CAR_INDEXES));
+        assertNull(new ListQuery().where("carType", "SUV", Car.class).sort("id", Order.ASCENDING).unindexed(CAR_INDEXES));
+        assertNull(new ListQuery().sort("id", Order.DESCENDING).unindexed(CAR_INDEXES));
+        assertNull(new ListQuery().where("status", "CLOSED", Ride.class).where("requestTime[gte]", "1", Ride.class)
+                .sort("requestTime", Order.DESCENDING).unindexed(RIDE_INDEXES));
+        assertNull(new ListQuery().where("status", "CLOSED", Ride.class).sort("requestTime", Order.DESCENDING)
+                .sort("id", Order.DESCENDING).unindexed(RIDE_INDEXES));
+    }
+
+    @Test
+    public void queryNoIndexServesIsExplained() {
+        // not a prefix of any index
+        assertTrue(new ListQuery().where("color", "red", Car.class).unindexed(CAR_INDEXES).contains("filters on [color]"));
+        assertTrue(new ListQuery().sort("make", Order.ASCENDING).unindexed(CAR_INDEXES).contains("sort on [make]"));
+        assertTrue(new ListQuery().where("carType", "SUV", Car.class).sort("make", Order.ASCENDING)
+                .unindexed(CAR_INDEXES) != null);
+        // the range is not right after the equality
+        assertTrue(new ListQuery().where("status", "CLOSED", Ride.class).where("fare[gt]", "1", Ride.class)
+                .unindexed(RIDE_INDEXES) != null);
+        // an IN does not read the index in the sort order
+        assertTrue(new ListQuery().where("status[in]", "CLOSED,OPEN", Ride.class).sort("requestTime", Order.ASCENDING)
+                .unindexed(RIDE_INDEXES) != null);
+        // two ranges, a single index scan bounds one
+        assertTrue(new ListQuery().where("status", "CLOSED", Ride.class).where("requestTime[gt]", "1", Ride.class)
+                .where("fare[gt]", "1", Ride.class).unindexed(RIDE_INDEXES) != null);
+    }
+}
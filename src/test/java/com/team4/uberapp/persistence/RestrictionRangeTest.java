@@ -0,0 +1,38 @@
+package com.team4.uberapp.persistence;
+
+import org.bson.Document;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RestrictionRangeTest {
+
+    @Test
+    public void boundsAreOneClause() {
+        Document query = new Document();
+        new RestrictionRange("requestTime").bound("gte", 10L).bound("lt", 20L).apply(query);
+        assertEquals(new Document("requestTime", new Document("$gte", 10L).append("$lt", 20L)), query);
+    }
+
+    @Test
+    public void rangeOperators() {
+        for (String operator : new String[]{"gt", "gte", "lt", "lte"}) {
+            assertTrue(RestrictionRange.isOperator(operator));
+        }
+        assertFalse(RestrictionRange.isOperator("eq"));
+        assertFalse(RestrictionRange.isOperator("in"));
+        assertFalse(RestrictionRange.isOperator("GT"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void otherOperatorIsRefused() {
+        new RestrictionRange("fare").bound("ne", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void boundGivenTwiceIsRefused() {
+        new RestrictionRange("fare").bound("gt", 1).bound("gt", 2);
+    }
+}
@@ -0,0 +1,111 @@
+package com.team4.uberapp.persistence;
+
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.domain.Repositories;
+import com.team4.uberapp.ride.RoutePoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mongolink.MongoSession;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class RoutePointMongoRepositoryTest {
+    private MongoSession session;
+    private final List<UUID> rideIds = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        session = MongoConfiguration.createSession();
+        session.start();
+        Repositories.initialise(new MongoRepositories(session));
+    }
+
+    @After
+    public void tearDown() {
+        Repositories.routePoints().deleteByRides(rideIds);
+        session.stop();
+    }
+
+    @Test
+    public void databaseSetsStoredAt() {
+        Date before = new Date(System.currentTimeMillis() - 1000);
+        RoutePoint point = add(1);
+
+        List<RoutePoint> found = Repositories.routePoints().findStoredSince(before, null, 1000);
+        RoutePoint stored = null;
+        for (RoutePoint routePoint : found) {
+            if (routePoint.getId().equals(point.getId())) {
+                stored = routePoint;
+            }
+        }
+        assertNotNull(stored);
+        assertNotNull(stored.getStoredAt());
+        assertTrue(!stored.getStoredAt().before(before));
+        assertEquals(point.getRideId(), stored.getRideId());
+    }
+
+    @Test
+    public void pagesReadEveryPointOnceInStorageOrder() throws Exception {
+        Date before = new Date(System.currentTimeMillis() - 1000);
+        Set<UUID> added = new HashSet<>();
+        for (int i = 0; i < 7; i++) {
+            added.add(add(i).getId());
+            // points of the same millisecond are ordered by _id, not by insertion
+            Thread.sleep(2);
+        }
+
+        List<RoutePoint> read = new ArrayList<>();
+        RoutePoint after = null;
+        List<RoutePoint> page;
+        do {
+            page = Repositories.routePoints().findStoredSince(before, after, 2);
+            read.addAll(page);
+            if (!page.isEmpty()) {
+                after = page.get(page.size() - 1);
+            }
+        } while (page.size() == 2);
+
+        Set<UUID> ids = new HashSet<>();
+        for (int i = 0; i < read.size(); i++) {
+            assertTrue(ids.add(read.get(i).getId()));
+            if (i > 0) {
+                assertTrue(!read.get(i).getStoredAt().before(read.get(i - 1).getStoredAt()));
+            }
+        }
+        assertTrue(ids.containsAll(added));
+    }
+
+    @Test
+    public void lowerBoundExcludesOlderPoints() throws Exception {
+        RoutePoint old = add(0);
+        Thread.sleep(20);
+        Date from = new Date();
+        Thread.sleep(20);
+        RoutePoint recent = add(1);
+
+        Set<UUID> ids = new HashSet<>();
+        for (RoutePoint routePoint : Repositories.routePoints().findStoredSince(from, null, 1000)) {
+            ids.add(routePoint.getId());
+        }
+        assertTrue(ids.contains(recent.getId()));
+        assertTrue(!ids.contains(old.getId()));
+    }
+
+    private RoutePoint add(int i) {
+        UUID rideId = UUID.randomUUID();
+        rideIds.add(rideId);
+        RoutePoint point = new RoutePoint(37.77f + i * 0.001f, -122.41f, 1500000000000L + i * 1000L, rideId);
+        Repositories.routePoints().add(point);
+        return point;
+    }
+}
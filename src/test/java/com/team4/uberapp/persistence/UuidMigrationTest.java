@@ -0,0 +1,105 @@
+package com.team4.uberapp.persistence;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.team4.uberapp.MongoConfiguration;
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.UuidRepresentation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UuidMigrationTest {
+    private static final UUID ID = UUID.fromString("01a150ea-a2bb-7000-b1e9-8738d2f05160");
+    private static final UUID OTHER = UUID.fromString("01a150eb-0001-7000-8000-000000000001");
+
+    private MongoCollection<BsonDocument> collection;
+
+    @Before
+    public void setUp() {
+        collection = MongoConfiguration.database().getCollection("uuidmigrationtest", BsonDocument.class);
+    }
+
+    @After
+    public void tearDown() {
+        collection.drop();
+    }
+
+    @Test
+    public void legacyValuesAreRewritten() {
+        BsonDocument legacy = new BsonDocument("_id", new BsonBinary(ID, UuidRepresentation.JAVA_LEGACY))
+                .append("driverId", new BsonBinary(OTHER, UuidRepresentation.JAVA_LEGACY))
+                .append("ids", new BsonArray(Collections.singletonList(new BsonBinary(OTHER, UuidRepresentation.JAVA_LEGACY))))
+                .append("status", new BsonString("CLOSED"));
+
+        BsonDocument standard = (BsonDocument) UuidMigration.standard(legacy);
+
+        assertEquals(new BsonBinary(ID, UuidRepresentation.STANDARD), standard.get("_id"));
+        assertEquals(new BsonBinary(OTHER, UuidRepresentation.STANDARD), standard.get("driverId"));
+        assertEquals(new BsonBinary(OTHER, UuidRepresentation.STANDARD), standard.getArray("ids").get(0));
+        assertEquals(new BsonString("CLOSED"), standard.get("status"));
+        // nothing left to change
+        assertEquals(standard, UuidMigration.standard(standard));
+    }
+
+    @Test
+    public void documentsMoveToTheirNewId() {
+        collection.insertOne(new BsonDocument("_id", new BsonBinary(ID, UuidRepresentation.JAVA_LEGACY))
+                .append("fare", new BsonInt32(5)));
+        collection.insertOne(new BsonDocument("_id", new BsonBinary(OTHER, UuidRepresentation.STANDARD))
+                .append("fare", new BsonInt32(7)));
+
+        assertEquals(1, UuidMigration.migrate(collection));
+        // idempotent
+        assertEquals(0, UuidMigration.migrate(collection));
+
+        assertEquals(2, collection.countDocuments());
+        assertNull(collection.find(Filters.eq("_id", new BsonBinary(ID, UuidRepresentation.JAVA_LEGACY))).first());
+        BsonDocument moved = collection.find(Filters.eq("_id", new BsonBinary(ID, UuidRepresentation.STANDARD))).first();
+        assertNotNull(moved);
+        assertEquals(new BsonInt32(5), moved.get("fare"));
+    }
+
+    @Test
+    public void legacyIdsAreFoundInAnyDocument() {
+        assertFalse(UuidMigration.holdsLegacy(collection));
+        for (int i = 0; i < 100; i++) {
+            collection.insertOne(new BsonDocument("_id", new BsonBinary(UUID.randomUUID(), UuidRepresentation.STANDARD))
+                    .append("driverId", new BsonBinary(OTHER, UuidRepresentation.STANDARD))
+                    // other binaries are not ids
+                    .append("rideId", new BsonBinary(new byte[]{1, 2, 3})));
+        }
+        assertFalse(UuidMigration.holdsLegacy(collection));
+
+        // after the first document in natural order, in a reference field only
+        collection.insertOne(new BsonDocument("_id", new BsonBinary(ID, UuidRepresentation.STANDARD))
+                .append("passengerId", new BsonBinary(OTHER, UuidRepresentation.JAVA_LEGACY)));
+        assertTrue(UuidMigration.holdsLegacy(collection));
+
+        UuidMigration.migrate(collection);
+        assertFalse(UuidMigration.holdsLegacy(collection));
+
+        collection.insertOne(new BsonDocument("_id", new BsonBinary(UUID.randomUUID(), UuidRepresentation.JAVA_LEGACY)));
+        assertTrue(UuidMigration.holdsLegacy(collection));
+    }
+
+    @Test
+    public void legacyIdsAreFoundInArrays() {
+        collection.insertOne(new BsonDocument("_id", new BsonBinary(ID, UuidRepresentation.STANDARD))
+                .append("carId", new BsonArray(Collections.singletonList(new BsonBinary(OTHER, UuidRepresentation.JAVA_LEGACY)))));
+        assertTrue(UuidMigration.holdsLegacy(collection));
+    }
+}
@@ -0,0 +1,50 @@
+package com.team4.uberapp.persistence;
+
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.bson.UuidRepresentation;
+import org.bson.types.Binary;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UuidsTest {
+    private static final UUID ID = UUID.fromString("01a150ea-a2bb-7000-b1e9-8738d2f05160");
+
+    @Test
+    public void uuidIsKept() {
+        assertTrue(Uuids.isUuid(ID));
+        assertEquals(ID, Uuids.of(ID));
+        assertNull(Uuids.of(null));
+    }
+
+    @Test
+    public void bothLayoutsAreRead() {
+        // the bytes the driver writes for each representation
+        assertEquals(ID, Uuids.of(binary(UuidRepresentation.JAVA_LEGACY)));
+        assertEquals(ID, Uuids.of(binary(UuidRepresentation.STANDARD)));
+    }
+
+    @Test
+    public void otherValuesAreNoUuid() {
+        assertFalse(Uuids.isUuid(null));
+        assertFalse(Uuids.isUuid(ID.toString()));
+        assertFalse(Uuids.isUuid(new Binary(BsonBinarySubType.BINARY, new byte[16])));
+        assertFalse(Uuids.isUuid(new Binary(BsonBinarySubType.UUID_STANDARD, new byte[8])));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void otherValueIsRefused() {
+        Uuids.of(ID.toString());
+    }
+
+    private static Binary binary(UuidRepresentation representation) {
+        BsonBinary binary = new BsonBinary(ID, representation);
+        return new Binary(binary.getType(), binary.getData());
+    }
+}
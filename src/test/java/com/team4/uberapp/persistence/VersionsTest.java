@@ -0,0 +1,86 @@
+package com.team4.uberapp.persistence;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.car.Car;
+import com.team4.uberapp.eventlog.Outbox;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VersionsTest {
+    private MongoCollection<Document> cars;
+    private Car car;
+
+    @Before
+    public void setUp() {
+        cars = MongoConfiguration.database().getCollection("car");
+        car = new Car("vw", "beetle", "5PVXXX", "Sedan", 4, "white", "ECONOMY");
+        car.setId(UUID.randomUUID());
+        cars.insertOne(Outbox.document(car));
+    }
+
+    @After
+    public void tearDown() {
+        cars.deleteOne(Filters.eq("_id", car.getId()));
+    }
+
+    @Test
+    public void updateAtTheVersionReadIsWritten() {
+        assertEquals(Long.valueOf(0), Versions.entity("car", car.getId()));
+        car.setColor("red");
+        car.nextVersion();
+        assertTrue(Versions.replace("car", car, car.getId(), 0));
+        assertEquals(Long.valueOf(1), Versions.entity("car", car.getId()));
+        assertEquals("red", cars.find(Filters.eq("_id", car.getId())).first().get("color"));
+    }
+
+    @Test
+    public void updateOfAChangedEntityIsNotWritten() {
+        // another request updated the car since it was read at version 0
+        cars.updateOne(Filters.eq("_id", car.getId()), Updates.combine(Updates.set("color", "blue"), Updates.set("version", 1L)));
+        car.setColor("red");
+        car.nextVersion();
+        assertFalse(Versions.replace("car", car, car.getId(), 0));
+        assertEquals("blue", cars.find(Filters.eq("_id", car.getId())).first().get("color"));
+    }
+
+    @Test
+    public void documentWithoutVersionIsAtVersionZero() {
+        cars.updateOne(Filters.eq("_id", car.getId()), Updates.unset("version"));
+        assertEquals(Long.valueOf(0), Versions.entity("car", car.getId()));
+        car.nextVersion();
+        assertTrue(Versions.replace("car", car, car.getId(), 0));
+        assertEquals(Long.valueOf(1), Versions.entity("car", car.getId()));
+    }
+
+    @Test
+    public void deletedEntityHasNoVersion() {
+        cars.deleteOne(Filters.eq("_id", car.getId()));
+        assertNull(Versions.entity("car", car.getId()));
+        assertFalse(Versions.replace("car", car, car.getId(), 0));
+    }
+
+    @Test
+    public void versionIsReadWithoutTheIndex() {
+        // a collection without the (_id, version) index, the hint fails
+        MongoCollection<Document> other = MongoConfiguration.database().getCollection("versionstest");
+        UUID id = UUID.randomUUID();
+        other.insertOne(new Document("_id", id).append("version", 3L));
+        try {
+            assertEquals(Long.valueOf(3), Versions.entity("versionstest", id));
+        } finally {
+            other.drop();
+        }
+    }
+}
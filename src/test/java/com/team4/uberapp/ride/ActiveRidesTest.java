@@ -0,0 +1,206 @@
+package com.team4.uberapp.ride;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.Properties;
+import com.team4.uberapp.eventlog.Outbox;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Out of order writes & several active rides per owner. Each test uses its own ids, the registry is static.
+ * Entries are checked against Mongo on every read unless a test trusts them or serves them from the registry.
+ */
+public class ActiveRidesTest {
+
+    @Before
+    public void setUp() {
+        ActiveRides.checkReads(true, 0);
+    }
+
+    @After
+    public void tearDown() {
+        Properties properties = new Properties();
+        ActiveRides.checkReads(properties.isActiveRidesCheckReads(), properties.getActiveRidesTrustMillis());
+    }
+
+    @Test
+    public void olderVersionDoesNotReplaceNewer() throws Exception {
+        Ride ride = ride(UUID.randomUUID(), UUID.randomUUID(), 1000L, "REQUESTED");
+        Ride stale = (Ride) ride.clone();
+        ride.nextVersion();
+        ride.setStatus("DRIVE_ASSIGNED");
+
+        assertTrue(ActiveRides.put(ride));
+        assertFalse(ActiveRides.put(stale));
+        assertEquals("DRIVE_ASSIGNED", ActiveRides.get(ride.getId()).getStatus());
+        assertEquals(1, ActiveRides.get(ride.getId()).getVersion());
+    }
+
+    @Test
+    public void lateWriteDoesNotBringBackAClosedRide() throws Exception {
+        Ride ride = ride(UUID.randomUUID(), UUID.randomUUID(), 1000L, "IN_PROGRESS");
+        ActiveRides.put(ride);
+        Ride stale = (Ride) ride.clone();
+        ride.nextVersion();
+        ride.setStatus("CLOSED");
+
+        assertTrue(ActiveRides.put(ride));
+        assertNull(ActiveRides.get(ride.getId()));
+        assertFalse(ActiveRides.put(stale));
+        assertNull(ActiveRides.get(ride.getId()));
+        assertNull(ActiveRides.ofDriver(ride.getDriverId()));
+    }
+
+    @Test
+    public void deletedRideNeverComesBack() {
+        Ride ride = ride(UUID.randomUUID(), UUID.randomUUID(), 1000L, "REQUESTED");
+        ActiveRides.put(ride);
+        ActiveRides.remove(ride.getId());
+        ride.nextVersion();
+
+        assertFalse(ActiveRides.put(ride));
+        assertNull(ActiveRides.get(ride.getId()));
+    }
+
+    @Test
+    public void driverKeepsEveryActiveRide() throws Exception {
+        UUID driverId = UUID.randomUUID();
+        Ride first = ride(driverId, UUID.randomUUID(), 1000L, "DRIVE_ASSIGNED");
+        Ride second = ride(driverId, UUID.randomUUID(), 2000L, "DRIVE_ASSIGNED");
+        ActiveRides.put(second);
+        ActiveRides.put(first);
+
+        assertEquals(second.getId(), ActiveRides.ofDriver(driverId).getId());
+        assertEquals(first.getId(), ActiveRides.ofPassenger(first.getPassengerId()).getId());
+
+        second.nextVersion();
+        second.setStatus("CLOSED");
+        ActiveRides.put(second);
+        assertEquals(first.getId(), ActiveRides.ofDriver(driverId).getId());
+
+        Ride reassigned = (Ride) first.clone();
+        reassigned.nextVersion();
+        reassigned.setDriverId(UUID.randomUUID());
+        ActiveRides.put(reassigned);
+        assertNull(ActiveRides.ofDriver(driverId));
+        assertEquals(first.getId(), ActiveRides.ofDriver(reassigned.getDriverId()).getId());
+    }
+
+    @Test
+    public void rideChangedOnAnotherNodeIsReadFromMongo() throws Exception {
+        MongoCollection<Document> rides = MongoConfiguration.database().getCollection("ride");
+        Ride ride = ride(UUID.randomUUID(), UUID.randomUUID(), 1000L, "REQUESTED");
+        ride.setId(UUID.randomUUID());
+        rides.insertOne(Outbox.document(ride));
+        try {
+            ActiveRides.put(ride);
+            assertEquals("REQUESTED", ActiveRides.current(ride.getId()).getStatus());
+
+            rides.updateOne(Filters.eq("_id", ride.getId()), Updates.combine(Updates.set("status", "DRIVE_ASSIGNED"),
+                    Updates.set("version", ride.getVersion() + 1)));
+            assertEquals("DRIVE_ASSIGNED", ActiveRides.current(ride.getId()).getStatus());
+            assertEquals("DRIVE_ASSIGNED", ActiveRides.get(ride.getId()).getStatus());
+
+            rides.updateOne(Filters.eq("_id", ride.getId()), Updates.combine(Updates.set("status", "CLOSED"),
+                    Updates.set("version", ride.getVersion() + 2)));
+            assertNull(ActiveRides.current(ride.getId()));
+            assertNull(ActiveRides.ofDriver(ride.getDriverId()));
+        } finally {
+            rides.deleteOne(Filters.eq("_id", ride.getId()));
+        }
+    }
+
+    @Test
+    public void rideDeletedOnAnotherNodeIsEvicted() {
+        Ride ride = ride(UUID.randomUUID(), UUID.randomUUID(), 1000L, "REQUESTED");
+        ActiveRides.put(ride);
+        assertNull(ActiveRides.current(ride.getId()));
+        assertNull(ActiveRides.get(ride.getId()));
+    }
+
+    @Test
+    public void recentEntryIsServedUntilRechecked() {
+        MongoCollection<Document> rides = MongoConfiguration.database().getCollection("ride");
+        Ride ride = ride(UUID.randomUUID(), UUID.randomUUID(), 1000L, "REQUESTED");
+        ride.setId(UUID.randomUUID());
+        rides.insertOne(Outbox.document(ride));
+        try {
+            ActiveRides.checkReads(true, 60000);
+            ActiveRides.put(ride);
+            rides.updateOne(Filters.eq("_id", ride.getId()), Updates.combine(Updates.set("status", "DRIVE_ASSIGNED"),
+                    Updates.set("version", ride.getVersion() + 1)));
+
+            // registered just now, Mongo is not read
+            assertEquals("REQUESTED", ActiveRides.current(ride.getId()).getStatus());
+            ActiveRides.recheck(ride.getId());
+            assertEquals("DRIVE_ASSIGNED", ActiveRides.current(ride.getId()).getStatus());
+        } finally {
+            rides.deleteOne(Filters.eq("_id", ride.getId()));
+            ActiveRides.remove(ride.getId());
+        }
+    }
+
+    @Test
+    public void readsAreServedFromTheRegistryUntilRechecked() {
+        MongoCollection<Document> rides = MongoConfiguration.database().getCollection("ride");
+        Ride ride = ride(UUID.randomUUID(), UUID.randomUUID(), 1000L, "REQUESTED");
+        ride.setId(UUID.randomUUID());
+        rides.insertOne(Outbox.document(ride));
+        try {
+            ActiveRides.checkReads(false, 0);
+            ActiveRides.put(ride);
+            rides.updateOne(Filters.eq("_id", ride.getId()), Updates.combine(Updates.set("status", "DRIVE_ASSIGNED"),
+                    Updates.set("version", ride.getVersion() + 1)));
+
+            assertEquals("REQUESTED", ActiveRides.current(ride.getId()).getStatus());
+            assertEquals("REQUESTED", ActiveRides.currentOfDriver(ride.getDriverId()).getStatus());
+            // a write refused with 409 on this node
+            ActiveRides.recheck(ride.getId());
+            assertEquals("DRIVE_ASSIGNED", ActiveRides.current(ride.getId()).getStatus());
+            assertEquals("DRIVE_ASSIGNED", ActiveRides.current(ride.getId()).getStatus());
+
+            rides.deleteOne(Filters.eq("_id", ride.getId()));
+            assertNotNull(ActiveRides.current(ride.getId()));
+            ActiveRides.recheck(ride.getId());
+            assertNull(ActiveRides.current(ride.getId()));
+        } finally {
+            rides.deleteOne(Filters.eq("_id", ride.getId()));
+            ActiveRides.remove(ride.getId());
+        }
+    }
+
+    @Test
+    public void currentRideRequestedOnAnotherNodeIsFound() {
+        MongoCollection<Document> rides = MongoConfiguration.database().getCollection("ride");
+        Ride ride = ride(UUID.randomUUID(), UUID.randomUUID(), 1000L, "REQUESTED");
+        ride.setId(UUID.randomUUID());
+        rides.insertOne(Outbox.document(ride));
+        try {
+            assertNull(ActiveRides.ofPassenger(ride.getPassengerId()));
+            assertEquals(ride.getId(), ActiveRides.currentOfPassenger(ride.getPassengerId()).getId());
+            assertNotNull(ActiveRides.ofDriver(ride.getDriverId()));
+            assertNull(ActiveRides.currentOfDriver(UUID.randomUUID()));
+        } finally {
+            rides.deleteOne(Filters.eq("_id", ride.getId()));
+            ActiveRides.remove(ride.getId());
+        }
+    }
+
+    private static Ride ride(UUID driverId, UUID passengerId, long requestTime, String status) {
+        return new Ride("ECONOMY", 37.77, -122.41, 37.33, -121.89, requestTime, null, null, status, 0,
+                driverId, UUID.randomUUID(), passengerId);
+    }
+}
@@ -0,0 +1,51 @@
+package com.team4.uberapp.ride;
+
+import com.team4.uberapp.UberAppMain;
+import com.team4.uberapp.util.SparkTestUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static spark.Spark.awaitInitialization;
+import static spark.Spark.awaitStop;
+import static spark.Spark.stop;
+
+public class RideControllerTest {
+    private static final String ROUTE_POINT = "{\"lat\":37.7749,\"lng\":-122.4194,\"timestamp\":1500000000000}";
+
+    private static SparkTestUtil http;
+
+    @Before
+    public void setUp() throws Exception {
+        http = new SparkTestUtil(8080);
+        // skip the token, authentication is tested separately
+        UberAppMain.main(new String[]{"notoken"});
+        awaitInitialization();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        stop();
+        awaitStop();
+    }
+
+    @Test
+    public void canNotAddRoutePointsToAMissingRide() throws Exception {
+        SparkTestUtil.UrlResponse response = http.doMethod("POST", "/v1/rides/" + UUID.randomUUID() + "/routePoints",
+                ROUTE_POINT, "application/json");
+        assertEquals(404, response.status);
+        assertTrue(response.body.contains("4004"));
+    }
+
+    @Test
+    public void canNotAddRoutePointsWithAnInvalidRideId() throws Exception {
+        SparkTestUtil.UrlResponse response = http.doMethod("POST", "/v1/rides/not-an-id/routePoints",
+                ROUTE_POINT, "application/json");
+        assertEquals(400, response.status);
+        assertTrue(response.body.contains("4002"));
+    }
+}
@@ -0,0 +1,219 @@
+package com.team4.uberapp.ride;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Streams served by a bare Jetty, the handler subscribes the client to the ride of the test.
+ */
+public class RideEventsTest {
+    private static final long WAIT_MILLIS = 10000;
+
+    private Server server;
+    private int port;
+    private volatile Ride ride;
+    // the ride read again once the subscriber is registered
+    private volatile Ride latest;
+
+    @Before
+    public void setUp() throws Exception {
+        ride = new Ride("ECONOMY", 37.77, -122.41, 37.78, -122.42, System.currentTimeMillis(), null, null,
+                "REQUESTED", 0, UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        latest = ride;
+        server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                RideEvents.subscribe(ride, () -> latest, request, response);
+            }
+        });
+        server.start();
+        port = connector.getLocalPort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void streamsTheRideThenItsChangesUntilClosed() throws Exception {
+        int before = RideEvents.getSubscriberCount();
+        try (Socket socket = subscribe(0)) {
+            InputStream in = socket.getInputStream();
+            String head = readUntil(in, "event: ride");
+            assertTrue(head.contains("text/event-stream"));
+            assertTrue(head.contains("retry: 3000"));
+            awaitSubscribers(before + 1);
+
+            RideEvents.publishRoutePoint(new RoutePoint(37.775f, -122.415f, System.currentTimeMillis(), ride.getId()));
+            // another ride is not streamed
+            RideEvents.publishRoutePoint(new RoutePoint(1f, 1f, System.currentTimeMillis(), UUID.randomUUID()));
+            // an older version published late is dropped
+            Ride stale = (Ride) ride.clone();
+            ride.nextVersion();
+            ride.setStatus(ActiveRides.CLOSED);
+            RideEvents.publishRide(ride);
+            RideEvents.publishRide(stale);
+
+            String rest = readToEnd(in);
+            assertEquals(1, count(rest, "event: routePoint"));
+            assertEquals(1, count(rest, "event: ride"));
+            assertTrue(rest.contains("\"status\":\"CLOSED\""));
+            awaitSubscribers(before);
+        }
+    }
+
+    @Test
+    public void changeSavedBeforeTheRegistrationIsSent() throws Exception {
+        // published while the snapshot was read, before the subscriber was registered
+        latest = (Ride) ride.clone();
+        latest.nextVersion();
+        latest.setStatus("DRIVE_ASSIGNED");
+        int before = RideEvents.getSubscriberCount();
+        try (Socket socket = subscribe(0)) {
+            InputStream in = socket.getInputStream();
+            readUntil(in, "\"status\":\"DRIVE_ASSIGNED\"");
+            awaitSubscribers(before + 1);
+
+            // already sent, a late publish of the same version is not sent again
+            RideEvents.publishRide(latest);
+            Ride closed = (Ride) latest.clone();
+            closed.nextVersion();
+            closed.setStatus(ActiveRides.CLOSED);
+            RideEvents.publishRide(closed);
+
+            String rest = readToEnd(in);
+            assertEquals(1, count(rest, "event: ride"));
+            assertTrue(rest.contains("\"status\":\"CLOSED\""));
+            awaitSubscribers(before);
+        }
+    }
+
+    @Test
+    public void closedRideEndsRightAfterTheSnapshot() throws Exception {
+        ride.setStatus(ActiveRides.CLOSED);
+        int before = RideEvents.getSubscriberCount();
+        try (Socket socket = subscribe(0)) {
+            String stream = readToEnd(socket.getInputStream());
+            assertEquals(1, count(stream, "event: ride"));
+            assertEquals(before, RideEvents.getSubscriberCount());
+        }
+    }
+
+    @Test
+    public void disconnectedClientIsUnsubscribed() throws Exception {
+        int before = RideEvents.getSubscriberCount();
+        Socket socket = subscribe(0);
+        readUntil(socket.getInputStream(), "event: ride");
+        awaitSubscribers(before + 1);
+        socket.close();
+
+        // the next writes fail on the closed connection
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (RideEvents.getSubscriberCount() > before && System.currentTimeMillis() < deadline) {
+            RideEvents.publishRoutePoint(new RoutePoint(37.775f, -122.415f, System.currentTimeMillis(), ride.getId()));
+            Thread.sleep(10);
+        }
+        assertEquals(before, RideEvents.getSubscriberCount());
+    }
+
+    @Test
+    public void clientThatStopsReadingIsDropped() throws Exception {
+        int before = RideEvents.getSubscriberCount();
+        try (Socket socket = subscribe(1024)) {
+            readUntil(socket.getInputStream(), "event: ride");
+            awaitSubscribers(before + 1);
+
+            // nothing is read any more: the socket buffers fill up, then the queue of the subscriber
+            long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            while (RideEvents.getSubscriberCount() > before && System.currentTimeMillis() < deadline) {
+                for (int i = 0; i < 1000; i++) {
+                    RideEvents.publishRoutePoint(new RoutePoint(37.775f, -122.415f, System.currentTimeMillis(), ride.getId()));
+                }
+            }
+            assertEquals(before, RideEvents.getSubscriberCount());
+        }
+    }
+
+    private Socket subscribe(int receiveBufferSize) throws IOException {
+        Socket socket = new Socket();
+        if (receiveBufferSize > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+        socket.connect(new InetSocketAddress("localhost", port));
+        socket.setSoTimeout((int) WAIT_MILLIS);
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET /rides/" + ride.getId() + "/events HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return socket;
+    }
+
+    private static void awaitSubscribers(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (RideEvents.getSubscriberCount() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, RideEvents.getSubscriberCount());
+    }
+
+    private static String readUntil(InputStream in, String marker) throws IOException {
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        while (!new String(read.toByteArray(), StandardCharsets.UTF_8).contains(marker)) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("stream ended before " + marker);
+            }
+            read.write(b);
+        }
+        return new String(read.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // the server closes the connection once the stream is over
+    private static String readToEnd(InputStream in) throws IOException {
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        try {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                read.write(buffer, 0, n);
+            }
+        } catch (SocketTimeoutException e) {
+            throw new AssertionError("stream not ended: " + new String(read.toByteArray(), StandardCharsets.UTF_8));
+        }
+        return new String(read.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
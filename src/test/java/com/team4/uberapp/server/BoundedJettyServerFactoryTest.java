@@ -0,0 +1,222 @@
+package com.team4.uberapp.server;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The gzip handler of the factory with a minBytes of 100: /small is sent as is, the other bodies are not small.
+ */
+public class BoundedJettyServerFactoryTest {
+    private static final byte[] LARGE = json(5000);
+    private static final byte[] EVENT = "event: ride\ndata: {}\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private Server server;
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+        GzipHandler gzipHandler = BoundedJettyServerFactory.gzipHandler(100, 6);
+        gzipHandler.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                response.setStatus(200);
+                switch (target) {
+                    case "/small":
+                        response.setContentType("application/json");
+                        response.getOutputStream().write("{}".getBytes(StandardCharsets.UTF_8));
+                        break;
+                    case "/large":
+                        response.setContentType("application/json");
+                        response.setHeader("ETag", "\"3\"");
+                        response.getOutputStream().write(LARGE);
+                        break;
+                    case "/encoded":
+                        // compressed by the route itself
+                        response.setContentType("application/json");
+                        response.setHeader("Content-Encoding", "br");
+                        response.getOutputStream().write(LARGE);
+                        break;
+                    case "/events":
+                        events(request, response);
+                        break;
+                    case "/async":
+                        // written by another thread after the handler returned
+                        response.setContentType("application/json");
+                        AsyncContext async = request.startAsync();
+                        new Thread(() -> {
+                            try {
+                                response.getOutputStream().write(LARGE);
+                            } catch (IOException e) {
+                                throw new IllegalStateException(e);
+                            }
+                            async.complete();
+                        }).start();
+                        break;
+                    default:
+                        response.setStatus(404);
+                }
+            }
+        });
+        server.setHandler(gzipHandler);
+        server.start();
+        port = connector.getLocalPort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    // as RideEvents does: headers flushed, then non-blocking writes
+    private static void events(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("text/event-stream");
+        AsyncContext async = request.startAsync();
+        response.flushBuffer();
+        ServletOutputStream out = response.getOutputStream();
+        out.setWriteListener(new WriteListener() {
+            private int written = 0;
+
+            @Override
+            public void onWritePossible() throws IOException {
+                while (out.isReady()) {
+                    if (written == 300) {
+                        async.complete();
+                        return;
+                    }
+                    out.write(EVENT);
+                    written++;
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                async.complete();
+            }
+        });
+    }
+
+    @Test
+    public void largeBodyIsGzipped() throws Exception {
+        HttpURLConnection connection = open("/large", "gzip");
+        assertEquals("gzip", connection.getContentEncoding());
+        assertTrue(connection.getHeaderField("Vary").contains("Accept-Encoding"));
+        assertTrue(connection.getHeaderField("ETag").startsWith("\"3"));
+        byte[] body = read(connection.getInputStream());
+        assertTrue(body.length < LARGE.length);
+        assertArrayEquals(LARGE, read(new GZIPInputStream(new ByteArrayInputStream(body))));
+    }
+
+    @Test
+    public void largeBodyIsSentAsIsWithoutGzip() throws Exception {
+        HttpURLConnection connection = open("/large", "identity");
+        assertNull(connection.getContentEncoding());
+        assertArrayEquals(LARGE, read(connection.getInputStream()));
+    }
+
+    @Test
+    public void smallBodyIsSentAsIs() throws Exception {
+        HttpURLConnection connection = open("/small", "gzip");
+        assertNull(connection.getContentEncoding());
+        assertEquals("{}", new String(read(connection.getInputStream()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void encodedBodyIsLeftAlone() throws Exception {
+        HttpURLConnection connection = open("/encoded", "gzip, br");
+        assertEquals("br", connection.getContentEncoding());
+        assertArrayEquals(LARGE, read(connection.getInputStream()));
+    }
+
+    @Test
+    public void eventStreamIsNotCompressed() throws Exception {
+        HttpURLConnection connection = open("/events", "gzip");
+        assertEquals(200, connection.getResponseCode());
+        assertNull(connection.getContentEncoding());
+        assertTrue(connection.getContentType().startsWith("text/event-stream"));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+        assertEquals("event: ride", reader.readLine());
+        int events = 1;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("event:")) {
+                events++;
+            }
+        }
+        assertEquals(300, events);
+    }
+
+    @Test
+    public void asyncBodyIsGzipped() throws Exception {
+        HttpURLConnection connection = open("/async", "gzip");
+        assertEquals("gzip", connection.getContentEncoding());
+        assertArrayEquals(LARGE, read(new GZIPInputStream(connection.getInputStream())));
+    }
+
+    @Test
+    public void headIsNotCompressed() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/large").openConnection();
+        connection.setRequestMethod("HEAD");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        assertEquals(200, connection.getResponseCode());
+        assertNull(connection.getContentEncoding());
+    }
+
+    private HttpURLConnection open(String path, String acceptEncoding) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+        connection.setReadTimeout(10000);
+        return connection;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int length;
+        while ((length = in.read(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] json(int points) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < points; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"lat\":37.77").append(i % 10).append(",\"timestamp\":").append(i).append('}');
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,112 @@
+package com.team4.uberapp.server;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * One request in flight at most: a second one is refused while the first is held by the handler.
+ */
+public class OverloadProtectionHandlerTest {
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private Server server;
+    private OverloadProtectionHandler protection;
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+        protection = new OverloadProtectionHandler(1);
+        protection.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) {
+                entered.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                baseRequest.setHandled(true);
+                response.setStatus(200);
+            }
+        });
+        server.setHandler(protection);
+        server.start();
+        port = connector.getLocalPort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        server.stop();
+    }
+
+    @Test
+    public void refusesRequestsOverTheLimit() throws Exception {
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> first = client.submit(() -> open().getResponseCode());
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            assertEquals(1, protection.getActiveRequests());
+
+            HttpURLConnection second = open();
+            assertEquals(503, second.getResponseCode());
+            assertEquals("1", second.getHeaderField("Retry-After"));
+            assertTrue(read(second.getErrorStream()).contains("9001"));
+            assertEquals(1, protection.getRejectedRequests());
+
+            release.countDown();
+            assertEquals(200, (int) first.get(10, TimeUnit.SECONDS));
+        } finally {
+            client.shutdownNow();
+        }
+    }
+
+    @Test
+    public void releasesTheSlotOnceAnswered() throws Exception {
+        release.countDown();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(200, open().getResponseCode());
+        }
+        assertEquals(0, protection.getActiveRequests());
+        assertEquals(0, protection.getRejectedRequests());
+    }
+
+    private HttpURLConnection open() throws Exception {
+        return (HttpURLConnection) new URL("http://localhost:" + port + "/").openConnection();
+    }
+
+    private static String read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,104 @@
+package com.team4.uberapp.server;
+
+import com.team4.uberapp.Properties;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Limits of conf.properties: 5/20 for the route points, 100/200 by default, none for /v1/ready.
+ * Each test has clients of its own and its own clock, far from System.nanoTime().
+ */
+public class RateLimiterTest {
+    private static final String ROUTE_POINTS = "/v1/rides/" + UUID.randomUUID() + "/routePoints";
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private String client;
+    private long now;
+
+    @Before
+    public void setUp() {
+        RateLimiter.start(new Properties());
+        client = "ip:test-" + UUID.randomUUID();
+        now = System.nanoTime() + TimeUnit.DAYS.toNanos(1);
+    }
+
+    @Test
+    public void burstThenOneRequestPerInterval() {
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, RateLimiter.acquire("POST", ROUTE_POINTS, client, now));
+        }
+        // one interval of 200 ms to wait
+        assertEquals(200 * MILLI, RateLimiter.acquire("POST", ROUTE_POINTS, client, now));
+        assertEquals(100 * MILLI, RateLimiter.acquire("POST", ROUTE_POINTS, client, now + 100 * MILLI));
+        assertEquals(0, RateLimiter.acquire("POST", ROUTE_POINTS, client, now + 200 * MILLI));
+        assertTrue(RateLimiter.acquire("POST", ROUTE_POINTS, client, now + 200 * MILLI) > 0);
+        // idle for 4 s, the bucket is full again
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, RateLimiter.acquire("POST", ROUTE_POINTS, client, now + 4200 * MILLI));
+        }
+        assertTrue(RateLimiter.acquire("POST", ROUTE_POINTS, client, now + 4200 * MILLI) > 0);
+    }
+
+    @Test
+    public void bucketsArePerClientAndPerRule() {
+        for (int i = 0; i < 20; i++) {
+            RateLimiter.acquire("POST", ROUTE_POINTS, client, now);
+        }
+        assertTrue(RateLimiter.acquire("POST", ROUTE_POINTS, client, now) > 0);
+        // another ride id matches the same rule
+        assertTrue(RateLimiter.acquire("POST", "/v1/rides/" + UUID.randomUUID() + "/routePoints", client, now) > 0);
+        assertEquals(0, RateLimiter.acquire("POST", ROUTE_POINTS, "ip:other-" + UUID.randomUUID(), now));
+        assertEquals(0, RateLimiter.acquire("GET", "/v1/rides", client, now));
+        assertEquals(0, RateLimiter.acquire("GET", ROUTE_POINTS, client, now));
+    }
+
+    @Test
+    public void unlimitedRouteHasNoBucket() {
+        int buckets = RateLimiter.getBucketCount();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, RateLimiter.acquire("GET", "/v1/ready", client, now));
+        }
+        assertEquals(buckets, RateLimiter.getBucketCount());
+    }
+
+    @Test
+    public void sweepKeepsTheBucketsNotFullYet() {
+        for (int i = 0; i < 21; i++) {
+            RateLimiter.acquire("POST", ROUTE_POINTS, client, now);
+        }
+        RateLimiter.sweep(now);
+        assertTrue(RateLimiter.acquire("POST", ROUTE_POINTS, client, now) > 0);
+
+        long evicted = RateLimiter.getEvictedCount();
+        RateLimiter.sweep(now + 5000 * MILLI);
+        assertTrue(RateLimiter.getEvictedCount() > evicted);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, RateLimiter.acquire("POST", ROUTE_POINTS, client, now + 5000 * MILLI));
+        }
+        assertTrue(RateLimiter.acquire("POST", ROUTE_POINTS, client, now + 5000 * MILLI) > 0);
+    }
+
+    @Test
+    public void forwardedAddressOnlyFromTrustedProxies() {
+        Set<String> trusted = new HashSet<>(Arrays.asList("10.0.0.1", "10.0.0.2"));
+        // sent by the client itself
+        assertEquals("203.0.113.9", RateLimiter.address("203.0.113.9", "198.51.100.1", trusted));
+        assertEquals("10.0.0.1", RateLimiter.address("10.0.0.1", null, trusted));
+        assertEquals("198.51.100.1", RateLimiter.address("10.0.0.1", "198.51.100.1", trusted));
+        // a forged first entry, then the address the balancer saw, then a second proxy
+        assertEquals("198.51.100.1", RateLimiter.address("10.0.0.2", "1.2.3.4, 198.51.100.1, 10.0.0.1", trusted));
+        assertEquals("10.0.0.2", RateLimiter.address("10.0.0.1", "10.0.0.2", trusted));
+        assertEquals("10.0.0.1", RateLimiter.address("10.0.0.1", " ", trusted));
+        assertEquals("10.0.0.1", RateLimiter.address("10.0.0.1", "198.51.100.1", Collections.<String>emptySet()));
+    }
+}
@@ -0,0 +1,101 @@
+package com.team4.uberapp.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.team4.uberapp.metrics.MetricsController;
+import com.team4.uberapp.util.SparkTestUtil;
+import com.team4.uberapp.util.UberAppUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import spark.Service;
+
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The readiness route on a server of its own, the warm-up steps replaced by steps that fail on demand.
+ */
+public class WarmUpTest {
+    private Service service;
+    private SparkTestUtil http;
+
+    @Before
+    public void setUp() throws Exception {
+        WarmUp.reset();
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        service = Service.ignite().port(port);
+        service.get("/v1/ready", MetricsController.getReady);
+        service.awaitInitialization();
+        http = new SparkTestUtil(port);
+    }
+
+    @After
+    public void tearDown() {
+        service.stop();
+        service.awaitStop();
+        WarmUp.reset();
+    }
+
+    @Test
+    public void notReadyBeforeTheWarmUp() throws Exception {
+        SparkTestUtil.UrlResponse response = http.doMethod("GET", "/v1/ready", null, "application/json");
+        assertEquals(503, response.status);
+        assertEquals(9002, UberAppUtil.jsonMapper().readTree(response.body).get("errorCode").asInt());
+    }
+
+    @Test
+    public void readyAfterTheWarmUp() throws Exception {
+        assertTrue(WarmUp.run(() -> Thread.sleep(20)));
+
+        SparkTestUtil.UrlResponse response = http.doMethod("GET", "/v1/ready", null, "application/json");
+        assertEquals(200, response.status);
+        JsonNode status = UberAppUtil.jsonMapper().readTree(response.body);
+        assertTrue(status.get("ready").asBoolean());
+        assertTrue(status.get("warmupMillis").asLong() >= 20);
+    }
+
+    @Test
+    public void failedWarmUpLeavesTheServerNotReady() throws Exception {
+        assertFalse(WarmUp.run(() -> {
+            throw new IllegalStateException("Mongo is down");
+        }));
+
+        assertFalse(WarmUp.isReady());
+        assertEquals(-1, WarmUp.getWarmupMillis());
+        assertEquals(503, http.doMethod("GET", "/v1/ready", null, "application/json").status);
+    }
+
+    @Test
+    public void warmUpRunsOnceItSucceeded() {
+        AtomicInteger runs = new AtomicInteger();
+        assertTrue(WarmUp.run(runs::incrementAndGet));
+        assertTrue(WarmUp.run(runs::incrementAndGet));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void retryMakesTheServerReady() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        WarmUp.Steps failingTwice = () -> {
+            if (runs.incrementAndGet() <= 2) {
+                throw new IllegalStateException("Mongo is down");
+            }
+        };
+        assertFalse(WarmUp.run(failingTwice));
+
+        Thread retry = WarmUp.retry(failingTwice, 20);
+        retry.join(10000);
+
+        assertFalse(retry.isAlive());
+        assertTrue(WarmUp.isReady());
+        assertEquals(3, runs.get());
+        assertEquals(200, http.doMethod("GET", "/v1/ready", null, "application/json").status);
+    }
+}
@@ -0,0 +1,93 @@
+package com.team4.uberapp.stats;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.team4.uberapp.MongoConfiguration;
+import com.team4.uberapp.eventlog.Outbox;
+import com.team4.uberapp.ride.Ride;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Each test counts rides of a ride type of its own, holding a space like the ids of the day counters.
+ */
+public class RideStatsTest {
+    private MongoCollection<Document> stats;
+    private MongoCollection<Document> rides;
+    private String rideType;
+
+    @Before
+    public void setUp() {
+        stats = MongoConfiguration.database().getCollection("ridestats");
+        rides = MongoConfiguration.database().getCollection("ride");
+        rideType = "TEST " + UUID.randomUUID();
+    }
+
+    @After
+    public void tearDown() {
+        rides.deleteMany(Filters.eq("rideType", rideType));
+        stats.deleteMany(Filters.regex("_id", "^rideType:TEST "));
+    }
+
+    @Test
+    public void deltasAreWrittenOnce() {
+        Ride first = ride();
+        RideStats.record(null, first);
+        RideStats.record(null, ride());
+        RideStats.record(first, null);
+        RideStats.flush();
+        assertEquals(1L, count(rideType));
+
+        RideStats.flush();
+        assertEquals(1L, count(rideType));
+    }
+
+    @Test
+    public void updateMovesTheRideBetweenCounters() {
+        Ride ride = ride();
+        RideStats.record(null, ride);
+        RideStats.flush();
+        Ride renamed = ride();
+        renamed.setRideType(rideType + " 2");
+        RideStats.record(ride, renamed);
+        RideStats.flush();
+        assertEquals(0L, count(rideType));
+        assertEquals(1L, count(rideType + " 2"));
+    }
+
+    @Test
+    public void rebuildCountsTheRidesAndDropsTheOtherCounters() {
+        rides.insertOne(Outbox.document(ride()));
+        rides.insertOne(Outbox.document(ride()));
+        String stale = "TEST " + UUID.randomUUID();
+        stats.insertOne(new Document("_id", "rideType:" + stale).append("count", 5L));
+        // recorded before the rebuild, the ride is counted by it, not again by the next flush
+        RideStats.record(null, ride());
+
+        assertTrue(RideStats.rebuild());
+        assertEquals(2L, count(rideType));
+        assertNull(stats.find(Filters.eq("_id", "rideType:" + stale)).first());
+        assertTrue(stats.find(Filters.eq("_id", "all")).first().get("count") instanceof Number);
+
+        RideStats.flush();
+        assertEquals(2L, count(rideType));
+    }
+
+    private long count(String type) {
+        Document counter = stats.find(Filters.eq("_id", "rideType:" + type)).first();
+        return counter == null ? 0 : ((Number) counter.get("count")).longValue();
+    }
+
+    private Ride ride() {
+        return new Ride(rideType, 37.77, -122.41, 37.78, -122.42, System.currentTimeMillis(), null, null,
+                "AWAITING_DRIVER", 0, UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+    }
+}
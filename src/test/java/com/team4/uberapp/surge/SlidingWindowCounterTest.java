@@ -0,0 +1,75 @@
+package com.team4.uberapp.surge;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class SlidingWindowCounterTest {
+    private static final long NOW = 1500000000L;
+
+    @Test
+    public void sumsTheEventsOfTheWindow() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(10);
+        counter.increment(NOW);
+        counter.increment(NOW);
+        counter.increment(NOW + 3);
+        counter.increment(NOW + 9);
+
+        assertEquals(4, counter.sum(NOW + 9));
+        // NOW leaves the window, NOW + 3 & NOW + 9 are still in
+        assertEquals(2, counter.sum(NOW + 10));
+        assertEquals(1, counter.sum(NOW + 13));
+        assertEquals(0, counter.sum(NOW + 19));
+    }
+
+    @Test
+    public void reusedBucketStartsOver() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(10);
+        for (int i = 0; i < 5; i++) {
+            counter.increment(NOW);
+        }
+        // same slot, one window later: the old count is replaced, not added to
+        counter.increment(NOW + 10);
+
+        assertEquals(1, counter.sum(NOW + 10));
+    }
+
+    @Test
+    public void eventsOfTheFutureAreNotSkipped() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(10);
+        counter.increment(NOW + 1);
+
+        // a clock a little behind another thread still sees its events
+        assertEquals(1, counter.sum(NOW));
+    }
+
+    @Test
+    public void concurrentIncrementsAreNotLost() throws Exception {
+        final SlidingWindowCounter counter = new SlidingWindowCounter(60);
+        int threads = 8;
+        final int perThread = 50000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        counter.increment(NOW + i % 3);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads * perThread, counter.sum(NOW + 2));
+    }
+}
@@ -0,0 +1,85 @@
+package com.team4.uberapp.surge;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * With the default settings: 5 requests before any surge, sensitivity 0.5, at most 3.0.
+ */
+public class SurgeEngineTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void noSurgeBelowTheMinimumDemand() {
+        assertEquals(1.0, SurgeEngine.multiplier(4, 0), DELTA);
+    }
+
+    @Test
+    public void noSurgeWhileDriversKeepUp() {
+        assertEquals(1.0, SurgeEngine.multiplier(8, 8), DELTA);
+        assertEquals(1.0, SurgeEngine.multiplier(8, 20), DELTA);
+    }
+
+    @Test
+    public void surgeGrowsWithTheExcessDemand() {
+        // 1 + 0.5 * (6 - 4) / 4 = 1.25, rounded to one decimal
+        assertEquals(1.3, SurgeEngine.multiplier(6, 4), DELTA);
+        // 1 + 0.5 * (8 - 4) / 4
+        assertEquals(1.5, SurgeEngine.multiplier(8, 4), DELTA);
+        // no driver at all counts as one
+        assertEquals(3.0, SurgeEngine.multiplier(5, 0), DELTA);
+    }
+
+    @Test
+    public void surgeIsCapped() {
+        assertEquals(3.0, SurgeEngine.multiplier(1000, 1), DELTA);
+    }
+
+    @Test
+    public void multipliersFollowTheEventsOfTheCell() {
+        double lat = 12.345;
+        double lng = 45.678;
+        for (int i = 0; i < 8; i++) {
+            SurgeEngine.recordRequest(lat, lng, "PREMIUM");
+        }
+        for (int i = 0; i < 4; i++) {
+            SurgeEngine.recordAvailableDriver(lat, lng, "PREMIUM");
+        }
+        long now = System.currentTimeMillis() / 1000;
+        SurgeEngine.recomputeAll(now);
+
+        assertArrayEquals(new double[]{1.0, 1.5, 1.0}, SurgeEngine.multipliers(lat, lng), DELTA);
+        // another cell is not affected
+        assertArrayEquals(new double[]{1.0, 1.0, 1.0}, SurgeEngine.multipliers(lat + 1, lng), DELTA);
+    }
+
+    @Test
+    public void idleCellIsDroppedOnceTheWindowPassed() {
+        double lat = -23.456;
+        double lng = 56.789;
+        for (int i = 0; i < 10; i++) {
+            SurgeEngine.recordRequest(lat, lng, "ECONOMY");
+        }
+        long now = System.currentTimeMillis() / 1000;
+        SurgeEngine.recomputeAll(now);
+        assertEquals(3.0, SurgeEngine.multipliers(lat, lng)[0], DELTA);
+
+        // the default window is 300 s
+        SurgeEngine.recomputeAll(now + 301);
+        assertArrayEquals(new double[]{1.0, 1.0, 1.0}, SurgeEngine.multipliers(lat, lng), DELTA);
+    }
+
+    @Test
+    public void unknownRideTypeIsIgnored() {
+        double lat = 33.333;
+        double lng = -33.333;
+        for (int i = 0; i < 10; i++) {
+            SurgeEngine.recordRequest(lat, lng, "LIMO");
+        }
+        SurgeEngine.recomputeAll(System.currentTimeMillis() / 1000);
+
+        assertArrayEquals(new double[]{1.0, 1.0, 1.0}, SurgeEngine.multipliers(lat, lng), DELTA);
+    }
+}
@@ -20,6 +20,7 @@ import static com.team4.uberapp.util.UberAppUtil.hashPassword;
 import static com.team4.uberapp.util.UberAppUtil.validTokenUser;
 import static org.junit.Assert.*;
 import static spark.Spark.awaitInitialization;
+import static spark.Spark.awaitStop;
 import static spark.Spark.stop;
 
 /**
@@ -46,6 +47,7 @@ public class UserSessionTest {
     @After
     public void tearDown() throws Exception {
         stop();
+        awaitStop();
     }
 
     @Test
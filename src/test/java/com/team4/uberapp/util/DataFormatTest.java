@@ -0,0 +1,111 @@
+package com.team4.uberapp.util;
+
+import com.team4.uberapp.ride.Ride;
+import com.team4.uberapp.ride.RoutePoint;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DataFormatTest {
+
+    @Test
+    public void jsonWithoutAcceptOrAnyFormatListed() {
+        assertEquals(DataFormat.JSON, DataFormat.accepted(null));
+        assertEquals(DataFormat.JSON, DataFormat.accepted(" "));
+        assertEquals(DataFormat.JSON, DataFormat.accepted("text/html"));
+        assertEquals(DataFormat.JSON, DataFormat.accepted("*/*"));
+        assertEquals(DataFormat.JSON, DataFormat.accepted("application/*"));
+        assertEquals(DataFormat.JSON, DataFormat.accepted("application/cbor;q=0, text/html"));
+    }
+
+    @Test
+    public void highestQualityWins() {
+        assertEquals(DataFormat.CBOR, DataFormat.accepted("application/cbor"));
+        assertEquals(DataFormat.SMILE, DataFormat.accepted("application/json;q=0.5, application/x-jackson-smile"));
+        assertEquals(DataFormat.JSON, DataFormat.accepted("application/json, application/x-msgpack;q=0.9"));
+        assertEquals(DataFormat.MSGPACK, DataFormat.accepted("application/vnd.msgpack"));
+        assertEquals(DataFormat.CBOR, DataFormat.accepted("APPLICATION/CBOR ; q=0.8"));
+        // a q that is not a number refuses the format
+        assertEquals(DataFormat.JSON, DataFormat.accepted("application/cbor;q=high, application/json;q=0.1"));
+    }
+
+    @Test
+    public void listedFormatWinsATieOverAWildcard() {
+        assertEquals(DataFormat.CBOR, DataFormat.accepted("*/*, application/cbor"));
+        assertEquals(DataFormat.SMILE, DataFormat.accepted("application/x-jackson-smile, application/cbor"));
+        assertEquals(DataFormat.CBOR, DataFormat.accepted("application/json;q=0.5, */*"));
+        assertEquals(DataFormat.JSON, DataFormat.accepted("application/cbor;q=0.5, */*"));
+    }
+
+    @Test
+    public void noFormatWhenJsonIsRefused() {
+        assertNull(DataFormat.accepted("application/json;q=0"));
+        assertNull(DataFormat.accepted("*/*;q=0"));
+        assertNull(DataFormat.accepted("application/json;q=0, application/cbor;q=0, text/html"));
+        assertEquals(DataFormat.CBOR, DataFormat.accepted("application/json;q=0, application/cbor"));
+        assertEquals(DataFormat.CBOR, DataFormat.accepted("application/json;q=0, */*"));
+    }
+
+    @Test
+    public void bodyFormatFromContentType() {
+        assertEquals(DataFormat.JSON, DataFormat.ofContent(null));
+        assertEquals(DataFormat.JSON, DataFormat.ofContent("text/plain"));
+        assertEquals(DataFormat.CBOR, DataFormat.ofContent("application/cbor; charset=binary"));
+        assertEquals(DataFormat.MSGPACK, DataFormat.ofContent("application/msgpack"));
+    }
+
+    @Test
+    public void everyFormatRoundTrips() throws Exception {
+        // a POST /rides/:id/routePoints body
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("lat", 37.7749);
+        body.put("lng", -122.4194);
+        body.put("timestamp", 1500000000000L);
+        // a list response, read back the way a client would, without the classes: ids are 16 bytes in binary
+        Ride ride = new Ride("ECONOMY", 37.77, -122.41, 37.33, -121.89, 1500000000000L, 1500000300000L, null,
+                "CLOSED", 1250, UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        ride.setId(TimeOrderedIds.next());
+        for (DataFormat format : DataFormat.values()) {
+            RoutePoint point = format.read(format.write(body), RoutePoint.class);
+            assertEquals(format.name(), 37.7749f, point.getLat().floatValue(), 0);
+            assertEquals(format.name(), -122.4194f, point.getLng().floatValue(), 0);
+            assertEquals(format.name(), 1500000000000L, point.getTimestamp().longValue());
+
+            List<?> rides = format.read(format.write(Arrays.asList(ride, ride)), List.class);
+            assertEquals(format.name(), 2, rides.size());
+            Map<?, ?> read = (Map<?, ?>) rides.get(1);
+            assertEquals(format.name(), ride.getId(), uuid(read.get("id")));
+            assertEquals(format.name(), ride.getPassengerId(), uuid(read.get("passengerId")));
+            assertEquals(format.name(), "CLOSED", read.get("status"));
+            assertEquals(format.name(), 1500000300000L, ((Number) read.get("pickupTime")).longValue());
+            assertEquals(format.name(), 37.33, ((Number) read.get("endLat")).doubleValue(), 0);
+            assertNull(format.name(), read.get("dropOffTime"));
+        }
+    }
+
+    @Test
+    public void binaryFormatsAreSmallerThanJson() {
+        RoutePoint point = new RoutePoint(37.7749f, -122.4194f, 1500000000000L, TimeOrderedIds.next());
+        int json = DataFormat.JSON.write(point).length;
+        for (DataFormat format : DataFormat.values()) {
+            assertTrue(format.name(), !format.isBinary() || format.write(point).length < json);
+        }
+    }
+
+    private static UUID uuid(Object id) {
+        if (id instanceof byte[]) {
+            ByteBuffer bytes = ByteBuffer.wrap((byte[]) id);
+            return new UUID(bytes.getLong(), bytes.getLong());
+        }
+        return UUID.fromString((String) id);
+    }
+}
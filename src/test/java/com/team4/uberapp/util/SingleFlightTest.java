@@ -0,0 +1,138 @@
+package com.team4.uberapp.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+    private static final int CALLERS = 8;
+
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable);
+        threads.add(thread);
+        return thread;
+    });
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCallersShareOneLoad() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>("test-share");
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        List<Future<SingleFlight.Response>> calls = call(flight, CALLERS, key -> {
+            loads.incrementAndGet();
+            release.await();
+            return new SingleFlight.Response(200, key.getBytes("UTF-8"));
+        });
+        awaitWaiting(CALLERS);
+        release.countDown();
+
+        SingleFlight.Response first = calls.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<SingleFlight.Response> call : calls) {
+            assertSame(first, call.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, flight.getLoadCount());
+    }
+
+    @Test
+    public void failureReachesEveryCaller() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>("test-failure");
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("load failed");
+        List<Future<SingleFlight.Response>> calls = call(flight, CALLERS, key -> {
+            release.await();
+            throw failure;
+        });
+        awaitWaiting(CALLERS);
+        release.countDown();
+
+        for (Future<SingleFlight.Response> call : calls) {
+            try {
+                call.get(5, TimeUnit.SECONDS);
+                fail("the load failure was not thrown");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        assertEquals(1, flight.getLoadCount());
+    }
+
+    @Test
+    public void forgottenLoadIsNotJoined() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>("test-forget");
+        CountDownLatch release = new CountDownLatch(1);
+        SingleFlight.Response before = new SingleFlight.Response(200, new byte[0]);
+        List<Future<SingleFlight.Response>> stale = call(flight, 1, key -> {
+            release.await();
+            return before;
+        });
+        awaitWaiting(1);
+
+        // written meanwhile: the next caller loads again, without waiting for the load in flight
+        flight.forget("ride");
+        SingleFlight.Response after = new SingleFlight.Response(200, new byte[1]);
+        assertSame(after, flight.load("ride", key -> after));
+        assertEquals(2, flight.getLoadCount());
+
+        release.countDown();
+        assertSame(before, stale.get(0).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void completedLoadIsNotCached() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>("test-no-cache");
+        SingleFlight.Response first = flight.load("ride", key -> new SingleFlight.Response(200, new byte[0]));
+        SingleFlight.Response second = flight.load("ride", key -> new SingleFlight.Response(200, new byte[0]));
+        assertNotSame(first, second);
+        assertEquals(2, flight.getLoadCount());
+    }
+
+    private List<Future<SingleFlight.Response>> call(SingleFlight<String> flight, int callers,
+                                                     SingleFlight.Loader<String> loader) {
+        List<Future<SingleFlight.Response>> calls = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            calls.add(executor.submit(() -> flight.load("ride", loader)));
+        }
+        return calls;
+    }
+
+    // every caller is blocked: the one loading on the latch, the others on the load in flight
+    private void awaitWaiting(int callers) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (waiting() < callers && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(callers, waiting());
+    }
+
+    private int waiting() {
+        int waiting = 0;
+        for (Thread thread : threads) {
+            if (thread.getState() == Thread.State.WAITING || thread.getState() == Thread.State.TIMED_WAITING) {
+                waiting++;
+            }
+        }
+        return waiting;
+    }
+}
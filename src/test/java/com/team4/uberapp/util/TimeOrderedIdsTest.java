@@ -0,0 +1,79 @@
+package com.team4.uberapp.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeOrderedIdsTest {
+
+    @Test
+    public void idsAreVersion7WithTheRfcVariant() {
+        for (int i = 0; i < 1000; i++) {
+            UUID id = TimeOrderedIds.next();
+            assertEquals(7, id.version());
+            assertEquals(2, id.variant());
+        }
+    }
+
+    @Test
+    public void idsCarryTheirCreationTime() {
+        long before = System.currentTimeMillis();
+        UUID id = TimeOrderedIds.next();
+        long after = System.currentTimeMillis();
+        // the sequence may borrow the next milliseconds when it overflows
+        assertTrue(TimeOrderedIds.timestamp(id) >= before);
+        assertTrue(TimeOrderedIds.timestamp(id) <= after + 1000);
+    }
+
+    @Test
+    public void idsOfOneJvmStrictlyIncrease() {
+        // far more than the 4096 ids of one millisecond, the sequence overflows into the next ones
+        UUID previous = TimeOrderedIds.next();
+        for (int i = 0; i < 100000; i++) {
+            UUID id = TimeOrderedIds.next();
+            assertTrue(previous + " then " + id, id.getMostSignificantBits() > previous.getMostSignificantBits());
+            assertTrue(id.compareTo(previous) > 0);
+            previous = id;
+        }
+    }
+
+    @Test
+    public void concurrentIdsAreUnique() throws Exception {
+        int threads = 8;
+        final int perThread = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<UUID>>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit((Callable<List<UUID>>) () -> {
+                    List<UUID> ids = new ArrayList<>(perThread);
+                    for (int i = 0; i < perThread; i++) {
+                        ids.add(TimeOrderedIds.next());
+                    }
+                    return ids;
+                }));
+            }
+            Set<Long> prefixes = new HashSet<>();
+            for (Future<List<UUID>> future : futures) {
+                for (UUID id : future.get()) {
+                    // time & sequence alone are unique, whatever the random bits
+                    assertTrue(prefixes.add(id.getMostSignificantBits()));
+                }
+            }
+            assertEquals(threads * perThread, prefixes.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
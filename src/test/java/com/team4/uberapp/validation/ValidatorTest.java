@@ -0,0 +1,230 @@
+package com.team4.uberapp.validation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.team4.uberapp.car.Car;
+import com.team4.uberapp.domain.Validable;
+import com.team4.uberapp.driver.Driver;
+import com.team4.uberapp.passenger.Passenger;
+import com.team4.uberapp.ride.Ride;
+import com.team4.uberapp.ride.RoutePoint;
+import com.team4.uberapp.userSession.UserSession;
+import com.team4.uberapp.util.UberAppUtil;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Each rule type on the entities, their error codes, and the isValid() contract: true, or an Exception whose
+ * message is the json error report with errorCode & errorMsg of the first violation.
+ */
+public class ValidatorTest {
+
+    private static Car car() {
+        return new Car("Toyota", "Prius", "7XYZ123", "Sedan", 4, "white", "ECONOMY");
+    }
+
+    private static Passenger passenger() {
+        return new Passenger("Ann", "Lee", "ann@test.com", "secret", "1 Main St", "", "Mountain View", "CA", "94040",
+                "650-555-0100");
+    }
+
+    private static Driver driver() {
+        return new Driver("Bob", "Ray", "bob@test.com", "secret", "2 Main St", "", "Mountain View", "CA", "94040",
+                "650-555-0101", "D1234567", "CA");
+    }
+
+    private static Ride ride() {
+        return new Ride("ECONOMY", 37.77, -122.41, 37.79, -122.40, 1000L, 2000L, 3000L, "REQUESTED", 12,
+                UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+    }
+
+    private static RoutePoint routePoint() {
+        return new RoutePoint(37.77f, -122.41f, 1000L, UUID.randomUUID());
+    }
+
+    private static UserSession userSession() {
+        return new UserSession("ann@test.com", "secret");
+    }
+
+    private static List<Violation> violations(Object entity) {
+        return Validator.forClass(entity.getClass()).validate(entity);
+    }
+
+    private static Violation onlyViolation(Object entity) {
+        List<Violation> violations = violations(entity);
+        assertEquals(1, violations.size());
+        return violations.get(0);
+    }
+
+    private static void assertInvalid(Validable entity, int errorCode, String errorMsg) throws Exception {
+        try {
+            entity.isValid();
+            fail("isValid() should throw");
+        } catch (Exception e) {
+            JsonNode report = UberAppUtil.jsonMapper().readTree(e.getMessage());
+            assertEquals(errorCode, report.get("errorCode").asInt());
+            assertEquals(errorMsg, report.get("errorMsg").asText());
+        }
+    }
+
+    @Test
+    public void validEntitiesHaveNoViolation() throws Exception {
+        for (Validable entity : new Validable[]{car(), passenger(), driver(), ride(), routePoint(), userSession()}) {
+            assertTrue(violations(entity).isEmpty());
+            assertTrue(entity.isValid());
+        }
+    }
+
+    @Test
+    public void errorCodeOfEachEntity() {
+        assertEquals(1001, Validator.forClass(Driver.class).getErrorCode());
+        assertEquals(2001, Validator.forClass(Car.class).getErrorCode());
+        assertEquals(3001, Validator.forClass(Passenger.class).getErrorCode());
+        assertEquals(4001, Validator.forClass(Ride.class).getErrorCode());
+        assertEquals(4001, Validator.forClass(RoutePoint.class).getErrorCode());
+        assertEquals(5001, Validator.forClass(UserSession.class).getErrorCode());
+    }
+
+    @Test
+    public void lengthRejectsTooLongEmptyAndNull() throws Exception {
+        Car car = car();
+        car.setMake("12345678901234567890123456789012345678901234567890X");
+        assertEquals("make", onlyViolation(car).getField());
+        assertInvalid(car, 2001, "make at most 50 Characters");
+
+        car = car();
+        car.setColor("");
+        assertInvalid(car, 2001, "color at most 10 Characters");
+
+        car = car();
+        car.setLicense(null);
+        assertInvalid(car, 2001, "License Plate at most 10 Characters");
+
+        Driver driver = driver();
+        driver.setLicensedState("CAL");
+        assertInvalid(driver, 1001, "The licensedState length must be 2");
+
+        Passenger passenger = passenger();
+        passenger.setZip("9404");
+        assertInvalid(passenger, 3001, "The zip length must be 5");
+
+        UserSession session = userSession();
+        session.setEmail("");
+        assertInvalid(session, 5001, "email at most 50 Characters");
+    }
+
+    @Test
+    public void lengthWithoutMinAcceptsEmpty() throws Exception {
+        Passenger passenger = passenger();
+        passenger.setAddressLine2("");
+        assertTrue(passenger.isValid());
+        passenger.setAddressLine2(null);
+        assertInvalid(passenger, 3001, "The addressLine2 length should not greater than 100 Characters");
+    }
+
+    @Test
+    public void rangeRejectsOutOfBounds() throws Exception {
+        Car car = car();
+        car.setMaxPassengers(0);
+        assertEquals("maxPassengers", onlyViolation(car).getField());
+        assertInvalid(car, 2001, "maxPassengers should greater than 0");
+        car.setMaxPassengers(-3);
+        assertInvalid(car, 2001, "maxPassengers should greater than 0");
+        car.setMaxPassengers(1);
+        assertTrue(car.isValid());
+    }
+
+    @Test
+    public void oneOfRejectsUnknownAndNull() throws Exception {
+        Ride ride = ride();
+        ride.setRideType("LUXURY");
+        assertEquals("rideType", onlyViolation(ride).getField());
+        assertInvalid(ride, 4001, "The rideType should be ECONOMY, PREMIUM or EXECUTIVE");
+
+        ride = ride();
+        ride.setStatus(null);
+        assertInvalid(ride, 4001,
+                "The Ride status should be REQUESTED, AWAITING_DRIVER, DRIVE_ASSIGNED, IN_PROGRESS, ARRIVED or CLOSED");
+
+        // values are case sensitive, as the list lookup was
+        Car car = car();
+        car.setValidRideTypes("economy");
+        assertInvalid(car, 2001, "not validRideTypes");
+    }
+
+    @Test
+    public void matchesRequiresTheWholeValue() throws Exception {
+        Passenger passenger = passenger();
+        passenger.setEmailAddress("ann.test.com");
+        assertEquals("emailAddress", onlyViolation(passenger).getField());
+        assertInvalid(passenger, 3001, "Invalid emailAddress");
+
+        passenger = passenger();
+        passenger.setPhoneNumber("650-555-01000");
+        assertInvalid(passenger, 3001, "Invalid phone #");
+
+        Driver driver = driver();
+        driver.setPhoneNumber(null);
+        assertInvalid(driver, 1001, "Invalid phone #");
+
+        driver = driver();
+        driver.setEmailAddress("bob@");
+        assertInvalid(driver, 1001, "Invalid emailAddress");
+    }
+
+    @Test
+    public void requiredRejectsNullAndEmpty() throws Exception {
+        RoutePoint point = new RoutePoint(37.77f, -122.41f, null, UUID.randomUUID());
+        assertEquals("timestamp", onlyViolation(point).getField());
+        assertInvalid(point, 4001, "timestamp should not be empty");
+
+        UserSession session = userSession();
+        session.setPassword(null);
+        assertInvalid(session, 5001, "Password is empty");
+        session.setPassword("");
+        assertInvalid(session, 5001, "Password is empty");
+    }
+
+    @Test
+    public void allViolationsAreListedInFieldOrder() throws Exception {
+        Car car = car();
+        car.setColor(null);
+        car.setModel("");
+        car.setMaxPassengers(0);
+        List<Violation> violations = violations(car);
+        assertEquals(3, violations.size());
+        assertEquals("model", violations.get(0).getField());
+        assertEquals("maxPassengers", violations.get(1).getField());
+        assertEquals("color", violations.get(2).getField());
+        for (Violation violation : violations) {
+            assertEquals(2001, violation.getErrorCode());
+        }
+
+        try {
+            car.isValid();
+            fail("isValid() should throw");
+        } catch (Exception e) {
+            JsonNode report = UberAppUtil.jsonMapper().readTree(e.getMessage());
+            assertEquals(2001, report.get("errorCode").asInt());
+            assertEquals("Model at most 50 Characters", report.get("errorMsg").asText());
+            assertEquals(3, report.get("violations").size());
+            assertEquals("color", report.get("violations").get(2).get("field").asText());
+        }
+    }
+
+    @Test
+    public void singleViolationReportIsTheErrorReport() throws Exception {
+        UserSession session = userSession();
+        session.setPassword("");
+        Violation violation = onlyViolation(session);
+        JsonNode report = UberAppUtil.jsonMapper().readTree(violation.getReport());
+        assertEquals(5001, report.get("errorCode").asInt());
+        assertEquals("Password is empty", report.get("errorMsg").asText());
+        assertEquals("password", report.get("violations").get(0).get("field").asText());
+    }
+}